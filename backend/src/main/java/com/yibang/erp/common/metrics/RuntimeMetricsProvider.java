@@ -0,0 +1,20 @@
+package com.yibang.erp.common.metrics;
+
+import java.util.Map;
+
+/**
+ * 运行时指标提供者
+ * 缓存、缓冲写入等组件实现该接口后，指标会通过监控接口统一输出
+ */
+public interface RuntimeMetricsProvider {
+
+    /**
+     * 指标分组名称
+     */
+    String getMetricsName();
+
+    /**
+     * 当前指标快照
+     */
+    Map<String, Object> getMetrics();
+}
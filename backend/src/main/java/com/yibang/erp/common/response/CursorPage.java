@@ -0,0 +1,57 @@
+package com.yibang.erp.common.response;
+
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+
+/**
+ * 游标分页结果类
+ * 在MyBatis-Plus分页对象的基础上增加下一页游标，前端通过nextCursor继续向后翻页
+ *
+ * @param <T> 数据类型
+ */
+public class CursorPage<T> extends Page<T> {
+
+    /**
+     * 下一页游标（不透明字符串），没有更多数据时为null
+     */
+    private String nextCursor;
+
+    /**
+     * 是否还有下一页
+     */
+    private boolean hasMore;
+
+    /**
+     * 总数是否为非精确值（缓存或未统计）
+     */
+    private boolean totalApproximate;
+
+    public CursorPage() {}
+
+    public CursorPage(long size) {
+        super(1, size);
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+
+    public boolean isTotalApproximate() {
+        return totalApproximate;
+    }
+
+    public void setTotalApproximate(boolean totalApproximate) {
+        this.totalApproximate = totalApproximate;
+    }
+}
@@ -0,0 +1,118 @@
+package com.yibang.erp.common.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 线程安全的布隆过滤器
+ * mightContain返回false时一定不存在，返回true时可能误判；位数组可以导出和合并，用于多节点间同步
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+
+    private final int bitSize;
+
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions 预计元素数
+     * @param falsePositiveRate  期望误判率
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        long n = Math.max(1, expectedInsertions);
+        double p = Math.min(Math.max(falsePositiveRate, 1e-6), 0.5);
+        long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        // 位数按64对齐
+        int words = (int) Math.min(Integer.MAX_VALUE / 64, Math.max(1, (m + 63) / 64));
+        this.bits = new AtomicLongArray(words);
+        this.bitSize = words * 64;
+        this.hashCount = (int) Math.max(1, Math.round((double) bitSize / n * Math.log(2)));
+    }
+
+    public void put(String value) {
+        long hash = hash64(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            int index = ((h1 + i * h2) & Integer.MAX_VALUE) % bitSize;
+            setBit(index);
+        }
+    }
+
+    public boolean mightContain(String value) {
+        long hash = hash64(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            int index = ((h1 + i * h2) & Integer.MAX_VALUE) % bitSize;
+            if ((bits.get(index >>> 6) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 导出位数组
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(bits.length() * 8);
+        for (int i = 0; i < bits.length(); i++) {
+            buffer.putLong(bits.get(i));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 合并另一个相同大小的过滤器导出的位数组
+     * @return 大小不一致（配置变更过）时不合并，返回false
+     */
+    public boolean merge(byte[] data) {
+        if (data == null || data.length != bits.length() * 8) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        for (int i = 0; i < bits.length(); i++) {
+            long other = buffer.getLong();
+            if (other != 0) {
+                bits.getAndAccumulate(i, other, (a, b) -> a | b);
+            }
+        }
+        return true;
+    }
+
+    public int getBitSize() {
+        return bitSize;
+    }
+
+    private void setBit(int index) {
+        long mask = 1L << index;
+        int word = index >>> 6;
+        long current;
+        do {
+            current = bits.get(word);
+            if ((current & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(word, current, current | mask));
+    }
+
+    /**
+     * FNV-1a后再做一次murmur3的fmix64混淆
+     */
+    private static long hash64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
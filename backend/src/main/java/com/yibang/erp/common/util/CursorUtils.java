@@ -0,0 +1,77 @@
+package com.yibang.erp.common.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * 游标分页工具类
+ * 将排序键(created_at, id)编码为不透明的URL安全字符串，避免前端依赖游标内部结构
+ */
+public class CursorUtils {
+
+    private static final String SEPARATOR = "|";
+
+    /**
+     * 编码游标
+     */
+    public static String encode(LocalDateTime createdAt, Long id) {
+        if (createdAt == null || id == null) {
+            return null;
+        }
+        String raw = createdAt + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解码游标
+     *
+     * @throws IllegalArgumentException 游标格式不正确
+     */
+    public static Cursor decode(String cursor) {
+        if (cursor == null) {
+            throw new IllegalArgumentException("无效的分页游标: null");
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int index = raw.lastIndexOf(SEPARATOR);
+            return new Cursor(LocalDateTime.parse(raw.substring(0, index)), Long.parseLong(raw.substring(index + 1)));
+        } catch (Exception e) {
+            throw new IllegalArgumentException("无效的分页游标: " + cursor);
+        }
+    }
+
+    /**
+     * 解码游标，格式不正确时返回null
+     */
+    public static Cursor tryDecode(String cursor) {
+        try {
+            return decode(cursor);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 游标对应的排序键
+     */
+    public static class Cursor {
+
+        private final LocalDateTime createdAt;
+
+        private final Long id;
+
+        public Cursor(LocalDateTime createdAt, Long id) {
+            this.createdAt = createdAt;
+            this.id = id;
+        }
+
+        public LocalDateTime getCreatedAt() {
+            return createdAt;
+        }
+
+        public Long getId() {
+            return id;
+        }
+    }
+}
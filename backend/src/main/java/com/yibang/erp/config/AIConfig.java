@@ -47,4 +47,54 @@ public class AIConfig {
      * 请求超时时间（毫秒）
      */
     private Integer timeout = 130000;
+
+    /**
+     * 每个API Key每秒允许的请求数
+     */
+    private Double requestsPerSecond = 10.0;
+
+    /**
+     * 令牌桶容量（允许的突发请求数）
+     */
+    private Integer burstCapacity = 20;
+
+    /**
+     * AI Excel行识别的最大并发请求数
+     */
+    private Integer recognitionConcurrency = 8;
+
+    /**
+     * AI Excel行识别每个提示词包含的行数，1表示逐行识别
+     */
+    private Integer recognitionBatchSize = 10;
+
+    /**
+     * AI Excel是否先识别列映射，能按列映射直接投影的行不再调用AI
+     */
+    private Boolean columnMappingFirst = true;
+
+    /**
+     * 是否缓存AI识别和商品匹配结果
+     */
+    private Boolean cacheEnabled = true;
+
+    /**
+     * AI结果在Redis中的保留时间（小时）
+     */
+    private Integer cacheTtlHours = 168;
+
+    /**
+     * AI结果本地缓存的最大条目数
+     */
+    private Integer cacheLocalMaxSize = 10000;
+
+    /**
+     * AI结果本地缓存的保留时间（分钟）
+     */
+    private Integer cacheLocalTtlMinutes = 30;
+
+    /**
+     * AI Excel解析线程与处理线程之间的行队列容量，队列满时解析线程等待
+     */
+    private Integer streamQueueCapacity = 500;
 }
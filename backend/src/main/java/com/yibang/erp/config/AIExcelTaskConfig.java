@@ -0,0 +1,83 @@
+package com.yibang.erp.config;
+
+import jakarta.annotation.PostConstruct;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+/**
+ * AI Excel任务队列配置
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ai.excel.task")
+public class AIExcelTaskConfig {
+
+    /**
+     * 本节点同时处理的任务数（专用线程池大小）
+     */
+    private Integer workerThreads = 4;
+
+    /**
+     * 单个销售公司在所有节点上同时处理的任务数，认领任务时按数据库中处理中的任务数判断；
+     * 多个节点在同一时刻认领同一公司的任务时可能短暂超出一个
+     */
+    private Integer perCompanyConcurrency = 2;
+
+    /**
+     * 拉取待处理任务的间隔（毫秒）
+     */
+    private Long pollIntervalMillis = 2000L;
+
+    /**
+     * 处理中任务的心跳间隔（毫秒）
+     */
+    private Long heartbeatIntervalMillis = 60000L;
+
+    /**
+     * 处理中任务超过该时间没有心跳即视为所在节点已退出，重新放回队列（分钟）
+     */
+    private Integer staleTimeoutMinutes = 10;
+
+    /**
+     * 部署的节点数，大于1时任务可能被其它节点认领，必须显式配置共享的storageDir
+     */
+    private Integer clusterNodes = 1;
+
+    /**
+     * 上传文件的存储目录，任务完成或取消后删除；未配置时单节点使用临时目录，多节点部署时拒绝启动
+     */
+    private String storageDir;
+
+    /**
+     * 任务进度写入数据库的间隔（毫秒）
+     */
+    private Long progressFlushIntervalMillis = 2000L;
+
+    /**
+     * 距上次写入累计变化达到该行数时立即写入数据库
+     */
+    private Integer progressFlushRows = 500;
+
+    /**
+     * 任务进度在Redis中的保留时间（小时）
+     */
+    private Integer progressRedisTtlHours = 24;
+
+    /**
+     * 订单、订单项和任务详情批量写入的行数
+     */
+    private Integer persistBatchSize = 200;
+
+    @PostConstruct
+    public void validate() {
+        if (StringUtils.hasText(storageDir)) {
+            return;
+        }
+        if (clusterNodes != null && clusterNodes > 1) {
+            throw new IllegalStateException("多节点部署时必须配置共享的上传文件目录 ai.excel.task.storage-dir");
+        }
+        storageDir = System.getProperty("java.io.tmpdir") + "/yibang-erp/ai-excel";
+    }
+}
@@ -0,0 +1,55 @@
+package com.yibang.erp.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 后台任务线程池配置
+ * 重任务使用独立的有界线程池，不与HTTP请求线程和默认@Async线程池共用
+ */
+@Configuration
+@EnableScheduling
+public class AsyncExecutorConfig {
+
+    /**
+     * AI Excel任务线程池
+     * 任务由AIExcelTaskDispatcher按空闲线程数认领后提交，队列只做兜底，满了直接拒绝由调度器放回任务队列
+     */
+    @Bean(name = "aiExcelTaskExecutor")
+    public ThreadPoolTaskExecutor aiExcelTaskExecutor(AIExcelTaskConfig taskConfig) {
+        int workerThreads = Math.max(1, taskConfig.getWorkerThreads());
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workerThreads);
+        executor.setMaxPoolSize(workerThreads);
+        executor.setQueueCapacity(workerThreads);
+        executor.setThreadNamePrefix("ai-excel-task-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        // 停机时中断处理中的任务，等待它们把任务放回队列；超时未退出的由其它节点或重启后按心跳超时恢复
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Redis缓存后台刷新线程池
+     * 刷新只是提前更新即将过期的缓存，队列满了直接丢弃，下次读到旧值时会再次提交
+     */
+    @Bean(name = "cacheRefreshExecutor")
+    public ThreadPoolTaskExecutor cacheRefreshExecutor(CacheLoadConfig loadConfig) {
+        int refreshThreads = Math.max(1, loadConfig.getRefreshThreads());
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(refreshThreads);
+        executor.setMaxPoolSize(refreshThreads);
+        executor.setQueueCapacity(Math.max(1, loadConfig.getRefreshQueueCapacity()));
+        executor.setThreadNamePrefix("cache-refresh-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,51 @@
+package com.yibang.erp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Redis缓存加载配置
+ * 缓存未命中时每个key在本节点只有一个线程查询数据库；过期时间加随机偏移，避免同一时刻集中过期；
+ * 开启过期后仍可用时，缓存在过期后的一段时间内继续返回旧值，同时在后台刷新
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "cache.load")
+public class CacheLoadConfig {
+
+    /**
+     * 过期时间的随机偏移比例，0.1表示在原过期时间的±10%内随机
+     */
+    private Double ttlJitterRatio = 0.1;
+
+    /**
+     * 是否开启过期后仍可用（stale-while-revalidate）
+     */
+    private Boolean staleWhileRevalidate = true;
+
+    /**
+     * 过期后仍可返回旧值的时长（秒），Redis中的实际过期时间为缓存过期时间加该时长
+     */
+    private Integer staleSeconds = 120;
+
+    /**
+     * 查询不到的结果（空值标记）的缓存时长（秒）
+     */
+    private Integer absentTtlSeconds = 60;
+
+    /**
+     * 后台刷新线程数
+     */
+    private Integer refreshThreads = 2;
+
+    /**
+     * 后台刷新队列容量，满了丢弃刷新任务，下次读到旧值时再提交
+     */
+    private Integer refreshQueueCapacity = 500;
+
+    /**
+     * 等待其它线程加载同一个key的最长时间（毫秒），超时后自行查询数据库
+     */
+    private Long loadWaitTimeoutMillis = 3000L;
+}
@@ -0,0 +1,25 @@
+package com.yibang.erp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Redis缓存值序列化配置
+ * 商品、客户、用户、仓库及其列表写入时使用紧凑格式，其它值和旧数据仍按带类型信息的JSON处理
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "cache.serializer")
+public class CacheSerializerConfig {
+
+    /**
+     * 写入格式：compact（紧凑格式）或json（原格式），两种格式都可以读取，滚动升级或回退时可先切回json
+     */
+    private String format = "compact";
+
+    /**
+     * 正文超过该字节数时压缩，小于等于0表示不压缩
+     */
+    private Integer compressThresholdBytes = 1024;
+}
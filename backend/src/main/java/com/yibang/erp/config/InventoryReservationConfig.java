@@ -0,0 +1,41 @@
+package com.yibang.erp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 库存预留层配置
+ * 开启后发货扣减、预留和释放先在Redis中用Lua脚本原子完成，库存变更和操作记录按批异步写入数据库，
+ * 并定时与数据库对账
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "inventory.reservation")
+public class InventoryReservationConfig {
+
+    /**
+     * 是否开启库存预留层
+     */
+    private Boolean enabled = false;
+
+    /**
+     * 每次从变更流水中取出写入数据库的条数
+     */
+    private Integer flushBatchSize = 500;
+
+    /**
+     * 每次定时写入最多处理的批数，剩余的留到下次
+     */
+    private Integer maxFlushBatches = 20;
+
+    /**
+     * 写入和对账互斥锁的超时时间（秒），节点异常退出后锁在超时后释放
+     */
+    private Integer lockSeconds = 30;
+
+    /**
+     * 对账时每批比对的库存条数
+     */
+    private Integer reconcileBatchSize = 200;
+}
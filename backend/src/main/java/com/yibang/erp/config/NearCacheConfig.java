@@ -0,0 +1,35 @@
+package com.yibang.erp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 进程内近端缓存配置
+ * 商品、客户、用户、仓库的Redis缓存前面再加一级本地缓存，变更时通过Redis发布订阅通知各节点失效
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "cache.near")
+public class NearCacheConfig {
+
+    /**
+     * 是否启用
+     */
+    private Boolean enabled = true;
+
+    /**
+     * 最多缓存的条目数，超出后按LRU淘汰
+     */
+    private Integer maxSize = 20000;
+
+    /**
+     * 本地条目的存活时间（秒），失效通知丢失时的兜底
+     */
+    private Integer ttlSeconds = 60;
+
+    /**
+     * 分段数，按key哈希分段加锁，降低并发读取的锁竞争
+     */
+    private Integer segments = 16;
+}
@@ -0,0 +1,88 @@
+package com.yibang.erp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 订单消息消费配置
+ * 每个队列单独配置消费者数、预取数和有序通道数
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "orders.consumer")
+public class OrderConsumerConfig {
+
+    /**
+     * 订单创建队列
+     */
+    private QueueSettings create = new QueueSettings();
+
+    /**
+     * 地址修改队列
+     */
+    private QueueSettings address = new QueueSettings();
+
+    /**
+     * 物流信息修改队列
+     */
+    private QueueSettings logistics = new QueueSettings();
+
+    /**
+     * 订单状态修改队列
+     */
+    private QueueSettings status = new QueueSettings();
+
+    /**
+     * 按队列名取配置，未配置的队列返回null
+     */
+    public QueueSettings getQueueSettings(String queueName) {
+        switch (queueName) {
+            case RabbitMQConfig.ORDER_CREATE_QUEUE:
+                return create;
+            case RabbitMQConfig.ADDRESS_UPDATE_QUEUE:
+                return address;
+            case RabbitMQConfig.LOGISTICS_UPDATE_QUEUE:
+                return logistics;
+            case RabbitMQConfig.ORDER_STATUS_UPDATE_QUEUE:
+                return status;
+            default:
+                return null;
+        }
+    }
+
+    @Data
+    public static class QueueSettings {
+
+        /**
+         * 每个节点的消费者数；大于1时同一订单的消息可能被不同消费者并行拿到，不再保证顺序
+         */
+        private Integer consumers = 1;
+
+        /**
+         * 每个消费者未确认消息的预取数
+         */
+        private Integer prefetch = 100;
+
+        /**
+         * 有序通道数：按订单号哈希分配通道，同一订单的消息在同一通道内按序处理，不同订单并行；
+         * 为1时在消费者线程内直接处理
+         */
+        private Integer lanes = 8;
+
+        /**
+         * 是否批量消费：一次取一批消息，合并幂等检查和订单写入，整批确认；目前只有订单创建队列支持
+         */
+        private Boolean batchEnabled = false;
+
+        /**
+         * 批量消费时每批最多的消息数
+         */
+        private Integer batchSize = 50;
+
+        /**
+         * 批量消费时凑批的最长等待时间（毫秒），到时间后不足一批也会处理
+         */
+        private Long batchReceiveTimeoutMillis = 200L;
+    }
+}
@@ -217,10 +217,11 @@ public class RabbitMQConfig {
 
     /**
      * 消费者容器工厂配置
+     * 订单队列的消费者数和预取数按OrderConsumerConfig逐个队列设置，其它队列使用下面的默认值
      */
     @Bean
     public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(
-            ConnectionFactory connectionFactory) {
+            ConnectionFactory connectionFactory, OrderConsumerConfig consumerConfig) {
         SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
         factory.setConnectionFactory(connectionFactory);
         factory.setMessageConverter(messageConverter());
@@ -234,7 +235,49 @@ public class RabbitMQConfig {
         
         // 设置预取数量
         factory.setPrefetchCount(1);
+
+        // 按队列覆盖消费者数和预取数
+        factory.setContainerCustomizer(container -> {
+            String[] queueNames = container.getQueueNames();
+            OrderConsumerConfig.QueueSettings settings =
+                    queueNames.length == 1 ? consumerConfig.getQueueSettings(queueNames[0]) : null;
+            if (settings == null) {
+                return;
+            }
+            int consumers = Math.max(1, settings.getConsumers());
+            container.setMaxConcurrentConsumers(consumers);
+            container.setConcurrentConsumers(consumers);
+            container.setPrefetchCount(Math.max(1, settings.getPrefetch()));
+        });
         
         return factory;
     }
-}
\ No newline at end of file
+
+    /**
+     * 订单创建队列的批量消费者容器工厂
+     * 每次最多取batchSize条或等待batchReceiveTimeoutMillis后交给监听方法一起处理，由监听方法整批确认
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory orderBatchListenerContainerFactory(
+            ConnectionFactory connectionFactory, OrderConsumerConfig consumerConfig) {
+        OrderConsumerConfig.QueueSettings settings = consumerConfig.getCreate();
+        int batchSize = Math.max(1, settings.getBatchSize());
+
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(messageConverter());
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+
+        int consumers = Math.max(1, settings.getConsumers());
+        factory.setConcurrentConsumers(consumers);
+        factory.setMaxConcurrentConsumers(consumers);
+        // 预取数不能小于批大小，否则凑不满一批
+        factory.setPrefetchCount(Math.max(settings.getPrefetch(), batchSize));
+
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(Math.max(1L, settings.getBatchReceiveTimeoutMillis()));
+        return factory;
+    }
+}
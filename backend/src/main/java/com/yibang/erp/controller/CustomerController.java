@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.yibang.erp.common.response.PageResult;
 import com.yibang.erp.domain.entity.Customer;
 import com.yibang.erp.domain.service.CustomerService;
+import com.yibang.erp.infrastructure.repository.CustomerRedisRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -29,13 +30,16 @@ public class CustomerController {
     @Autowired
     private CustomerService customerService;
 
+    @Autowired
+    private CustomerRedisRepository customerRedisRepository;
+
     /**
      * 创建客户
      */
     @PostMapping
     @PreAuthorize("hasAnyRole('SYSTEM_ADMIN', 'SALES')")
     public ResponseEntity<Customer> createCustomer(@Valid @RequestBody Customer customer) {
-        customerRepository.insert(customer);
+        customerRedisRepository.insert(customer);
         return ResponseEntity.ok(customer);
     }
 
@@ -48,7 +52,7 @@ public class CustomerController {
             @PathVariable Long customerId,
             @Valid @RequestBody Customer customer) {
         customer.setId(customerId);
-        customerRepository.updateById(customer);
+        customerRedisRepository.updateById(customer);
         return ResponseEntity.ok(customer);
     }
 
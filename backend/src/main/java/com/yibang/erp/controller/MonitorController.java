@@ -1,5 +1,6 @@
 package com.yibang.erp.controller;
 
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
 import com.yibang.erp.domain.dto.SystemMetricsDTO;
 import com.yibang.erp.domain.dto.ServiceStatusDTO;
 import com.yibang.erp.domain.dto.DatabaseStatusDTO;
@@ -9,7 +10,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 系统监控控制器
@@ -23,6 +26,8 @@ public class MonitorController {
 
     private final MonitorService monitorService;
 
+    private final List<RuntimeMetricsProvider> runtimeMetricsProviders;
+
     /**
      * 手动采集系统信息
      */
@@ -86,6 +91,23 @@ public class MonitorController {
         }
     }
 
+    /**
+     * 获取各运行时组件（缓存、队列等）的内存指标
+     */
+    @GetMapping("/runtime-metrics")
+    public ResponseEntity<Map<String, Map<String, Object>>> getRuntimeMetrics() {
+        try {
+            Map<String, Map<String, Object>> metrics = new LinkedHashMap<>();
+            for (RuntimeMetricsProvider provider : runtimeMetricsProviders) {
+                metrics.put(provider.getMetricsName(), provider.getMetrics());
+            }
+            return ResponseEntity.ok(metrics);
+        } catch (Exception e) {
+            log.error("获取运行时指标失败", e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     /**
      * 轻量级健康检查
      */
@@ -1,5 +1,6 @@
 package com.yibang.erp.controller;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.rabbitmq.client.Channel;
 import com.yibang.erp.config.RabbitMQConfig;
 import com.yibang.erp.domain.dto.*;
@@ -7,14 +8,21 @@ import com.yibang.erp.domain.entity.Customer;
 import com.yibang.erp.domain.entity.MessageProcessingLog;
 import com.yibang.erp.domain.entity.User;
 import com.yibang.erp.domain.service.OrderService;
+import com.yibang.erp.infrastructure.mq.OrderMessageLanes;
+import com.yibang.erp.infrastructure.repository.CustomerRedisRepository;
 import com.yibang.erp.infrastructure.repository.CustomerRepository;
 import com.yibang.erp.infrastructure.repository.MessageProcessingLogRepository;
 import com.yibang.erp.infrastructure.repository.UserRedisRepository;
+import com.yibang.erp.service.MessageIdempotencyService;
 import com.yibang.erp.service.MessageLogService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Component;
@@ -22,8 +30,13 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Component
@@ -43,12 +56,29 @@ public class OrderApiController {
 
     @Autowired
     private CustomerRepository customerRepository;
+
+    @Autowired
+    private CustomerRedisRepository customerRedisRepository;
     @Autowired
     private UserRedisRepository userRedisRepository;
 
     @Autowired
     private MessageLogService messageLogService;
 
+    @Autowired
+    private MessageIdempotencyService messageIdempotencyService;
+
+    @Autowired
+    private OrderMessageLanes orderMessageLanes;
+
+    @Autowired
+    private Jackson2JsonMessageConverter messageConverter;
+
+    // 通过代理调用，保证在通道线程内处理时事务仍然生效
+    @Autowired
+    @Lazy
+    private OrderApiController self;
+
     // RabbitTemplate 用于发送消息（如需要）
     // @Autowired
     // private RabbitTemplate rabbitTemplate;
@@ -57,9 +87,23 @@ public class OrderApiController {
 
 
     /**
-     * 消费订单状态修改消息
+     * 接收订单状态修改消息，按订单号分配到有序通道处理
      */
     @RabbitListener(queues = RabbitMQConfig.ORDER_STATUS_UPDATE_QUEUE)
+    public void onCloseOrderMessage(OrderStatusChangeMessage orderStatusChangeMessage,
+                                    @Header(value = "x-idempotency-key", required = true) String xIdempotencyKey,
+                                    @Header(value = "x-correlation-id", required = true) String xCorrelationId,
+                                    @Header(value = "messageId", required = false) String messageId,
+                                    Channel channel,
+                                    @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+        orderMessageLanes.execute(RabbitMQConfig.ORDER_STATUS_UPDATE_QUEUE, orderStatusChangeMessage.getOrderId(),
+                channel, deliveryTag, laneChannel -> self.handleCloseOrderMessage(orderStatusChangeMessage, xIdempotencyKey,
+                        xCorrelationId, messageId, laneChannel, deliveryTag));
+    }
+
+    /**
+     * 消费订单状态修改消息
+     */
     @Transactional(rollbackFor = Exception.class)
     public void handleCloseOrderMessage(OrderStatusChangeMessage orderStatusChangeMessage,
                                         @Header(value = "x-idempotency-key", required = true) String xIdempotencyKey,
@@ -86,6 +130,7 @@ public class OrderApiController {
                 // 发送ACK，确认消息已处理（重复消息）
                 channel.basicAck(deliveryTag, false);
                 log.info("重复处理消息已确认: messageId={}", messageId);
+                return;
             }
 
             //这里可以直接复用
@@ -135,9 +180,23 @@ public class OrderApiController {
 
 
     /**
-     * 消费订单地址修改消息
+     * 接收订单地址修改消息，按订单号分配到有序通道处理
      */
     @RabbitListener(queues = RabbitMQConfig.ADDRESS_UPDATE_QUEUE)
+    public void onAddressChangeMessage(AddressChangeMessage addressChangeMessage,
+                                       @Header(value = "x-idempotency-key", required = true) String xIdempotencyKey,
+                                       @Header(value = "x-correlation-id", required = true) String xCorrelationId,
+                                       @Header(value = "messageId", required = false) String messageId,
+                                       Channel channel,
+                                       @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+        orderMessageLanes.execute(RabbitMQConfig.ADDRESS_UPDATE_QUEUE, addressChangeMessage.getOrderId(),
+                channel, deliveryTag, laneChannel -> self.handleAddressChangeMessage(addressChangeMessage, xIdempotencyKey,
+                        xCorrelationId, messageId, laneChannel, deliveryTag));
+    }
+
+    /**
+     * 消费订单地址修改消息
+     */
     @Transactional(rollbackFor = Exception.class)
     public void handleAddressChangeMessage(AddressChangeMessage addressChangeMessage,
                                            @Header(value = "x-idempotency-key", required = true) String xIdempotencyKey,
@@ -164,6 +223,7 @@ public class OrderApiController {
                 // 发送ACK，确认消息已处理（重复消息）
                 channel.basicAck(deliveryTag, false);
                 log.info("重复处理消息已确认: messageId={}", messageId);
+                return;
             }
 
             if (isAddressChangeMessageExists(xIdempotencyKey)) {
@@ -211,10 +271,27 @@ public class OrderApiController {
     }
 
 
+    /**
+     * 接收订单创建消息，按买家（没有时用订单号、来源订单号）分配到有序通道处理
+     * 同一买家的订单串行处理，避免并发查找或创建同一个客户
+     */
+    @RabbitListener(queues = RabbitMQConfig.ORDER_CREATE_QUEUE,
+            autoStartup = "#{!${orders.consumer.create.batch-enabled:false}}")
+    public void onOrderMessage(OrderMessage message,
+                               @Header(value = "x-idempotency-key", required = true) String xIdempotencyKey,
+                               @Header(value = "x-correlation-id", required = true) String xCorrelationId,
+                               @Header(value = "messageId", required = false) String messageId,
+                               Channel channel,
+                               @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+        String laneKey = message.getUserId() != null ? message.getUserId()
+                : message.getOrderId() != null ? message.getOrderId() : message.getSourceOrderId();
+        orderMessageLanes.execute(RabbitMQConfig.ORDER_CREATE_QUEUE, laneKey, channel, deliveryTag,
+                laneChannel -> self.handleOrderMessage(message, xIdempotencyKey, xCorrelationId, messageId, laneChannel, deliveryTag));
+    }
+
     /**
      * 消费订单创建消息
      */
-    @RabbitListener(queues = RabbitMQConfig.ORDER_CREATE_QUEUE)
     @Transactional(rollbackFor = Exception.class)
     public void handleOrderMessage(OrderMessage message,
                                    @Header(value = "x-idempotency-key", required = true) String xIdempotencyKey,
@@ -239,6 +316,8 @@ public class OrderApiController {
             // 1. 消息幂等性由MQ层面处理，这里直接处理业务逻辑
 
             // 2. 使用Redis分布式锁确保消息处理不重复（使用messageId）
+            // 有序通道只在本节点内串行；连接断开后消息会在其它节点重新投递，原处理尚未提交时幂等查询查不到订单，
+            // 这里的锁防止两个节点同时创建同一订单，处理结束即释放
             String lockKeyToUse = "order:message:lock:" + messageId;
 
             Boolean locked = redisTemplate.opsForValue()
@@ -316,6 +395,139 @@ public class OrderApiController {
         }
     }
 
+    /**
+     * 批量消费订单创建消息（orders.consumer.create.batch-enabled开启时替代onOrderMessage）
+     * 整批只做一次幂等查询，订单在同一事务内批量写入，处理日志一次写入，最后整批确认；
+     * 无法解析或处理失败的消息单独拒绝进入死信队列
+     */
+    @RabbitListener(queues = RabbitMQConfig.ORDER_CREATE_QUEUE,
+            containerFactory = "orderBatchListenerContainerFactory",
+            autoStartup = "${orders.consumer.create.batch-enabled:false}")
+    public void onOrderMessages(List<Message> messages, Channel channel) {
+        List<BatchOrderMessage> batch = new ArrayList<>();
+        Set<String> batchMessageIds = new HashSet<>();
+        long ackTag = -1;
+
+        // 1. 解析消息，无法解析的消息直接拒绝
+        for (Message amqpMessage : messages) {
+            long deliveryTag = amqpMessage.getMessageProperties().getDeliveryTag();
+            try {
+                String xIdempotencyKey = amqpMessage.getMessageProperties().getHeader("x-idempotency-key");
+                String xCorrelationId = amqpMessage.getMessageProperties().getHeader("x-correlation-id");
+                if (xIdempotencyKey == null || xCorrelationId == null) {
+                    throw new IllegalArgumentException("缺少x-idempotency-key或x-correlation-id消息头");
+                }
+                amqpMessage.getMessageProperties().setInferredArgumentType(OrderMessage.class);
+                Object payload = messageConverter.fromMessage(amqpMessage);
+                if (!(payload instanceof OrderMessage)) {
+                    throw new IllegalArgumentException("消息内容不是订单消息");
+                }
+                OrderMessage message = (OrderMessage) payload;
+                message.setIdempotencyKey(xCorrelationId);
+
+                // 同一批内的重复投递只处理一次
+                if (!batchMessageIds.add(xIdempotencyKey)) {
+                    log.warn("批内重复消息，跳过: messageId={}", xIdempotencyKey);
+                    ackTag = Math.max(ackTag, deliveryTag);
+                    continue;
+                }
+                batch.add(new BatchOrderMessage(xIdempotencyKey, xCorrelationId, message, deliveryTag));
+            } catch (Exception e) {
+                log.error("订单消息解析失败，进入死信队列: deliveryTag={}", deliveryTag, e);
+                rejectMessage(channel, deliveryTag);
+            }
+        }
+
+        List<MessageProcessingLog> processingLogs = new ArrayList<>();
+        try {
+            // 2. 一次查询整批已处理过的消息
+            Set<String> processedKeys = findProcessedOrderMessages(batch);
+            List<BatchOrderMessage> pending = new ArrayList<>();
+            for (BatchOrderMessage item : batch) {
+                if (processedKeys.contains(item.messageId) || processedKeys.contains(item.correlationId)) {
+                    log.warn("订单已存在，跳过: xCorrelationId={}", item.correlationId);
+                    item.settled = true;
+                    ackTag = Math.max(ackTag, item.deliveryTag);
+                    continue;
+                }
+                try {
+                    item.request = convertToOrderCreateRequest(item.message);
+                    pending.add(item);
+                } catch (Exception e) {
+                    log.error("处理订单消息失败: messageId={}", item.messageId, e);
+                    processingLogs.add(messageLogService.buildOrderMessageLog(item.messageId, item.message,
+                            RabbitMQConfig.ORDER_CREATE_QUEUE, "FAILED", "处理失败: " + e.getMessage()));
+                    item.settled = true;
+                    rejectMessage(channel, item.deliveryTag);
+                }
+            }
+
+            // 3. 同一事务内批量创建订单，整批失败时逐条创建，只拒绝真正失败的消息
+            List<String> results = null;
+            if (!pending.isEmpty()) {
+                try {
+                    results = orderService.createOrdersByAPI(
+                            pending.stream().map(item -> item.request).collect(Collectors.toList()));
+                } catch (Exception e) {
+                    log.warn("批量创建订单失败，改为逐条创建: {}", e.getMessage());
+                }
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                BatchOrderMessage item = pending.get(i);
+                String manualReason = results != null ? results.get(i) : null;
+                if (results == null) {
+                    try {
+                        orderService.createOrderByAPI(item.request);
+                    } catch (IllegalArgumentException e) {
+                        manualReason = e.getMessage();
+                    } catch (Exception e) {
+                        log.error("处理订单消息失败: messageId={}", item.messageId, e);
+                        processingLogs.add(messageLogService.buildOrderMessageLog(item.messageId, item.message,
+                                RabbitMQConfig.ORDER_CREATE_QUEUE, "FAILED", "处理失败: " + e.getMessage()));
+                        item.settled = true;
+                        rejectMessage(channel, item.deliveryTag);
+                        continue;
+                    }
+                }
+                if (manualReason != null) {
+                    //这个是人工handle处理
+                    processingLogs.add(messageLogService.buildOrderMessageLog(item.messageId, item.message,
+                            RabbitMQConfig.ORDER_CREATE_QUEUE, "MANUAL_REQUIRED", "需要人工处理: " + manualReason));
+                } else {
+                    processingLogs.add(messageLogService.buildOrderMessageLog(item.messageId, item.message,
+                            RabbitMQConfig.ORDER_CREATE_QUEUE, "SUCCESS", "订单创建成功"));
+                }
+                item.settled = true;
+                ackTag = Math.max(ackTag, item.deliveryTag);
+            }
+        } catch (Exception e) {
+            // 幂等查询等整批前置步骤失败，未处理的消息全部进入死信队列
+            log.error("批量处理订单消息失败", e);
+            for (BatchOrderMessage item : batch) {
+                if (!item.settled) {
+                    item.settled = true;
+                    rejectMessage(channel, item.deliveryTag);
+                }
+            }
+        }
+
+        // 4. 处理日志一次写入
+        if (!processingLogs.isEmpty()) {
+            messageLogService.recordMessagesProcessing(processingLogs);
+        }
+
+        // 5. 整批确认：已拒绝的消息不受影响，确认到最大的未拒绝消息
+        if (ackTag >= 0) {
+            try {
+                channel.basicAck(ackTag, true);
+            } catch (Exception e) {
+                log.error("批量确认订单消息失败: deliveryTag={}", ackTag, e);
+            }
+        }
+        log.info("订单消息批处理完成: 本批 {} 条, 创建成功 {} 条", messages.size(),
+                processingLogs.stream().filter(l -> "SUCCESS".equals(l.getStatus())).count());
+    }
+
     /**
      * 消费死信队列消息
      * 因为死信队列的内容 不全部是订单消息，所以这里处理逻辑不同
@@ -376,12 +588,9 @@ public class OrderApiController {
     private boolean isOrderStatusChangeMessageExists(String messageId) {
         //先查询是否同样的消息 ，防止消息重复投敌
 
-        //这里的查询最好带业务属性
-        MessageProcessingLog existingLog = messageLogRepository.selectByMessageId(messageId);
-
-
-        if (existingLog != null) {
-            log.info("消息处理状态已存在，跳过记录: messageId={}, status={}", messageId, existingLog.getStatus());
+        //这里的查询最好带业务属性 布隆过滤器和Redis集合确定已处理时不再查询数据库，否则以数据库为准
+        if (messageIdempotencyService.isProcessedConfirmed(messageId, null)) {
+            log.info("消息处理状态已存在，跳过记录: messageId={}", messageId);
             return true;
         }
 
@@ -399,12 +608,9 @@ public class OrderApiController {
     private boolean isAddressChangeMessageExists(String messageId) {
         //先查询是否同样的消息 ，防止消息重复投敌
 
-        //这里的查询最好带业务属性
-        MessageProcessingLog existingLog = messageLogRepository.selectByMessageId(messageId);
-
-
-        if (existingLog != null) {
-            log.info("消息处理状态已存在，跳过记录: messageId={}, status={}", messageId, existingLog.getStatus());
+        //这里的查询最好带业务属性 布隆过滤器和Redis集合确定已处理时不再查询数据库，否则以数据库为准
+        if (messageIdempotencyService.isProcessedConfirmed(messageId, null)) {
+            log.info("消息处理状态已存在，跳过记录: messageId={}", messageId);
             return true;
         }
 
@@ -417,27 +623,69 @@ public class OrderApiController {
      */
     private boolean isOrderExists(String xIdempotencyKey,
                                   String xCorrelationId) {
-        //先查询是否同样的消息 ，防止消息重复投敌
-        MessageProcessingLog existingLog = messageLogRepository.selectByMessageId(xIdempotencyKey);
-        if (existingLog != null) {
-            log.info("消息处理状态已存在，跳过记录: messageId={}, status={}", xIdempotencyKey, existingLog.getStatus());
+        //先查询是否同样的消息 ，防止消息重复投敌，再查询是否有相同的业务id
+        // 布隆过滤器和Redis集合能确定时不再查询数据库
+        if (messageIdempotencyService.isProcessed(xIdempotencyKey, xCorrelationId)) {
+            log.info("消息处理状态已存在，跳过记录: messageId={}, xCorrelationId={}", xIdempotencyKey, xCorrelationId);
             return true;
         }
 
-        //查询是否有相同的业务id
-        existingLog = messageLogRepository.selectByIdempotencyKey(xCorrelationId);
-        if (existingLog != null) {
-            log.info("消息处理状态已存在，跳过记录: messageId={}, status={}", xCorrelationId, existingLog);
-            return true
-                    ;
-        }
-
         return false;
 
 
     }
 
 
+    /**
+     * 一次查询整批消息中已有处理记录的消息ID和业务幂等键，与isOrderExists的判断一致
+     */
+    private Set<String> findProcessedOrderMessages(List<BatchOrderMessage> batch) {
+        Set<String> processedKeys = new HashSet<>();
+        if (batch.isEmpty()) {
+            return processedKeys;
+        }
+        // 先用布隆过滤器和Redis集合筛掉能确定的消息，其余的一次查询数据库
+        List<String> messageIds = new ArrayList<>();
+        List<String> correlationIds = new ArrayList<>();
+        for (BatchOrderMessage item : batch) {
+            MessageIdempotencyService.CheckResult result = messageIdempotencyService.check(item.messageId, item.correlationId);
+            if (result == MessageIdempotencyService.CheckResult.PROCESSED || messageIdempotencyService.isPending(item.messageId)) {
+                processedKeys.add(item.messageId);
+            } else if (result == MessageIdempotencyService.CheckResult.UNKNOWN) {
+                messageIds.add(item.messageId);
+                correlationIds.add(item.correlationId);
+            }
+        }
+        if (messageIds.isEmpty()) {
+            return processedKeys;
+        }
+        List<MessageProcessingLog> existingLogs = messageLogRepository.selectList(new QueryWrapper<MessageProcessingLog>()
+                .select("message_id", "idempotency_key")
+                .in("message_id", messageIds)
+                .or()
+                .in("idempotency_key", correlationIds));
+        for (MessageProcessingLog existingLog : existingLogs) {
+            if (messageIds.contains(existingLog.getMessageId())) {
+                processedKeys.add(existingLog.getMessageId());
+            }
+            if (existingLog.getIdempotencyKey() != null) {
+                processedKeys.add(existingLog.getIdempotencyKey());
+            }
+        }
+        return processedKeys;
+    }
+
+    /**
+     * 拒绝单条消息，不重新入队，进入死信队列
+     */
+    private void rejectMessage(Channel channel, long deliveryTag) {
+        try {
+            channel.basicNack(deliveryTag, false, false);
+        } catch (Exception e) {
+            log.error("发送NACK失败: deliveryTag={}", deliveryTag, e);
+        }
+    }
+
     /**
      * 转换消息为订单创建请求
      */
@@ -605,7 +853,24 @@ public class OrderApiController {
             newCustomer.setUpdatedBy(0L);
             newCustomer.setDeleted(false);
 
-            customerRepository.insert(newCustomer);
+            try {
+                // 经缓存仓库写入，清除按编码、名称缓存的“不存在”标记
+                customerRedisRepository.insert(newCustomer);
+            } catch (DuplicateKeyException e) {
+                // 其他消费者已按同一客户编码创建了客户（customer_code唯一），改用已创建的客户
+                // 加锁读取最新提交的记录，事务快照中看不到并发创建的客户
+                Customer created = customerRepository.selectOne(
+                        new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Customer>()
+                                .eq(Customer::getCustomerCode, code)
+                                .eq(Customer::getCompanyId, salesCompanyId)
+                                .eq(Customer::getDeleted, false)
+                                .last("LOCK IN SHARE MODE"));
+                if (created == null) {
+                    throw e;
+                }
+                log.info("客户已被并发创建: customerId={}, customCode={}", created.getId(), code);
+                return created;
+            }
             log.info("创建新客户: customerId={}, name={}", newCustomer.getId(), nickName);
             return newCustomer;
 
@@ -650,7 +915,24 @@ public class OrderApiController {
             newCustomer.setUpdatedBy(0L);
             newCustomer.setDeleted(false);
 
-            customerRepository.insert(newCustomer);
+            try {
+                // 经缓存仓库写入，清除按编码、名称缓存的“不存在”标记
+                customerRedisRepository.insert(newCustomer);
+            } catch (DuplicateKeyException e) {
+                // 其他消费者已按同一昵称创建了客户（客户编码即昵称，customer_code唯一），改用已创建的客户
+                // 加锁读取最新提交的记录，事务快照中看不到并发创建的客户
+                Customer created = customerRepository.selectOne(
+                        new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Customer>()
+                                .eq(Customer::getCustomerCode, userNickName)
+                                .eq(Customer::getCompanyId, salesCompanyId)
+                                .eq(Customer::getDeleted, false)
+                                .last("LOCK IN SHARE MODE"));
+                if (created == null) {
+                    throw e;
+                }
+                log.info("客户已被并发创建: customerId={}, name={}", created.getId(), userNickName);
+                return created;
+            }
             log.info("创建新客户: customerId={}, name={}", newCustomer.getId(), userNickName);
             return newCustomer;
 
@@ -662,4 +944,24 @@ public class OrderApiController {
             return defaultCustomer;
         }
     }
+
+    /**
+     * 批量消费中的单条订单消息
+     */
+    private static class BatchOrderMessage {
+        private final String messageId;
+        private final String correlationId;
+        private final OrderMessage message;
+        private final long deliveryTag;
+        private OrderCreateRequest request;
+        // 已确认或已拒绝
+        private boolean settled;
+
+        BatchOrderMessage(String messageId, String correlationId, OrderMessage message, long deliveryTag) {
+            this.messageId = messageId;
+            this.correlationId = correlationId;
+            this.message = message;
+            this.deliveryTag = deliveryTag;
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package com.yibang.erp.controller;
 
 import com.baomidou.mybatisplus.core.metadata.IPage;
+import com.yibang.erp.common.util.CursorUtils;
 import com.yibang.erp.common.util.JwtUtil;
 import com.yibang.erp.domain.dto.*;
 import com.yibang.erp.domain.entity.OrderStatusLog;
@@ -93,9 +94,16 @@ public class OrderController {
 
     /**
      * 分页查询订单列表
+     * 支持游标分页：paginationMode=CURSOR，后续页携带上一页返回的nextCursor；countMode可选EXACT/CACHED/NONE，游标分页默认只在第一页统计总数
      */
     @GetMapping
     public ResponseEntity<IPage<OrderResponse>> getOrderList(OrderListRequest request,@RequestHeader("Authorization") String authorization) {
+        // 客户端传来的游标无法解析时返回400，不进入查询
+        if (request.getCursor() != null && !request.getCursor().isBlank()
+                && CursorUtils.tryDecode(request.getCursor()) == null) {
+            return ResponseEntity.badRequest().build();
+        }
+
         //这里面就要做后端逻辑了，销售只能看到自己的订单
         //供应商只能看到推送到自己的订单
         //1. 获取当前用户信息
@@ -60,6 +60,8 @@ public class ProductController {
     private ProductImageRepository productImageRepository;
     @Autowired
     private MicroserviceUsageExample microserviceUsageExample;
+    @Autowired
+    private ProductRedisRepository productRedisRepository;
 
     /**
      * 获取商品列表
@@ -274,7 +276,8 @@ public class ProductController {
         }
 
         try {
-            int result = productRepository.insert(product);
+            // 通过缓存Repository写入，同时清除该SKU和名称查询不到的缓存
+            int result = productRedisRepository.insert(product);
             if (result <= 0) {
                 throw new RuntimeException("商品插入失败");
             }
@@ -295,7 +298,7 @@ public class ProductController {
 
         product.setId(id);
         product.setApprovalStatus(ProductApprovalStatus.APPROVED);
-        productRepository.updateById(product);
+        productRedisRepository.updateById(product);
         return product;
     }
 
@@ -0,0 +1,52 @@
+package com.yibang.erp.domain.dto;
+
+import com.yibang.erp.domain.entity.AIExcelProcessTask;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * AI Excel任务进度快照
+ * 保存在处理节点内存和Redis中，进度查询不再访问数据库
+ */
+@Data
+public class AIExcelTaskProgress {
+
+    private String taskId;
+
+    private String status;
+
+    private int totalRows;
+
+    private int processedRows;
+
+    private int successRows;
+
+    private int failedRows;
+
+    private int manualProcessRows;
+
+    private LocalDateTime createdAt;
+
+    private LocalDateTime startedAt;
+
+    private LocalDateTime completedAt;
+
+    /**
+     * 由任务记录构建进度快照
+     */
+    public static AIExcelTaskProgress fromTask(AIExcelProcessTask task) {
+        AIExcelTaskProgress progress = new AIExcelTaskProgress();
+        progress.setTaskId(task.getTaskId());
+        progress.setStatus(task.getTaskStatus());
+        progress.setTotalRows(task.getTotalRows() != null ? task.getTotalRows() : 0);
+        progress.setProcessedRows(task.getProcessedRows() != null ? task.getProcessedRows() : 0);
+        progress.setSuccessRows(task.getSuccessRows() != null ? task.getSuccessRows() : 0);
+        progress.setFailedRows(task.getFailedRows() != null ? task.getFailedRows() : 0);
+        progress.setManualProcessRows(task.getManualProcessRows() != null ? task.getManualProcessRows() : 0);
+        progress.setCreatedAt(task.getCreatedAt());
+        progress.setStartedAt(task.getStartedAt());
+        progress.setCompletedAt(task.getCompletedAt());
+        return progress;
+    }
+}
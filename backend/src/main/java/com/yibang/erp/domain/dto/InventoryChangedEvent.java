@@ -0,0 +1,46 @@
+package com.yibang.erp.domain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 库存变更事件
+ * 库存数量或预警线修改后发布，事务提交后由库存预警引擎处理
+ *
+ * @author yibang-erp
+ * @since 2024-01-14
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InventoryChangedEvent {
+
+    /**
+     * 商品ID
+     */
+    private Long productId;
+
+    /**
+     * 仓库ID
+     */
+    private Long warehouseId;
+
+    /**
+     * 可用库存变更量，增加为正、减少为负
+     */
+    private int availableDelta;
+
+    /**
+     * 是否需要重新读取库存记录，预警线修改或新建库存记录时为true
+     */
+    private boolean reload;
+
+    public static InventoryChangedEvent delta(Long productId, Long warehouseId, int availableDelta) {
+        return new InventoryChangedEvent(productId, warehouseId, availableDelta, false);
+    }
+
+    public static InventoryChangedEvent reload(Long productId, Long warehouseId) {
+        return new InventoryChangedEvent(productId, warehouseId, 0, true);
+    }
+}
@@ -0,0 +1,32 @@
+package com.yibang.erp.domain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 库存变更量
+ *
+ * @author yibang-erp
+ * @since 2024-01-14
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InventoryDelta {
+
+    /**
+     * 商品ID
+     */
+    private Long productId;
+
+    /**
+     * 仓库ID
+     */
+    private Long warehouseId;
+
+    /**
+     * 变更数量，正数
+     */
+    private Integer quantity;
+}
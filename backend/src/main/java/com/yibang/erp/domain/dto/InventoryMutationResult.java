@@ -0,0 +1,77 @@
+package com.yibang.erp.domain.dto;
+
+import lombok.Data;
+
+/**
+ * 库存变更结果
+ *
+ * @author yibang-erp
+ * @since 2024-01-14
+ */
+@Data
+public class InventoryMutationResult {
+
+    /**
+     * 变更结果状态
+     */
+    public enum Status {
+        /** 变更成功 */
+        SUCCESS,
+        /** 可用库存不足 */
+        INSUFFICIENT,
+        /** 没有库存记录 */
+        NOT_FOUND,
+        /** 库存已被其它操作修改 */
+        CONFLICT,
+        /** 同批次其它商品失败，本条已退回 */
+        ROLLED_BACK
+    }
+
+    /**
+     * 商品ID
+     */
+    private Long productId;
+
+    /**
+     * 仓库ID
+     */
+    private Long warehouseId;
+
+    /**
+     * 变更数量
+     */
+    private Integer quantity;
+
+    /**
+     * 结果状态
+     */
+    private Status status;
+
+    /**
+     * 变更后的可用库存，只有库存预留层返回
+     */
+    private Integer availableQuantity;
+
+    /**
+     * 变更后的预留库存，只有库存预留层返回
+     */
+    private Integer reservedQuantity;
+
+    /**
+     * 异步写入的操作单号，只有库存预留层返回
+     */
+    private String operationNo;
+
+    public static InventoryMutationResult of(InventoryDelta delta, Status status) {
+        InventoryMutationResult result = new InventoryMutationResult();
+        result.setProductId(delta.getProductId());
+        result.setWarehouseId(delta.getWarehouseId());
+        result.setQuantity(delta.getQuantity());
+        result.setStatus(status);
+        return result;
+    }
+
+    public boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+}
@@ -21,6 +21,22 @@ public class OrderListRequest {
      */
     private Integer size = 10;
 
+    /**
+     * 分页模式（OFFSET: 页码分页, CURSOR: 游标分页）
+     */
+    private String paginationMode = "OFFSET";
+
+    /**
+     * 游标分页的游标，取自上一页返回的nextCursor，为空表示第一页
+     */
+    private String cursor;
+
+    /**
+     * 总数统计模式（EXACT: 精确统计, CACHED: 使用短时缓存的统计值, NONE: 不统计）
+     * 为空时页码分页精确统计，游标分页只在第一页精确统计、后续页不统计
+     */
+    private String countMode;
+
     /**
      * 平台订单号
      */
@@ -45,6 +45,12 @@ public class AIExcelProcessTask {
     @TableField("file_hash")
     private String fileHash;
 
+    /**
+     * 上传文件存储路径（任务排队和续跑时读取）
+     */
+    @TableField("file_path")
+    private String filePath;
+
     /**
      * 任务状态
      */
@@ -1,6 +1,7 @@
 package com.yibang.erp.domain.service;
 
 import com.yibang.erp.domain.dto.AIExcelRowData;
+import reactor.core.publisher.Mono;
 
 import java.util.List;
 
@@ -24,6 +25,21 @@ public interface AIExcelFieldRecognitionService {
      */
     AIExcelRowData.RecognizedFields recognizeRowFields(AIExcelRowData rowData);
 
+    /**
+     * 按列映射在本地投影单行数据，不调用AI
+     * @param rowData 行数据
+     * @param mappingResult 整个文件共用的列映射结果
+     * @return 投影出的字段数据；必填字段缺失或格式不符时返回null，需交由AI识别
+     */
+    AIExcelRowData.RecognizedFields projectRowFields(AIExcelRowData rowData, FieldMappingResult mappingResult);
+
+    /**
+     * 以非阻塞方式识别单行数据的字段值，供并发识别流水线使用
+     * @param rowData 行数据
+     * @return 识别后的字段数据，AI未返回有效结果时为空
+     */
+    Mono<AIExcelRowData.RecognizedFields> recognizeRowFieldsAsync(AIExcelRowData rowData);
+
     /**
      * 批量识别多行数据
      * @param rowDataList 行数据列表
@@ -31,6 +47,14 @@ public interface AIExcelFieldRecognitionService {
      */
     List<AIExcelRowData.RecognizedFields> batchRecognizeRowFields(List<AIExcelRowData> rowDataList);
 
+    /**
+     * 以非阻塞方式批量识别多行数据
+     * 多行共用一个提示词，AI返回JSON数组后按行号回填；缺失或解析失败的行回退为单行识别
+     * @param rowDataList 同一批次的行数据
+     * @return 与入参顺序一致的识别结果，识别失败的行为null
+     */
+    Mono<List<AIExcelRowData.RecognizedFields>> batchRecognizeRowFieldsAsync(List<AIExcelRowData> rowDataList);
+
     /**
      * 字段映射结果
      */
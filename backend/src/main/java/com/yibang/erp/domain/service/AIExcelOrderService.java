@@ -23,6 +23,13 @@ public interface AIExcelOrderService {
      */
     AIExcelProcessResponse startAIExcelProcess(MultipartFile file, AIExcelProcessRequest request);
 
+    /**
+     * 处理已被认领的排队任务，由任务调度器在专用线程池中调用
+     * 任务此前处理过一部分时跳过已有处理结果的行
+     * @param taskId 任务ID
+     */
+    void processQueuedTask(String taskId);
+
     /**
      * 获取AI处理任务进度
      * @param taskId 任务ID
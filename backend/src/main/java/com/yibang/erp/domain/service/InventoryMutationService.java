@@ -0,0 +1,37 @@
+package com.yibang.erp.domain.service;
+
+import com.yibang.erp.domain.dto.InventoryDelta;
+import com.yibang.erp.domain.dto.InventoryMutationResult;
+
+import java.util.List;
+
+/**
+ * 库存变更服务接口
+ * 库存数量只通过带条件的单条UPDATE修改，不在Java中读出后整行写回，并发扣减不会超卖
+ *
+ * @author yibang-erp
+ * @since 2024-01-14
+ */
+public interface InventoryMutationService {
+
+    /**
+     * 扣减可用库存，可用库存不足时不扣减
+     */
+    InventoryMutationResult decrease(InventoryDelta delta);
+
+    /**
+     * 批量扣减可用库存，同一商品和仓库的数量合并后扣减，结果与传入顺序一一对应
+     * @param allOrNothing 为true时任一商品库存不足则退回本批已扣减的数量；没有库存记录的商品不扣减，也不影响其它商品
+     */
+    List<InventoryMutationResult> decrease(List<InventoryDelta> deltas, boolean allOrNothing);
+
+    /**
+     * 增加可用库存，没有库存记录时创建
+     */
+    InventoryMutationResult increase(InventoryDelta delta);
+
+    /**
+     * 可用库存仍为expectedQuantity时改为newQuantity
+     */
+    InventoryMutationResult compareAndSet(Long productId, Long warehouseId, int expectedQuantity, int newQuantity);
+}
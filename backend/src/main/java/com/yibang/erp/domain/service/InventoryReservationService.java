@@ -0,0 +1,43 @@
+package com.yibang.erp.domain.service;
+
+import com.yibang.erp.domain.dto.InventoryDelta;
+import com.yibang.erp.domain.dto.InventoryMutationResult;
+
+import java.util.List;
+
+/**
+ * 库存预留层服务接口
+ * 可用库存和预留库存在Redis中按商品和仓库保存一份，扣减、预留、释放用Lua脚本原子完成并写入变更流水，
+ * 由后台任务按批写入数据库。同一批商品要么全部变更，要么都不变更；没有库存记录的商品跳过，不影响其它商品。
+ * 在事务中调用时，事务回滚后自动反向变更。
+ *
+ * @author yibang-erp
+ * @since 2024-01-14
+ */
+public interface InventoryReservationService {
+
+    /**
+     * 是否开启库存预留层
+     */
+    boolean isEnabled();
+
+    /**
+     * 扣减可用库存（发货出库）
+     */
+    List<InventoryMutationResult> deduct(List<InventoryDelta> deltas, Long orderId, Long operatorId, String reason);
+
+    /**
+     * 把可用库存转为预留库存
+     */
+    List<InventoryMutationResult> reserve(List<InventoryDelta> deltas, Long orderId, Long operatorId, String reason);
+
+    /**
+     * 把预留库存退回可用库存
+     */
+    List<InventoryMutationResult> release(List<InventoryDelta> deltas, Long orderId, Long operatorId, String reason);
+
+    /**
+     * 数据库中的库存已直接修改时同步Redis中的数量，Redis中没有该库存时不处理；在事务中调用时提交后才同步
+     */
+    void syncDelta(Long productId, Long warehouseId, int availableDelta, int reservedDelta);
+}
@@ -2,7 +2,7 @@ package com.yibang.erp.domain.service;
 
 /**
  * 订单号生成服务接口
- * 采用Redis分布式锁方式，确保订单号唯一性
+ * 采用Redis号段方式，确保订单号唯一性
  */
 public interface OrderNumberGeneratorService {
     
@@ -19,7 +19,7 @@ public interface OrderNumberGeneratorService {
     
     /**
      * 批量预生成订单号
-     * 用于批处理场景，提高性能
+     * 用于批处理场景，一次Redis调用预留整批连续序号
      * 
      * @param userName 登录用户ID
      * @param orderSource 订单渠道
@@ -0,0 +1,27 @@
+package com.yibang.erp.domain.service;
+
+import com.yibang.erp.domain.entity.Order;
+import com.yibang.erp.domain.entity.OrderItem;
+
+import java.util.List;
+
+/**
+ * 订单定价服务接口
+ * 创建订单时按销售的价格分层给订单项定价，并在写入前于内存中计算订单金额
+ *
+ * @author yibang-erp
+ * @since 2024-01-14
+ */
+public interface OrderPricingService {
+
+    /**
+     * 给单个订单定价，计算订单项小计和订单总金额、实付金额
+     */
+    void priceOrder(Order order, List<OrderItem> orderItems);
+
+    /**
+     * 批量给订单定价，orderItemsList与orders一一对应；同一价格分层的商品只查询一次分层价格
+     * 销售有价格分层且商品配置了该分层的代发价时，单价改为代发价，否则保留原单价
+     */
+    void priceOrders(List<Order> orders, List<List<OrderItem>> orderItemsList);
+}
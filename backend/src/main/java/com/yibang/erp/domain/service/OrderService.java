@@ -39,6 +39,12 @@ public interface OrderService {
      */
     public OrderResponse createOrderByAPI(OrderCreateRequest request) ;
 
+    /**
+     * 批量创建订单（通过API），同一事务内批量写入
+     * @return 与请求一一对应，创建成功为null，否则为需要人工处理的原因
+     */
+    List<String> createOrdersByAPI(List<OrderCreateRequest> requests);
+
     /**
      * 创建订单
      */
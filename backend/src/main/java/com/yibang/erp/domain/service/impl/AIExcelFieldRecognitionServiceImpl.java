@@ -1,17 +1,24 @@
 package com.yibang.erp.domain.service.impl;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yibang.erp.config.AIConfig;
 import com.yibang.erp.domain.dto.AIExcelRowData;
 import com.yibang.erp.domain.dto.DeepSeekChatRequest;
 import com.yibang.erp.domain.dto.DeepSeekChatResponse;
 import com.yibang.erp.domain.service.AIExcelFieldRecognitionService;
+import com.yibang.erp.infrastructure.cache.AIResultCache;
 import com.yibang.erp.infrastructure.client.DeepSeekClient;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.math.BigDecimal;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * AI Excel字段识别服务实现类
@@ -27,6 +34,25 @@ public class AIExcelFieldRecognitionServiceImpl implements AIExcelFieldRecogniti
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private AIConfig aiConfig;
+
+    // 批量识别时每行预留的输出token数及单次请求上限
+    private static final int BATCH_TOKENS_PER_ROW = 500;
+
+    private static final int BATCH_MAX_TOKENS = 8000;
+
+    // 行识别提示词版本，修改行识别提示词或解析逻辑时需要升级，使缓存中的旧结果失效
+    private static final String ROW_PROMPT_VERSION = "v2";
+
+    // 行识别使用的模型，同时参与缓存key
+    private static final String ROW_MODEL = "deepseek-chat";
+
+    private static final TypeReference<AIExcelRowData.RecognizedFields> ROW_FIELDS_TYPE = new TypeReference<>() {};
+
+    @Autowired
+    private AIResultCache aiResultCache;
+
     // 预定义的字段映射规则（作为AI识别的备选方案）
     private static final Map<String, List<String>> FIELD_KEYWORDS = new HashMap<>();
     
@@ -51,8 +77,25 @@ public class AIExcelFieldRecognitionServiceImpl implements AIExcelFieldRecogniti
         FIELD_KEYWORDS.put("orderType", Arrays.asList("订单类型", "类型", "订单种类", "种类"));
         FIELD_KEYWORDS.put("specialRequirements", Arrays.asList("特殊要求", "要求", "备注", "说明", "特殊说明"));
         FIELD_KEYWORDS.put("remarks", Arrays.asList("备注", "说明", "注释", "备注信息", "其他"));
+        FIELD_KEYWORDS.put("sourceOrderId", Arrays.asList("订单号", "订单编号", "原始单号", "平台单号", "外部单号"));
+        FIELD_KEYWORDS.put("salesNote", Arrays.asList("卖家留言", "卖家备注", "商家备注"));
+        FIELD_KEYWORDS.put("buyerNote", Arrays.asList("买家留言", "买家备注", "客户留言"));
+
+        // 地址拆分字段
+        FIELD_KEYWORDS.put("provinceName", Arrays.asList("省份", "所在省"));
+        FIELD_KEYWORDS.put("cityName", Arrays.asList("城市", "所在市"));
+        FIELD_KEYWORDS.put("districtName", Arrays.asList("区县", "区/县", "区域", "县区"));
     }
 
+    // 规则投影时用于校验联系电话（兼容带区号、分机和脱敏号码）
+    private static final Pattern PHONE_PATTERN = Pattern.compile("^[0-9+\\-\\s()*]{7,20}$");
+
+    // 从完整地址中拆分省市区，无法拆出区县时交由AI识别
+    private static final Pattern ADDRESS_PATTERN = Pattern.compile(
+            "^(?<province>[^省]+?省|.+?自治区|北京市|天津市|上海市|重庆市)?(?<city>[^市]+?市|.+?自治州|.+?地区|.+?盟)?(?<district>[^区县]+?区|.+?县|.+?市|.+?旗)");
+
+    private static final Set<String> MUNICIPALITIES = Set.of("北京市", "天津市", "上海市", "重庆市");
+
     @Override
     public FieldMappingResult recognizeColumnHeaders(List<String> columnHeaders) {
         try {
@@ -105,13 +148,146 @@ public class AIExcelFieldRecognitionServiceImpl implements AIExcelFieldRecogniti
         }
     }
 
+    @Override
+    public AIExcelRowData.RecognizedFields projectRowFields(AIExcelRowData rowData, FieldMappingResult mappingResult) {
+        if (mappingResult == null || mappingResult.getColumnMappings() == null
+                || rowData.getRawValues() == null || rowData.getColumnHeaders() == null) {
+            return null;
+        }
+
+        AIExcelRowData.RecognizedFields fields = new AIExcelRowData.RecognizedFields();
+        try {
+            for (ColumnMapping mapping : mappingResult.getColumnMappings()) {
+                int columnIndex = resolveColumnIndex(mapping, rowData);
+                if (columnIndex < 0 || mapping.getRecognizedField() == null) {
+                    continue;
+                }
+                String value = rowData.getRawValues().get(columnIndex);
+                if (value == null || value.trim().isEmpty()) {
+                    continue;
+                }
+                applyFieldValue(fields, mapping.getRecognizedField(), value.trim());
+            }
+        } catch (NumberFormatException | ArithmeticException e) {
+            // 数值列无法解析说明该行与列映射不一致，交由AI识别
+            log.debug("规则投影数值解析失败，行号: {}, {}", rowData.getRowNumber(), e.getMessage());
+            return null;
+        }
+
+        if (fields.getDistrictName() == null && fields.getDeliveryAddress() != null) {
+            fillRegionFromAddress(fields);
+        }
+
+        if (!isProjectionComplete(fields)) {
+            return null;
+        }
+        fields.setAiConfidence(mappingResult.getConfidence());
+        return fields;
+    }
+
+    @Override
+    public Mono<AIExcelRowData.RecognizedFields> recognizeRowFieldsAsync(AIExcelRowData rowData) {
+        String cacheKey = rowCacheKey(rowData);
+        AIExcelRowData.RecognizedFields cached = aiResultCache.get(cacheKey, ROW_FIELDS_TYPE);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        return Mono.defer(() -> {
+                    String prompt = buildRowFieldRecognitionPrompt(rowData);
+                    return deepSeekClient.chat(buildRowRecognitionRequest(prompt));
+                })
+                .flatMap(response -> {
+                    if (response.getChoices() == null || response.getChoices().length == 0) {
+                        log.warn("AI响应为空或格式不正确，行号: {}", rowData.getRowNumber());
+                        return Mono.empty();
+                    }
+                    String aiResponse = response.getChoices()[0].getMessage().getContent();
+                    log.debug("AI响应，行号: {}: {}", rowData.getRowNumber(), aiResponse);
+                    return Mono.justOrEmpty(parseAIRowResponse(aiResponse, rowData));
+                })
+                .doOnNext(fields -> aiResultCache.put(cacheKey, fields))
+                .onErrorResume(e -> {
+                    log.error("调用AI进行行字段识别失败，行号: {}", rowData.getRowNumber(), e);
+                    return Mono.empty();
+                });
+    }
+
     @Override
     public List<AIExcelRowData.RecognizedFields> batchRecognizeRowFields(List<AIExcelRowData> rowDataList) {
         log.info("开始批量识别行数据字段，共{}行", rowDataList.size());
-        
-        return rowDataList.parallelStream()
-                .map(this::recognizeRowFields)
-                .collect(Collectors.toList());
+
+        int batchSize = Math.max(1, aiConfig.getRecognitionBatchSize());
+        List<AIExcelRowData.RecognizedFields> results = new ArrayList<>(rowDataList.size());
+        for (int start = 0; start < rowDataList.size(); start += batchSize) {
+            List<AIExcelRowData> batch = rowDataList.subList(start, Math.min(start + batchSize, rowDataList.size()));
+            results.addAll(batchRecognizeRowFieldsAsync(batch).block());
+        }
+        return results;
+    }
+
+    @Override
+    public Mono<List<AIExcelRowData.RecognizedFields>> batchRecognizeRowFieldsAsync(List<AIExcelRowData> rowDataList) {
+        if (rowDataList.isEmpty()) {
+            return Mono.just(new ArrayList<>());
+        }
+        // 先查缓存，只有未命中的行才参与批量识别
+        Map<Integer, AIExcelRowData.RecognizedFields> cachedFields = new HashMap<>();
+        List<AIExcelRowData> uncachedRows = new ArrayList<>();
+        for (AIExcelRowData rowData : rowDataList) {
+            AIExcelRowData.RecognizedFields cached = aiResultCache.get(rowCacheKey(rowData), ROW_FIELDS_TYPE);
+            if (cached != null) {
+                cachedFields.put(rowData.getRowNumber(), cached);
+            } else {
+                uncachedRows.add(rowData);
+            }
+        }
+
+        // 未命中的行不超过一行时直接走单行识别
+        Mono<Map<Integer, AIExcelRowData.RecognizedFields>> batchResult = uncachedRows.size() <= 1
+                ? Mono.just(new HashMap<>())
+                : Mono.defer(() -> {
+                    String prompt = buildBatchRowFieldRecognitionPrompt(uncachedRows);
+                    int maxTokens = Math.min(BATCH_MAX_TOKENS, BATCH_TOKENS_PER_ROW * uncachedRows.size());
+                    return deepSeekClient.chat(buildRowRecognitionRequest(prompt, maxTokens));
+                })
+                .<Map<Integer, AIExcelRowData.RecognizedFields>>map(response -> {
+                    if (response.getChoices() == null || response.getChoices().length == 0) {
+                        log.warn("AI批量识别响应为空，共{}行将逐行识别", uncachedRows.size());
+                        return new HashMap<>();
+                    }
+                    Map<Integer, AIExcelRowData.RecognizedFields> parsed =
+                            parseAIBatchRowResponse(response.getChoices()[0].getMessage().getContent(), uncachedRows);
+                    for (AIExcelRowData rowData : uncachedRows) {
+                        aiResultCache.put(rowCacheKey(rowData), parsed.get(rowData.getRowNumber()));
+                    }
+                    return parsed;
+                })
+                .onErrorResume(e -> {
+                    log.error("调用AI进行批量行字段识别失败，共{}行将逐行识别", uncachedRows.size(), e);
+                    return Mono.just(new HashMap<>());
+                });
+
+        return batchResult.flatMap(parsed -> Flux.fromIterable(rowDataList)
+                        .concatMap(rowData -> {
+                            AIExcelRowData.RecognizedFields fields = cachedFields.containsKey(rowData.getRowNumber())
+                                    ? cachedFields.get(rowData.getRowNumber())
+                                    : parsed.get(rowData.getRowNumber());
+                            if (fields != null) {
+                                return Mono.just(Optional.of(fields));
+                            }
+                            // 批量结果中缺失或解析失败的行，回退为单行识别
+                            log.info("批量识别未返回有效结果，回退单行识别，行号: {}", rowData.getRowNumber());
+                            return recognizeRowFieldsAsync(rowData)
+                                    .map(Optional::of)
+                                    .defaultIfEmpty(Optional.empty());
+                        })
+                        .collectList()
+                        .map(list -> {
+                            // 保持与入参一一对应，识别失败的行为null
+                            List<AIExcelRowData.RecognizedFields> results = new ArrayList<>(list.size());
+                            list.forEach(optional -> results.add(optional.orElse(null)));
+                            return results;
+                        }));
     }
 
     /**
@@ -157,6 +333,13 @@ public class AIExcelFieldRecognitionServiceImpl implements AIExcelFieldRecogniti
         prompt.append("- orderType: 订单类型\n");
         prompt.append("- specialRequirements: 特殊要求\n");
         prompt.append("- remarks: 备注\n");
+        prompt.append("- sourceOrderId: 原始订单号\n");
+        prompt.append("- salesNote: 卖家留言\n");
+        prompt.append("- buyerNote: 买家留言\n");
+        prompt.append("- provinceName: 省份\n");
+        prompt.append("- cityName: 城市\n");
+        prompt.append("- districtName: 区县\n");
+        prompt.append("\ncolumnIndex为从0开始的列下标，无法识别的列不要返回。\n");
         
         return prompt.toString();
     }
@@ -172,6 +355,16 @@ public class AIExcelFieldRecognitionServiceImpl implements AIExcelFieldRecogniti
         prompt.append("行数据: ").append(rowData.getRawValues()).append("\n\n");
         
         prompt.append("请返回JSON格式的识别结果，格式如下：\n");
+        appendRowFieldFormat(prompt);
+        appendRowFieldNotes(prompt);
+
+        return prompt.toString();
+    }
+
+    /**
+     * 追加行字段识别的JSON格式说明
+     */
+    private void appendRowFieldFormat(StringBuilder prompt) {
         prompt.append("{\n");
         prompt.append("  \"customerName\": \"客户名称值\",\n");
         prompt.append("  \"customerCode\": \"客户编码值\",\n");
@@ -196,6 +389,12 @@ public class AIExcelFieldRecognitionServiceImpl implements AIExcelFieldRecogniti
         prompt.append("  \"sourceOrderId\": \"订单Id\"\n");
         prompt.append("  \"confidence\": \"置信度\"\n");
         prompt.append("}\n\n");
+    }
+
+    /**
+     * 追加行字段识别的注意事项
+     */
+    private void appendRowFieldNotes(StringBuilder prompt) {
         prompt.append("注意：\n");
         prompt.append("1. 如果某个字段没有值，请设置为null\n");
         prompt.append("2. 数量字段应该是整数\n");
@@ -208,7 +407,24 @@ public class AIExcelFieldRecognitionServiceImpl implements AIExcelFieldRecogniti
         prompt.append("- 0.5-0.69: 中等相关\n");
         prompt.append("- 0.3-0.49: 低度相关\n");
         prompt.append("- 0.0-0.29: 不相关\n");
+    }
 
+    /**
+     * 构建多行批量识别的AI提示词
+     * 列标题只发送一次，要求AI按行返回JSON数组，每个元素携带rowNumber用于回填
+     */
+    private String buildBatchRowFieldRecognitionPrompt(List<AIExcelRowData> rowDataList) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("你是一个Excel数据处理专家。请分析以下多行Excel数据，逐行识别并提取各个字段的值。\n\n");
+        prompt.append("列标题: ").append(rowDataList.get(0).getColumnHeaders().values()).append("\n");
+        prompt.append("行数据（每行以行号开头）：\n");
+        for (AIExcelRowData rowData : rowDataList) {
+            prompt.append("行号 ").append(rowData.getRowNumber()).append(": ").append(rowData.getRawValues()).append("\n");
+        }
+        prompt.append("\n请返回JSON数组，数组中每个元素对应一行数据，必须包含\"rowNumber\"字段（与上面的行号一致），");
+        prompt.append("共").append(rowDataList.size()).append("个元素，不要包含任何其他文字。每个元素的格式如下：\n");
+        appendRowFieldFormat(prompt);
+        appendRowFieldNotes(prompt);
         return prompt.toString();
     }
 
@@ -256,29 +472,26 @@ public class AIExcelFieldRecognitionServiceImpl implements AIExcelFieldRecogniti
      */
     private AIExcelRowData.RecognizedFields callAIForRowFieldRecognition(String prompt, AIExcelRowData rowData) {
         try {
+            String cacheKey = rowCacheKey(rowData);
+            AIExcelRowData.RecognizedFields cached = aiResultCache.get(cacheKey, ROW_FIELDS_TYPE);
+            if (cached != null) {
+                log.info("行字段识别命中缓存，行号: {}", rowData.getRowNumber());
+                return cached;
+            }
+
             log.info("调用AI进行行字段识别，行号: {}", rowData.getRowNumber());
             
-            // 构建DeepSeek请求
-            DeepSeekChatRequest request = new DeepSeekChatRequest();
-            request.setModel("deepseek-chat");
-            request.setMaxTokens(2000);
-            request.setTemperature(0.1);
-            
-            // 构建消息
-            DeepSeekChatRequest.DeepSeekMessage message = new DeepSeekChatRequest.DeepSeekMessage();
-            message.setRole("user");
-            message.setContent(prompt);
-            request.setMessages(new DeepSeekChatRequest.DeepSeekMessage[]{message});
-            
             // 调用AI模型
-            DeepSeekChatResponse response = deepSeekClient.chat(request).block();
+            DeepSeekChatResponse response = deepSeekClient.chat(buildRowRecognitionRequest(prompt)).block();
             
             if (response != null && response.getChoices() != null && response.getChoices().length > 0) {
                 String aiResponse = response.getChoices()[0].getMessage().getContent();
                 log.info("AI响应: {}", aiResponse);
                 
                 // 解析AI响应
-                return parseAIRowResponse(aiResponse, rowData);
+                AIExcelRowData.RecognizedFields fields = parseAIRowResponse(aiResponse, rowData);
+                aiResultCache.put(cacheKey, fields);
+                return fields;
             } else {
                 log.warn("AI响应为空或格式不正确");
                 return null;
@@ -290,6 +503,36 @@ public class AIExcelFieldRecognitionServiceImpl implements AIExcelFieldRecogniti
         }
     }
 
+    /**
+     * 行识别结果的缓存key，只取列标题和单元格内容，不含行号
+     */
+    private String rowCacheKey(AIExcelRowData rowData) {
+        return aiResultCache.buildKey("row-fields", ROW_MODEL, ROW_PROMPT_VERSION,
+                String.valueOf(rowData.getColumnHeaders() != null ? rowData.getColumnHeaders().values() : null),
+                String.valueOf(rowData.getRawValues()));
+    }
+
+    /**
+     * 构建行字段识别的DeepSeek请求
+     */
+    private DeepSeekChatRequest buildRowRecognitionRequest(String prompt) {
+        return buildRowRecognitionRequest(prompt, 2000);
+    }
+
+    private DeepSeekChatRequest buildRowRecognitionRequest(String prompt, int maxTokens) {
+        DeepSeekChatRequest request = new DeepSeekChatRequest();
+        request.setModel(ROW_MODEL);
+        request.setMaxTokens(maxTokens);
+        request.setTemperature(0.1);
+
+        // 构建消息
+        DeepSeekChatRequest.DeepSeekMessage message = new DeepSeekChatRequest.DeepSeekMessage();
+        message.setRole("user");
+        message.setContent(prompt);
+        request.setMessages(new DeepSeekChatRequest.DeepSeekMessage[]{message});
+        return request;
+    }
+
     /**
      * 解析AI列标题识别响应
      */
@@ -371,94 +614,141 @@ public class AIExcelFieldRecognitionServiceImpl implements AIExcelFieldRecogniti
             // 解析JSON响应
             Map<String, Object> responseMap = objectMapper.readValue(jsonContent, Map.class);
             
-            AIExcelRowData.RecognizedFields fields = new AIExcelRowData.RecognizedFields();
+            return toRecognizedFields(responseMap);
             
-            // 设置客户信息
-            if (responseMap.containsKey("customerName")) {
-                fields.setCustomerName((String) responseMap.get("customerName"));
-            }
-            if (responseMap.containsKey("customerCode")) {
-                fields.setCustomerCode((String) responseMap.get("customerCode"));
-            }
-            if (responseMap.containsKey("contactPerson")) {
-                fields.setContactPerson((String) responseMap.get("contactPerson"));
-            }
-            if (responseMap.containsKey("contactPhone")) {
-                fields.setContactPhone((String) responseMap.get("contactPhone"));
-            }
-            if (responseMap.containsKey("deliveryAddress")) {
-                fields.setDeliveryAddress((String) responseMap.get("deliveryAddress"));
-            }
-            if (responseMap.containsKey("expectedDeliveryDate")) {
-                fields.setExpectedDeliveryDate((String) responseMap.get("expectedDeliveryDate"));
-            }
-            if(responseMap.containsKey("sourceOrderId")){
-                fields.setSourceOrderId((String) responseMap.get("sourceOrderId"));
-            }
+        } catch (Exception e) {
+            log.error("解析AI行字段识别响应失败", e);
+            return null;
+        }
+    }
 
-            if(responseMap.containsKey("salesNote")){
-                fields.setSalesNote((String) responseMap.get("salesNote"));
-            }
-            if(responseMap.containsKey("buyerNote")){
-                fields.setBuyerNote((String) responseMap.get("buyerNote"));
-            }
-            if(responseMap.containsKey("provinceName")) {
-                fields.setProvinceName((String) responseMap.get("provinceName"));
-            }
-            if(responseMap.containsKey("cityName")){
-                fields.setCityName((String) responseMap.get("cityName"));
-            }
-            if(responseMap.containsKey("districtName")){
-                fields.setDistrictName((String) responseMap.get("districtName"));
+    /**
+     * 解析AI批量行字段识别响应
+     * @return 行号 -> 识别字段，解析失败的行不会出现在结果中
+     */
+    private Map<Integer, AIExcelRowData.RecognizedFields> parseAIBatchRowResponse(String aiResponse, List<AIExcelRowData> rowDataList) {
+        Map<Integer, AIExcelRowData.RecognizedFields> result = new HashMap<>();
+        try {
+            String jsonContent = extractJsonArrayFromResponse(aiResponse);
+            if (jsonContent == null) {
+                log.warn("无法从AI批量响应中提取JSON数组");
+                return result;
             }
 
-            if(responseMap.containsKey("confidence")){
-                fields.setAiConfidence(((Number) responseMap.get("confidence")).doubleValue());
-            }
-            
-            // 设置商品信息
-            if (responseMap.containsKey("productSku")) {
-                fields.setProductSku((String) responseMap.get("productSku"));
-            }
-            if (responseMap.containsKey("productName")) {
-                fields.setProductName((String) responseMap.get("productName"));
-            }
-            if (responseMap.containsKey("productSpecification")) {
-                fields.setProductSpecification((String) responseMap.get("productSpecification"));
-            }
-            if (responseMap.containsKey("quantity")) {
-                Object quantity = responseMap.get("quantity");
-                if (quantity instanceof Number) {
-                    fields.setQuantity(((Number) quantity).intValue());
+            List<Object> elements = objectMapper.readValue(jsonContent, List.class);
+            for (int i = 0; i < elements.size(); i++) {
+                if (!(elements.get(i) instanceof Map)) {
+                    continue;
                 }
-            }
-            if (responseMap.containsKey("unitPrice")) {
-                Object unitPrice = responseMap.get("unitPrice");
-                if (unitPrice instanceof Number) {
-                    fields.setUnitPrice(((Number) unitPrice).doubleValue());
+                Map<String, Object> element = (Map<String, Object>) elements.get(i);
+                try {
+                    Integer rowNumber = null;
+                    if (element.get("rowNumber") instanceof Number) {
+                        rowNumber = ((Number) element.get("rowNumber")).intValue();
+                    } else if (elements.size() == rowDataList.size()) {
+                        // 未返回行号但数量一致时按位置对应
+                        rowNumber = rowDataList.get(i).getRowNumber();
+                    }
+                    if (rowNumber != null) {
+                        result.put(rowNumber, toRecognizedFields(element));
+                    }
+                } catch (Exception e) {
+                    log.warn("解析AI批量响应第{}个元素失败: {}", i, e.getMessage());
                 }
             }
-            if (responseMap.containsKey("unit")) {
-                fields.setUnit((String) responseMap.get("unit"));
-            }
-            
-            // 设置订单信息
-            if (responseMap.containsKey("orderType")) {
-                fields.setOrderType((String) responseMap.get("orderType"));
-            }
-            if (responseMap.containsKey("specialRequirements")) {
-                fields.setSpecialRequirements((String) responseMap.get("specialRequirements"));
+        } catch (Exception e) {
+            log.error("解析AI批量行字段识别响应失败", e);
+        }
+        return result;
+    }
+
+    /**
+     * 将AI返回的单行JSON对象转换为识别字段
+     */
+    private AIExcelRowData.RecognizedFields toRecognizedFields(Map<String, Object> responseMap) {
+        AIExcelRowData.RecognizedFields fields = new AIExcelRowData.RecognizedFields();
+        
+        // 设置客户信息
+        if (responseMap.containsKey("customerName")) {
+            fields.setCustomerName((String) responseMap.get("customerName"));
+        }
+        if (responseMap.containsKey("customerCode")) {
+            fields.setCustomerCode((String) responseMap.get("customerCode"));
+        }
+        if (responseMap.containsKey("contactPerson")) {
+            fields.setContactPerson((String) responseMap.get("contactPerson"));
+        }
+        if (responseMap.containsKey("contactPhone")) {
+            fields.setContactPhone((String) responseMap.get("contactPhone"));
+        }
+        if (responseMap.containsKey("deliveryAddress")) {
+            fields.setDeliveryAddress((String) responseMap.get("deliveryAddress"));
+        }
+        if (responseMap.containsKey("expectedDeliveryDate")) {
+            fields.setExpectedDeliveryDate((String) responseMap.get("expectedDeliveryDate"));
+        }
+        if(responseMap.containsKey("sourceOrderId")){
+            fields.setSourceOrderId((String) responseMap.get("sourceOrderId"));
+        }
+
+        if(responseMap.containsKey("salesNote")){
+            fields.setSalesNote((String) responseMap.get("salesNote"));
+        }
+        if(responseMap.containsKey("buyerNote")){
+            fields.setBuyerNote((String) responseMap.get("buyerNote"));
+        }
+        if(responseMap.containsKey("provinceName")) {
+            fields.setProvinceName((String) responseMap.get("provinceName"));
+        }
+        if(responseMap.containsKey("cityName")){
+            fields.setCityName((String) responseMap.get("cityName"));
+        }
+        if(responseMap.containsKey("districtName")){
+            fields.setDistrictName((String) responseMap.get("districtName"));
+        }
+
+        if(responseMap.containsKey("confidence")){
+            fields.setAiConfidence(((Number) responseMap.get("confidence")).doubleValue());
+        }
+        
+        // 设置商品信息
+        if (responseMap.containsKey("productSku")) {
+            fields.setProductSku((String) responseMap.get("productSku"));
+        }
+        if (responseMap.containsKey("productName")) {
+            fields.setProductName((String) responseMap.get("productName"));
+        }
+        if (responseMap.containsKey("productSpecification")) {
+            fields.setProductSpecification((String) responseMap.get("productSpecification"));
+        }
+        if (responseMap.containsKey("quantity")) {
+            Object quantity = responseMap.get("quantity");
+            if (quantity instanceof Number) {
+                fields.setQuantity(((Number) quantity).intValue());
             }
-            if (responseMap.containsKey("remarks")) {
-                fields.setRemarks((String) responseMap.get("remarks"));
+        }
+        if (responseMap.containsKey("unitPrice")) {
+            Object unitPrice = responseMap.get("unitPrice");
+            if (unitPrice instanceof Number) {
+                fields.setUnitPrice(((Number) unitPrice).doubleValue());
             }
-            
-            return fields;
-            
-        } catch (Exception e) {
-            log.error("解析AI行字段识别响应失败", e);
-            return null;
         }
+        if (responseMap.containsKey("unit")) {
+            fields.setUnit((String) responseMap.get("unit"));
+        }
+        
+        // 设置订单信息
+        if (responseMap.containsKey("orderType")) {
+            fields.setOrderType((String) responseMap.get("orderType"));
+        }
+        if (responseMap.containsKey("specialRequirements")) {
+            fields.setSpecialRequirements((String) responseMap.get("specialRequirements"));
+        }
+        if (responseMap.containsKey("remarks")) {
+            fields.setRemarks((String) responseMap.get("remarks"));
+        }
+        
+        return fields;
     }
 
     /**
@@ -480,6 +770,24 @@ public class AIExcelFieldRecognitionServiceImpl implements AIExcelFieldRecogniti
         return null;
     }
 
+    /**
+     * 从AI响应中提取JSON数组内容
+     */
+    private String extractJsonArrayFromResponse(String aiResponse) {
+        if (aiResponse == null) {
+            return null;
+        }
+
+        int startIndex = aiResponse.indexOf('[');
+        int endIndex = aiResponse.lastIndexOf(']');
+
+        if (startIndex >= 0 && endIndex > startIndex) {
+            return aiResponse.substring(startIndex, endIndex + 1);
+        }
+
+        return null;
+    }
+
     /**
      * 规则识别的备选方案
      */
@@ -554,6 +862,89 @@ public class AIExcelFieldRecognitionServiceImpl implements AIExcelFieldRecogniti
         return fields;
     }
 
+    /**
+     * 确定列映射对应的列下标
+     * AI返回的columnIndex可能是从1开始的序号，以原始列标题为准进行校正
+     */
+    private int resolveColumnIndex(ColumnMapping mapping, AIExcelRowData rowData) {
+        int size = rowData.getRawValues().size();
+        String header = mapping.getOriginalHeader();
+        int index = mapping.getColumnIndex();
+        if (header == null) {
+            return index >= 0 && index < size ? index : -1;
+        }
+        if (index >= 0 && index < size && header.equals(rowData.getColumnHeaders().get(String.valueOf(index)))) {
+            return index;
+        }
+        for (int i = 0; i < size; i++) {
+            if (header.equals(rowData.getColumnHeaders().get(String.valueOf(i)))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 按识别出的字段名写入单元格值
+     */
+    private void applyFieldValue(AIExcelRowData.RecognizedFields fields, String fieldName, String value) {
+        switch (fieldName) {
+            case "customerName" -> fields.setCustomerName(value);
+            case "customerCode" -> fields.setCustomerCode(value);
+            case "contactPerson" -> fields.setContactPerson(value);
+            case "contactPhone" -> fields.setContactPhone(value);
+            case "deliveryAddress" -> fields.setDeliveryAddress(value);
+            case "expectedDeliveryDate" -> fields.setExpectedDeliveryDate(value);
+            case "productSku" -> fields.setProductSku(value);
+            case "productName" -> fields.setProductName(value);
+            case "productSpecification" -> fields.setProductSpecification(value);
+            case "quantity" -> fields.setQuantity(new BigDecimal(value).intValueExact());
+            case "unitPrice" -> fields.setUnitPrice(Double.parseDouble(value));
+            case "unit" -> fields.setUnit(value);
+            case "orderType" -> fields.setOrderType(value);
+            case "specialRequirements" -> fields.setSpecialRequirements(value);
+            case "remarks" -> fields.setRemarks(value);
+            case "sourceOrderId" -> fields.setSourceOrderId(value);
+            case "salesNote" -> fields.setSalesNote(value);
+            case "buyerNote" -> fields.setBuyerNote(value);
+            case "provinceName" -> fields.setProvinceName(value);
+            case "cityName" -> fields.setCityName(value);
+            case "districtName" -> fields.setDistrictName(value);
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * 从完整地址中拆分省市区
+     */
+    private void fillRegionFromAddress(AIExcelRowData.RecognizedFields fields) {
+        Matcher matcher = ADDRESS_PATTERN.matcher(fields.getDeliveryAddress().replaceAll("\\s+", ""));
+        if (!matcher.find() || matcher.group("district") == null) {
+            return;
+        }
+        String province = matcher.group("province");
+        String city = matcher.group("city");
+        if (fields.getProvinceName() == null && province != null) {
+            fields.setProvinceName(province);
+        }
+        if (fields.getCityName() == null) {
+            fields.setCityName(city != null ? city : (province != null && MUNICIPALITIES.contains(province) ? province : null));
+        }
+        fields.setDistrictName(matcher.group("district"));
+    }
+
+    /**
+     * 规则投影结果是否满足下单所需字段，不满足的行需要AI识别
+     */
+    private boolean isProjectionComplete(AIExcelRowData.RecognizedFields fields) {
+        return (fields.getProductName() != null || fields.getProductSku() != null)
+                && fields.getQuantity() != null && fields.getQuantity() > 0
+                && fields.getContactPhone() != null && PHONE_PATTERN.matcher(fields.getContactPhone()).matches()
+                && fields.getDeliveryAddress() != null
+                && fields.getDistrictName() != null;
+    }
+
     /**
      * 查找最佳字段匹配
      */
@@ -4,30 +4,46 @@ import cn.hutool.json.JSONObject;
 import com.alibaba.excel.EasyExcel;
 import com.alibaba.excel.context.AnalysisContext;
 import com.alibaba.excel.event.AnalysisEventListener;
+import com.alibaba.excel.exception.ExcelAnalysisStopException;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yibang.erp.common.util.UserSecurityUtils;
+import com.yibang.erp.config.AIConfig;
+import com.yibang.erp.config.AIExcelTaskConfig;
 import com.yibang.erp.domain.dto.*;
 import com.yibang.erp.domain.entity.*;
 import com.yibang.erp.domain.service.*;
+import com.yibang.erp.infrastructure.excel.ExcelRowStream;
 import com.yibang.erp.infrastructure.repository.*;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -77,17 +93,26 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    // 任务进度缓存
-    private final Map<String, TaskProgress> progressCache = new ConcurrentHashMap<>();
+    @Autowired
+    private AIExcelTaskProgressTracker progressTracker;
 
     // 当前任务ID上下文
     private final ThreadLocal<String> currentTaskIdContext = new ThreadLocal<>();
     @Autowired
-    private OrderServiceImpl orderServiceImpl;
-    @Autowired
     private UserRepository userRepository;
     @Autowired
     private ProductPriceTierConfigRepository productPriceTierConfigRepository;
+    @Autowired
+    private AIConfig aiConfig;
+    @Autowired
+    private AIExcelTaskConfig taskConfig;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private OrderPricingService orderPricingService;
+
+    // 应用停机中，处理中的任务需要尽快停止并放回队列
+    private volatile boolean shuttingDown;
 
     @Override
     public AIExcelProcessResponse startAIExcelProcess(MultipartFile file, AIExcelProcessRequest request) {
@@ -95,18 +120,19 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
 
         try {
 
-            // 创建任务记录
+            // 上传内容保存到任务存储目录，排队和重启续跑时都从这里读取
+            Path excelFile = saveUploadFile(file, taskId);
+
+            // 创建任务记录，PENDING状态的任务记录即为任务队列
             AIExcelProcessTask task = createTaskRecord(file, request, taskId);
+            task.setFilePath(excelFile.toString());
+            task.setProcessParams(objectMapper.writeValueAsString(request));
             taskRepository.insert(task);
             log.info("ai-excel-task-save success");
-            // 初始化进度缓存
-            TaskProgress progress = new TaskProgress(taskId);
-            progressCache.put(taskId, progress);
-
-
-            // 异步启动处理任务
-            startAsyncProcessing(file, request, taskId);
+            // 发布初始进度
+            progressTracker.publish(task);
 
+            // 由AIExcelTaskDispatcher认领后在专用线程池中处理
 
             return buildInitialResponse(taskId, task);
 
@@ -117,23 +143,69 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
     }
 
     @Override
-    public AIExcelProcessResponse getTaskProgress(String taskId) {
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void processQueuedTask(String taskId) {
+        AIExcelProcessTask task = taskRepository.selectOne(
+                new QueryWrapper<AIExcelProcessTask>().eq("task_id", taskId)
+        );
+        if (task == null) {
+            log.warn("AI Excel任务不存在: {}", taskId);
+            return;
+        }
+
+        Path excelFile = StringUtils.hasText(task.getFilePath()) ? Paths.get(task.getFilePath()) : null;
+        boolean finished = true;
         try {
-            AIExcelProcessTask task = taskRepository.selectOne(
-                    new QueryWrapper<AIExcelProcessTask>().eq("task_id", taskId)
-            );
+            if (excelFile == null || !Files.exists(excelFile)) {
+                updateTaskStatus(taskId, "FAILED", "处理失败: 上传文件不存在");
+                return;
+            }
+            AIExcelProcessRequest request = objectMapper.readValue(task.getProcessParams(), AIExcelProcessRequest.class);
+            progressTracker.track(task);
 
-            if (task == null) {
-                return buildErrorResponse(taskId, "任务不存在");
+            finished = processTask(excelFile, request, taskId);
+
+        } catch (Exception e) {
+            log.error("AI Excel任务启动失败: {}", taskId, e);
+            updateTaskStatus(taskId, "FAILED", "处理失败: " + e.getMessage());
+        } finally {
+            progressTracker.release(taskId);
+            if (finished) {
+                if (excelFile != null) {
+                    deleteUploadFile(excelFile);
+                }
+            } else {
+                // 节点停机中断的任务放回队列，保留上传文件由其它节点或重启后续跑
+                taskRepository.releaseTask(task.getId());
             }
+        }
+    }
 
-            TaskProgress progress = progressCache.get(taskId);
+    /**
+     * 停机时通知处理中的任务尽快停止并放回队列
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void onContextClosed() {
+        shuttingDown = true;
+    }
+
+    @Override
+    public AIExcelProcessResponse getTaskProgress(String taskId) {
+        try {
+            // 进度优先读取内存和Redis，过期后才回查数据库
+            AIExcelTaskProgress progress = progressTracker.getProgress(taskId);
             if (progress == null) {
-                progress = new TaskProgress(taskId);
-                progressCache.put(taskId, progress);
+                AIExcelProcessTask task = taskRepository.selectOne(
+                        new QueryWrapper<AIExcelProcessTask>().eq("task_id", taskId)
+                );
+
+                if (task == null) {
+                    return buildErrorResponse(taskId, "任务不存在");
+                }
+                progress = AIExcelTaskProgress.fromTask(task);
             }
 
-            return buildProgressResponse(task, progress);
+            return buildProgressResponse(progress);
 
         } catch (Exception e) {
             log.error("获取任务进度失败", e);
@@ -152,16 +224,20 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
                 return false;
             }
 
-            if ("PROCESSING".equals(task.getTaskStatus())) {
-                task.setTaskStatus("CANCELLED");
-                task.setUpdatedAt(LocalDateTime.now());
-                taskRepository.updateById(task);
+            // 未被认领的任务不会再有节点处理，取消后直接删除上传文件
+            if ("PENDING".equals(task.getTaskStatus()) && taskRepository.cancelPendingTask(taskId) == 1) {
+                progressTracker.updateStatus(taskId, "CANCELLED");
+                if (StringUtils.hasText(task.getFilePath())) {
+                    deleteUploadFile(Paths.get(task.getFilePath()));
+                }
+                return true;
+            }
 
+            // 处理中的任务停止后由处理线程删除上传文件
+            // 只修改状态，处理线程已写入的进度计数保持不变
+            if (taskRepository.cancelTask(taskId) == 1) {
                 // 更新进度缓存
-                TaskProgress progress = progressCache.get(taskId);
-                if (progress != null) {
-                    progress.setStatus("CANCELLED");
-                }
+                progressTracker.updateStatus(taskId, "CANCELLED");
 
                 return true;
             }
@@ -786,47 +862,65 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
     }
 
     /**
-     * 异步启动处理任务
+     * 处理任务：解析、AI识别、商品匹配、订单创建以流水线方式逐行推进，不再把整个文件读入内存
+     * @return 任务是否已结束；节点停机中断时返回false，任务需要放回队列
      */
-    @Async
-    protected void startAsyncProcessing(MultipartFile file, AIExcelProcessRequest request, String taskId) throws InterruptedException {
+    private boolean processTask(Path excelFile, AIExcelProcessRequest request, String taskId) {
+        ExcelRowStream<AIExcelRowData> rowStream = new ExcelRowStream<>(Math.max(1, aiConfig.getStreamQueueCapacity()));
+        CompletableFuture<List<String>> headersFuture = new CompletableFuture<>();
 
         try {
             // 设置当前任务ID到线程上下文
             setCurrentTaskId(taskId);
 
-            log.info("AI Excel处理任务开始，任务ID: {} {}", taskId, file.getName());
+            log.info("AI Excel处理任务开始，任务ID: {} {}", taskId, excelFile.getFileName());
             // 更新任务状态为处理中
             updateTaskStatus(taskId, "PROCESSING", "开始处理Excel文件");
 
-            // 解析Excel文件  解析里面有row的处理
-            List<AIExcelRowData> rowDataList = parseExcelFile(file, taskId);
+            // 解析Excel文件：解析线程边读边投递到有界队列，队列满时阻塞解析，形成背压
+            Schedulers.boundedElastic().schedule(() -> parseExcelFile(excelFile, taskId, rowStream, headersFuture));
+
+            // AI字段识别、数据验证和商品匹配、创建订单
+            StreamStatistics statistics = processRowStream(rowStream, headersFuture.get(), request, taskId);
 
-            // AI字段识别和映射
-            List<AIExcelRowData> recognizedDataList = recognizeFields(rowDataList, taskId);
+            if ("SHUTDOWN".equals(statistics.getStopReason())) {
+                log.info("应用停机，AI Excel任务放回队列，任务ID: {}", taskId);
+                return false;
+            }
+            if ("CANCELLED".equals(statistics.getStopReason())) {
+                updateTaskFinalProgress(taskId, null, Integer.valueOf(0), statistics.getSuccessRows(),
+                        statistics.getFailedRows(), statistics.getManualProcessRows());
+                updateTaskStatus(taskId, "CANCELLED", "任务已取消");
+                return true;
+            }
 
-            if(CollectionUtils.isEmpty(recognizedDataList) && CollectionUtils.isNotEmpty(rowDataList)){
+            if (statistics.getRecognizedRows() == 0 && statistics.getTotalRows() > 0) {
                 //还得更新 detail
 
-                updateTaskFinalProgress(taskId, rowDataList.size(), Integer.valueOf(0), 0, rowDataList.size(), 0);
+                updateTaskFinalProgress(taskId, statistics.getTotalRows(), Integer.valueOf(0), 0, statistics.getTotalRows(), 0);
                 updateTaskStatus(taskId, "FAILED", "处理失败: " + "AI映射字段失败");
-                return;
+                return true;
             }
-            // 数据验证和商品匹配
-            List<ProcessedRowData> processedDataList = processAndValidateData(recognizedDataList, request, taskId);
-
 
-
-            // 创建订单  这里面订单号 得处理一下，需要记录原来平台的订单号
-            createOrdersFromProcessedData(processedDataList, request, taskId);
+            // 更新最终进度
+            updateTaskFinalProgress(taskId, null, Integer.valueOf(0), statistics.getSuccessRows(),
+                    statistics.getFailedRows(), statistics.getManualProcessRows());
 
             // 更新任务状态为完成
             updateTaskStatus(taskId, "COMPLETED", "Excel处理完成");
+            return true;
 
         } catch (Exception e) {
+            if (shuttingDown) {
+                log.info("应用停机，AI Excel任务中断，任务ID: {}", taskId);
+                return false;
+            }
             log.error("AI Excel处理任务执行失败", e);
             updateTaskStatus(taskId, "FAILED", "处理失败: " + e.getMessage());
+            return true;
         } finally {
+            // 处理提前结束时让解析线程停止读取
+            rowStream.cancel();
             // 清理当前任务ID上下文
             clearCurrentTaskId();
         }
@@ -834,15 +928,16 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
 
     /**
      * 解析Excel文件 - 使用EasyExcel标准方式
+     * 每解析出一行就投递到行数据流
      */
-    private List<AIExcelRowData> parseExcelFile(MultipartFile file, String taskId) throws IOException {
-        List<AIExcelRowData> rowDataList = new ArrayList<>();
+    private void parseExcelFile(Path excelFile, String taskId, ExcelRowStream<AIExcelRowData> rowStream,
+                                CompletableFuture<List<String>> headersFuture) {
         List<String> headers = new ArrayList<>();
 
-        log.info("开始解析Excel文件: {}, 大小: {} bytes", file.getOriginalFilename(), file.getSize());
+        log.info("开始解析Excel文件: {}", excelFile.getFileName());
 
         try {
-            EasyExcel.read(file.getInputStream(), new AnalysisEventListener<Map<Integer, String>>() {
+            EasyExcel.read(excelFile.toFile(), new AnalysisEventListener<Map<Integer, String>>() {
                 private int rowIndex = 0;
                 private int processedRows = 0;
 
@@ -854,6 +949,7 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
                     log.info("Excel 真标题行：", headMap);
                     headers.addAll(headMap.values());
                     log.info("Excel标题行: {}", headers);
+                    headersFuture.complete(new ArrayList<>(headers));
                 }
 
                 @Override
@@ -880,7 +976,10 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
                         }
                         row.setColumnHeaders(columnHeaders);
 
-                        rowDataList.add(row);
+                        // 队列满时阻塞，处理方已退出时停止解析
+                        if (!rowStream.put(row)) {
+                            throw new ExcelAnalysisStopException("任务已结束，停止解析Excel");
+                        }
                         processedRows++;
 
                         // 每处理100行更新一次进度
@@ -891,6 +990,8 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
 
                         rowIndex++;
 
+                    } catch (ExcelAnalysisStopException e) {
+                        throw e;
                     } catch (Exception e) {
                         log.error("解析第 {} 行数据失败", rowIndex, e);
                         exceptionRow++;
@@ -917,79 +1018,226 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
                 }
             }).sheet().doRead();
 
+            rowStream.complete();
+
+        } catch (ExcelAnalysisStopException e) {
+            log.info("任务已结束，停止解析Excel，任务ID: {}", taskId);
         } catch (Exception e) {
-            log.error("Excel文件解析失败: {}", file.getOriginalFilename(), e);
-            throw new IOException("Excel文件解析失败: " + e.getMessage(), e);
+            log.error("Excel文件解析失败: {}", excelFile.getFileName(), e);
+            rowStream.fail(e);
+        } finally {
+            // 没有标题行（空文件或解析失败）时同样要唤醒处理线程
+            headersFuture.complete(new ArrayList<>(headers));
         }
+    }
+
+    /**
+     * 消费行数据流：AI字段识别 -> 数据验证和商品匹配 -> 创建订单，逐行推进
+     */
+    private StreamStatistics processRowStream(ExcelRowStream<AIExcelRowData> rowStream, List<String> headers,
+                                              AIExcelProcessRequest request, String taskId) {
+        StreamStatistics statistics = new StreamStatistics();
+
+        // 续跑的任务跳过已有处理结果的行，避免重复创建订单
+        Set<Integer> finishedRowNumbers = loadFinishedRows(taskId, statistics);
+
+        // 整个文件只识别一次列映射，能按列映射直接投影的行不再调用AI
+        AIExcelFieldRecognitionService.FieldMappingResult mappingResult = recognizeColumnMapping(headers);
+
+        // 按批次打包需要AI识别的行到同一个提示词，批次之间有界并发调用AI识别（限流在DeepSeekClient内完成），
+        // flatMapSequential按行号顺序回收结果，识别结果的落库、匹配和下单仍在当前线程内顺序执行。
+        // 行数据流的阻塞读取放在boundedElastic线程上，避免占用WebClient的事件循环线程
+        int concurrency = Math.max(1, aiConfig.getRecognitionConcurrency());
+        int batchSize = Math.max(1, aiConfig.getRecognitionBatchSize());
+        Iterable<RowRecognition> recognitions = Flux.fromIterable(rowStream)
+                .subscribeOn(Schedulers.boundedElastic())
+                .filter(rowData -> !finishedRowNumbers.contains(rowData.getRowNumber()))
+                .buffer(batchSize)
+                .flatMapSequential(batch -> recognizeBatch(batch, mappingResult), concurrency)
+                .flatMapIterable(batchRecognitions -> batchRecognitions)
+                .toIterable();
+
+        // 待落库的行，攒满一批后统一创建订单和任务详情；提前结束或异常退出时也要落库已处理的行
+        List<ProcessedRowData> pendingRows = new ArrayList<>();
+        int persistBatchSize = Math.max(1, taskConfig.getPersistBatchSize());
+        try {
+            for (RowRecognition recognition : recognitions) {
+                if (shuttingDown) {
+                    statistics.stopReason = "SHUTDOWN";
+                    break;
+                }
+                if (isTaskCancelled(taskId)) {
+                    statistics.stopReason = "CANCELLED";
+                    break;
+                }
+                statistics.totalRows++;
+
+                AIExcelRowData rowData = applyRecognition(recognition, taskId);
+                if (rowData == null) {
+                    continue;
+                }
+                statistics.recognizedRows++;
 
-        return rowDataList;
+                pendingRows.add(processAndValidateRow(rowData, request, taskId));
+                if (pendingRows.size() >= persistBatchSize) {
+                    createOrdersForRows(pendingRows, request, taskId, statistics);
+                }
+            }
+        } finally {
+            createOrdersForRows(pendingRows, request, taskId, statistics);
+        }
+
+        return statistics;
     }
 
     /**
-     * AI字段识别和映射
+     * 读取任务已有的处理结果，用于续跑
+     * 解析失败(ERROR)的行会重新解析，不计入已处理
      */
-    private List<AIExcelRowData> recognizeFields(List<AIExcelRowData> rowDataList, String taskId) {
-        List<AIExcelRowData> recognizedDataList = new ArrayList<>();
+    private Set<Integer> loadFinishedRows(String taskId, StreamStatistics statistics) {
+        List<AIExcelProcessTaskDetail> details = taskDetailRepository.selectList(
+                new QueryWrapper<AIExcelProcessTaskDetail>()
+                        .select("excel_row_number", "process_status")
+                        .eq("task_id", taskId)
+                        .ne("process_status", "ERROR"));
+        Set<Integer> finishedRowNumbers = new HashSet<>();
+        for (AIExcelProcessTaskDetail detail : details) {
+            if (!finishedRowNumbers.add(detail.getExcelRowNumber())) {
+                continue;
+            }
+            statistics.totalRows++;
+            statistics.recognizedRows++;
+            if ("SUCCESS".equals(detail.getProcessStatus())) {
+                statistics.successRows++;
+            } else if ("MANUAL_PROCESS".equals(detail.getProcessStatus())) {
+                statistics.manualProcessRows++;
+            } else {
+                statistics.failedRows++;
+            }
+        }
+        if (!finishedRowNumbers.isEmpty()) {
+            log.info("AI Excel任务续跑，任务ID: {}, 跳过已处理 {} 行", taskId, finishedRowNumbers.size());
+        }
+        return finishedRowNumbers;
+    }
 
-        for (AIExcelRowData rowData : rowDataList) {
-            try {
-                // 使用AI模型识别字段
-                log.info("开始AI字段识别，行号: {}", rowData.getRowNumber());
-                AIExcelRowData.RecognizedFields fields = fieldRecognitionService.recognizeRowFields(rowData);
-                rowData.setRecognizedFields(fields);
+    private boolean isTaskCancelled(String taskId) {
+        return progressTracker.isCancelled(taskId);
+    }
 
-                Double confidence = fields.getAiConfidence();
+    /**
+     * 处理单行AI识别结果
+     * @return 识别成功的行数据，识别失败返回null（已记录错误详情）
+     */
+    private AIExcelRowData applyRecognition(RowRecognition recognition, String taskId) {
+        AIExcelRowData rowData = recognition.getRowData();
+        try {
+            AIExcelRowData.RecognizedFields fields = recognition.getFields();
+            if (fields == null) {
+                throw new IllegalStateException("AI未返回有效的识别结果");
+            }
+            rowData.setRecognizedFields(fields);
 
+            Double confidence = fields.getAiConfidence();
 
-                //先匹配AI返回的置信度，如果没有 则进行规则匹配计算
-                if(fields.getAiConfidence() ==null || fields.getAiConfidence()==0){
-                    // 计算置信度
-                     confidence = calculateConfidence(fields);
-                    rowData.setConfidence(confidence);
-                }
 
+            //先匹配AI返回的置信度，如果没有 则进行规则匹配计算
+            if(fields.getAiConfidence() ==null || fields.getAiConfidence()==0){
+                // 计算置信度
+                 confidence = calculateConfidence(fields);
+                rowData.setConfidence(confidence);
+            }
 
-                log.info("AI字段识别完成，行号: {}, 置信度: {}, 识别字段数: {}",
-                        rowData.getRowNumber(), confidence,
-                        fields != null ? getRecognizedFieldsCount(fields) : 0);
 
-                recognizedDataList.add(rowData);
+            log.info("AI字段识别完成，行号: {}, 置信度: {}, 识别字段数: {}",
+                    rowData.getRowNumber(), confidence,
+                    fields != null ? getRecognizedFieldsCount(fields) : 0);
 
-                // 更新进度 这里有问题
-                updateTaskProgress(taskId, null, 1, null, null, null);
+            // 更新进度 这里有问题
+            updateTaskProgress(taskId, null, 1, null, null, null);
 
-            } catch (Exception e) {
-                log.error("字段识别失败，行号: {}", rowData.getRowNumber(), e);
-                // 记录错误详情
-                saveTaskDetail(taskId, rowData.getRowNumber(), "FAILED",
-                        "字段识别失败", e.getMessage(), null, 0.0);
+            return rowData;
 
-                // 保存错误订单信息
-                try {
-                    Map<String, Object> rawData = new HashMap<>();
-                    rawData.put("excelRowNumber", rowData.getRowNumber());
-                    rawData.put("rawValues", rowData.getRawValues());
-                    rawData.put("columnHeaders", rowData.getColumnHeaders());
-
-                    errorOrderService.saveErrorOrder(
-                            taskId,
-                            rowData.getRowNumber(),
-                            rawData,
-                            "VALIDATION_ERROR",
-                            "字段识别失败: " + e.getMessage(),
-                            "请检查Excel数据格式，确保列标题和数据内容正确"
-                    );
-                } catch (Exception saveError) {
-                    log.error("保存错误订单信息失败", saveError);
-                }
-            }finally {
-                updateTaskProgress(taskId, null, 1, null, 1, null);
+        } catch (Exception e) {
+            log.error("字段识别失败，行号: {}", rowData.getRowNumber(), e);
+            // 记录错误详情
+            saveTaskDetail(taskId, rowData.getRowNumber(), "FAILED",
+                    "字段识别失败", e.getMessage(), null, 0.0);
+
+            // 保存错误订单信息
+            try {
+                Map<String, Object> rawData = new HashMap<>();
+                rawData.put("excelRowNumber", rowData.getRowNumber());
+                rawData.put("rawValues", rowData.getRawValues());
+                rawData.put("columnHeaders", rowData.getColumnHeaders());
+
+                errorOrderService.saveErrorOrder(
+                        taskId,
+                        rowData.getRowNumber(),
+                        rawData,
+                        "VALIDATION_ERROR",
+                        "字段识别失败: " + e.getMessage(),
+                        "请检查Excel数据格式，确保列标题和数据内容正确"
+                );
+            } catch (Exception saveError) {
+                log.error("保存错误订单信息失败", saveError);
             }
+
+            updateTaskProgress(taskId, null, 1, null, 1, null);
+            return null;
         }
+    }
 
-        return recognizedDataList;
+
+    /**
+     * 识别整个文件的列映射（AI识别，置信度不足时使用关键词规则）
+     */
+    private AIExcelFieldRecognitionService.FieldMappingResult recognizeColumnMapping(List<String> headers) {
+        if (!Boolean.TRUE.equals(aiConfig.getColumnMappingFirst()) || headers.isEmpty()) {
+            return null;
+        }
+        try {
+            AIExcelFieldRecognitionService.FieldMappingResult mappingResult = fieldRecognitionService.recognizeColumnHeaders(headers);
+            log.info("列映射识别完成，映射列数: {}, 置信度: {}",
+                    mappingResult.getColumnMappings() != null ? mappingResult.getColumnMappings().size() : 0,
+                    mappingResult.getConfidence());
+            return mappingResult;
+        } catch (Exception e) {
+            log.warn("列映射识别失败，全部行使用AI识别", e);
+            return null;
+        }
     }
 
+    /**
+     * 识别一个批次的行：先按列映射投影，投影失败的行再打包交给AI识别
+     */
+    private Mono<List<RowRecognition>> recognizeBatch(List<AIExcelRowData> batch,
+                                                      AIExcelFieldRecognitionService.FieldMappingResult mappingResult) {
+        List<AIExcelRowData.RecognizedFields> projected = new ArrayList<>(batch.size());
+        List<AIExcelRowData> aiRows = new ArrayList<>();
+        for (AIExcelRowData rowData : batch) {
+            AIExcelRowData.RecognizedFields fields = mappingResult != null
+                    ? fieldRecognitionService.projectRowFields(rowData, mappingResult) : null;
+            projected.add(fields);
+            if (fields == null) {
+                aiRows.add(rowData);
+            }
+        }
+        if (aiRows.size() < batch.size()) {
+            log.debug("列映射投影 {} 行，AI识别 {} 行", batch.size() - aiRows.size(), aiRows.size());
+        }
+
+        return fieldRecognitionService.batchRecognizeRowFieldsAsync(aiRows)
+                .map(aiFields -> {
+                    Iterator<AIExcelRowData.RecognizedFields> aiIterator = aiFields.iterator();
+                    List<RowRecognition> batchRecognitions = new ArrayList<>(batch.size());
+                    for (int i = 0; i < batch.size(); i++) {
+                        AIExcelRowData.RecognizedFields fields = projected.get(i);
+                        batchRecognitions.add(new RowRecognition(batch.get(i), fields != null ? fields : aiIterator.next()));
+                    }
+                    return batchRecognitions;
+                });
+    }
 
     /**
      * 计算识别的字段数量
@@ -1053,140 +1301,235 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
     /**
      * 数据验证和商品匹配
      */
-    private List<ProcessedRowData> processAndValidateData(List<AIExcelRowData> recognizedDataList,
-                                                          AIExcelProcessRequest request, String taskId) {
-        List<ProcessedRowData> processedDataList = new ArrayList<>();
+    private ProcessedRowData processAndValidateRow(AIExcelRowData rowData, AIExcelProcessRequest request, String taskId) {
+        try {
+            ProcessedRowData processedData = new ProcessedRowData();
+            processedData.setRowNumber(rowData.getRowNumber());
+            processedData.setRawData(rowData);
 
-        for (AIExcelRowData rowData : recognizedDataList) {
-            try {
-                ProcessedRowData processedData = new ProcessedRowData();
-                processedData.setRowNumber(rowData.getRowNumber());
-                processedData.setRawData(rowData);
-
-                // 验证数据完整性
-                if (!validateRowData(rowData)) {
-                    processedData.setStatus("FAILED");
-                    processedData.setErrorMessage("数据不完整");
-                    processedData.setConfidence(rowData.getConfidence()==null?0.0:Double.valueOf(rowData.getConfidence()));
-                    processedDataList.add(processedData);
-                    continue;
-                }
+            // 验证数据完整性
+            if (!validateRowData(rowData)) {
+                processedData.setStatus("FAILED");
+                processedData.setErrorMessage("数据不完整");
+                processedData.setConfidence(rowData.getConfidence()==null?0.0:Double.valueOf(rowData.getConfidence()));
+                return processedData;
+            }
 
-                // 商品匹配  只要商品匹配成功即可
-                ProductMatchResult productMatch = matchProduct(rowData, request);
-                processedData.setProductMatch(productMatch);
+            // 商品匹配  只要商品匹配成功即可
+            ProductMatchResult productMatch = matchProduct(rowData, request);
+            processedData.setProductMatch(productMatch);
 
-//                // 客户匹配 不需要匹配
-//                CustomerMatchResult customerMatch = matchCustomer(rowData, request);
-//                processedData.setCustomerMatch(customerMatch);
+//            // 客户匹配 不需要匹配
+//            CustomerMatchResult customerMatch = matchCustomer(rowData, request);
+//            processedData.setCustomerMatch(customerMatch);
 
-                 // 确定处理状态    && customerMatch.isMatched(){//
+             // 确定处理状态    && customerMatch.isMatched(){//
 
-                if (productMatch.isMatched() ) {
-                    processedData.setStatus("SUCCESS");
-                    processedData.setConfidence(productMatch.getConfidence());
-                } else if (productMatch.getConfidence() >= request.getMinConfidenceThreshold() ) {
-                    processedData.setStatus("MANUAL_PROCESS");
-                    processedData.setConfidence(productMatch.getConfidence());
-                } else {
-                    processedData.setStatus("FAILED");
-                    processedData.setErrorMessage("商品匹配失败");
-                    processedData.setConfidence(productMatch.getConfidence());
-                }
+            if (productMatch.isMatched() ) {
+                processedData.setStatus("SUCCESS");
+                processedData.setConfidence(productMatch.getConfidence());
+            } else if (productMatch.getConfidence() >= request.getMinConfidenceThreshold() ) {
+                processedData.setStatus("MANUAL_PROCESS");
+                processedData.setConfidence(productMatch.getConfidence());
+            } else {
+                processedData.setStatus("FAILED");
+                processedData.setErrorMessage("商品匹配失败");
+                processedData.setConfidence(productMatch.getConfidence());
+            }
 
-                processedDataList.add(processedData);
+            // 更新进度
+            updateTaskProgress(taskId, null, 0, 1, 0, 0);
 
-                // 更新进度
-                updateTaskProgress(taskId, null, 0, 1, 0, 0);
+            return processedData;
 
-            } catch (Exception e) {
-                log.error("数据处理失败，行号: {}", rowData.getRowNumber(), e);
-                ProcessedRowData processedData = new ProcessedRowData();
-                processedData.setRowNumber(rowData.getRowNumber());
-                processedData.setStatus("FAILED");
-                processedData.setErrorMessage("数据处理异常: " + e.getMessage());
-                processedData.setConfidence(0.0);
-                processedDataList.add(processedData);
-            }
+        } catch (Exception e) {
+            log.error("数据处理失败，行号: {}", rowData.getRowNumber(), e);
+            ProcessedRowData processedData = new ProcessedRowData();
+            processedData.setRowNumber(rowData.getRowNumber());
+            processedData.setRawData(rowData);
+            processedData.setStatus("FAILED");
+            processedData.setErrorMessage("数据处理异常: " + e.getMessage());
+            processedData.setConfidence(0.0);
+            return processedData;
         }
-
-        return processedDataList;
     }
 
     /**
-     * 创建订单
+     * 批量创建订单，并累计到任务统计中
+     * 订单号一次预分配、订单金额在内存中计算，订单、订单项、任务详情各用一条多行INSERT写入，
+     * 整批在同一事务内提交；整批写入失败时逐行重试，只让出错的行失败
      */
-    private void createOrdersFromProcessedData(List<ProcessedRowData> processedDataList,
-                                               AIExcelProcessRequest request, String taskId) {
-        int successCount = 0;
-        int failedCount = 0;
-        int manualProcessCount = 0;
-
-        for (ProcessedRowData processedData : processedDataList) {
-            try {
-                if ("SUCCESS".equals(processedData.getStatus())) {
-                    // 创建订单
-                    Order order = createOrderFromProcessedData(processedData, request);
-                    if(order ==null ){
-                        //无商品信息 直接失败异常处理
-                        failedCount++;
-
-                        // 保存失败详情
-                        saveTaskDetail(taskId, processedData.getRowNumber(), "FAILED",
-                                "处理失败","没有解析到任何商品信息", null, processedData.getConfidence());
-                        continue;
-
-                    }
-                    orderRepository.insert(order);
-
-                    // 创建订单项
-                    createOrderItems(order.getId(), processedData);
-
-                    successCount++;
+    private void createOrdersForRows(List<ProcessedRowData> rows, AIExcelProcessRequest request,
+                                     String taskId, StreamStatistics statistics) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<PendingRow> pendingRows = new ArrayList<>(rows.size());
+        for (ProcessedRowData processedData : rows) {
+            pendingRows.add(buildPendingRow(processedData, request, taskId));
+        }
+        rows.clear();
 
-                    //order 金额计算
-                    orderServiceImpl.calculateOrderTotal(order.getId());
+        priceOrders(pendingRows);
+        assignOrderNumbers(pendingRows, request);
 
-                    //还要保存订单单号Id  和excel 对应的行数据
-                    // 保存成功详情
-                    saveTaskDetailAllData(taskId, processedData.getRowNumber(), "SUCCESS",
-                            "订单创建成功", null, order.getPlatformOrderId(),
-                            processedData.getConfidence(),new JSONObject(processedData.rawData).toString());
+        try {
+            transactionTemplate.executeWithoutResult(status -> insertPendingRows(pendingRows));
+        } catch (Exception e) {
+            log.warn("批量创建订单失败，改为逐行创建，任务ID: {}, 行数: {}", taskId, pendingRows.size(), e);
+            for (PendingRow pendingRow : pendingRows) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> insertPendingRows(List.of(pendingRow)));
+                } catch (Exception rowError) {
+                    log.error("创建订单失败，行号: {}", pendingRow.detail.getExcelRowNumber(), rowError);
+                    markCreateFailed(pendingRow, rowError.getMessage());
+                    saveTaskDetail(pendingRow.detail);
+                }
+            }
+        }
 
+        for (PendingRow pendingRow : pendingRows) {
+            String status = pendingRow.detail.getProcessStatus();
+            if ("SUCCESS".equals(status)) {
+                statistics.successRows++;
+            } else if ("MANUAL_PROCESS".equals(status)) {
+                statistics.manualProcessRows++;
+            } else {
+                statistics.failedRows++;
+            }
+        }
+    }
 
+    /**
+     * 构建单行待写入的订单、订单项和任务详情，订单号在批量写入前统一分配
+     */
+    private PendingRow buildPendingRow(ProcessedRowData processedData, AIExcelProcessRequest request, String taskId) {
+        PendingRow pendingRow = new PendingRow();
+        String rawData = new JSONObject(processedData.rawData).toString();
+        try {
+            if ("SUCCESS".equals(processedData.getStatus())) {
+                // 创建订单
+                Order order = createOrderFromProcessedData(processedData, request);
+                if (order == null) {
+                    //无商品信息 直接失败异常处理
+                    pendingRow.detail = buildTaskDetail(taskId, processedData.getRowNumber(), "FAILED",
+                            "处理失败", "没有解析到任何商品信息", processedData.getConfidence(), null);
+                    return pendingRow;
+                }
+                OrderItem orderItem = buildOrderItem(processedData);
 
+                // 订单金额在整批定价时计算
+                pendingRow.order = order;
+                pendingRow.orderItem = orderItem;
+                // 订单号分配后回填到详情
+                pendingRow.detail = buildTaskDetail(taskId, processedData.getRowNumber(), "SUCCESS",
+                        "订单创建成功", null, processedData.getConfidence(), rawData);
 
+            } else if ("MANUAL_PROCESS".equals(processedData.getStatus())) {
+                // 保存需要人工处理的详情
+                pendingRow.detail = buildTaskDetail(taskId, processedData.getRowNumber(), "MANUAL_PROCESS",
+                        "需要人工处理", processedData.getErrorMessage(), processedData.getConfidence(), rawData);
 
-                } else if ("MANUAL_PROCESS".equals(processedData.getStatus())) {
-                    manualProcessCount++;
+            } else {
+                // 保存失败详情
+                pendingRow.detail = buildTaskDetail(taskId, processedData.getRowNumber(), "FAILED",
+                        "处理失败", processedData.getErrorMessage(), processedData.getConfidence(), rawData);
+            }
 
+        } catch (Exception e) {
+            log.error("创建订单失败，行号: {}", processedData.getRowNumber(), e);
+            pendingRow.detail = buildTaskDetail(taskId, processedData.getRowNumber(), "FAILED",
+                    "创建订单异常", e.getMessage(), 0.0, rawData);
+        }
+        return pendingRow;
+    }
 
-                    // 保存需要人工处理的详情
-                    saveTaskDetailAllData(taskId, processedData.getRowNumber(), "MANUAL_PROCESS",
-                            "需要人工处理", processedData.getErrorMessage(), null, processedData.getConfidence(),new JSONObject(processedData.rawData).toString());
+    /**
+     * 整批订单一次按销售的价格分层定价，并在内存中计算订单金额
+     */
+    private void priceOrders(List<PendingRow> pendingRows) {
+        List<PendingRow> orderRows = pendingRows.stream()
+                .filter(pendingRow -> pendingRow.order != null)
+                .collect(Collectors.toList());
+        if (orderRows.isEmpty()) {
+            return;
+        }
+        try {
+            orderPricingService.priceOrders(
+                    orderRows.stream().map(pendingRow -> pendingRow.order).collect(Collectors.toList()),
+                    orderRows.stream().map(pendingRow -> List.of(pendingRow.orderItem)).collect(Collectors.toList()));
+        } catch (Exception e) {
+            log.error("批量计算订单价格失败，行数: {}", orderRows.size(), e);
+            for (PendingRow pendingRow : orderRows) {
+                markCreateFailed(pendingRow, e.getMessage());
+            }
+        }
+    }
 
-                } else {
-                    failedCount++;
+    /**
+     * 为一批订单一次预分配订单号
+     */
+    private void assignOrderNumbers(List<PendingRow> pendingRows, AIExcelProcessRequest request) {
+        List<PendingRow> orderRows = pendingRows.stream()
+                .filter(pendingRow -> pendingRow.order != null)
+                .collect(Collectors.toList());
+        if (orderRows.isEmpty()) {
+            return;
+        }
+        try {
+            List<String> orderNumbers = orderNumberGeneratorService.preGenerateOrderNumbers(
+                    request.getOperatorName(), "EXCEL_IMPORT", orderRows.size());
+            for (int i = 0; i < orderRows.size(); i++) {
+                PendingRow pendingRow = orderRows.get(i);
+                pendingRow.order.setPlatformOrderId(orderNumbers.get(i));
+                pendingRow.detail.setOrderId(orderNumbers.get(i));
+            }
+        } catch (Exception e) {
+            log.error("批量生成订单号失败，行数: {}", orderRows.size(), e);
+            for (PendingRow pendingRow : orderRows) {
+                markCreateFailed(pendingRow, e.getMessage());
+            }
+        }
+    }
 
-                    // 保存失败详情
-                    saveTaskDetailAllData(taskId, processedData.getRowNumber(), "FAILED",
-                            "处理失败", processedData.getErrorMessage(), null, processedData.getConfidence(),new JSONObject(processedData.rawData).toString());
+    /**
+     * 多行INSERT写入订单、订单项和任务详情，订单项的订单ID取自订单插入后回填的自增ID
+     */
+    private void insertPendingRows(List<PendingRow> pendingRows) {
+        List<Order> orders = new ArrayList<>();
+        for (PendingRow pendingRow : pendingRows) {
+            if (pendingRow.order != null) {
+                orders.add(pendingRow.order);
+            }
+        }
+        if (!orders.isEmpty()) {
+            orderRepository.batchInsert(orders);
+            List<OrderItem> orderItems = new ArrayList<>(orders.size());
+            for (PendingRow pendingRow : pendingRows) {
+                if (pendingRow.order != null) {
+                    pendingRow.orderItem.setOrderId(pendingRow.order.getId());
+                    orderItems.add(pendingRow.orderItem);
                 }
-
-            } catch (Exception e) {
-                log.error("创建订单失败，行号: {}", processedData.getRowNumber(), e);
-                failedCount++;
-
-                // 保存错误详情
-                saveTaskDetailAllData(taskId, processedData.getRowNumber(), "FAILED",
-                        "创建订单异常", e.getMessage(), null, 0.0,new JSONObject(processedData.rawData).toString());
             }
+            orderItemRepository.batchInsert(orderItems);
         }
-
-        // 更新最终进度
-        updateTaskFinalProgress(taskId, null, Integer.valueOf(0), Integer.valueOf(successCount), Integer.valueOf(failedCount), Integer.valueOf(manualProcessCount));
+        taskDetailRepository.batchInsert(pendingRows.stream()
+                .map(pendingRow -> pendingRow.detail)
+                .collect(Collectors.toList()));
     }
 
+    /**
+     * 订单写入失败，该行改为失败详情
+     */
+    private void markCreateFailed(PendingRow pendingRow, String errorMessage) {
+        pendingRow.order = null;
+        pendingRow.orderItem = null;
+        pendingRow.detail.setProcessStatus("FAILED");
+        pendingRow.detail.setProcessingNotes("创建订单异常");
+        pendingRow.detail.setErrorMessage(errorMessage);
+        pendingRow.detail.setConfidence(0.0);
+        pendingRow.detail.setOrderId(null);
+    }
 
     private boolean validateRowData(AIExcelRowData rowData) {
         AIExcelRowData.RecognizedFields fields = rowData.getRecognizedFields();
@@ -1298,9 +1641,7 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
                 order.setSupplierCompanyId(productMatch.getSupplierCompanyId());
                 return null;
             }
-            // 生成订单号 todo 生成的单号应该使用
-            String orderNo = orderNumberGeneratorService.generatePlatformOrderNo(request.getOperatorName(), "EXCEL_IMPORT");
-            order.setPlatformOrderId(orderNo);
+            // 订单号由批量写入前统一预分配
 
             // 设置平台订单号（如果有的话）
             if (StringUtils.hasText(fields.getSourceOrderId())) {
@@ -1371,8 +1712,7 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
             order.setCreatedAt(LocalDateTime.now());
             order.setUpdatedAt(LocalDateTime.now());
 
-            log.info("创建订单成功，行号: {}, 订单号: {}",
-                    rowData.getRowNumber(), orderNo);
+            log.info("构建订单成功，行号: {}", rowData.getRowNumber());
 
             return order;
 
@@ -1382,7 +1722,10 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
         }
     }
 
-    private void createOrderItems(Long orderId, ProcessedRowData processedData) {
+    /**
+     * 构建订单项，订单ID在订单写入后回填
+     */
+    private OrderItem buildOrderItem(ProcessedRowData processedData) {
         try {
             AIExcelRowData rowData = processedData.getRawData();
             AIExcelRowData.RecognizedFields fields = rowData.getRecognizedFields();
@@ -1391,7 +1734,6 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
                 ProductMatchResult productMatch = processedData.getProductMatch();
 
                 OrderItem orderItem = new OrderItem();
-                orderItem.setOrderId(orderId);
                 orderItem.setProductId(productMatch.getProductId());
 
                 orderItem.setProductName(productMatch.getProductName());
@@ -1437,14 +1779,12 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
                 // 设置基本信息
                 orderItem.setCreatedAt(LocalDateTime.now());
                 orderItem.setUpdatedAt(LocalDateTime.now());
-                // 保存订单项
-                orderItemRepository.insert(orderItem);
 
-                log.info("创建订单项成功，行号: {}, 商品: {}, 数量: {}",
+                log.info("构建订单项成功，行号: {}, 商品: {}, 数量: {}",
                         rowData.getRowNumber(), productMatch.getProductName(), orderItem.getQuantity());
-            } else {
-                log.warn("无法创建订单项，商品匹配失败，行号: {}", rowData.getRowNumber());
+                return orderItem;
             }
+            throw new IllegalStateException("商品匹配失败");
 
         } catch (Exception e) {
             log.error("创建订单项失败，行号: {}", processedData.getRowNumber(), e);
@@ -1474,130 +1814,112 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
         return task;
     }
 
+    /**
+     * 将上传内容保存到任务存储目录，任务结束后删除
+     */
+    private Path saveUploadFile(MultipartFile file, String taskId) throws IOException {
+        String fileName = file.getOriginalFilename();
+        String suffix = fileName != null && fileName.contains(".") ? fileName.substring(fileName.lastIndexOf('.')) : ".xlsx";
+        Path storageDir = Paths.get(taskConfig.getStorageDir());
+        Files.createDirectories(storageDir);
+        Path excelFile = storageDir.resolve(taskId + suffix);
+        try (InputStream inputStream = file.getInputStream()) {
+            Files.copy(inputStream, excelFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            deleteUploadFile(excelFile);
+            throw e;
+        }
+        return excelFile;
+    }
+
+    private void deleteUploadFile(Path excelFile) {
+        try {
+            Files.deleteIfExists(excelFile);
+        } catch (IOException e) {
+            log.warn("删除Excel上传文件失败: {}", excelFile, e);
+        }
+    }
+
     private String generateFileHash(MultipartFile file) {
         // 简单的文件哈希生成
         return file.getOriginalFilename() + "_" + file.getSize() + "_" + file.getContentType();
     }
 
+    /**
+     * 处理线程修改任务状态，只修改仍处于处理中的任务：已取消、已结束或已放回队列的任务不被覆盖
+     */
     private void updateTaskStatus(String taskId, String status, String message) {
         try {
             AIExcelProcessTask task = taskRepository.selectOne(
                     new QueryWrapper<AIExcelProcessTask>().eq("task_id", taskId)
             );
-            if (task != null) {
-                task.setTaskStatus(status);
-                task.setErrorMessage(message);
-                task.setUpdatedAt(LocalDateTime.now());
-                if ("COMPLETED".equals(status) || "FAILED".equals(status)) {
-                    task.setCompletedAt(LocalDateTime.now());
-                } else if ("PROCESSING".equals(status)) {
-                    task.setStartedAt(LocalDateTime.now());
-                }
-                taskRepository.updateById(task);
+            if (task == null) {
+                return;
             }
+            // 只写状态相关的列，不覆盖进度计数
+            UpdateWrapper<AIExcelProcessTask> updateWrapper = new UpdateWrapper<AIExcelProcessTask>()
+                    .set("task_status", status)
+                    .set("error_message", message)
+                    .set("updated_at", LocalDateTime.now())
+                    .eq("id", task.getId())
+                    .eq("task_status", "PROCESSING");
+            if ("COMPLETED".equals(status) || "FAILED".equals(status)) {
+                updateWrapper.set("completed_at", LocalDateTime.now());
+            } else if ("PROCESSING".equals(status)) {
+                updateWrapper.set("started_at", LocalDateTime.now());
+            }
+            if (taskRepository.update(null, updateWrapper) == 0) {
+                log.info("任务状态已变化，不修改为 {}，任务ID: {}", status, taskId);
+                return;
+            }
+            progressTracker.updateStatus(taskId, status);
         } catch (Exception e) {
             log.error("更新任务状态失败", e);
         }
     }
 
+    /**
+     * 设置任务最终进度并立即写入
+     */
     private void updateTaskFinalProgress(String taskId, Integer totalRows, Integer processedRows,
                                     Integer successRows, Integer failedRows, Integer manualProcessRows){
-        try {
-            TaskProgress progress = progressCache.get(taskId);
-            if (progress != null) {
-                if (totalRows != null) progress.setTotalRows(totalRows);
-                if (processedRows != null) progress.setProcessedRows(processedRows);
-                if (successRows != null) progress.setSuccessRows( successRows);
-                if (failedRows != null) progress.setFailedRows(failedRows);
-                if (manualProcessRows != null)
-                    progress.setManualProcessRows( manualProcessRows);
-            }
-
-            //对task进行更新
-            AIExcelProcessTask task = taskRepository.selectOne(
-                    new QueryWrapper<AIExcelProcessTask>().eq("task_id", taskId)
-            );
-
-            task.setTaskStatus("PROCESSING");
-            task.setUpdatedAt(LocalDateTime.now());
-            task.setProcessedRows(progress.getProcessedRows());
-            task.setTotalRows(progress.getTotalRows());
-            task.setFailedRows(progress.getFailedRows());
-            task.setSuccessRows(progress.getSuccessRows());
-            taskRepository.updateById(task);
-
-
-
-        } catch (Exception e) {
-            log.error("更新任务进度失败", e);
-        }
+        progressTracker.setProgress(taskId, totalRows, processedRows, successRows, failedRows, manualProcessRows);
     }
+
+    /**
+     * 累加任务进度，只更新内存计数，由进度跟踪器合并写入
+     */
     private void updateTaskProgress(String taskId, Integer totalRows, Integer processedRows,
                                     Integer successRows, Integer failedRows, Integer manualProcessRows) {
-        try {
-            TaskProgress progress = progressCache.get(taskId);
-            if (progress != null) {
-                if (totalRows != null) progress.setTotalRows(totalRows);
-                if (processedRows != null) progress.setProcessedRows(progress.getProcessedRows() + processedRows);
-                if (successRows != null) progress.setSuccessRows(progress.getSuccessRows() + successRows);
-                if (failedRows != null) progress.setFailedRows(progress.getFailedRows() + failedRows);
-                if (manualProcessRows != null)
-                    progress.setManualProcessRows(progress.getManualProcessRows() + manualProcessRows);
-            }
-
-            //对task进行更新
-            AIExcelProcessTask task = taskRepository.selectOne(
-                    new QueryWrapper<AIExcelProcessTask>().eq("task_id", taskId)
-            );
-            task.setTaskStatus("PROCESSING");
-            task.setUpdatedAt(LocalDateTime.now());
-            task.setProcessedRows(progress.getProcessedRows());
-            task.setTotalRows(progress.getTotalRows());
-            task.setFailedRows(progress.getFailedRows());
-            taskRepository.updateById(task);
-
-
-
-        } catch (Exception e) {
-            log.error("更新任务进度失败", e);
-        }
+        progressTracker.addProgress(taskId, totalRows, processedRows, successRows, failedRows, manualProcessRows);
     }
 
 
-    private void saveTaskDetailAllData(String taskId, Integer rowNumber, String status, String message,
-                                       String errorMessage, String orderId, Double confidence,String rowData){
-        try {
-            AIExcelProcessTaskDetail detail = new AIExcelProcessTaskDetail();
-            detail.setTaskId(taskId);
-            detail.setRawData(rowData);
-            detail.setExcelRowNumber(rowNumber);
-            detail.setProcessStatus(status);
-            detail.setProcessingNotes(message);
-            detail.setErrorMessage(errorMessage);
-            detail.setConfidence(confidence);
-            detail.setOrderId(orderId);
-            detail.setCreatedAt(LocalDateTime.now());
-            detail.setUpdatedAt(LocalDateTime.now());
-            taskDetailRepository.insert(detail);
-        } catch (Exception e) {
-            log.error("保存任务详情失败", e);
-        }
-
-
-
+    /**
+     * 构建任务详情
+     */
+    private AIExcelProcessTaskDetail buildTaskDetail(String taskId, Integer rowNumber, String status, String message,
+                                                     String errorMessage, Double confidence, String rowData) {
+        AIExcelProcessTaskDetail detail = new AIExcelProcessTaskDetail();
+        detail.setTaskId(taskId);
+        detail.setRawData(rowData);
+        detail.setExcelRowNumber(rowNumber);
+        detail.setProcessStatus(status);
+        detail.setProcessingNotes(message);
+        detail.setErrorMessage(errorMessage);
+        detail.setConfidence(confidence);
+        detail.setCreatedAt(LocalDateTime.now());
+        detail.setUpdatedAt(LocalDateTime.now());
+        return detail;
     }
+
     private void saveTaskDetail(String taskId, Integer rowNumber, String status, String message,
                                 String errorMessage, Long orderId, Double confidence) {
+        saveTaskDetail(buildTaskDetail(taskId, rowNumber, status, message, errorMessage, confidence, null));
+    }
+
+    private void saveTaskDetail(AIExcelProcessTaskDetail detail) {
         try {
-            AIExcelProcessTaskDetail detail = new AIExcelProcessTaskDetail();
-            detail.setTaskId(taskId);
-            detail.setExcelRowNumber(rowNumber);
-            detail.setProcessStatus(status);
-            detail.setProcessingNotes(message);
-            detail.setErrorMessage(errorMessage);
-            detail.setConfidence(confidence);
-            detail.setCreatedAt(LocalDateTime.now());
-            detail.setUpdatedAt(LocalDateTime.now());
             taskDetailRepository.insert(detail);
         } catch (Exception e) {
             log.error("保存任务详情失败", e);
@@ -1613,26 +1935,24 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
         return response;
     }
 
-    private AIExcelProcessResponse buildProgressResponse(AIExcelProcessTask task, TaskProgress progress) {
+    private AIExcelProcessResponse buildProgressResponse(AIExcelTaskProgress progress) {
         AIExcelProcessResponse response = new AIExcelProcessResponse();
-        response.setTaskId(task.getTaskId());
-        response.setStatus(task.getTaskStatus());
-        response.setCreatedAt(task.getCreatedAt());
-        response.setStartedAt(task.getStartedAt());
-        response.setCompletedAt(task.getCompletedAt());
-
-        if (progress != null) {
-            AIExcelProcessResponse.ProgressInfo progressInfo = new AIExcelProcessResponse.ProgressInfo();
-            progressInfo.setTotalRows(progress.getTotalRows());
-            progressInfo.setProcessedRows(progress.getProcessedRows());
-            progressInfo.setSuccessRows(progress.getSuccessRows());
-            progressInfo.setFailedRows(progress.getFailedRows());
-            progressInfo.setManualProcessRows(progress.getManualProcessRows());
-            if (progress.getTotalRows() > 0) {
-                progressInfo.setPercentage((double) progress.getProcessedRows() / progress.getTotalRows() * 100);
-            }
-            response.setProgress(progressInfo);
+        response.setTaskId(progress.getTaskId());
+        response.setStatus(progress.getStatus());
+        response.setCreatedAt(progress.getCreatedAt());
+        response.setStartedAt(progress.getStartedAt());
+        response.setCompletedAt(progress.getCompletedAt());
+
+        AIExcelProcessResponse.ProgressInfo progressInfo = new AIExcelProcessResponse.ProgressInfo();
+        progressInfo.setTotalRows(progress.getTotalRows());
+        progressInfo.setProcessedRows(progress.getProcessedRows());
+        progressInfo.setSuccessRows(progress.getSuccessRows());
+        progressInfo.setFailedRows(progress.getFailedRows());
+        progressInfo.setManualProcessRows(progress.getManualProcessRows());
+        if (progress.getTotalRows() > 0) {
+            progressInfo.setPercentage((double) progress.getProcessedRows() / progress.getTotalRows() * 100);
         }
+        response.setProgress(progressInfo);
 
         return response;
     }
@@ -1665,76 +1985,61 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
         return response;
     }
 
-    // 内部类
-    private static class TaskProgress {
-        private String taskId;
-        private String status;
+    /**
+     * 流水线处理统计，只在处理线程内读写
+     */
+    private static class StreamStatistics {
         private int totalRows;
-        private int processedRows;
+        private int recognizedRows;
         private int successRows;
         private int failedRows;
         private int manualProcessRows;
+        // 提前结束的原因：CANCELLED、SHUTDOWN，正常处理完为null
+        private String stopReason;
 
-        public TaskProgress(String taskId) {
-            this.taskId = taskId;
-            this.status = "PENDING";
-        }
-
-        // Getters and setters
-        public String getTaskId() {
-            return taskId;
-        }
-
-        public void setTaskId(String taskId) {
-            this.taskId = taskId;
-        }
-
-        public String getStatus() {
-            return status;
-        }
-
-        public void setStatus(String status) {
-            this.status = status;
+        public String getStopReason() {
+            return stopReason;
         }
 
         public int getTotalRows() {
             return totalRows;
         }
 
-        public void setTotalRows(int totalRows) {
-            this.totalRows = totalRows;
-        }
-
-        public int getProcessedRows() {
-            return processedRows;
-        }
-
-        public void setProcessedRows(int processedRows) {
-            this.processedRows = processedRows;
+        public int getRecognizedRows() {
+            return recognizedRows;
         }
 
         public int getSuccessRows() {
             return successRows;
         }
 
-        public void setSuccessRows(int successRows) {
-            this.successRows = successRows;
-        }
-
         public int getFailedRows() {
             return failedRows;
         }
 
-        public void setFailedRows(int failedRows) {
-            this.failedRows = failedRows;
-        }
-
         public int getManualProcessRows() {
             return manualProcessRows;
         }
+    }
+
+    /**
+     * 单行AI识别结果
+     */
+    private static class RowRecognition {
+        private final AIExcelRowData rowData;
+        private final AIExcelRowData.RecognizedFields fields;
+
+        public RowRecognition(AIExcelRowData rowData, AIExcelRowData.RecognizedFields fields) {
+            this.rowData = rowData;
+            this.fields = fields;
+        }
+
+        public AIExcelRowData getRowData() {
+            return rowData;
+        }
 
-        public void setManualProcessRows(int manualProcessRows) {
-            this.manualProcessRows = manualProcessRows;
+        public AIExcelRowData.RecognizedFields getFields() {
+            return fields;
         }
     }
 
@@ -1805,6 +2110,15 @@ public class AIExcelOrderServiceImpl extends ServiceImpl<AIExcelProcessTaskRepos
         }
     }
 
+    /**
+     * 待批量写入的单行结果：成功行带订单和订单项，其余行只有任务详情
+     */
+    private static class PendingRow {
+        private Order order;
+        private OrderItem orderItem;
+        private AIExcelProcessTaskDetail detail;
+    }
+
 
     /**
      * 创建商品匹配失败的结果
@@ -0,0 +1,202 @@
+package com.yibang.erp.domain.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
+import com.yibang.erp.config.AIExcelTaskConfig;
+import com.yibang.erp.domain.entity.AIExcelProcessTask;
+import com.yibang.erp.domain.service.AIExcelOrderService;
+import com.yibang.erp.infrastructure.repository.AIExcelProcessTaskRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI Excel任务调度器
+ * ai_excel_process_tasks表中PENDING状态的记录即为任务队列：按优先级和创建时间认领，
+ * 提交到专用线程池执行，认领时按数据库中处理中的任务数限制单个销售公司的并发数。处理中的任务定期刷新心跳，
+ * 正常停机时本节点认领的任务立即放回队列，节点宕机遗留的任务在心跳超时后重新放回队列，由任意节点续跑。
+ */
+@Slf4j
+@Component
+public class AIExcelTaskDispatcher implements RuntimeMetricsProvider {
+
+    @Autowired
+    private AIExcelProcessTaskRepository taskRepository;
+
+    @Autowired
+    private AIExcelOrderService aiExcelOrderService;
+
+    @Autowired
+    private AIExcelTaskConfig taskConfig;
+
+    @Autowired
+    @Qualifier("aiExcelTaskExecutor")
+    private ThreadPoolTaskExecutor aiExcelTaskExecutor;
+
+    // 本节点正在处理的任务：taskId -> 销售公司ID
+    private final Map<String, Long> runningTasks = new ConcurrentHashMap<>();
+
+    // 已在线程池中开始处理的任务，停机时由处理线程自己放回队列
+    private final Set<String> startedTasks = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean stopping;
+
+    private final AtomicLong dispatchedTasks = new AtomicLong();
+
+    private final AtomicLong recoveredTasks = new AtomicLong();
+
+    private final AtomicLong releasedTasks = new AtomicLong();
+
+    /**
+     * 启动时先恢复上次退出时遗留的处理中任务
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverOnStartup() {
+        recoverStaleTasks();
+    }
+
+    /**
+     * 按空闲线程数认领待处理任务
+     */
+    @Scheduled(fixedDelayString = "${ai.excel.task.poll-interval-millis:2000}")
+    public synchronized void dispatch() {
+        if (stopping) {
+            return;
+        }
+        int freeSlots = Math.max(1, taskConfig.getWorkerThreads()) - runningTasks.size();
+        if (freeSlots <= 0) {
+            return;
+        }
+
+        // 多取一些候选，跳过已达到公司并发上限的任务
+        List<AIExcelProcessTask> candidates = taskRepository.selectList(new QueryWrapper<AIExcelProcessTask>()
+                .select("id", "task_id", "sales_company_id")
+                .eq("task_status", "PENDING")
+                .orderByAsc("priority", "created_at")
+                .last("LIMIT " + freeSlots * 4));
+
+        int companyLimit = Math.max(1, taskConfig.getPerCompanyConcurrency());
+        for (AIExcelProcessTask task : candidates) {
+            if (freeSlots <= 0) {
+                break;
+            }
+            if (taskRepository.claimPendingTask(task.getId(), task.getSalesCompanyId(), companyLimit) != 1) {
+                // 已被其它节点认领、已取消或该公司处理中的任务已达上限
+                continue;
+            }
+            runningTasks.put(task.getTaskId(), task.getSalesCompanyId());
+            try {
+                aiExcelTaskExecutor.execute(() -> runTask(task));
+                dispatchedTasks.incrementAndGet();
+                freeSlots--;
+            } catch (TaskRejectedException e) {
+                log.warn("AI Excel任务线程池已满，任务放回队列: {}", task.getTaskId());
+                finishTask(task);
+                taskRepository.releaseTask(task.getId());
+                break;
+            }
+        }
+    }
+
+    /**
+     * 刷新本节点处理中任务的心跳，并恢复心跳超时的任务
+     */
+    @Scheduled(fixedDelayString = "${ai.excel.task.heartbeat-interval-millis:60000}")
+    public void heartbeat() {
+        if (!runningTasks.isEmpty()) {
+            taskRepository.touchProcessingTasks(runningTasks.keySet());
+        }
+        recoverStaleTasks();
+    }
+
+    private void recoverStaleTasks() {
+        try {
+            LocalDateTime staleBefore = LocalDateTime.now().minusMinutes(taskConfig.getStaleTimeoutMinutes());
+            int recovered = taskRepository.requeueStaleTasks(staleBefore);
+            if (recovered > 0) {
+                recoveredTasks.addAndGet(recovered);
+                log.warn("恢复心跳超时的AI Excel任务 {} 个，已重新放回队列", recovered);
+            }
+        } catch (Exception e) {
+            log.error("恢复AI Excel任务失败", e);
+        }
+    }
+
+    /**
+     * 停机时不再认领任务，并把已认领但尚未开始处理的任务立即放回队列，不等心跳超时
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void releaseOnShutdown() {
+        Set<String> unstarted;
+        synchronized (this) {
+            stopping = true;
+            unstarted = new HashSet<>(runningTasks.keySet());
+            unstarted.removeAll(startedTasks);
+        }
+        if (unstarted.isEmpty()) {
+            return;
+        }
+        try {
+            int released = taskRepository.releaseTasks(unstarted);
+            releasedTasks.addAndGet(released);
+            log.info("应用停机，{} 个已认领的AI Excel任务放回队列", released);
+        } catch (Exception e) {
+            log.error("停机时放回AI Excel任务失败，等待心跳超时恢复", e);
+        }
+    }
+
+    private void runTask(AIExcelProcessTask task) {
+        synchronized (this) {
+            if (stopping) {
+                // 已在停机时放回队列
+                finishTask(task);
+                return;
+            }
+            startedTasks.add(task.getTaskId());
+        }
+        try {
+            aiExcelOrderService.processQueuedTask(task.getTaskId());
+        } catch (Exception e) {
+            log.error("AI Excel任务执行异常: {}", task.getTaskId(), e);
+        } finally {
+            finishTask(task);
+        }
+    }
+
+    private void finishTask(AIExcelProcessTask task) {
+        startedTasks.remove(task.getTaskId());
+        runningTasks.remove(task.getTaskId());
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "aiExcelTaskDispatcher";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("runningTasks", runningTasks.size());
+        metrics.put("executorActiveThreads", aiExcelTaskExecutor.getActiveCount());
+        metrics.put("dispatchedTasks", dispatchedTasks.get());
+        metrics.put("recoveredTasks", recoveredTasks.get());
+        metrics.put("releasedTasks", releasedTasks.get());
+        return metrics;
+    }
+}
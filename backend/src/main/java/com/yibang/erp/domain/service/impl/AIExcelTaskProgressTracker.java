@@ -0,0 +1,282 @@
+package com.yibang.erp.domain.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
+import com.yibang.erp.config.AIExcelTaskConfig;
+import com.yibang.erp.domain.dto.AIExcelTaskProgress;
+import com.yibang.erp.domain.entity.AIExcelProcessTask;
+import com.yibang.erp.infrastructure.repository.AIExcelProcessTaskRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI Excel任务进度跟踪器
+ * 处理线程只更新内存中的原子计数，由定时任务或累计变化达到阈值时合并写入数据库和Redis；
+ * 进度查询读取内存或Redis中的快照，不再访问数据库。
+ */
+@Slf4j
+@Component
+public class AIExcelTaskProgressTracker implements RuntimeMetricsProvider {
+
+    private static final String PROGRESS_KEY_PREFIX = "ai:excel:progress:";
+
+    @Autowired
+    private AIExcelProcessTaskRepository taskRepository;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private AIExcelTaskConfig taskConfig;
+
+    // 本节点正在处理的任务进度
+    private final Map<String, ProgressEntry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong progressUpdates = new AtomicLong();
+
+    private final AtomicLong databaseFlushes = new AtomicLong();
+
+    /**
+     * 发布任务的初始进度，供任意节点查询（任务尚未在本节点处理）
+     */
+    public void publish(AIExcelProcessTask task) {
+        writeRedis(AIExcelTaskProgress.fromTask(task));
+    }
+
+    /**
+     * 开始在本节点跟踪任务进度，计数从任务记录中已持久化的值继续
+     */
+    public void track(AIExcelProcessTask task) {
+        ProgressEntry entry = new ProgressEntry(AIExcelTaskProgress.fromTask(task));
+        entries.put(task.getTaskId(), entry);
+        writeRedis(entry.snapshot());
+    }
+
+    /**
+     * 结束跟踪：写入最终进度并移出内存，Redis中的快照保留到过期
+     */
+    public void release(String taskId) {
+        ProgressEntry entry = entries.remove(taskId);
+        if (entry != null) {
+            flush(entry);
+        }
+    }
+
+    /**
+     * 累加进度，totalRows为绝对值，其余为增量；参数为null表示不变
+     */
+    public void addProgress(String taskId, Integer totalRows, Integer processedRows,
+                            Integer successRows, Integer failedRows, Integer manualProcessRows) {
+        ProgressEntry entry = entries.get(taskId);
+        if (entry == null) {
+            return;
+        }
+        if (totalRows != null) entry.totalRows.set(totalRows);
+        if (processedRows != null) entry.processedRows.addAndGet(processedRows);
+        if (successRows != null) entry.successRows.addAndGet(successRows);
+        if (failedRows != null) entry.failedRows.addAndGet(failedRows);
+        if (manualProcessRows != null) entry.manualProcessRows.addAndGet(manualProcessRows);
+        markChanged(entry, processedRows);
+    }
+
+    /**
+     * 设置进度，参数均为绝对值；参数为null表示不变
+     */
+    public void setProgress(String taskId, Integer totalRows, Integer processedRows,
+                            Integer successRows, Integer failedRows, Integer manualProcessRows) {
+        ProgressEntry entry = entries.get(taskId);
+        if (entry == null) {
+            return;
+        }
+        if (totalRows != null) entry.totalRows.set(totalRows);
+        if (processedRows != null) entry.processedRows.set(processedRows);
+        if (successRows != null) entry.successRows.set(successRows);
+        if (failedRows != null) entry.failedRows.set(failedRows);
+        if (manualProcessRows != null) entry.manualProcessRows.set(manualProcessRows);
+        markChanged(entry, null);
+        // 最终进度立即写入
+        flush(entry);
+    }
+
+    /**
+     * 更新任务状态，状态本身由调用方写入数据库，这里同步内存和Redis快照
+     */
+    public void updateStatus(String taskId, String status) {
+        LocalDateTime now = LocalDateTime.now();
+        ProgressEntry entry = entries.get(taskId);
+        if (entry != null) {
+            entry.status = status;
+            applyStatusTime(entry.times, status, now);
+            markChanged(entry, null);
+            flush(entry);
+            return;
+        }
+        // 不在本节点处理的任务（如排队中被取消），只更新Redis快照
+        AIExcelTaskProgress progress = readRedis(taskId);
+        if (progress != null) {
+            progress.setStatus(status);
+            applyStatusTime(progress, status, now);
+            writeRedis(progress);
+        }
+    }
+
+    /**
+     * 任务是否已被取消
+     */
+    public boolean isCancelled(String taskId) {
+        ProgressEntry entry = entries.get(taskId);
+        return entry != null && "CANCELLED".equals(entry.status);
+    }
+
+    /**
+     * 查询任务进度：先查本节点内存，再查Redis，都没有时返回null
+     */
+    public AIExcelTaskProgress getProgress(String taskId) {
+        ProgressEntry entry = entries.get(taskId);
+        if (entry != null) {
+            return entry.snapshot();
+        }
+        return readRedis(taskId);
+    }
+
+    /**
+     * 定时写入有变化的任务进度
+     */
+    @Scheduled(fixedDelayString = "${ai.excel.task.progress-flush-interval-millis:2000}")
+    public void flushAll() {
+        for (ProgressEntry entry : entries.values()) {
+            if (entry.dirty) {
+                flush(entry);
+            }
+        }
+    }
+
+    private void markChanged(ProgressEntry entry, Integer processedRows) {
+        progressUpdates.incrementAndGet();
+        entry.dirty = true;
+        int pending = entry.pendingRows.addAndGet(processedRows != null ? Math.max(processedRows, 0) : 0);
+        if (pending >= Math.max(1, taskConfig.getProgressFlushRows())) {
+            flush(entry);
+        }
+    }
+
+    private void flush(ProgressEntry entry) {
+        // 同一任务的写入串行执行，避免旧快照覆盖新快照
+        synchronized (entry) {
+            entry.dirty = false;
+            entry.pendingRows.set(0);
+            AIExcelTaskProgress progress = entry.snapshot();
+            try {
+                taskRepository.updateProgress(progress);
+                databaseFlushes.incrementAndGet();
+                if ("PROCESSING".equals(entry.status)
+                        && "CANCELLED".equals(taskRepository.selectTaskStatus(progress.getTaskId()))) {
+                    // 任务在其它节点被取消
+                    entry.status = "CANCELLED";
+                    progress.setStatus("CANCELLED");
+                }
+            } catch (Exception e) {
+                entry.dirty = true;
+                log.error("写入任务进度失败: {}", entry.times.getTaskId(), e);
+            }
+            writeRedis(progress);
+        }
+    }
+
+    private void applyStatusTime(AIExcelTaskProgress progress, String status, LocalDateTime now) {
+        if ("PROCESSING".equals(status)) {
+            progress.setStartedAt(now);
+        } else if ("COMPLETED".equals(status) || "FAILED".equals(status)) {
+            progress.setCompletedAt(now);
+        }
+    }
+
+    private void writeRedis(AIExcelTaskProgress progress) {
+        try {
+            stringRedisTemplate.opsForValue().set(PROGRESS_KEY_PREFIX + progress.getTaskId(),
+                    objectMapper.writeValueAsString(progress), taskConfig.getProgressRedisTtlHours(), TimeUnit.HOURS);
+        } catch (Exception e) {
+            log.warn("写入任务进度缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private AIExcelTaskProgress readRedis(String taskId) {
+        try {
+            String json = stringRedisTemplate.opsForValue().get(PROGRESS_KEY_PREFIX + taskId);
+            return json != null ? objectMapper.readValue(json, AIExcelTaskProgress.class) : null;
+        } catch (Exception e) {
+            log.warn("读取任务进度缓存失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "aiExcelTaskProgress";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("trackedTasks", entries.size());
+        metrics.put("progressUpdates", progressUpdates.get());
+        metrics.put("databaseFlushes", databaseFlushes.get());
+        return metrics;
+    }
+
+    /**
+     * 单个任务的进度计数
+     */
+    private static class ProgressEntry {
+        // 任务ID、创建/开始/完成时间，只在状态变化时修改
+        private final AIExcelTaskProgress times;
+        private volatile String status;
+        private final AtomicInteger totalRows;
+        private final AtomicInteger processedRows;
+        private final AtomicInteger successRows;
+        private final AtomicInteger failedRows;
+        private final AtomicInteger manualProcessRows;
+        // 距上次写入累计处理的行数
+        private final AtomicInteger pendingRows = new AtomicInteger();
+        private volatile boolean dirty;
+
+        ProgressEntry(AIExcelTaskProgress initial) {
+            this.times = initial;
+            this.status = initial.getStatus();
+            this.totalRows = new AtomicInteger(initial.getTotalRows());
+            this.processedRows = new AtomicInteger(initial.getProcessedRows());
+            this.successRows = new AtomicInteger(initial.getSuccessRows());
+            this.failedRows = new AtomicInteger(initial.getFailedRows());
+            this.manualProcessRows = new AtomicInteger(initial.getManualProcessRows());
+        }
+
+        AIExcelTaskProgress snapshot() {
+            AIExcelTaskProgress progress = new AIExcelTaskProgress();
+            progress.setTaskId(times.getTaskId());
+            progress.setStatus(status);
+            progress.setTotalRows(totalRows.get());
+            progress.setProcessedRows(processedRows.get());
+            progress.setSuccessRows(successRows.get());
+            progress.setFailedRows(failedRows.get());
+            progress.setManualProcessRows(manualProcessRows.get());
+            progress.setCreatedAt(times.getCreatedAt());
+            progress.setStartedAt(times.getStartedAt());
+            progress.setCompletedAt(times.getCompletedAt());
+            return progress;
+        }
+    }
+}
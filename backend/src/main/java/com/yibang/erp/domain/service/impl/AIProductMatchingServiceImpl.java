@@ -1,11 +1,13 @@
 package com.yibang.erp.domain.service.impl;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yibang.erp.domain.dto.DeepSeekChatRequest;
 import com.yibang.erp.domain.dto.DeepSeekChatResponse;
 import com.yibang.erp.domain.dto.ProductMatchResult;
 import com.yibang.erp.domain.entity.Product;
 import com.yibang.erp.domain.service.AIProductMatchingService;
+import com.yibang.erp.infrastructure.cache.AIResultCache;
 import com.yibang.erp.infrastructure.client.DeepSeekClient;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,6 +30,17 @@ public class AIProductMatchingServiceImpl implements AIProductMatchingService {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private AIResultCache aiResultCache;
+
+    // 商品匹配提示词版本，修改提示词或解析逻辑时需要升级
+    private static final String MATCH_PROMPT_VERSION = "v2";
+
+    // 商品匹配使用的模型，同时参与缓存key
+    private static final String MATCH_MODEL = "deepseek-chat";
+
+    private static final TypeReference<List<ProductMatchResult>> MATCH_RESULTS_TYPE = new TypeReference<>() {};
+
     @Override
     public List<ProductMatchResult> matchByNameWithAI(String targetProductName, List<Product> candidateProducts) {
         if (!StringUtils.hasText(targetProductName) || candidateProducts == null || candidateProducts.isEmpty()) {
@@ -35,6 +48,15 @@ public class AIProductMatchingServiceImpl implements AIProductMatchingService {
         }
 
         try {
+            // 同一商品名称在同一批候选商品下的匹配结果是稳定的，优先复用缓存
+            String cacheKey = aiResultCache.buildKey("product-match", MATCH_MODEL, MATCH_PROMPT_VERSION,
+                    targetProductName, buildCandidateFingerprint(candidateProducts));
+            List<ProductMatchResult> cachedResults = aiResultCache.get(cacheKey, MATCH_RESULTS_TYPE);
+            if (cachedResults != null && !cachedResults.isEmpty()) {
+                log.info("AI商品匹配命中缓存: {}", targetProductName);
+                return cachedResults;
+            }
+
             log.info("使用AI模型匹配商品名称: {}, 候选商品数量: {}", targetProductName, candidateProducts.size());
 
             // 构建AI提示词
@@ -53,6 +75,8 @@ public class AIProductMatchingServiceImpl implements AIProductMatchingService {
             // 按置信度排序
             aiResults.sort((a, b) -> Double.compare(b.getConfidence(), a.getConfidence()));
 
+            aiResultCache.put(cacheKey, aiResults);
+
             log.info("AI商品匹配完成，找到 {} 个匹配结果", aiResults.size());
             return aiResults;
 
@@ -64,6 +88,20 @@ public class AIProductMatchingServiceImpl implements AIProductMatchingService {
         }
     }
 
+    /**
+     * 候选商品指纹，候选集合变化（新增、下架、改名）或商品状态变化时缓存自然失效
+     */
+    private String buildCandidateFingerprint(List<Product> candidateProducts) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (Product product : candidateProducts) {
+            fingerprint.append(product.getId()).append(':')
+                    .append(product.getSku()).append(':')
+                    .append(product.getName()).append(':')
+                    .append(product.getStatus()).append(';');
+        }
+        return fingerprint.toString();
+    }
+
     @Override
     public double calculateNameSimilarityWithAI(String name1, String name2) {
         if (!StringUtils.hasText(name1) || !StringUtils.hasText(name2)) {
@@ -255,7 +293,7 @@ public class AIProductMatchingServiceImpl implements AIProductMatchingService {
         try {
             // 构建DeepSeek请求
             DeepSeekChatRequest request = new DeepSeekChatRequest();
-            request.setModel("deepseek-chat");
+            request.setModel(MATCH_MODEL);
             request.setMaxTokens(30000);
             request.setTemperature(0.1);
 
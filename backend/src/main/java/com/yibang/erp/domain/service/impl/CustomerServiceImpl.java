@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.yibang.erp.domain.entity.Customer;
 import com.yibang.erp.domain.service.CustomerService;
+import com.yibang.erp.infrastructure.repository.CustomerRedisRepository;
 import com.yibang.erp.infrastructure.repository.CustomerRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -26,6 +27,9 @@ public class CustomerServiceImpl implements CustomerService {
     @Autowired
     private CustomerRepository customerRepository;
 
+    @Autowired
+    private CustomerRedisRepository customerRedisRepository;
+
     @Override
     public Customer getCustomerById(Long id) {
         return customerRepository.selectById(id);
@@ -81,14 +85,14 @@ public class CustomerServiceImpl implements CustomerService {
         customer.setCreatedAt(LocalDateTime.now());
         customer.setUpdatedAt(LocalDateTime.now());
         
-        customerRepository.insert(customer);
+        customerRedisRepository.insert(customer);
         return customer;
     }
 
     @Override
     public Customer updateCustomer(Customer customer) {
         customer.setUpdatedAt(LocalDateTime.now());
-        customerRepository.updateById(customer);
+        customerRedisRepository.updateById(customer);
         return customer;
     }
 
@@ -0,0 +1,561 @@
+package com.yibang.erp.domain.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
+import com.yibang.erp.domain.dto.InventoryChangedEvent;
+import com.yibang.erp.domain.entity.InventoryAlert;
+import com.yibang.erp.domain.entity.ProductInventory;
+import com.yibang.erp.domain.entity.Warehouse;
+import com.yibang.erp.infrastructure.repository.InventoryAlertRepository;
+import com.yibang.erp.infrastructure.repository.ProductInventoryRepository;
+import com.yibang.erp.infrastructure.repository.WarehouseRedisRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 库存预警引擎
+ * 在内存中保存全部库存的可用数量和预警线，库存变更事件在事务提交后合并，定时按变更量更新，
+ * 只在商品进入或离开低库存状态、预警级别变化时写入预警记录，低库存列表直接从内存索引读取。
+ * 新建的库存记录和预警线修改按条重新读取；其它节点的变更不会发布到本节点，由定时全量重建兜底。
+ * 预警记录由持有预警写入锁的节点写入，写入前重新读取库存，不以本节点索引为准。
+ */
+@Slf4j
+@Component
+public class InventoryAlertEngine implements RuntimeMetricsProvider {
+
+    private static final String ALERT_TYPE = "LOW_STOCK";
+
+    private static final String ALERT_LOCK_KEY = "inventory:alert:write:lock";
+
+    @Autowired
+    private ProductInventoryRepository productInventoryRepository;
+
+    @Autowired
+    private InventoryAlertRepository inventoryAlertRepository;
+
+    @Autowired
+    private WarehouseRedisRepository warehouseRedisRepository;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${inventory.alert.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${inventory.alert.rebuild-page-size:2000}")
+    private int rebuildPageSize = 2000;
+
+    // 全部库存：商品ID:仓库ID -> 数量和预警线
+    private final Map<String, StockLevel> levels = new ConcurrentHashMap<>();
+
+    // 低于最低库存或补货点的库存，低库存列表只遍历这里
+    private final Map<String, StockLevel> lowStock = new ConcurrentHashMap<>();
+
+    // 待处理的变更：商品ID:仓库ID -> 合并后的变更
+    private final Map<String, InventoryChangedEvent> pending = new ConcurrentHashMap<>();
+
+    // 预警级别发生变化、等待写入预警记录的库存：商品ID:仓库ID -> 库存ID
+    private final Map<String, Long> alertChanges = new ConcurrentHashMap<>();
+
+    // 仓库所属公司，只缓存查到的仓库，重建时清空
+    private final Map<Long, Long> warehouseCompanies = new ConcurrentHashMap<>();
+
+    private volatile boolean ready;
+
+    private final AtomicLong receivedEvents = new AtomicLong();
+
+    private final AtomicLong appliedDeltas = new AtomicLong();
+
+    private final AtomicLong reloads = new AtomicLong();
+
+    private final AtomicLong alertsCreated = new AtomicLong();
+
+    private final AtomicLong alertsResolved = new AtomicLong();
+
+    private final AtomicLong alertsUpdated = new AtomicLong();
+
+    private final AtomicLong rebuilds = new AtomicLong();
+
+    private volatile long lastRebuildMillis;
+
+    /**
+     * 库存和预警线，不可变，变更时整体替换
+     */
+    private static final class StockLevel {
+        private final ProductInventory inventory;
+        private final int available;
+
+        private StockLevel(ProductInventory inventory) {
+            this.inventory = inventory;
+            this.available = inventory.getAvailableQuantity() != null ? inventory.getAvailableQuantity() : 0;
+        }
+
+        private StockLevel withDelta(int delta) {
+            ProductInventory copy = copyOf(inventory);
+            copy.setAvailableQuantity(available + delta);
+            copy.setUpdatedAt(LocalDateTime.now());
+            return new StockLevel(copy);
+        }
+
+        private boolean belowMin() {
+            return inventory.getMinStockLevel() != null && available <= inventory.getMinStockLevel();
+        }
+
+        private boolean belowReorderPoint() {
+            return inventory.getReorderPoint() != null && available <= inventory.getReorderPoint();
+        }
+
+        /**
+         * 预警级别：无库存为CRITICAL，低于最低库存为HIGH，只低于补货点为MEDIUM，不需要预警为null
+         */
+        private String alertLevel() {
+            if (!belowMin() && !belowReorderPoint()) {
+                return null;
+            }
+            if (available <= 0) {
+                return "CRITICAL";
+            }
+            return belowMin() ? "HIGH" : "MEDIUM";
+        }
+
+        private Integer threshold() {
+            return belowMin() ? inventory.getMinStockLevel() : inventory.getReorderPoint();
+        }
+    }
+
+    /**
+     * 库存变更事件，事务提交后合并到待处理变更；不在事务中发布时直接处理
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onInventoryChanged(InventoryChangedEvent event) {
+        if (!enabled || event.getProductId() == null || event.getWarehouseId() == null) {
+            return;
+        }
+        receivedEvents.incrementAndGet();
+        pending.merge(key(event.getProductId(), event.getWarehouseId()),
+                new InventoryChangedEvent(event.getProductId(), event.getWarehouseId(),
+                        event.getAvailableDelta(), event.isReload()),
+                (a, b) -> {
+                    a.setAvailableDelta(a.getAvailableDelta() + b.getAvailableDelta());
+                    a.setReload(a.isReload() || b.isReload());
+                    return a;
+                });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        scheduledRebuild();
+    }
+
+    /**
+     * 定时全量重建，修正其它节点变更造成的差异
+     */
+    @Scheduled(initialDelayString = "${inventory.alert.rebuild-interval-millis:600000}",
+            fixedDelayString = "${inventory.alert.rebuild-interval-millis:600000}")
+    public void scheduledRebuild() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("库存预警索引重建失败", e);
+        }
+    }
+
+    /**
+     * 处理待处理的变更
+     */
+    @Scheduled(fixedDelayString = "${inventory.alert.evaluate-interval-millis:500}")
+    public synchronized void evaluate() {
+        if (!ready || (pending.isEmpty() && alertChanges.isEmpty())) {
+            return;
+        }
+        List<InventoryChangedEvent> events = new ArrayList<>();
+        for (String key : pending.keySet()) {
+            InventoryChangedEvent event = pending.remove(key);
+            if (event != null) {
+                events.add(event);
+            }
+        }
+
+        List<InventoryChangedEvent> toReload = new ArrayList<>();
+        for (InventoryChangedEvent event : events) {
+            String key = key(event.getProductId(), event.getWarehouseId());
+            StockLevel previous = levels.get(key);
+            if (previous == null || event.isReload()) {
+                toReload.add(event);
+                continue;
+            }
+            if (event.getAvailableDelta() != 0) {
+                update(key, previous, previous.withDelta(event.getAvailableDelta()));
+                appliedDeltas.incrementAndGet();
+            }
+        }
+        if (!toReload.isEmpty()) {
+            reload(toReload);
+        }
+        if (!alertChanges.isEmpty()) {
+            withAlertLock(this::writeAlertChanges);
+        }
+    }
+
+    /**
+     * 按ID分页读取全部库存重建索引，并与待处理的预警记录对齐：补建缺少的预警、解除已恢复的预警
+     */
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        warehouseCompanies.clear();
+
+        Map<String, StockLevel> rebuilt = new HashMap<>(Math.max(16, levels.size() * 2));
+        int pageSize = Math.max(1, rebuildPageSize);
+        long lastId = 0;
+        while (true) {
+            QueryWrapper<ProductInventory> queryWrapper = new QueryWrapper<>();
+            queryWrapper.gt("id", lastId);
+            queryWrapper.orderByAsc("id");
+            queryWrapper.last("LIMIT " + pageSize);
+            List<ProductInventory> inventories = productInventoryRepository.selectList(queryWrapper);
+            for (ProductInventory inventory : inventories) {
+                rebuilt.put(key(inventory.getProductId(), inventory.getWarehouseId()), new StockLevel(inventory));
+            }
+            if (inventories.size() < pageSize) {
+                break;
+            }
+            lastId = inventories.get(inventories.size() - 1).getId();
+        }
+        levels.keySet().retainAll(rebuilt.keySet());
+        levels.putAll(rebuilt);
+        lowStock.clear();
+        rebuilt.forEach((key, level) -> {
+            if (level.alertLevel() != null) {
+                lowStock.put(key, level);
+            }
+        });
+        // 待处理的变更无法区分是否已包含在读取的数据中，改为按条重新读取，避免变更量重复叠加
+        pending.replaceAll((key, event) -> InventoryChangedEvent.reload(event.getProductId(), event.getWarehouseId()));
+        // 对齐会覆盖全部预警记录
+        alertChanges.clear();
+        ready = true;
+
+        // 多节点同时重建时只由一个节点对齐预警记录
+        if (!withAlertLock(this::syncAlerts)) {
+            log.debug("其它节点正在写入库存预警，本次重建不对齐预警记录");
+        }
+
+        rebuilds.incrementAndGet();
+        lastRebuildMillis = System.currentTimeMillis() - start;
+        log.info("库存预警索引重建完成，库存 {} 条，低库存 {} 条，耗时 {} ms", levels.size(), lowStock.size(), lastRebuildMillis);
+    }
+
+    /**
+     * 低于最低库存的库存
+     */
+    public List<ProductInventory> getBelowMinStock() {
+        return lowStock.values().stream()
+                .filter(StockLevel::belowMin)
+                .map(level -> copyOf(level.inventory))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 低于补货点的库存
+     */
+    public List<ProductInventory> getBelowReorderPoint() {
+        return lowStock.values().stream()
+                .filter(StockLevel::belowReorderPoint)
+                .map(level -> copyOf(level.inventory))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 指定公司仓库中的低库存，按缺口从大到小排列
+     */
+    public List<ProductInventory> getLowStockItems(Long companyId, int limit) {
+        return lowStock.values().stream()
+                .filter(level -> companyId == null || companyId.equals(companyOf(level.inventory.getWarehouseId())))
+                .sorted(Comparator.comparingInt((StockLevel level) -> level.available - level.threshold()))
+                .limit(Math.max(0, limit))
+                .map(level -> copyOf(level.inventory))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 索引是否已完成首次加载
+     */
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    private void reload(List<InventoryChangedEvent> events) {
+        Set<Long> productIds = new HashSet<>();
+        Set<Long> warehouseIds = new HashSet<>();
+        for (InventoryChangedEvent event : events) {
+            productIds.add(event.getProductId());
+            warehouseIds.add(event.getWarehouseId());
+        }
+        QueryWrapper<ProductInventory> queryWrapper = new QueryWrapper<>();
+        queryWrapper.in("product_id", productIds);
+        queryWrapper.in("warehouse_id", warehouseIds);
+        Map<String, ProductInventory> found = new HashMap<>();
+        for (ProductInventory inventory : productInventoryRepository.selectList(queryWrapper)) {
+            found.put(key(inventory.getProductId(), inventory.getWarehouseId()), inventory);
+        }
+
+        for (InventoryChangedEvent event : events) {
+            String key = key(event.getProductId(), event.getWarehouseId());
+            ProductInventory inventory = found.get(key);
+            if (inventory != null) {
+                update(key, levels.get(key), new StockLevel(inventory));
+                reloads.incrementAndGet();
+            }
+        }
+    }
+
+    private void update(String key, StockLevel previous, StockLevel current) {
+        levels.put(key, current);
+        String previousLevel = previous != null ? previous.alertLevel() : null;
+        String currentLevel = current.alertLevel();
+        if (currentLevel != null) {
+            lowStock.put(key, current);
+        } else {
+            lowStock.remove(key);
+        }
+        if (!Objects.equals(previousLevel, currentLevel) && current.inventory.getId() != null) {
+            alertChanges.put(key, current.inventory.getId());
+        }
+    }
+
+    /**
+     * 在预警写入锁内执行，未取得锁时返回false
+     */
+    private boolean withAlertLock(Runnable action) {
+        String token = UUID.randomUUID().toString();
+        if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(ALERT_LOCK_KEY, token, Duration.ofMinutes(1)))) {
+            return false;
+        }
+        try {
+            action.run();
+        } catch (Exception e) {
+            log.error("写入库存预警失败", e);
+        } finally {
+            if (token.equals(stringRedisTemplate.opsForValue().get(ALERT_LOCK_KEY))) {
+                stringRedisTemplate.delete(ALERT_LOCK_KEY);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按数据库中的最新库存写入预警级别发生变化的预警记录；未写入的留到下次处理
+     */
+    private void writeAlertChanges() {
+        Map<String, Long> changes = new HashMap<>(alertChanges);
+        List<ProductInventory> inventories = productInventoryRepository.selectBatchIds(changes.values());
+        for (ProductInventory inventory : inventories) {
+            String key = key(inventory.getProductId(), inventory.getWarehouseId());
+            try {
+                writeAlert(new StockLevel(inventory));
+            } catch (Exception e) {
+                log.error("写入库存预警失败，商品ID: {}, 仓库ID: {}", inventory.getProductId(), inventory.getWarehouseId(), e);
+                changes.remove(key);
+            }
+        }
+        // 写入失败的保留，已删除的库存不再写入
+        changes.forEach(alertChanges::remove);
+    }
+
+    private void writeAlert(StockLevel level) {
+        String alertLevel = level.alertLevel();
+        if (alertLevel == null) {
+            resolveAlert(level);
+            return;
+        }
+        InventoryAlert alert = findPendingAlert(level.inventory.getProductId(), level.inventory.getWarehouseId());
+        if (alert == null) {
+            createAlert(level);
+        } else if (!alertLevel.equals(alert.getAlertLevel())) {
+            updateAlert(alert, level);
+        }
+    }
+
+    private void syncAlerts() {
+        QueryWrapper<InventoryAlert> queryWrapper = new QueryWrapper<>();
+        queryWrapper.eq("alert_type", ALERT_TYPE);
+        queryWrapper.eq("status", "PENDING");
+        queryWrapper.eq("deleted", false);
+        Map<String, InventoryAlert> alerts = new HashMap<>();
+        for (InventoryAlert alert : inventoryAlertRepository.selectList(queryWrapper)) {
+            alerts.putIfAbsent(key(alert.getProductId(), alert.getWarehouseId()), alert);
+        }
+
+        for (Map.Entry<String, StockLevel> entry : lowStock.entrySet()) {
+            InventoryAlert alert = alerts.remove(entry.getKey());
+            StockLevel level = entry.getValue();
+            if (alert == null) {
+                createAlert(level);
+            } else if (!level.alertLevel().equals(alert.getAlertLevel())) {
+                updateAlert(alert, level);
+            }
+        }
+        // 剩下的预警对应的库存已恢复或库存记录已删除
+        for (InventoryAlert alert : alerts.values()) {
+            StockLevel level = levels.get(key(alert.getProductId(), alert.getWarehouseId()));
+            markResolved(alert.getId(), level != null ? level.available : alert.getCurrentQuantity());
+        }
+    }
+
+    private InventoryAlert findPendingAlert(Long productId, Long warehouseId) {
+        QueryWrapper<InventoryAlert> queryWrapper = new QueryWrapper<>();
+        queryWrapper.eq("product_id", productId);
+        queryWrapper.eq("warehouse_id", warehouseId);
+        queryWrapper.eq("alert_type", ALERT_TYPE);
+        queryWrapper.eq("status", "PENDING");
+        queryWrapper.eq("deleted", false);
+        queryWrapper.last("LIMIT 1");
+        return inventoryAlertRepository.selectOne(queryWrapper);
+    }
+
+    private void createAlert(StockLevel level) {
+        ProductInventory inventory = level.inventory;
+        InventoryAlert alert = new InventoryAlert();
+        alert.setAlertNo("ALT" + System.currentTimeMillis() + UUID.randomUUID().toString().substring(0, 8).toUpperCase());
+        alert.setAlertType(ALERT_TYPE);
+        alert.setAlertLevel(level.alertLevel());
+        alert.setProductId(inventory.getProductId());
+        alert.setWarehouseId(inventory.getWarehouseId());
+        alert.setCurrentQuantity(level.available);
+        alert.setThresholdQuantity(level.threshold());
+        alert.setAlertContent(alertContent(level));
+        alert.setStatus("PENDING");
+        alert.setCreatedAt(LocalDateTime.now());
+        alert.setUpdatedAt(LocalDateTime.now());
+        alert.setDeleted(false);
+        inventoryAlertRepository.insert(alert);
+        alertsCreated.incrementAndGet();
+    }
+
+    private void updateAlert(InventoryAlert alert, StockLevel level) {
+        UpdateWrapper<InventoryAlert> updateWrapper = new UpdateWrapper<>();
+        updateWrapper.eq("id", alert.getId());
+        updateWrapper.eq("status", "PENDING");
+        updateWrapper.set("alert_level", level.alertLevel());
+        updateWrapper.set("current_quantity", level.available);
+        updateWrapper.set("threshold_quantity", level.threshold());
+        updateWrapper.set("alert_content", alertContent(level));
+        updateWrapper.set("updated_at", LocalDateTime.now());
+        inventoryAlertRepository.update(null, updateWrapper);
+        alertsUpdated.incrementAndGet();
+    }
+
+    private void resolveAlert(StockLevel level) {
+        InventoryAlert alert = findPendingAlert(level.inventory.getProductId(), level.inventory.getWarehouseId());
+        if (alert != null) {
+            markResolved(alert.getId(), level.available);
+        }
+    }
+
+    private void markResolved(Long alertId, Integer currentQuantity) {
+        UpdateWrapper<InventoryAlert> updateWrapper = new UpdateWrapper<>();
+        updateWrapper.eq("id", alertId);
+        updateWrapper.eq("status", "PENDING");
+        updateWrapper.set("status", "RESOLVED");
+        updateWrapper.set("current_quantity", currentQuantity);
+        updateWrapper.set("handled_at", LocalDateTime.now());
+        updateWrapper.set("handling_result", "库存已恢复");
+        updateWrapper.set("updated_at", LocalDateTime.now());
+        inventoryAlertRepository.update(null, updateWrapper);
+        alertsResolved.incrementAndGet();
+    }
+
+    private static String alertContent(StockLevel level) {
+        return "商品 " + level.inventory.getProductId() + " 在仓库 " + level.inventory.getWarehouseId()
+                + " 的可用库存为 " + level.available + "，预警线 " + level.threshold();
+    }
+
+    /**
+     * 仓库所属公司，仓库不存在时返回null且不缓存，新建的仓库下次即可查到
+     */
+    private Long companyOf(Long warehouseId) {
+        Long companyId = warehouseCompanies.get(warehouseId);
+        if (companyId != null) {
+            return companyId;
+        }
+        Warehouse warehouse = warehouseRedisRepository.selectById(warehouseId);
+        if (warehouse == null || warehouse.getCompanyId() == null) {
+            return null;
+        }
+        warehouseCompanies.put(warehouseId, warehouse.getCompanyId());
+        return warehouse.getCompanyId();
+    }
+
+    private static String key(Long productId, Long warehouseId) {
+        return productId + ":" + warehouseId;
+    }
+
+    private static ProductInventory copyOf(ProductInventory source) {
+        ProductInventory copy = new ProductInventory();
+        copy.setId(source.getId());
+        copy.setProductId(source.getProductId());
+        copy.setWarehouseId(source.getWarehouseId());
+        copy.setAvailableQuantity(source.getAvailableQuantity());
+        copy.setReservedQuantity(source.getReservedQuantity());
+        copy.setDamagedQuantity(source.getDamagedQuantity());
+        copy.setMinStockLevel(source.getMinStockLevel());
+        copy.setMaxStockLevel(source.getMaxStockLevel());
+        copy.setReorderPoint(source.getReorderPoint());
+        copy.setLastStockIn(source.getLastStockIn());
+        copy.setLastStockOut(source.getLastStockOut());
+        copy.setCreatedAt(source.getCreatedAt());
+        copy.setUpdatedAt(source.getUpdatedAt());
+        return copy;
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "inventoryAlertEngine";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("ready", ready);
+        metrics.put("indexedItems", levels.size());
+        metrics.put("lowStockItems", lowStock.size());
+        metrics.put("pendingEvents", pending.size());
+        metrics.put("pendingAlertChanges", alertChanges.size());
+        metrics.put("receivedEvents", receivedEvents.get());
+        metrics.put("appliedDeltas", appliedDeltas.get());
+        metrics.put("reloads", reloads.get());
+        metrics.put("alertsCreated", alertsCreated.get());
+        metrics.put("alertsUpdated", alertsUpdated.get());
+        metrics.put("alertsResolved", alertsResolved.get());
+        metrics.put("rebuilds", rebuilds.get());
+        metrics.put("lastRebuildMillis", lastRebuildMillis);
+        return metrics;
+    }
+}
@@ -29,6 +29,7 @@ import java.util.UUID;
 public class InventoryAlertServiceImpl implements InventoryAlertService {
 
     private final InventoryAlertRepository inventoryAlertRepository;
+    private final InventoryAlertEngine inventoryAlertEngine;
 
     @Override
     @Transactional
@@ -188,14 +189,9 @@ public class InventoryAlertServiceImpl implements InventoryAlertService {
     }
 
     @Override
-    @Transactional
     public void autoDetectAndCreateAlerts() {
-        // TODO: 实现自动检测库存预警的逻辑
-        // 1. 检测库存不足的商品
-        // 2. 检测库存过高的商品
-        // 3. 检测即将过期的商品
-        // 4. 检测损坏库存
-        log.info("自动检测库存预警功能待实现");
+        // 全量重建预警索引，补建缺少的低库存预警并解除已恢复的预警；日常由库存变更事件增量维护
+        inventoryAlertEngine.rebuild();
     }
 
     @Override
@@ -0,0 +1,188 @@
+package com.yibang.erp.domain.service.impl;
+
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
+import com.yibang.erp.domain.dto.InventoryChangedEvent;
+import com.yibang.erp.domain.dto.InventoryDelta;
+import com.yibang.erp.domain.dto.InventoryMutationResult;
+import com.yibang.erp.domain.dto.InventoryMutationResult.Status;
+import com.yibang.erp.domain.service.InventoryMutationService;
+import com.yibang.erp.infrastructure.repository.ProductInventoryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 库存变更服务实现类
+ * 批量扣减按商品ID、仓库ID的固定顺序执行，多个事务同时扣减相同的商品时加锁顺序一致，不会互相死锁
+ *
+ * @author yibang-erp
+ * @since 2024-01-14
+ */
+@Slf4j
+@Service
+public class InventoryMutationServiceImpl implements InventoryMutationService, RuntimeMetricsProvider {
+
+    private static final Comparator<InventoryDelta> LOCK_ORDER = Comparator
+            .comparing(InventoryDelta::getProductId)
+            .thenComparing(InventoryDelta::getWarehouseId);
+
+    @Autowired
+    private ProductInventoryRepository productInventoryRepository;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    private final AtomicLong decreased = new AtomicLong();
+
+    private final AtomicLong increased = new AtomicLong();
+
+    private final AtomicLong insufficient = new AtomicLong();
+
+    private final AtomicLong notFound = new AtomicLong();
+
+    private final AtomicLong conflicts = new AtomicLong();
+
+    private final AtomicLong rolledBack = new AtomicLong();
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public InventoryMutationResult decrease(InventoryDelta delta) {
+        Status status = doDecrease(delta);
+        if (status == Status.SUCCESS) {
+            publish(delta.getProductId(), delta.getWarehouseId(), -delta.getQuantity());
+        }
+        return InventoryMutationResult.of(delta, status);
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public List<InventoryMutationResult> decrease(List<InventoryDelta> deltas, boolean allOrNothing) {
+        // 合并同一商品和仓库的数量，按加锁顺序排列
+        Map<InventoryDelta, InventoryDelta> merged = new TreeMap<>(LOCK_ORDER);
+        for (InventoryDelta delta : deltas) {
+            if (!isValid(delta)) {
+                continue;
+            }
+            merged.merge(delta, new InventoryDelta(delta.getProductId(), delta.getWarehouseId(), delta.getQuantity()),
+                    (a, b) -> {
+                        a.setQuantity(a.getQuantity() + b.getQuantity());
+                        return a;
+                    });
+        }
+
+        Map<InventoryDelta, Status> statuses = new TreeMap<>(LOCK_ORDER);
+        List<InventoryDelta> applied = new ArrayList<>();
+        boolean failed = false;
+        for (InventoryDelta delta : merged.values()) {
+            Status status = doDecrease(delta);
+            statuses.put(delta, status);
+            if (status == Status.SUCCESS) {
+                applied.add(delta);
+            } else if (status == Status.INSUFFICIENT && allOrNothing) {
+                failed = true;
+                break;
+            }
+        }
+
+        if (failed) {
+            // 退回本批已扣减的数量，不依赖调用方是否回滚事务
+            for (InventoryDelta delta : applied) {
+                productInventoryRepository.restoreAvailable(delta.getProductId(), delta.getWarehouseId(), delta.getQuantity());
+                statuses.put(delta, Status.ROLLED_BACK);
+                rolledBack.incrementAndGet();
+            }
+        } else {
+            for (InventoryDelta delta : applied) {
+                publish(delta.getProductId(), delta.getWarehouseId(), -delta.getQuantity());
+            }
+        }
+
+        List<InventoryMutationResult> results = new ArrayList<>(deltas.size());
+        for (InventoryDelta delta : deltas) {
+            // 批量失败后未执行的商品视为已退回
+            Status status = isValid(delta) ? statuses.getOrDefault(delta, Status.ROLLED_BACK) : Status.NOT_FOUND;
+            results.add(InventoryMutationResult.of(delta, status));
+        }
+        return results;
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public InventoryMutationResult increase(InventoryDelta delta) {
+        productInventoryRepository.increaseAvailable(delta.getProductId(), delta.getWarehouseId(), delta.getQuantity());
+        increased.incrementAndGet();
+        publish(delta.getProductId(), delta.getWarehouseId(), delta.getQuantity());
+        return InventoryMutationResult.of(delta, Status.SUCCESS);
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public InventoryMutationResult compareAndSet(Long productId, Long warehouseId, int expectedQuantity, int newQuantity) {
+        InventoryDelta delta = new InventoryDelta(productId, warehouseId, newQuantity);
+        if (productInventoryRepository.compareAndSetAvailable(productId, warehouseId, expectedQuantity, newQuantity) > 0) {
+            publish(productId, warehouseId, newQuantity - expectedQuantity);
+            return InventoryMutationResult.of(delta, Status.SUCCESS);
+        }
+        if (productInventoryRepository.findByProductIdAndWarehouseId(productId, warehouseId) == null) {
+            notFound.incrementAndGet();
+            return InventoryMutationResult.of(delta, Status.NOT_FOUND);
+        }
+        conflicts.incrementAndGet();
+        return InventoryMutationResult.of(delta, Status.CONFLICT);
+    }
+
+    /**
+     * 发布库存变更事件，事务提交后由预警引擎处理
+     */
+    private void publish(Long productId, Long warehouseId, int availableDelta) {
+        eventPublisher.publishEvent(InventoryChangedEvent.delta(productId, warehouseId, availableDelta));
+    }
+
+    private static boolean isValid(InventoryDelta delta) {
+        return delta.getProductId() != null && delta.getWarehouseId() != null
+                && delta.getQuantity() != null && delta.getQuantity() > 0;
+    }
+
+    private Status doDecrease(InventoryDelta delta) {
+        if (productInventoryRepository.decreaseAvailable(delta.getProductId(), delta.getWarehouseId(), delta.getQuantity()) > 0) {
+            decreased.incrementAndGet();
+            return Status.SUCCESS;
+        }
+        // 未扣减时区分库存不足和没有库存记录，只在失败时多查一次
+        if (productInventoryRepository.findByProductIdAndWarehouseId(delta.getProductId(), delta.getWarehouseId()) == null) {
+            notFound.incrementAndGet();
+            log.warn("商品 {} 在仓库 {} 中没有库存记录", delta.getProductId(), delta.getWarehouseId());
+            return Status.NOT_FOUND;
+        }
+        insufficient.incrementAndGet();
+        log.warn("商品 {} 在仓库 {} 中库存不足，需要: {}", delta.getProductId(), delta.getWarehouseId(), delta.getQuantity());
+        return Status.INSUFFICIENT;
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "inventoryMutation";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("decreased", decreased.get());
+        metrics.put("increased", increased.get());
+        metrics.put("insufficient", insufficient.get());
+        metrics.put("notFound", notFound.get());
+        metrics.put("conflicts", conflicts.get());
+        metrics.put("rolledBack", rolledBack.get());
+        return metrics;
+    }
+}
@@ -0,0 +1,391 @@
+package com.yibang.erp.domain.service.impl;
+
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
+import com.yibang.erp.config.InventoryReservationConfig;
+import com.yibang.erp.domain.dto.InventoryDelta;
+import com.yibang.erp.domain.dto.InventoryMutationResult;
+import com.yibang.erp.domain.dto.InventoryMutationResult.Status;
+import com.yibang.erp.domain.entity.ProductInventory;
+import com.yibang.erp.domain.service.InventoryReservationService;
+import com.yibang.erp.infrastructure.repository.ProductInventoryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 库存预留层服务实现类
+ * 每个商品和仓库的库存保存为Redis哈希 inventory:stock:{商品ID}:{仓库ID}，字段a为可用库存、r为预留库存、d为损坏库存；
+ * 每次变更在同一个脚本中追加一条流水到 inventory:stock:journal，流水由 {@link InventoryReservationWriter} 写入数据库。
+ * Redis中没有的库存在第一次使用时从数据库加载。
+ *
+ * @author yibang-erp
+ * @since 2024-01-14
+ */
+@Slf4j
+@Service
+public class InventoryReservationServiceImpl implements InventoryReservationService, RuntimeMetricsProvider {
+
+    static final String STOCK_KEY_PREFIX = "inventory:stock:";
+
+    /**
+     * 已加载到Redis的库存集合，成员为 商品ID:仓库ID，对账时遍历
+     */
+    static final String STOCK_MEMBERS_KEY = "inventory:stock:members";
+
+    static final String JOURNAL_KEY = "inventory:stock:journal";
+
+    /**
+     * 流水字段分隔符
+     */
+    static final String JOURNAL_SEPARATOR = "|";
+
+    private static final Comparator<InventoryDelta> LOCK_ORDER = Comparator
+            .comparing(InventoryDelta::getProductId)
+            .thenComparing(InventoryDelta::getWarehouseId);
+
+    /**
+     * 批量变更：KEYS为各库存键加流水键，ARGV[1]为是否跳过数量检查，之后每个库存三个参数：可用变更量、预留变更量、流水前缀。
+     * 成功返回 {0, 变更后可用1, 变更后预留1, ...}；缺少库存返回 {-1, 序号}；数量不足返回 {1, 序号, 当前可用}
+     */
+    private static final RedisScript<List> APPLY_SCRIPT = new DefaultRedisScript<>(
+            "local n = #KEYS - 1 " +
+            "local force = ARGV[1] == '1' " +
+            "local current = {} " +
+            "for i = 1, n do " +
+            "  local v = redis.call('HMGET', KEYS[i], 'a', 'r', 'd') " +
+            "  if not v[1] then return {-1, i} end " +
+            "  local a, r, d = tonumber(v[1]), tonumber(v[2] or 0), tonumber(v[3] or 0) " +
+            "  local j = i * 3 - 1 " +
+            "  if not force and (a + tonumber(ARGV[j]) < 0 or r + tonumber(ARGV[j + 1]) < 0) then return {1, i, a} end " +
+            "  current[i] = {a, r, d} " +
+            "end " +
+            "local result = {0} " +
+            "for i = 1, n do " +
+            "  local j = i * 3 - 1 " +
+            "  local a, r, d = current[i][1], current[i][2], current[i][3] " +
+            "  local na, nr = a + tonumber(ARGV[j]), r + tonumber(ARGV[j + 1]) " +
+            "  redis.call('HSET', KEYS[i], 'a', na, 'r', nr) " +
+            "  redis.call('RPUSH', KEYS[n + 1], ARGV[j + 2] .. '|' .. a .. '|' .. r .. '|' .. na .. '|' .. nr .. '|' .. d) " +
+            "  result[#result + 1] = na " +
+            "  result[#result + 1] = nr " +
+            "end " +
+            "return result", List.class);
+
+    /**
+     * 从数据库加载库存，已存在时不覆盖
+     */
+    private static final RedisScript<Long> LOAD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('HSETNX', KEYS[1], 'a', ARGV[1]) == 1 then " +
+            "  redis.call('HSET', KEYS[1], 'r', ARGV[2], 'd', ARGV[3]) " +
+            "end " +
+            "redis.call('SADD', KEYS[2], ARGV[4]) " +
+            "return 1", Long.class);
+
+    /**
+     * 按变更量修改库存，不写流水，库存不在Redis中时不处理
+     */
+    static final RedisScript<Long> SYNC_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return 0 end " +
+            "redis.call('HINCRBY', KEYS[1], 'a', ARGV[1]) " +
+            "redis.call('HINCRBY', KEYS[1], 'r', ARGV[2]) " +
+            "return 1", Long.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private ProductInventoryRepository productInventoryRepository;
+
+    @Autowired
+    private InventoryReservationConfig reservationConfig;
+
+    private final AtomicLong deducted = new AtomicLong();
+
+    private final AtomicLong reserved = new AtomicLong();
+
+    private final AtomicLong released = new AtomicLong();
+
+    private final AtomicLong insufficient = new AtomicLong();
+
+    private final AtomicLong notFound = new AtomicLong();
+
+    private final AtomicLong loads = new AtomicLong();
+
+    private final AtomicLong compensations = new AtomicLong();
+
+    private final AtomicLong syncs = new AtomicLong();
+
+    /**
+     * 变更类型：操作类型及可用、预留库存的变更方向
+     */
+    private enum Mode {
+        DEDUCT("STOCK_OUT", -1, 0),
+        RESERVE("RESERVE", -1, 1),
+        RELEASE("RELEASE", 1, -1);
+
+        private final String operationType;
+        private final int availableSign;
+        private final int reservedSign;
+
+        Mode(String operationType, int availableSign, int reservedSign) {
+            this.operationType = operationType;
+            this.availableSign = availableSign;
+            this.reservedSign = reservedSign;
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(reservationConfig.getEnabled());
+    }
+
+    @Override
+    public List<InventoryMutationResult> deduct(List<InventoryDelta> deltas, Long orderId, Long operatorId, String reason) {
+        return execute(Mode.DEDUCT, deltas, orderId, operatorId, reason);
+    }
+
+    @Override
+    public List<InventoryMutationResult> reserve(List<InventoryDelta> deltas, Long orderId, Long operatorId, String reason) {
+        return execute(Mode.RESERVE, deltas, orderId, operatorId, reason);
+    }
+
+    @Override
+    public List<InventoryMutationResult> release(List<InventoryDelta> deltas, Long orderId, Long operatorId, String reason) {
+        return execute(Mode.RELEASE, deltas, orderId, operatorId, reason);
+    }
+
+    @Override
+    public void syncDelta(Long productId, Long warehouseId, int availableDelta, int reservedDelta) {
+        if (!isEnabled() || (availableDelta == 0 && reservedDelta == 0)) {
+            return;
+        }
+        Runnable sync = () -> {
+            stringRedisTemplate.execute(SYNC_SCRIPT, List.of(stockKey(productId, warehouseId)),
+                    String.valueOf(availableDelta), String.valueOf(reservedDelta));
+            syncs.incrementAndGet();
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    sync.run();
+                }
+            });
+        } else {
+            sync.run();
+        }
+    }
+
+    private List<InventoryMutationResult> execute(Mode mode, List<InventoryDelta> deltas, Long orderId,
+                                                  Long operatorId, String reason) {
+        if (!isEnabled()) {
+            throw new IllegalStateException("库存预留层未开启");
+        }
+
+        // 合并同一商品和仓库的数量，脚本中每个库存只出现一次
+        Map<InventoryDelta, InventoryDelta> merged = new TreeMap<>(LOCK_ORDER);
+        for (InventoryDelta delta : deltas) {
+            if (!isValid(delta)) {
+                continue;
+            }
+            merged.merge(delta, new InventoryDelta(delta.getProductId(), delta.getWarehouseId(), delta.getQuantity()),
+                    (a, b) -> {
+                        a.setQuantity(a.getQuantity() + b.getQuantity());
+                        return a;
+                    });
+        }
+
+        Map<InventoryDelta, InventoryMutationResult> results = new TreeMap<>(LOCK_ORDER);
+        List<InventoryDelta> pending = new ArrayList<>(merged.values());
+        // 每次重试要么加载一个库存，要么去掉一个没有库存记录的商品
+        int attempts = pending.size() * 2 + 1;
+        while (!pending.isEmpty()) {
+            if (attempts-- <= 0) {
+                throw new RuntimeException("库存预留层加载库存失败");
+            }
+            List<String> operationNos = new ArrayList<>(pending.size());
+            List<Long> reply = apply(mode, pending, operationNos, false, orderId, operatorId, reason);
+            long code = reply.get(0);
+            if (code == 0) {
+                for (int i = 0; i < pending.size(); i++) {
+                    InventoryMutationResult result = InventoryMutationResult.of(pending.get(i), Status.SUCCESS);
+                    result.setAvailableQuantity(reply.get(i * 2 + 1).intValue());
+                    result.setReservedQuantity(reply.get(i * 2 + 2).intValue());
+                    result.setOperationNo(operationNos.get(i));
+                    results.put(pending.get(i), result);
+                }
+                count(mode, pending.size());
+                compensateOnRollback(mode, pending, orderId, operatorId, reason);
+                break;
+            }
+
+            InventoryDelta failed = pending.get(reply.get(1).intValue() - 1);
+            if (code > 0) {
+                insufficient.incrementAndGet();
+                InventoryMutationResult result = InventoryMutationResult.of(failed, Status.INSUFFICIENT);
+                result.setAvailableQuantity(reply.get(2).intValue());
+                results.put(failed, result);
+                log.warn("商品 {} 在仓库 {} 中库存不足，需要: {}, 可用: {}",
+                        failed.getProductId(), failed.getWarehouseId(), failed.getQuantity(), reply.get(2));
+                break;
+            }
+            // Redis中没有该库存，从数据库加载后重试
+            if (!load(failed)) {
+                notFound.incrementAndGet();
+                results.put(failed, InventoryMutationResult.of(failed, Status.NOT_FOUND));
+                pending.remove(failed);
+            }
+        }
+
+        // 按传入顺序和数量返回，同批次其它商品库存不足时本条未变更
+        List<InventoryMutationResult> ordered = new ArrayList<>(deltas.size());
+        for (InventoryDelta delta : deltas) {
+            InventoryMutationResult mergedResult = isValid(delta) ? results.get(delta) : null;
+            Status status = mergedResult != null ? mergedResult.getStatus()
+                    : isValid(delta) ? Status.ROLLED_BACK : Status.NOT_FOUND;
+            InventoryMutationResult result = InventoryMutationResult.of(delta, status);
+            if (mergedResult != null) {
+                result.setAvailableQuantity(mergedResult.getAvailableQuantity());
+                result.setReservedQuantity(mergedResult.getReservedQuantity());
+                result.setOperationNo(mergedResult.getOperationNo());
+            }
+            ordered.add(result);
+        }
+        return ordered;
+    }
+
+    /**
+     * 执行变更脚本，流水前缀为 操作单号|操作类型|商品ID|仓库ID|数量|订单ID|操作人ID|时间戳|原因，脚本再追加变更前后的数量
+     */
+    private List<Long> apply(Mode mode, List<InventoryDelta> deltas, List<String> operationNos, boolean force,
+                             Long orderId, Long operatorId, String reason) {
+        String operationType = force ? mode.operationType + "_UNDO" : mode.operationType;
+        int availableSign = force ? -mode.availableSign : mode.availableSign;
+        int reservedSign = force ? -mode.reservedSign : mode.reservedSign;
+        long now = System.currentTimeMillis();
+
+        List<String> keys = new ArrayList<>(deltas.size() + 1);
+        List<String> args = new ArrayList<>(deltas.size() * 3 + 1);
+        args.add(force ? "1" : "0");
+        for (InventoryDelta delta : deltas) {
+            String operationNo = generateOperationNo();
+            operationNos.add(operationNo);
+            keys.add(stockKey(delta.getProductId(), delta.getWarehouseId()));
+            args.add(String.valueOf(availableSign * delta.getQuantity()));
+            args.add(String.valueOf(reservedSign * delta.getQuantity()));
+            args.add(String.join(JOURNAL_SEPARATOR, operationNo, operationType,
+                    String.valueOf(delta.getProductId()), String.valueOf(delta.getWarehouseId()),
+                    String.valueOf(delta.getQuantity()), orderId != null ? String.valueOf(orderId) : "",
+                    operatorId != null ? String.valueOf(operatorId) : "", String.valueOf(now),
+                    reason != null ? reason.replace(JOURNAL_SEPARATOR, "/") : ""));
+        }
+        keys.add(JOURNAL_KEY);
+        @SuppressWarnings("unchecked")
+        List<Long> reply = stringRedisTemplate.execute(APPLY_SCRIPT, keys, args.toArray());
+        return reply;
+    }
+
+    /**
+     * 在事务中变更时，事务回滚后反向变更；反向变更同样写入流水，不检查数量
+     */
+    private void compensateOnRollback(Mode mode, List<InventoryDelta> applied, Long orderId, Long operatorId, String reason) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        List<InventoryDelta> snapshot = new ArrayList<>(applied);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_ROLLED_BACK) {
+                    return;
+                }
+                try {
+                    apply(mode, snapshot, new ArrayList<>(), true, orderId, operatorId, reason);
+                    compensations.addAndGet(snapshot.size());
+                } catch (Exception e) {
+                    log.error("事务回滚后反向变更Redis库存失败，等待对账修正，订单ID: {}", orderId, e);
+                }
+            }
+        });
+    }
+
+    private boolean load(InventoryDelta delta) {
+        ProductInventory inventory = productInventoryRepository.findByProductIdAndWarehouseId(
+                delta.getProductId(), delta.getWarehouseId());
+        if (inventory == null) {
+            log.warn("商品 {} 在仓库 {} 中没有库存记录", delta.getProductId(), delta.getWarehouseId());
+            return false;
+        }
+        stringRedisTemplate.execute(LOAD_SCRIPT,
+                List.of(stockKey(delta.getProductId(), delta.getWarehouseId()), STOCK_MEMBERS_KEY),
+                String.valueOf(valueOrZero(inventory.getAvailableQuantity())),
+                String.valueOf(valueOrZero(inventory.getReservedQuantity())),
+                String.valueOf(valueOrZero(inventory.getDamagedQuantity())),
+                stockMember(delta.getProductId(), delta.getWarehouseId()));
+        loads.incrementAndGet();
+        return true;
+    }
+
+    private void count(Mode mode, int size) {
+        switch (mode) {
+            case DEDUCT -> deducted.addAndGet(size);
+            case RESERVE -> reserved.addAndGet(size);
+            case RELEASE -> released.addAndGet(size);
+        }
+    }
+
+    static String stockMember(Long productId, Long warehouseId) {
+        return productId + ":" + warehouseId;
+    }
+
+    static String stockKey(Long productId, Long warehouseId) {
+        return STOCK_KEY_PREFIX + stockMember(productId, warehouseId);
+    }
+
+    private static boolean isValid(InventoryDelta delta) {
+        return delta.getProductId() != null && delta.getWarehouseId() != null
+                && delta.getQuantity() != null && delta.getQuantity() > 0;
+    }
+
+    private static int valueOrZero(Integer value) {
+        return value != null ? value : 0;
+    }
+
+    private static String generateOperationNo() {
+        return "OP" + System.currentTimeMillis() + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "inventoryReservation";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", isEnabled());
+        metrics.put("deducted", deducted.get());
+        metrics.put("reserved", reserved.get());
+        metrics.put("released", released.get());
+        metrics.put("insufficient", insufficient.get());
+        metrics.put("notFound", notFound.get());
+        metrics.put("loads", loads.get());
+        metrics.put("compensations", compensations.get());
+        metrics.put("syncs", syncs.get());
+        return metrics;
+    }
+}
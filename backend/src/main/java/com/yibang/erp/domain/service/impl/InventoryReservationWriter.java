@@ -0,0 +1,423 @@
+package com.yibang.erp.domain.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
+import com.yibang.erp.config.InventoryReservationConfig;
+import com.yibang.erp.domain.dto.InventoryChangedEvent;
+import com.yibang.erp.domain.entity.InventoryOperation;
+import com.yibang.erp.domain.entity.ProductInventory;
+import com.yibang.erp.infrastructure.repository.InventoryOperationRepository;
+import com.yibang.erp.infrastructure.repository.ProductInventoryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.yibang.erp.domain.service.impl.InventoryReservationServiceImpl.JOURNAL_KEY;
+import static com.yibang.erp.domain.service.impl.InventoryReservationServiceImpl.STOCK_KEY_PREFIX;
+import static com.yibang.erp.domain.service.impl.InventoryReservationServiceImpl.STOCK_MEMBERS_KEY;
+import static com.yibang.erp.domain.service.impl.InventoryReservationServiceImpl.SYNC_SCRIPT;
+
+/**
+ * 库存预留层写入和对账
+ * 定时从Redis变更流水头部取出一批，在一个事务中按商品合并后更新库存并批量插入操作记录，提交后再从流水中移除；
+ * 移除前节点异常时下次会重复取到，已存在的操作单号跳过，不会重复扣减。
+ * 对账时比较 Redis库存 = 数据库库存 + 未写入的流水，连续两次差值相同才按数据库修正Redis。
+ * 多节点下通过Redis锁保证同一时刻只有一个节点写入或对账。
+ */
+@Slf4j
+@Component
+public class InventoryReservationWriter implements RuntimeMetricsProvider {
+
+    private static final String LOCK_KEY = "inventory:stock:journal:lock";
+
+    /**
+     * 流水字段数：前缀9个加变更前后的可用、预留库存和损坏库存
+     */
+    private static final int JOURNAL_FIELDS = 14;
+
+    private static final Comparator<InventoryOperation> LOCK_ORDER = Comparator
+            .comparing(InventoryOperation::getProductId)
+            .thenComparing(InventoryOperation::getWarehouseId);
+
+    private static final RedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end return 0", Long.class);
+
+    /**
+     * 读取一批库存和当时的流水长度，返回 {可用1, 预留1, ..., 流水长度}，库存不存在时可用为-1
+     */
+    private static final RedisScript<List> SNAPSHOT_SCRIPT = new DefaultRedisScript<>(
+            "local result = {} " +
+            "for i = 1, #KEYS - 1 do " +
+            "  local v = redis.call('HMGET', KEYS[i], 'a', 'r') " +
+            "  result[#result + 1] = tonumber(v[1] or -1) " +
+            "  result[#result + 1] = tonumber(v[2] or 0) " +
+            "end " +
+            "result[#result + 1] = redis.call('LLEN', KEYS[#KEYS]) " +
+            "return result", List.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private ProductInventoryRepository productInventoryRepository;
+
+    @Autowired
+    private InventoryOperationRepository inventoryOperationRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private InventoryReservationConfig reservationConfig;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    // 上次对账发现差异的库存：商品ID:仓库ID -> 可用差值,预留差值
+    private volatile Map<String, String> suspects = new HashMap<>();
+
+    private final AtomicLong writtenEntries = new AtomicLong();
+
+    private final AtomicLong duplicateEntries = new AtomicLong();
+
+    private final AtomicLong malformedEntries = new AtomicLong();
+
+    private final AtomicLong flushCount = new AtomicLong();
+
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    private final AtomicLong reconcileRuns = new AtomicLong();
+
+    private final AtomicLong driftsDetected = new AtomicLong();
+
+    private final AtomicLong driftsRepaired = new AtomicLong();
+
+    private volatile long lastFlushLagMillis;
+
+    private volatile long maxFlushLagMillis;
+
+    /**
+     * 定时把变更流水写入数据库
+     */
+    @Scheduled(fixedDelayString = "${inventory.reservation.flush-interval-millis:200}")
+    public void flush() {
+        if (!Boolean.TRUE.equals(reservationConfig.getEnabled())) {
+            return;
+        }
+        String token = tryLock();
+        if (token == null) {
+            return;
+        }
+        try {
+            drain();
+        } finally {
+            unlock(token);
+        }
+    }
+
+    /**
+     * 定时对账，先写入积压的流水再比较
+     */
+    @Scheduled(fixedDelayString = "${inventory.reservation.reconcile-interval-millis:60000}")
+    public void reconcile() {
+        if (!Boolean.TRUE.equals(reservationConfig.getEnabled())) {
+            return;
+        }
+        String token = tryLock();
+        if (token == null) {
+            return;
+        }
+        try {
+            drain();
+            Map<String, String> nextSuspects = new HashMap<>();
+            int batchSize = Math.max(1, reservationConfig.getReconcileBatchSize());
+            List<String> members = new ArrayList<>(batchSize);
+            try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(STOCK_MEMBERS_KEY,
+                    ScanOptions.scanOptions().count(batchSize).build())) {
+                while (cursor.hasNext()) {
+                    members.add(cursor.next());
+                    if (members.size() >= batchSize) {
+                        reconcileBatch(members, nextSuspects);
+                        members.clear();
+                    }
+                }
+            }
+            if (!members.isEmpty()) {
+                reconcileBatch(members, nextSuspects);
+            }
+            suspects = nextSuspects;
+            reconcileRuns.incrementAndGet();
+        } catch (Exception e) {
+            log.error("库存预留层对账失败", e);
+        } finally {
+            unlock(token);
+        }
+    }
+
+    private void drain() {
+        int batchSize = Math.max(1, reservationConfig.getFlushBatchSize());
+        for (int batch = 0; batch < reservationConfig.getMaxFlushBatches(); batch++) {
+            List<String> entries = stringRedisTemplate.opsForList().range(JOURNAL_KEY, 0, batchSize - 1);
+            if (entries == null || entries.isEmpty()) {
+                return;
+            }
+            try {
+                write(entries);
+            } catch (Exception e) {
+                failedFlushes.incrementAndGet();
+                log.error("库存变更流水写入数据库失败，{} 条留在流水中等待下次写入", entries.size(), e);
+                return;
+            }
+            // 写入成功后才移除，期间追加的流水在尾部不受影响
+            stringRedisTemplate.opsForList().trim(JOURNAL_KEY, entries.size(), -1);
+            flushCount.incrementAndGet();
+            if (entries.size() < batchSize) {
+                return;
+            }
+        }
+    }
+
+    private void write(List<String> entries) {
+        List<InventoryOperation> operations = new ArrayList<>(entries.size());
+        for (String entry : entries) {
+            InventoryOperation operation = parse(entry);
+            if (operation == null) {
+                malformedEntries.incrementAndGet();
+                log.error("无法解析的库存变更流水，已跳过: {}", entry);
+                continue;
+            }
+            operations.add(operation);
+        }
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        // 上次写入数据库后未能从流水中移除的部分跳过
+        Set<String> existing = new HashSet<>(inventoryOperationRepository.findExistingOperationNos(
+                operations.stream().map(InventoryOperation::getOperationNo).collect(Collectors.toList())));
+        if (!existing.isEmpty()) {
+            operations.removeIf(operation -> existing.contains(operation.getOperationNo()));
+            duplicateEntries.addAndGet(existing.size());
+        }
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        // 同一库存的变更量合并，按商品ID、仓库ID顺序更新
+        Map<InventoryOperation, int[]> deltas = new TreeMap<>(LOCK_ORDER);
+        for (InventoryOperation operation : operations) {
+            int[] delta = deltas.computeIfAbsent(operation, key -> new int[2]);
+            delta[0] += operation.getAfterAvailableQuantity() - operation.getBeforeAvailableQuantity();
+            delta[1] += operation.getAfterReservedQuantity() - operation.getBeforeReservedQuantity();
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            for (Map.Entry<InventoryOperation, int[]> entry : deltas.entrySet()) {
+                InventoryOperation key = entry.getKey();
+                int[] delta = entry.getValue();
+                if (delta[0] == 0 && delta[1] == 0) {
+                    continue;
+                }
+                if (productInventoryRepository.applyDelta(key.getProductId(), key.getWarehouseId(), delta[0], delta[1]) == 0) {
+                    log.error("库存记录已不存在，变更未写入: 商品ID={}, 仓库ID={}, 可用变更={}, 预留变更={}",
+                            key.getProductId(), key.getWarehouseId(), delta[0], delta[1]);
+                }
+            }
+            inventoryOperationRepository.batchInsert(operations);
+        });
+        deltas.forEach((key, delta) -> {
+            if (delta[0] != 0) {
+                eventPublisher.publishEvent(InventoryChangedEvent.delta(key.getProductId(), key.getWarehouseId(), delta[0]));
+            }
+        });
+
+        writtenEntries.addAndGet(operations.size());
+        long lag = System.currentTimeMillis() - operations.get(0).getOperationTime()
+                .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        lastFlushLagMillis = lag;
+        maxFlushLagMillis = Math.max(maxFlushLagMillis, lag);
+    }
+
+    private void reconcileBatch(List<String> members, Map<String, String> nextSuspects) {
+        List<String> keys = new ArrayList<>(members.size() + 1);
+        for (String member : members) {
+            keys.add(STOCK_KEY_PREFIX + member);
+        }
+        keys.add(JOURNAL_KEY);
+        @SuppressWarnings("unchecked")
+        List<Long> snapshot = stringRedisTemplate.execute(SNAPSHOT_SCRIPT, keys);
+        if (snapshot == null || snapshot.size() != members.size() * 2 + 1) {
+            return;
+        }
+
+        // 快照时已在流水中但还未写入数据库的变更量
+        Map<String, int[]> pending = new HashMap<>();
+        long journalLength = snapshot.get(snapshot.size() - 1);
+        if (journalLength > 0) {
+            List<String> entries = stringRedisTemplate.opsForList().range(JOURNAL_KEY, 0, journalLength - 1);
+            if (entries != null) {
+                for (String entry : entries) {
+                    InventoryOperation operation = parse(entry);
+                    if (operation != null) {
+                        int[] delta = pending.computeIfAbsent(
+                                operation.getProductId() + ":" + operation.getWarehouseId(), key -> new int[2]);
+                        delta[0] += operation.getAfterAvailableQuantity() - operation.getBeforeAvailableQuantity();
+                        delta[1] += operation.getAfterReservedQuantity() - operation.getBeforeReservedQuantity();
+                    }
+                }
+            }
+        }
+
+        Map<String, ProductInventory> inventories = findInventories(members);
+        for (int i = 0; i < members.size(); i++) {
+            String member = members.get(i);
+            long redisAvailable = snapshot.get(i * 2);
+            long redisReserved = snapshot.get(i * 2 + 1);
+            ProductInventory inventory = inventories.get(member);
+            if (redisAvailable < 0) {
+                // Redis中的库存已不存在，下次使用时重新加载
+                stringRedisTemplate.opsForSet().remove(STOCK_MEMBERS_KEY, member);
+                continue;
+            }
+            if (inventory == null) {
+                continue;
+            }
+            int[] delta = pending.getOrDefault(member, new int[2]);
+            long availableDrift = redisAvailable - (valueOrZero(inventory.getAvailableQuantity()) + delta[0]);
+            long reservedDrift = redisReserved - (valueOrZero(inventory.getReservedQuantity()) + delta[1]);
+            if (availableDrift == 0 && reservedDrift == 0) {
+                continue;
+            }
+
+            String drift = availableDrift + "," + reservedDrift;
+            if (!drift.equals(suspects.get(member))) {
+                // 第一次发现差异，可能是数据库已修改但还未同步到Redis，下次仍相同再修正
+                driftsDetected.incrementAndGet();
+                nextSuspects.put(member, drift);
+                continue;
+            }
+            stringRedisTemplate.execute(SYNC_SCRIPT, List.of(STOCK_KEY_PREFIX + member),
+                    String.valueOf(-availableDrift), String.valueOf(-reservedDrift));
+            driftsRepaired.incrementAndGet();
+            log.warn("库存预留层对账修正Redis库存: {}, 可用差值: {}, 预留差值: {}", member, availableDrift, reservedDrift);
+        }
+    }
+
+    private Map<String, ProductInventory> findInventories(List<String> members) {
+        Set<Long> productIds = new HashSet<>();
+        Set<Long> warehouseIds = new HashSet<>();
+        for (String member : members) {
+            String[] ids = member.split(":");
+            productIds.add(Long.valueOf(ids[0]));
+            warehouseIds.add(Long.valueOf(ids[1]));
+        }
+        QueryWrapper<ProductInventory> queryWrapper = new QueryWrapper<>();
+        queryWrapper.in("product_id", productIds);
+        queryWrapper.in("warehouse_id", warehouseIds);
+        Map<String, ProductInventory> inventories = new HashMap<>();
+        for (ProductInventory inventory : productInventoryRepository.selectList(queryWrapper)) {
+            inventories.put(inventory.getProductId() + ":" + inventory.getWarehouseId(), inventory);
+        }
+        return inventories;
+    }
+
+    /**
+     * 解析流水：操作单号|操作类型|商品ID|仓库ID|数量|订单ID|操作人ID|时间戳|原因|变更前可用|变更前预留|变更后可用|变更后预留|损坏
+     */
+    private InventoryOperation parse(String entry) {
+        String[] fields = entry.split("\\|", -1);
+        if (fields.length != JOURNAL_FIELDS) {
+            return null;
+        }
+        try {
+            InventoryOperation operation = new InventoryOperation();
+            operation.setOperationNo(fields[0]);
+            operation.setOperationType(fields[1]);
+            operation.setProductId(Long.valueOf(fields[2]));
+            operation.setWarehouseId(Long.valueOf(fields[3]));
+            operation.setQuantity(Integer.valueOf(fields[4]));
+            operation.setOrderId(fields[5].isEmpty() ? null : Long.valueOf(fields[5]));
+            operation.setOperatorId(fields[6].isEmpty() ? null : Long.valueOf(fields[6]));
+            operation.setOperationTime(LocalDateTime.ofInstant(
+                    Instant.ofEpochMilli(Long.parseLong(fields[7])), ZoneId.systemDefault()));
+            operation.setReason(fields[8].isEmpty() ? null : fields[8]);
+            operation.setBeforeAvailableQuantity(Integer.valueOf(fields[9]));
+            operation.setBeforeReservedQuantity(Integer.valueOf(fields[10]));
+            operation.setAfterAvailableQuantity(Integer.valueOf(fields[11]));
+            operation.setAfterReservedQuantity(Integer.valueOf(fields[12]));
+            operation.setBeforeDamagedQuantity(Integer.valueOf(fields[13]));
+            operation.setAfterDamagedQuantity(operation.getBeforeDamagedQuantity());
+            operation.setCreatedBy(operation.getOperatorId());
+            operation.setUpdatedBy(operation.getOperatorId());
+            return operation;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String tryLock() {
+        String token = UUID.randomUUID().toString();
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(LOCK_KEY, token,
+                Duration.ofSeconds(reservationConfig.getLockSeconds()));
+        return Boolean.TRUE.equals(locked) ? token : null;
+    }
+
+    private void unlock(String token) {
+        try {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, List.of(LOCK_KEY), token);
+        } catch (Exception e) {
+            log.warn("释放库存流水锁失败，等待超时释放", e);
+        }
+    }
+
+    private static int valueOrZero(Integer value) {
+        return value != null ? value : 0;
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "inventoryReservationWriter";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("writtenEntries", writtenEntries.get());
+        metrics.put("duplicateEntries", duplicateEntries.get());
+        metrics.put("malformedEntries", malformedEntries.get());
+        metrics.put("flushCount", flushCount.get());
+        metrics.put("failedFlushes", failedFlushes.get());
+        metrics.put("lastFlushLagMillis", lastFlushLagMillis);
+        metrics.put("maxFlushLagMillis", maxFlushLagMillis);
+        metrics.put("reconcileRuns", reconcileRuns.get());
+        metrics.put("driftsDetected", driftsDetected.get());
+        metrics.put("driftsRepaired", driftsRepaired.get());
+        metrics.put("suspects", suspects.size());
+        return metrics;
+    }
+}
@@ -1,8 +1,12 @@
 package com.yibang.erp.domain.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.yibang.erp.common.response.PageResult;
+import com.yibang.erp.domain.dto.InventoryChangedEvent;
+import com.yibang.erp.domain.dto.InventoryDelta;
+import com.yibang.erp.domain.dto.InventoryMutationResult;
 import com.yibang.erp.domain.dto.StockOperationRequest;
 import com.yibang.erp.domain.dto.InventoryListDTO;
 import com.yibang.erp.domain.dto.StockAdjustmentRequest;
@@ -10,6 +14,8 @@ import com.yibang.erp.domain.entity.InventoryOperation;
 import com.yibang.erp.domain.entity.ProductInventory;
 import com.yibang.erp.domain.entity.Warehouse;
 import com.yibang.erp.domain.entity.Product;
+import com.yibang.erp.domain.service.InventoryMutationService;
+import com.yibang.erp.domain.service.InventoryReservationService;
 import com.yibang.erp.domain.service.InventoryService;
 import com.yibang.erp.infrastructure.repository.InventoryOperationRepository;
 import com.yibang.erp.infrastructure.repository.ProductInventoryRepository;
@@ -17,6 +23,7 @@ import com.yibang.erp.infrastructure.repository.WarehouseRepository;
 import com.yibang.erp.infrastructure.repository.ProductRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
@@ -43,28 +50,35 @@ public class InventoryServiceImpl implements InventoryService {
     private final InventoryOperationRepository inventoryOperationRepository;
     private final WarehouseRepository warehouseRepository;
     private final ProductRepository productRepository;
+    private final InventoryMutationService inventoryMutationService;
+    private final InventoryReservationService inventoryReservationService;
+    private final InventoryAlertEngine inventoryAlertEngine;
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * 库存调整时比较设置的最大尝试次数
+     */
+    private static final int ADJUST_MAX_ATTEMPTS = 3;
 
     @Override
     @Transactional
     public InventoryOperation stockIn(StockOperationRequest request) {
-        // 获取或创建库存记录
-        ProductInventory inventory = getOrCreateInventory(request.getProductId(), request.getWarehouseId());
-        
-        // 记录操作前的库存状态
-        Integer beforeAvailable = inventory.getAvailableQuantity() != null ? inventory.getAvailableQuantity() : 0;
+        // 入库直接累加，没有库存记录时创建
+        inventoryMutationService.increase(new InventoryDelta(
+                request.getProductId(), request.getWarehouseId(), request.getQuantity()));
+        inventoryReservationService.syncDelta(request.getProductId(), request.getWarehouseId(), request.getQuantity(), 0);
+
+        // 同一事务内读回变更后的库存，操作前数量由变更量推算
+        ProductInventory inventory = productInventoryRepository.findByProductIdAndWarehouseId(
+                request.getProductId(), request.getWarehouseId());
+        Integer afterAvailable = inventory.getAvailableQuantity() != null ? inventory.getAvailableQuantity() : 0;
         Integer beforeReserved = inventory.getReservedQuantity() != null ? inventory.getReservedQuantity() : 0;
         Integer beforeDamaged = inventory.getDamagedQuantity() != null ? inventory.getDamagedQuantity() : 0;
-
-        // 更新库存
-        inventory.setAvailableQuantity(beforeAvailable + request.getQuantity());
-        inventory.setLastStockIn(LocalDateTime.now());
-        inventory.setUpdatedAt(LocalDateTime.now());
-
-        productInventoryRepository.updateById(inventory);
+        Integer beforeAvailable = afterAvailable - request.getQuantity();
 
         // 创建操作记录
         InventoryOperation operation = createOperationRecord(request, beforeAvailable, beforeReserved, beforeDamaged,
-                inventory.getAvailableQuantity(), beforeReserved, beforeDamaged);
+                afterAvailable, beforeReserved, beforeDamaged);
 
         log.info("商品入库成功，商品ID: {}, 仓库ID: {}, 数量: {}", 
                 request.getProductId(), request.getWarehouseId(), request.getQuantity());
@@ -75,33 +89,33 @@ public class InventoryServiceImpl implements InventoryService {
     @Override
     @Transactional
     public InventoryOperation stockOut(StockOperationRequest request) {
+        if (inventoryReservationService.isEnabled()) {
+            return stockOutByReservation(request);
+        }
+
+        // 带条件扣减，库存不足时不会扣成负数
+        InventoryMutationResult result = inventoryMutationService.decrease(new InventoryDelta(
+                request.getProductId(), request.getWarehouseId(), request.getQuantity()));
+
         ProductInventory inventory = productInventoryRepository.findByProductIdAndWarehouseId(
                 request.getProductId(), request.getWarehouseId());
-        
-        if (inventory == null) {
+        if (result.getStatus() == InventoryMutationResult.Status.NOT_FOUND || inventory == null) {
             throw new RuntimeException("库存记录不存在");
         }
 
         Integer availableQuantity = inventory.getAvailableQuantity() != null ? inventory.getAvailableQuantity() : 0;
-        if (availableQuantity < request.getQuantity()) {
+        if (!result.isSuccess()) {
             throw new RuntimeException("库存不足，可用库存: " + availableQuantity + "，需要数量: " + request.getQuantity());
         }
 
         // 记录操作前的库存状态
-        Integer beforeAvailable = availableQuantity;
+        Integer beforeAvailable = availableQuantity + request.getQuantity();
         Integer beforeReserved = inventory.getReservedQuantity() != null ? inventory.getReservedQuantity() : 0;
         Integer beforeDamaged = inventory.getDamagedQuantity() != null ? inventory.getDamagedQuantity() : 0;
 
-        // 更新库存
-        inventory.setAvailableQuantity(beforeAvailable - request.getQuantity());
-        inventory.setLastStockOut(LocalDateTime.now());
-        inventory.setUpdatedAt(LocalDateTime.now());
-
-        productInventoryRepository.updateById(inventory);
-
         // 创建操作记录
         InventoryOperation operation = createOperationRecord(request, beforeAvailable, beforeReserved, beforeDamaged,
-                inventory.getAvailableQuantity(), beforeReserved, beforeDamaged);
+                availableQuantity, beforeReserved, beforeDamaged);
 
         log.info("商品出库成功，商品ID: {}, 仓库ID: {}, 数量: {}", 
                 request.getProductId(), request.getWarehouseId(), request.getQuantity());
@@ -112,27 +126,35 @@ public class InventoryServiceImpl implements InventoryService {
     @Override
     @Transactional
     public InventoryOperation adjustStock(StockOperationRequest request) {
-        ProductInventory inventory = productInventoryRepository.findByProductIdAndWarehouseId(
-                request.getProductId(), request.getWarehouseId());
-        
-        if (inventory == null) {
-            throw new RuntimeException("库存记录不存在");
+        ProductInventory inventory = null;
+        Integer beforeAvailable = null;
+        // 调整操作直接设置数量，读到的数量被其它操作改掉时重读重试
+        for (int attempt = 0; attempt < ADJUST_MAX_ATTEMPTS; attempt++) {
+            inventory = productInventoryRepository.findByProductIdAndWarehouseId(
+                    request.getProductId(), request.getWarehouseId());
+            if (inventory == null) {
+                throw new RuntimeException("库存记录不存在");
+            }
+            int current = inventory.getAvailableQuantity() != null ? inventory.getAvailableQuantity() : 0;
+            if (inventoryMutationService.compareAndSet(request.getProductId(), request.getWarehouseId(),
+                    current, request.getQuantity()).isSuccess()) {
+                beforeAvailable = current;
+                break;
+            }
         }
+        if (beforeAvailable == null) {
+            throw new RuntimeException("库存正在被其它操作修改，请稍后重试");
+        }
+        inventoryReservationService.syncDelta(request.getProductId(), request.getWarehouseId(),
+                request.getQuantity() - beforeAvailable, 0);
 
         // 记录操作前的库存状态
-        Integer beforeAvailable = inventory.getAvailableQuantity() != null ? inventory.getAvailableQuantity() : 0;
         Integer beforeReserved = inventory.getReservedQuantity() != null ? inventory.getReservedQuantity() : 0;
         Integer beforeDamaged = inventory.getDamagedQuantity() != null ? inventory.getDamagedQuantity() : 0;
 
-        // 更新库存（调整操作直接设置数量）
-        inventory.setAvailableQuantity(request.getQuantity());
-        inventory.setUpdatedAt(LocalDateTime.now());
-
-        productInventoryRepository.updateById(inventory);
-
         // 创建操作记录
         InventoryOperation operation = createOperationRecord(request, beforeAvailable, beforeReserved, beforeDamaged,
-                inventory.getAvailableQuantity(), beforeReserved, beforeDamaged);
+                request.getQuantity(), beforeReserved, beforeDamaged);
 
         log.info("库存调整成功，商品ID: {}, 仓库ID: {}, 调整后数量: {}", 
                 request.getProductId(), request.getWarehouseId(), request.getQuantity());
@@ -157,19 +179,35 @@ public class InventoryServiceImpl implements InventoryService {
         Integer beforeDamaged = inventory.getDamagedQuantity() != null ? inventory.getDamagedQuantity() : 0;
         Integer beforeMinStockLevel = inventory.getMinStockLevel();
 
-        // 更新库存
+        // 可用库存按读到的数量比较后设置，期间被出入库修改则不覆盖
         if (request.getNewAvailableQuantity() != null) {
+            if (!inventoryMutationService.compareAndSet(request.getProductId(), request.getWarehouseId(),
+                    beforeAvailable, request.getNewAvailableQuantity()).isSuccess()) {
+                throw new RuntimeException("库存正在被其它操作修改，请稍后重试");
+            }
             inventory.setAvailableQuantity(request.getNewAvailableQuantity());
         }
-        if (request.getNewReservedQuantity() != null) {
-            inventory.setReservedQuantity(request.getNewReservedQuantity());
+        // 其它字段只更新传入的列
+        if (request.getNewReservedQuantity() != null || request.getNewMinStockLevel() != null) {
+            UpdateWrapper<ProductInventory> updateWrapper = new UpdateWrapper<>();
+            updateWrapper.eq("id", inventory.getId());
+            if (request.getNewReservedQuantity() != null) {
+                updateWrapper.set("reserved_quantity", request.getNewReservedQuantity());
+                inventory.setReservedQuantity(request.getNewReservedQuantity());
+            }
+            if (request.getNewMinStockLevel() != null) {
+                updateWrapper.set("min_stock_level", request.getNewMinStockLevel());
+                inventory.setMinStockLevel(request.getNewMinStockLevel());
+            }
+            updateWrapper.set("updated_at", LocalDateTime.now());
+            productInventoryRepository.update(null, updateWrapper);
         }
         if (request.getNewMinStockLevel() != null) {
-            inventory.setMinStockLevel(request.getNewMinStockLevel());
+            eventPublisher.publishEvent(InventoryChangedEvent.reload(request.getProductId(), request.getWarehouseId()));
         }
-        inventory.setUpdatedAt(LocalDateTime.now());
-
-        productInventoryRepository.updateById(inventory);
+        inventoryReservationService.syncDelta(request.getProductId(), request.getWarehouseId(),
+                request.getNewAvailableQuantity() != null ? request.getNewAvailableQuantity() - beforeAvailable : 0,
+                request.getNewReservedQuantity() != null ? request.getNewReservedQuantity() - beforeReserved : 0);
 
         // 创建操作记录
         InventoryOperation operation = new InventoryOperation();
@@ -387,11 +425,18 @@ public class InventoryServiceImpl implements InventoryService {
 
     @Override
     public List<ProductInventory> getLowStockProducts() {
+        // 预警索引加载完成后从内存读取，不再扫描库存表
+        if (inventoryAlertEngine.isReady()) {
+            return inventoryAlertEngine.getBelowMinStock();
+        }
         return productInventoryRepository.findLowStockProducts();
     }
 
     @Override
     public List<ProductInventory> getProductsNeedingReorder() {
+        if (inventoryAlertEngine.isReady()) {
+            return inventoryAlertEngine.getBelowReorderPoint();
+        }
         return productInventoryRepository.findProductsNeedingReorder();
     }
 
@@ -404,12 +449,8 @@ public class InventoryServiceImpl implements InventoryService {
             return false;
         }
 
-        inventory.setMinStockLevel(minStockLevel);
-        inventory.setMaxStockLevel(maxStockLevel);
-        inventory.setReorderPoint(reorderPoint);
-        inventory.setUpdatedAt(LocalDateTime.now());
-
-        productInventoryRepository.updateById(inventory);
+        productInventoryRepository.updateStockLevels(inventory.getId(), minStockLevel, maxStockLevel, reorderPoint);
+        eventPublisher.publishEvent(InventoryChangedEvent.reload(productId, warehouseId));
         log.info("设置库存预警线成功，商品ID: {}, 仓库ID: {}", productId, warehouseId);
         
         return true;
@@ -443,25 +484,29 @@ public class InventoryServiceImpl implements InventoryService {
     }
 
     /**
-     * 获取或创建库存记录
+     * 通过库存预留层出库，操作记录随库存变更流水异步写入，返回的记录没有ID
      */
-    private ProductInventory getOrCreateInventory(Long productId, Long warehouseId) {
-        ProductInventory inventory = productInventoryRepository.findByProductIdAndWarehouseId(productId, warehouseId);
-        
-        if (inventory == null) {
-            inventory = new ProductInventory();
-            inventory.setProductId(productId);
-            inventory.setWarehouseId(warehouseId);
-            inventory.setAvailableQuantity(0);
-            inventory.setReservedQuantity(0);
-            inventory.setDamagedQuantity(0);
-            inventory.setCreatedAt(LocalDateTime.now());
-            inventory.setUpdatedAt(LocalDateTime.now());
-            
-            productInventoryRepository.insert(inventory);
+    private InventoryOperation stockOutByReservation(StockOperationRequest request) {
+        InventoryMutationResult result = inventoryReservationService.deduct(
+                List.of(new InventoryDelta(request.getProductId(), request.getWarehouseId(), request.getQuantity())),
+                request.getOrderId(), request.getOperatorId(), request.getReason()).get(0);
+        if (result.getStatus() == InventoryMutationResult.Status.NOT_FOUND) {
+            throw new RuntimeException("库存记录不存在");
         }
-        
-        return inventory;
+        if (!result.isSuccess()) {
+            throw new RuntimeException("库存不足，可用库存: " + result.getAvailableQuantity() + "，需要数量: " + request.getQuantity());
+        }
+
+        Integer afterAvailable = result.getAvailableQuantity();
+        Integer reserved = result.getReservedQuantity();
+        InventoryOperation operation = buildOperationRecord(request, afterAvailable + request.getQuantity(), reserved, 0,
+                afterAvailable, reserved, 0);
+        operation.setOperationNo(result.getOperationNo());
+
+        log.info("商品出库成功，商品ID: {}, 仓库ID: {}, 数量: {}",
+                request.getProductId(), request.getWarehouseId(), request.getQuantity());
+
+        return operation;
     }
 
     /**
@@ -470,6 +515,18 @@ public class InventoryServiceImpl implements InventoryService {
     private InventoryOperation createOperationRecord(StockOperationRequest request, 
                                                    Integer beforeAvailable, Integer beforeReserved, Integer beforeDamaged,
                                                    Integer afterAvailable, Integer afterReserved, Integer afterDamaged) {
+        InventoryOperation operation = buildOperationRecord(request, beforeAvailable, beforeReserved, beforeDamaged,
+                afterAvailable, afterReserved, afterDamaged);
+        inventoryOperationRepository.insert(operation);
+        return operation;
+    }
+
+    /**
+     * 构建操作记录，不写入数据库
+     */
+    private InventoryOperation buildOperationRecord(StockOperationRequest request,
+                                                  Integer beforeAvailable, Integer beforeReserved, Integer beforeDamaged,
+                                                  Integer afterAvailable, Integer afterReserved, Integer afterDamaged) {
         InventoryOperation operation = new InventoryOperation();
         operation.setOperationNo(generateOperationNo());
         operation.setOperationType(request.getOperationType());
@@ -496,8 +553,6 @@ public class InventoryServiceImpl implements InventoryService {
         operation.setCreatedBy(request.getOperatorId());
         operation.setUpdatedBy(request.getOperatorId());
         operation.setDeleted(false);
-
-        inventoryOperationRepository.insert(operation);
         return operation;
     }
 
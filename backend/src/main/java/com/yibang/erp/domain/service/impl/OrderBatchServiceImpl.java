@@ -18,7 +18,9 @@ import com.yibang.erp.infrastructure.repository.OrderRepository;
 import com.yibang.erp.domain.service.OrderBatchService;
 import com.yibang.erp.domain.service.OrderNumberGeneratorService;
 import com.yibang.erp.infrastructure.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
@@ -35,6 +37,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 /**
  * 订单批量处理服务实现类
  */
+@Slf4j
 @Service
 @Transactional(rollbackFor = Exception.class)
 public class OrderBatchServiceImpl extends ServiceImpl<OrderRepository, Order> implements OrderBatchService {
@@ -54,6 +57,10 @@ public class OrderBatchServiceImpl extends ServiceImpl<OrderRepository, Order> i
     @Autowired
     private UserRepository userRepository;
 
+    // 每条多行INSERT写入的订单数
+    @Value("${orders.batch-insert-size:200}")
+    private int batchInsertSize;
+
     // 批量处理进度缓存
     private final Map<String, BatchProgress> progressCache = new ConcurrentHashMap<>();
 
@@ -291,19 +298,22 @@ public class OrderBatchServiceImpl extends ServiceImpl<OrderRepository, Order> i
             String orderSource = "EXCEL_IMPORT";
             List<String> orderNumbers = orderNumberGeneratorService.preGenerateOrderNumbers(userName, orderSource, dataList.size());
 
+            List<Order> chunk = new ArrayList<>();
             for (int i = 0; i < dataList.size(); i++) {
                 try {
                     Order order = buildOrderFromImportData(dataList.get(i), templateId);
                     // 使用预生成的订单号
                     order.setPlatformOrderId(orderNumbers.get(i));
-                    orderRepository.insert(order);
-                    createdOrders.add(order);
-                    progress.incrementSuccessRows();
+                    chunk.add(order);
                 } catch (Exception e) {
                     progress.incrementFailedRows();
                     progress.addError("创建订单失败: " + e.getMessage());
                 }
+                if (chunk.size() >= Math.max(1, batchInsertSize)) {
+                    insertOrderChunk(chunk, createdOrders, progress);
+                }
             }
+            insertOrderChunk(chunk, createdOrders, progress);
         } catch (Exception e) {
             progress.setStatus("FAILED");
             progress.setErrorMessage("批量生成订单号失败: " + e.getMessage());
@@ -313,6 +323,34 @@ public class OrderBatchServiceImpl extends ServiceImpl<OrderRepository, Order> i
         return createdOrders;
     }
 
+    /**
+     * 用一条多行INSERT写入一批订单，失败时逐行写入，只让出错的行失败
+     */
+    private void insertOrderChunk(List<Order> chunk, List<Order> createdOrders, BatchProgress progress) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            orderRepository.batchInsert(chunk);
+            createdOrders.addAll(chunk);
+            chunk.forEach(order -> progress.incrementSuccessRows());
+        } catch (Exception batchError) {
+            log.warn("批量插入订单失败，改为逐行插入，行数: {}", chunk.size(), batchError);
+            for (Order order : chunk) {
+                try {
+                    order.setId(null);
+                    orderRepository.insert(order);
+                    createdOrders.add(order);
+                    progress.incrementSuccessRows();
+                } catch (Exception e) {
+                    progress.incrementFailedRows();
+                    progress.addError("创建订单失败: " + e.getMessage());
+                }
+            }
+        }
+        chunk.clear();
+    }
+
     /**
      * 验证订单数据
      */
@@ -353,6 +391,11 @@ public class OrderBatchServiceImpl extends ServiceImpl<OrderRepository, Order> i
                 .mapToDouble(item -> item.getQuantity() * item.getUnitPrice())
                 .sum();
         order.setTotalAmount(java.math.BigDecimal.valueOf(totalAmount));
+        // 实付金额与其它建单路径一致：商品总额 - 优惠 + 运费 + 税费
+        order.setFinalAmount(order.getTotalAmount()
+                .subtract(order.getDiscountAmount() != null ? order.getDiscountAmount() : java.math.BigDecimal.ZERO)
+                .add(order.getShippingAmount() != null ? order.getShippingAmount() : java.math.BigDecimal.ZERO)
+                .add(order.getTaxAmount() != null ? order.getTaxAmount() : java.math.BigDecimal.ZERO));
         order.setCurrency("CNY");
 
         // 设置其他信息
@@ -3,6 +3,7 @@ package com.yibang.erp.domain.service.impl;
 import com.yibang.erp.domain.service.OrderNumberGeneratorService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
@@ -10,11 +11,16 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 订单号生成服务实现类
- * 采用Redis分布式锁方式，确保订单号唯一性
+ * 采用号段方式：每个节点用一次Redis INCRBY为"用户+渠道+日期"预留一段连续序号，
+ * 在本地通过AtomicLong分配，号段用完再申请下一段，不再使用分布式锁。
+ * 多节点下序号全局唯一，但不保证严格按时间递增；节点重启会丢弃未用完的号段。
  */
 @Slf4j
 @Service
@@ -24,15 +30,22 @@ public class OrderNumberGeneratorServiceImpl implements OrderNumberGeneratorServ
     private final StringRedisTemplate redisTemplate;
     
     // Redis键前缀
-    private static final String ORDER_NUMBER_LOCK_PREFIX = "order_number_lock:";
     private static final String ORDER_NUMBER_SEQUENCE_PREFIX = "order_number_sequence:";
     
-    // 锁超时时间（秒）
-    private static final long LOCK_TIMEOUT = 10;
+    // 序号键保留时间（小时），覆盖跨天
+    private static final long SEQUENCE_TTL_HOURS = 48;
     
-    // 订单号格式：登录ID+订单渠道+日期+序号
-    private static final String ORDER_NUMBER_FORMAT = "%s%s%s%s";
-    private static final String SEQUENCE_FORMAT = "%04d";
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    
+    // 每次向Redis预留的序号数量
+    @Value("${orders.number-segment-size:50}")
+    private int segmentSize = 50;
+    
+    // 本节点持有的号段：用户:渠道 -> 当天号段
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+    
+    // 申请号段时按用户:渠道串行，只在号段用完时进入
+    private final Map<String, Object> segmentLocks = new ConcurrentHashMap<>();
     
     @Override
     public String generatePlatformOrderNo(String  userName, String orderSource) {
@@ -40,41 +53,14 @@ public class OrderNumberGeneratorServiceImpl implements OrderNumberGeneratorServ
             throw new IllegalArgumentException("登录ID和订单渠道不能为空");
         }
 
-
-
-
-        String lockKey = ORDER_NUMBER_LOCK_PREFIX + userName + ":" + orderSource;
-        String orderNo = null;
-
-        
+        String datePrefix = LocalDate.now().format(DATE_FORMATTER);
         try {
-            // 获取分布式锁
-            Boolean locked = redisTemplate.opsForValue()
-                .setIfAbsent(lockKey, "1", LOCK_TIMEOUT, TimeUnit.SECONDS);
-            
-            if (Boolean.TRUE.equals(locked)) {
-                // 生成订单号
-                orderNo = generateOrderNumberWithLock(userName, orderSource);
-                log.debug("成功生成订单号: {}", orderNo);
-            } else {
-                // 等待锁释放后重试
-                log.debug("获取锁失败，等待后重试: {}", lockKey);
-                Thread.sleep(100);
-                return generatePlatformOrderNo(userName, orderSource);
-            }
+            long sequence = nextSequence(userName, orderSource, datePrefix);
+            return formatOrderNo(userName, orderSource, datePrefix, sequence);
         } catch (Exception e) {
             log.error("生成订单号失败: userId={}, orderSource={}", userName, orderSource, e);
             throw new RuntimeException("生成订单号失败", e);
-        } finally {
-            // 释放锁
-            try {
-                redisTemplate.delete(lockKey);
-            } catch (Exception e) {
-                log.warn("释放锁失败: {}", lockKey, e);
-            }
         }
-        
-        return orderNo;
     }
     
     @Override
@@ -82,43 +68,26 @@ public class OrderNumberGeneratorServiceImpl implements OrderNumberGeneratorServ
         if (count <= 0) {
             throw new IllegalArgumentException("生成数量必须大于0");
         }
+        if (userName == null || orderSource == null) {
+            throw new IllegalArgumentException("登录ID和订单渠道不能为空");
+        }
         
-        List<String> orderNumbers = new ArrayList<>();
-        String lockKey = ORDER_NUMBER_LOCK_PREFIX + userName + ":" + orderSource;
-        
+        String datePrefix = LocalDate.now().format(DATE_FORMATTER);
         try {
-            // 获取分布式锁
-            Boolean locked = redisTemplate.opsForValue()
-                .setIfAbsent(lockKey, "1", LOCK_TIMEOUT, TimeUnit.SECONDS);
-            
-            if (Boolean.TRUE.equals(locked)) {
-                // 批量生成订单号
-                for (int i = 0; i < count; i++) {
-                    String orderNo = generateOrderNumberWithLock(userName, orderSource);
-                    orderNumbers.add(orderNo);
-                }
-                log.debug("批量生成订单号成功: count={}, accountId={}, orderSource={}", 
-                         count, userName, orderSource);
-            } else {
-                // 等待锁释放后重试
-                log.debug("获取锁失败，等待后重试: {}", lockKey);
-                Thread.sleep(100);
-                return preGenerateOrderNumbers(userName, orderSource, count);
+            // 一次INCRBY预留整批连续序号
+            long end = reserve(userName, orderSource, datePrefix, count);
+            List<String> orderNumbers = new ArrayList<>(count);
+            for (long sequence = end - count + 1; sequence <= end; sequence++) {
+                orderNumbers.add(formatOrderNo(userName, orderSource, datePrefix, sequence));
             }
+            log.debug("批量生成订单号成功: count={}, accountId={}, orderSource={}",
+                     count, userName, orderSource);
+            return orderNumbers;
         } catch (Exception e) {
             log.error("批量生成订单号失败: userId={}, orderSource={}, count={}",
                     userName, orderSource, count, e);
             throw new RuntimeException("批量生成订单号失败", e);
-        } finally {
-            // 释放锁
-            try {
-                redisTemplate.delete(lockKey);
-            } catch (Exception e) {
-                log.warn("释放锁失败: {}", lockKey, e);
-            }
         }
-        
-        return orderNumbers;
     }
     
     @Override
@@ -174,34 +143,77 @@ public class OrderNumberGeneratorServiceImpl implements OrderNumberGeneratorServ
     }
     
     /**
-     * 在锁保护下生成订单号
+     * 从本节点号段取下一个序号，号段用完或跨天时向Redis申请新号段
+     */
+    private long nextSequence(String userName, String orderSource, String datePrefix) {
+        String segmentKey = userName + ":" + orderSource;
+        while (true) {
+            Segment segment = segments.get(segmentKey);
+            if (segment != null && segment.datePrefix.equals(datePrefix)) {
+                long sequence = segment.next.getAndIncrement();
+                if (sequence <= segment.max) {
+                    return sequence;
+                }
+            }
+            synchronized (segmentLocks.computeIfAbsent(segmentKey, key -> new Object())) {
+                // 其它线程可能已经申请了新号段
+                Segment current = segments.get(segmentKey);
+                if (current == segment) {
+                    int size = Math.max(1, segmentSize);
+                    long end = reserve(userName, orderSource, datePrefix, size);
+                    segments.put(segmentKey, new Segment(datePrefix, end - size + 1, end));
+                }
+            }
+        }
+    }
+
+    /**
+     * 向Redis预留一段连续序号
+     * @return 号段的最后一个序号
      */
-    private String generateOrderNumberWithLock(String userName, String orderSource) {
-        String datePrefix = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+    private long reserve(String userName, String orderSource, String datePrefix, int count) {
         String sequenceKey = ORDER_NUMBER_SEQUENCE_PREFIX + userName + ":" + orderSource + ":" + datePrefix;
-        
-        // 获取并递增序号
-        Long sequence = redisTemplate.opsForValue().increment(sequenceKey);
-        if (sequence == null) {
-            sequence = 1L;
+        Long end = redisTemplate.opsForValue().increment(sequenceKey, count);
+        if (end == null) {
+            throw new IllegalStateException("申请订单序号失败: " + sequenceKey);
         }
-        
-        // 设置序号过期时间（第二天过期）
-        redisTemplate.expire(sequenceKey, 24, TimeUnit.HOURS);
-        
-        // 格式化账户号（确保6位）
-        // 确保账户名为6位，不足6位左补0，超过6位取前6位
-        String formattedAccountId =userName.length() > 6 ? userName.substring(0, 6) : userName;
+        // 当天第一次申请时设置过期时间
+        if (end == count) {
+            redisTemplate.expire(sequenceKey, SEQUENCE_TTL_HOURS, TimeUnit.HOURS);
+        }
+        return end;
+    }
 
+    /**
+     * 格式化订单号：登录ID+订单渠道+日期+序号
+     */
+    private String formatOrderNo(String userName, String orderSource, String datePrefix, long sequence) {
+        // 账户名超过6位取前6位
+        String formattedAccountId = userName.length() > 6 ? userName.substring(0, 6) : userName;
 
-        // 格式化序号（4位）
-        String formattedSequence = String.format(SEQUENCE_FORMAT, sequence);
-        
-        // 生成订单号
-        return String.format(ORDER_NUMBER_FORMAT, 
-                           formattedAccountId, 
-                           orderSource, 
-                           datePrefix, 
-                           formattedSequence);
+        // 序号至少4位，不足左补0
+        String formattedSequence = Long.toString(sequence);
+        StringBuilder orderNo = new StringBuilder(formattedAccountId.length() + orderSource.length()
+                + datePrefix.length() + Math.max(4, formattedSequence.length()));
+        orderNo.append(formattedAccountId).append(orderSource).append(datePrefix);
+        for (int i = formattedSequence.length(); i < 4; i++) {
+            orderNo.append('0');
+        }
+        return orderNo.append(formattedSequence).toString();
+    }
+
+    /**
+     * 本节点持有的号段，序号范围[next, max]
+     */
+    private static final class Segment {
+        private final String datePrefix;
+        private final AtomicLong next;
+        private final long max;
+
+        Segment(String datePrefix, long start, long max) {
+            this.datePrefix = datePrefix;
+            this.next = new AtomicLong(start);
+            this.max = max;
+        }
     }
 }
@@ -0,0 +1,114 @@
+package com.yibang.erp.domain.service.impl;
+
+import com.yibang.erp.domain.dto.ProductPriceTierConfigResponse;
+import com.yibang.erp.domain.entity.Order;
+import com.yibang.erp.domain.entity.OrderItem;
+import com.yibang.erp.domain.entity.User;
+import com.yibang.erp.domain.service.OrderPricingService;
+import com.yibang.erp.domain.service.ProductPriceTierConfigService;
+import com.yibang.erp.infrastructure.repository.UserRedisRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * 订单定价服务实现类
+ */
+@Slf4j
+@Service
+public class OrderPricingServiceImpl implements OrderPricingService {
+
+    @Autowired
+    private ProductPriceTierConfigService productPriceTierConfigService;
+
+    @Autowired
+    private UserRedisRepository userRedisRepository;
+
+    @Override
+    public void priceOrder(Order order, List<OrderItem> orderItems) {
+        priceOrders(List.of(order), List.of(orderItems));
+    }
+
+    @Override
+    public void priceOrders(List<Order> orders, List<List<OrderItem>> orderItemsList) {
+        if (orders.size() != orderItemsList.size()) {
+            throw new IllegalArgumentException("订单列表和订单项列表长度不匹配");
+        }
+
+        // 本次定价内的销售价格分层，同一销售只查一次
+        Map<Long, Optional<Long>> salesTiers = new HashMap<>();
+        // 价格分层ID -> 本批涉及的商品
+        Map<Long, Set<Long>> tierProducts = new HashMap<>();
+        List<Long> orderTiers = new ArrayList<>(orders.size());
+        for (int i = 0; i < orders.size(); i++) {
+            Long salesId = orders.get(i).getSalesId();
+            Long tierId = salesId == null ? null : salesTiers.computeIfAbsent(salesId, this::findPriceTierId).orElse(null);
+            orderTiers.add(tierId);
+            if (tierId == null) {
+                continue;
+            }
+            Set<Long> productIds = tierProducts.computeIfAbsent(tierId, k -> new LinkedHashSet<>());
+            for (OrderItem orderItem : orderItemsList.get(i)) {
+                if (orderItem.getProductId() != null) {
+                    productIds.add(orderItem.getProductId());
+                }
+            }
+        }
+
+        // 每个价格分层一次查询本批全部商品的代发价
+        Map<Long, Map<Long, BigDecimal>> tierPrices = new HashMap<>();
+        tierProducts.forEach((tierId, productIds) -> {
+            Map<Long, BigDecimal> prices = new HashMap<>();
+            if (!productIds.isEmpty()) {
+                for (ProductPriceTierConfigResponse config : productPriceTierConfigService
+                        .getConfigsByProductIdsAndPriceTierId(new ArrayList<>(productIds), tierId)) {
+                    if (config.getDropshippingPrice() != null) {
+                        prices.putIfAbsent(config.getProductId(), config.getDropshippingPrice());
+                    }
+                }
+            }
+            tierPrices.put(tierId, prices);
+        });
+
+        for (int i = 0; i < orders.size(); i++) {
+            Map<Long, BigDecimal> prices = orderTiers.get(i) != null ? tierPrices.get(orderTiers.get(i)) : Map.of();
+            calculateTotals(orders.get(i), orderItemsList.get(i), prices);
+        }
+    }
+
+    /**
+     * 设置分层单价并计算小计，订单实付金额 = 商品总额 - 优惠 + 运费 + 税费
+     */
+    private void calculateTotals(Order order, List<OrderItem> orderItems, Map<Long, BigDecimal> prices) {
+        BigDecimal totalAmount = BigDecimal.ZERO;
+        for (OrderItem orderItem : orderItems) {
+            BigDecimal tierPrice = orderItem.getProductId() != null ? prices.get(orderItem.getProductId()) : null;
+            if (tierPrice != null) {
+                orderItem.setUnitPrice(tierPrice);
+            }
+            orderItem.calculateTotalPrice();
+            if (orderItem.getSubtotal() != null) {
+                totalAmount = totalAmount.add(orderItem.getSubtotal());
+            }
+        }
+        order.setTotalAmount(totalAmount);
+        order.setFinalAmount(totalAmount
+                .subtract(order.getDiscountAmount() != null ? order.getDiscountAmount() : BigDecimal.ZERO)
+                .add(order.getShippingAmount() != null ? order.getShippingAmount() : BigDecimal.ZERO)
+                .add(order.getTaxAmount() != null ? order.getTaxAmount() : BigDecimal.ZERO));
+    }
+
+    private Optional<Long> findPriceTierId(Long salesId) {
+        User user = userRedisRepository.selectById(salesId);
+        return Optional.ofNullable(user).map(User::getPriceTierId);
+    }
+}
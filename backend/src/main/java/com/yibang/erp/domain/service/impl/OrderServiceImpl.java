@@ -6,12 +6,17 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yibang.erp.common.response.CursorPage;
+import com.yibang.erp.common.util.CursorUtils;
 import com.yibang.erp.common.util.UserSecurityUtils;
 import com.yibang.erp.controller.OrderAPICallbackController;
 import com.yibang.erp.controller.microservice.WxOrderService;
 import com.yibang.erp.domain.dto.*;
 import com.yibang.erp.domain.entity.*;
+import com.yibang.erp.domain.service.InventoryMutationService;
+import com.yibang.erp.domain.service.InventoryReservationService;
 import com.yibang.erp.domain.service.OrderNumberGeneratorService;
+import com.yibang.erp.domain.service.OrderPricingService;
 import com.yibang.erp.domain.service.OrderService;
 import com.yibang.erp.infrastructure.client.DeepSeekClient;
 import com.yibang.erp.infrastructure.repository.*;
@@ -19,20 +24,30 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.compress.utils.Lists;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.DigestUtils;
 import org.springframework.util.StringUtils;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -74,7 +89,13 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
     private WarehouseRepository warehouseRepository;
 
     @Autowired
-    private ProductInventoryRepository productInventoryRepository;
+    private InventoryMutationService inventoryMutationService;
+
+    @Autowired
+    private InventoryReservationService inventoryReservationService;
+
+    @Autowired
+    private OrderPricingService orderPricingService;
 
     @Autowired
     private DeepSeekClient deepSeekClient;
@@ -99,6 +120,13 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
     @Autowired
     private WxOrderService wxOrderService;
 
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static final String ORDER_COUNT_CACHE_PREFIX = "order:list:count:";
+
+    private static final long ORDER_COUNT_CACHE_SECONDS = 60;
+
 
     private boolean isProdProfile() {
         try {
@@ -501,15 +529,107 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
         List<OrderItem> orderItems = parseOrderItems(request.getOrderItems());
 
 
-//        Product product = productRepository.selectById(orderItems.get(0).getProductId());
-        Long supplierCompanyId = orderItems.get(0).getSupplierId();
+        User user = userRedisRepository.findByUsername("estela");
+
+        // 创建订单
+        Order order = buildOrderForAPI(request, orderItems);
+        order.setPlatformOrderId(generatePlatformOrderNoForAPI(user.getUsername()));
+
+        //这里没有当前的登录信息
+//        order.setSalesId(UserSecurityUtils.getCurrentUserId());
+        // 按销售的价格分层定价，订单金额在写入前计算
+        prepareOrderItemsForAPI(orderItems);
+        orderPricingService.priceOrder(order, orderItems);
+        order.setUpdatedBy(user.getId());
+
+        // 保存订单和订单项
+        insertOrderForAPI(order, orderItems);
+
+        return getOrderById(order.getId());
 
+    }
 
+    @Override
+    public List<String> createOrdersByAPI(List<OrderCreateRequest> requests) {
+        List<String> results = new ArrayList<>(Collections.nCopies(requests.size(), (String) null));
+        if (requests.isEmpty()) {
+            return results;
+        }
         User user = userRedisRepository.findByUsername("estela");
 
-        // 创建订单
+        // 一次查询整批中已存在的来源订单
+        Set<String> sourceOrderIds = requests.stream()
+                .map(OrderCreateRequest::getSourceOrderId)
+                .filter(StringUtils::hasText)
+                .collect(Collectors.toSet());
+        Set<String> existingSourceOrderIds = new HashSet<>();
+        if (!sourceOrderIds.isEmpty()) {
+            orderRepository.selectList(new QueryWrapper<Order>()
+                            .select("source_order_id")
+                            .in("source_order_id", sourceOrderIds)
+                            .eq("created_by", user.getId())
+                            .eq("order_source", "API"))
+                    .forEach(order -> existingSourceOrderIds.add(order.getSourceOrderId()));
+        }
+
+        List<Order> orders = new ArrayList<>();
+        List<List<OrderItem>> orderItemsList = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            OrderCreateRequest request = requests.get(i);
+            String sourceOrderId = request.getSourceOrderId();
+            // 已存在或与本批前面的消息重复
+            if (StringUtils.hasText(sourceOrderId) && !existingSourceOrderIds.add(sourceOrderId)) {
+                results.set(i, "订单已存在: " + sourceOrderId);
+                continue;
+            }
+            try {
+                List<OrderItem> orderItems = parseOrderItems(request.getOrderItems());
+                Order order = buildOrderForAPI(request, orderItems);
+
+                prepareOrderItemsForAPI(orderItems);
+                order.setUpdatedBy(user.getId());
+
+                orders.add(order);
+                orderItemsList.add(orderItems);
+            } catch (IllegalArgumentException e) {
+                results.set(i, e.getMessage());
+            }
+        }
+        if (orders.isEmpty()) {
+            return results;
+        }
+
+        // 整批订单一次定价，订单金额在写入前计算
+        orderPricingService.priceOrders(orders, orderItemsList);
+
+        // 一次预分配整批订单号，订单和订单项各用一条多行INSERT写入
+        List<String> orderNumbers = orderNumberGeneratorService.preGenerateOrderNumbers(user.getUsername(), "API", orders.size());
+        for (int i = 0; i < orders.size(); i++) {
+            orders.get(i).setPlatformOrderId(orderNumbers.get(i));
+        }
+        orderRepository.batchInsert(orders);
+
+        List<OrderItem> allOrderItems = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) {
+            for (OrderItem orderItem : orderItemsList.get(i)) {
+                orderItem.setOrderId(orders.get(i).getId());
+                allOrderItems.add(orderItem);
+            }
+        }
+        if (!allOrderItems.isEmpty()) {
+            orderItemRepository.batchInsert(allOrderItems);
+        }
+        return results;
+    }
+
+    /**
+     * 根据API请求构建订单，订单号和金额由调用方设置
+     */
+    private Order buildOrderForAPI(OrderCreateRequest request, List<OrderItem> orderItems) {
+//        Product product = productRepository.selectById(orderItems.get(0).getProductId());
+        Long supplierCompanyId = orderItems.get(0).getSupplierId();
+
         Order order = new Order();
-        order.setPlatformOrderId(generatePlatformOrderNoForAPI(user.getUsername()));
         if(request.getCustomerId()==null){
             order.setSourceOrderId("0");
         }else{
@@ -587,22 +707,7 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
             order.setExtendedFieldsMap(request.getExtendedFields());
         }
 
-        //这里没有当前的登录信息
-//        order.setSalesId(UserSecurityUtils.getCurrentUserId());
-        // 保存订单
-        orderRepository.insert(order);
-
-        // 创建订单项
-        if (request.getOrderItems() != null && !request.getOrderItems().isEmpty()) {
-            createOrderItemsForAPI(order.getId(),orderItems);
-        }
-
-
-        // 计算订单总金额
-        calculateOrderTotalForAPI(order.getId(),user.getId());
-
-        return getOrderById(order.getId());
-
+        return order;
     }
 
     @Override
@@ -811,17 +916,12 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
 
         //这里没有当前的登录信息
 //        order.setSalesId(UserSecurityUtils.getCurrentUserId());
-        // 保存订单
-        orderRepository.insert(order);
-
-        // 创建订单项
-        if (request.getOrderItems() != null && !request.getOrderItems().isEmpty()) {
-            createOrderItemsForAPI(order.getId(),orderItems);
-        }
+        // 按销售的价格分层定价，订单金额在写入前计算
+        prepareOrderItemsForAPI(orderItems);
+        orderPricingService.priceOrder(order, orderItems);
 
-
-        // 计算订单总金额
-        calculateOrderTotalForAPI(order.getId(),user.getId());
+        // 保存订单和订单项
+        insertOrderForAPI(order, orderItems);
 
         return getOrderById(order.getId());
     }
@@ -1016,38 +1116,7 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
             );
         }
         
-        queryWrapper.orderByDesc("created_at");
-
-        // 手动分页（避免分页插件问题）
-        long total = orderRepository.selectCount(queryWrapper);
-
-        Page<OrderResponse> responsePage = new Page<>();
-        responsePage.setCurrent(request.getCurrent());
-        responsePage.setSize(request.getSize());
-        responsePage.setTotal(total);
-
-        if (total == 0) {
-            responsePage.setPages(0);
-            responsePage.setRecords(List.of());
-            return responsePage;
-        }
-
-        long size = request.getSize() == 0 ? 20 : request.getSize();
-        long current = request.getCurrent() <= 0 ? 1 : request.getCurrent();
-        long pages = (total + size - 1) / size;
-        responsePage.setPages(pages);
-
-        long offset = (current - 1) * size;
-        queryWrapper.last(String.format("LIMIT %d, %d", offset, size));
-
-        List<Order> orderList = orderRepository.selectList(queryWrapper);
-
-        List<OrderResponse> responses = orderList.stream()
-                .map(this::enrichOrderResponse)
-                .toList();
-        responsePage.setRecords(responses);
-
-        return responsePage;
+        return pageOrders(queryWrapper, request);
     }
 
     @Override
@@ -1105,11 +1174,59 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
 
         }
 
+        return pageOrders(queryWrapper, request);
+
+    }
+
+    /**
+     * 按分页模式查询订单并组装响应
+     * OFFSET模式沿用页码分页；CURSOR模式按(created_at, id)做seek查询，每页代价与翻页深度无关
+     */
+    private Page<OrderResponse> pageOrders(QueryWrapper<Order> queryWrapper, OrderListRequest request) {
+        long size = request.getSize() == null || request.getSize() <= 0 ? 20 : request.getSize();
+        boolean cursorMode = "CURSOR".equalsIgnoreCase(request.getPaginationMode())
+                || StringUtils.hasText(request.getCursor());
+        String countMode;
+        if (StringUtils.hasText(request.getCountMode())) {
+            countMode = request.getCountMode().toUpperCase();
+        } else {
+            // 游标分页后续页沿用第一页的总数，不再每页COUNT
+            countMode = cursorMode && StringUtils.hasText(request.getCursor()) ? "NONE" : "EXACT";
+        }
+
+        // 统计总数需在追加游标条件和排序之前进行，NONE模式下总数返回-1
+        long total = "NONE".equals(countMode) ? -1 : countOrders(queryWrapper, "CACHED".equals(countMode));
+
+        if (cursorMode) {
+            CursorPage<OrderResponse> cursorPage = new CursorPage<>(size);
+            cursorPage.setTotal(total);
+            cursorPage.setTotalApproximate(!"EXACT".equals(countMode));
+
+            if (StringUtils.hasText(request.getCursor())) {
+                CursorUtils.Cursor cursor = CursorUtils.decode(request.getCursor());
+                queryWrapper.and(wrapper -> wrapper
+                        .lt("created_at", cursor.getCreatedAt())
+                        .or(sub -> sub.eq("created_at", cursor.getCreatedAt()).lt("id", cursor.getId())));
+            }
+            queryWrapper.orderByDesc("created_at", "id");
+            // 多取一条用于判断是否还有下一页
+            queryWrapper.last(String.format("LIMIT %d", size + 1));
+
+            List<Order> orderList = orderRepository.selectList(queryWrapper);
+            boolean hasMore = orderList.size() > size;
+            if (hasMore) {
+                orderList = orderList.subList(0, (int) size);
+                Order last = orderList.get(orderList.size() - 1);
+                cursorPage.setNextCursor(CursorUtils.encode(last.getCreatedAt(), last.getId()));
+            }
+            cursorPage.setHasMore(hasMore);
+            cursorPage.setRecords(enrichOrderResponses(orderList));
+            return cursorPage;
+        }
+
         queryWrapper.orderByDesc("created_at");
 
         // 手动分页（避免分页插件问题）
-        long total = orderRepository.selectCount(queryWrapper);
-
         Page<OrderResponse> responsePage = new Page<>();
         responsePage.setCurrent(request.getCurrent());
         responsePage.setSize(request.getSize());
@@ -1121,23 +1238,48 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
             return responsePage;
         }
 
-        long size = request.getSize() == 0 ? 20 : request.getSize();
-        long current = request.getCurrent() <= 0 ? 1 : request.getCurrent();
-        long pages = (total + size - 1) / size;
-        responsePage.setPages(pages);
+        long current = request.getCurrent() == null || request.getCurrent() <= 0 ? 1 : request.getCurrent();
+        if (total > 0) {
+            responsePage.setPages((total + size - 1) / size);
+        }
 
         long offset = (current - 1) * size;
         queryWrapper.last(String.format("LIMIT %d, %d", offset, size));
 
         List<Order> orderList = orderRepository.selectList(queryWrapper);
 
-        List<OrderResponse> responses = orderList.stream()
-                .map(this::enrichOrderResponse)
-                .toList();
+        List<OrderResponse> responses = enrichOrderResponses(orderList);
         responsePage.setRecords(responses);
 
         return responsePage;
+    }
 
+    /**
+     * 统计订单总数
+     * 缓存模式下以查询条件摘要为key短时缓存统计结果，深度翻页和按页导出时不再重复执行COUNT
+     */
+    private long countOrders(QueryWrapper<Order> queryWrapper, boolean useCache) {
+        if (!useCache) {
+            return orderRepository.selectCount(queryWrapper);
+        }
+        String cacheKey = ORDER_COUNT_CACHE_PREFIX + DigestUtils.md5DigestAsHex(
+                (queryWrapper.getCustomSqlSegment() + queryWrapper.getParamNameValuePairs())
+                        .getBytes(StandardCharsets.UTF_8));
+        try {
+            String cached = stringRedisTemplate.opsForValue().get(cacheKey);
+            if (cached != null) {
+                return Long.parseLong(cached);
+            }
+        } catch (Exception e) {
+            log.warn("读取订单总数缓存失败: {}", e.getMessage());
+        }
+        long total = orderRepository.selectCount(queryWrapper);
+        try {
+            stringRedisTemplate.opsForValue().set(cacheKey, String.valueOf(total), ORDER_COUNT_CACHE_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("写入订单总数缓存失败: {}", e.getMessage());
+        }
+        return total;
     }
 
     /**
@@ -1270,54 +1412,7 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
             queryWrapper.eq("source_order_id", request.getSourceOrderNo());
         }
 
-        queryWrapper.orderByDesc("created_at");
-
-
-
-        // 执行分页查询
-//        Page<Order> page = new Page<>(request.getCurrent(), request.getSize());
-//        Page<Order> orderPage = orderRepository.selectPage(page, queryWrapper);
-        long count= orderRepository.selectCount(queryWrapper);
-        // 转换为响应对象
-//        Page<OrderResponse> responsePage = new Page<>();
-//        responsePage.setCurrent(orderPage.getCurrent());
-//        responsePage.setSize(orderPage.getSize());
-//        responsePage.setTotal(count);
-//        responsePage.setPages(orderPage.getPages());
-
-
-
-
-        long total = orderRepository.selectCount(queryWrapper);
-
-        Page<OrderResponse> responsePage = new Page<>();
-        responsePage.setCurrent(request.getCurrent());
-        responsePage.setSize(request.getSize());
-        responsePage.setTotal(total);
-
-        if (total == 0) {
-            responsePage.setPages(0);
-            responsePage.setRecords(List.of());
-            return responsePage;
-        }
-
-        long size = request.getSize() == 0 ? 20 : request.getSize();
-        long current = request.getCurrent() <= 0 ? 1 : request.getCurrent();
-        long pages = (total + size - 1) / size;
-        responsePage.setPages(pages);
-
-        long offset = (current - 1) * size;
-        queryWrapper.last(String.format("LIMIT %d, %d", offset, size));
-
-        List<Order> orderList = orderRepository.selectList(queryWrapper);
-
-
-        List<OrderResponse> responses = orderList.stream()
-                .map(this::enrichOrderResponse)
-                .toList();
-        responsePage.setRecords(responses);
-
-        return responsePage;
+        return pageOrders(queryWrapper, request);
     }
 
     @Override
@@ -1504,7 +1599,7 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
         logisticsInfoRepository.insert(logisticsInfo);
 
         // 处理仓库库存扣减
-        warehouseProductOrderHandle(order, request.getWarehouseId());
+        warehouseProductOrderHandle(order, request.getWarehouseId(), request.getOperatorId());
 
         // 发货成功后，主动回调对方系统
         try {
@@ -1528,7 +1623,7 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
         return getOrderById(orderId);
     }
 
-    private void warehouseProductOrderHandle(Order order, Long warehouseId) {
+    private void warehouseProductOrderHandle(Order order, Long warehouseId, Long operatorId) {
         try {
             log.info("开始处理仓库库存扣减，订单ID: {}, 仓库ID: {}", order.getId(), warehouseId);
             
@@ -1542,42 +1637,27 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
                 return;
             }
             
-            // 2. 批量扣减库存
+            // 2. 批量扣减库存，按固定顺序加锁，任一商品库存不足则整单不扣
+            List<InventoryDelta> deltas = new ArrayList<>(orderItems.size());
             for (OrderItem orderItem : orderItems) {
-                try {
-                    // 查询当前库存
-                    QueryWrapper<ProductInventory> inventoryWrapper = new QueryWrapper<>();
-                    inventoryWrapper.eq("product_id", orderItem.getProductId());
-                    inventoryWrapper.eq("warehouse_id", warehouseId);
-                    ProductInventory inventory = productInventoryRepository.selectOne(inventoryWrapper);
-                    
-                    if (inventory == null) {
-                        log.error("商品 {} 在仓库 {} 中没有库存记录", orderItem.getProductId(), warehouseId);
-                        continue;
-                    }
-                    
-                    // 检查库存是否充足
-                    if (inventory.getAvailableQuantity() < orderItem.getQuantity()) {
-                        log.error("商品 {} 在仓库 {} 中库存不足，需要: {}, 可用: {}", 
-                            orderItem.getProductId(), warehouseId, orderItem.getQuantity(), inventory.getAvailableQuantity());
-                        throw new RuntimeException("库存不足，无法发货");
-                    }
-                    
-                    // 扣减可用库存
-                    int newAvailableQuantity = inventory.getAvailableQuantity() - orderItem.getQuantity();
-                    inventory.setAvailableQuantity(newAvailableQuantity);
-                    inventory.setLastStockOut(LocalDateTime.now());
-                    inventory.setUpdatedAt(LocalDateTime.now());
-                    
-                    // 更新库存
-                    productInventoryRepository.updateById(inventory);
-                    
-                    log.info("商品 {} 在仓库 {} 中库存扣减成功，扣减数量: {}, 剩余可用库存: {}", 
-                        orderItem.getProductId(), warehouseId, orderItem.getQuantity(), newAvailableQuantity);
-                    
-                } catch (Exception e) {
-                    log.error("处理商品 {} 库存扣减失败: {}", orderItem.getProductId(), e.getMessage(), e);
-                    throw new RuntimeException("库存扣减失败: " + e.getMessage());
+                if (orderItem.getProductId() == null || orderItem.getQuantity() == null) {
+                    continue;
+                }
+                deltas.add(new InventoryDelta(orderItem.getProductId(), warehouseId, orderItem.getQuantity()));
+            }
+            // 开启库存预留层时在Redis中扣减，数据库异步写入
+            List<InventoryMutationResult> results = inventoryReservationService.isEnabled()
+                    ? inventoryReservationService.deduct(deltas, order.getId(), operatorId, "订单发货")
+                    : inventoryMutationService.decrease(deltas, true);
+            for (InventoryMutationResult result : results) {
+                if (result.getStatus() == InventoryMutationResult.Status.INSUFFICIENT) {
+                    throw new RuntimeException("库存不足，无法发货");
+                }
+                if (result.getStatus() == InventoryMutationResult.Status.NOT_FOUND) {
+                    log.error("商品 {} 在仓库 {} 中没有库存记录", result.getProductId(), warehouseId);
+                } else if (result.isSuccess()) {
+                    log.info("商品 {} 在仓库 {} 中库存扣减成功，扣减数量: {}",
+                        result.getProductId(), warehouseId, result.getQuantity());
                 }
             }
             
@@ -1686,25 +1766,19 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
     @Override
     public List<OrderResponse> getOrdersBySalesUserId(Long salesUserId) {
         List<Order> orders = orderRepository.selectBySalesUserId(salesUserId);
-        return orders.stream()
-                .map(this::enrichOrderResponse)
-                .toList();
+        return enrichOrderResponses(orders);
     }
 
     @Override
     public List<OrderResponse> getOrdersBySupplierCompanyId(Long supplierCompanyId) {
         List<Order> orders = orderRepository.selectBySupplierCompanyId(supplierCompanyId);
-        return orders.stream()
-                .map(this::enrichOrderResponse)
-                .toList();
+        return enrichOrderResponses(orders);
     }
 
     @Override
     public List<OrderResponse> getOrdersByCustomerId(Long customerId) {
         List<Order> orders = orderRepository.selectByCustomerId(customerId);
-        return orders.stream()
-                .map(this::enrichOrderResponse)
-                .toList();
+        return enrichOrderResponses(orders);
     }
 
     @Override
@@ -2196,7 +2270,7 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
 
 
                     // 处理仓库库存扣减
-                    warehouseProductOrderHandle(order, warehouse.getId());
+                    warehouseProductOrderHandle(order, warehouse.getId(), getCurrentUserId());
                     
                     successCount++;
                     // 发货成功后，主动回调对方系统
@@ -2355,38 +2429,28 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
     }
 
     /**
-     * 为API创建的订单项，可能有不同的处理逻辑
-     * @param orderId
-     * @param itemRequests
+     * 为API创建的订单项设置默认值，单价和小计由订单定价服务计算，订单ID在订单写入后回填
+     * @param orderItems
      */
-    private void createOrderItemsForAPI(Long orderId,List<OrderItem> itemRequests) {
-        for (OrderItem orderItem : itemRequests) {
-
-
-
-
-
-
-            orderItem.setOrderId(orderId);
+    private void prepareOrderItemsForAPI(List<OrderItem> orderItems) {
+        for (OrderItem orderItem : orderItems) {
             orderItem.setDiscountRate(BigDecimal.ONE);
             orderItem.setDiscountAmount(BigDecimal.ZERO);
             orderItem.setTaxRate(BigDecimal.ZERO);
-            orderItem.setTaxAmount(orderItem.getTaxAmount());
-
-
             orderItem.setCreatedAt(LocalDateTime.now());
             orderItem.setUpdatedAt(LocalDateTime.now());
-
-
-
-            // 计算小计
-            orderItem.calculateTotalPrice();
-
-            orderItemRepository.insert(orderItem);
         }
+    }
 
-
-
+    /**
+     * 写入API创建的订单和订单项，订单项用一条多行INSERT写入
+     */
+    private void insertOrderForAPI(Order order, List<OrderItem> orderItems) {
+        orderRepository.insert(order);
+        for (OrderItem orderItem : orderItems) {
+            orderItem.setOrderId(order.getId());
+        }
+        orderItemRepository.batchInsert(orderItems);
     }
 
     private void createOrderItems(Long orderId, List<OrderCreateRequest.OrderItemRequest> itemRequests) {
@@ -2459,7 +2523,7 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
         }
     }
 
-    public void calculateOrderTotalForAPI(Long orderId,Long salesId) {
+    public void calculateOrderTotal(Long orderId) {
         // 查询订单项
         QueryWrapper<OrderItem> wrapper = new QueryWrapper<>();
         wrapper.eq("order_id", orderId);
@@ -2481,43 +2545,84 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
                 .add(order.getShippingAmount() != null ? order.getShippingAmount() : BigDecimal.ZERO)
                 .add(order.getTaxAmount() != null ? order.getTaxAmount() : BigDecimal.ZERO));
         order.setUpdatedAt(LocalDateTime.now());
-        order.setUpdatedBy(salesId);
+        order.setUpdatedBy(getCurrentUserId());
 
         orderRepository.updateById(order);
     }
 
-    public void calculateOrderTotal(Long orderId) {
-        // 查询订单项
-        QueryWrapper<OrderItem> wrapper = new QueryWrapper<>();
-        wrapper.eq("order_id", orderId);
-        List<OrderItem> items = orderItemRepository.selectList(wrapper);
+    private OrderResponse enrichOrderResponse(Order order) {
+        return enrichOrderResponses(List.of(order)).get(0);
+    }
 
-        //todo 这里应该根据客服分层价格来计算
-        //对于API来说这里的费用应该有问题 todo
-        // 计算商品总额
-        BigDecimal totalAmount = items.stream()
-                .map(OrderItem::getSubtotal)
-                .filter(subtotal -> subtotal != null)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    /**
+     * 批量组装订单响应
+     * 先收集整页订单关联的销售、供应商、客户ID，每类关联数据只发一次IN查询，再在内存中组装，避免逐行N+1查询
+     */
+    private List<OrderResponse> enrichOrderResponses(List<Order> orders) {
+        if (orders == null || orders.isEmpty()) {
+            return List.of();
+        }
+
+        Set<Long> salesIds = orders.stream()
+                .map(Order::getSalesId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Set<Long> companyIds = orders.stream()
+                .map(Order::getSupplierCompanyId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Set<Long> customerIds = orders.stream()
+                .map(Order::getCustomerId)
+                .filter(customerId -> customerId != null && customerId != 0L)
+                .collect(Collectors.toSet());
+        List<Long> orderIds = orders.stream()
+                .map(Order::getId)
+                .toList();
 
-        // 更新订单
-        Order order = getOrderEntityById(orderId);
-        order.setTotalAmount(totalAmount);
-        order.setFinalAmount(totalAmount
-                .subtract(order.getDiscountAmount() != null ? order.getDiscountAmount() : BigDecimal.ZERO)
-                .add(order.getShippingAmount() != null ? order.getShippingAmount() : BigDecimal.ZERO)
-                .add(order.getTaxAmount() != null ? order.getTaxAmount() : BigDecimal.ZERO));
-        order.setUpdatedAt(LocalDateTime.now());
-        order.setUpdatedBy(getCurrentUserId());
+        Map<Long, User> userMap = salesIds.isEmpty() ? new HashMap<>() : userRepository.selectByIds(salesIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity(), (a, b) -> a));
+        Map<Long, Company> companyMap = companyIds.isEmpty() ? new HashMap<>() : companyRepository.selectByIds(companyIds).stream()
+                .collect(Collectors.toMap(Company::getId, Function.identity(), (a, b) -> a));
+        Map<Long, Customer> customerMap = customerIds.isEmpty() ? new HashMap<>() : customerRepository.selectByIds(customerIds).stream()
+                .collect(Collectors.toMap(Customer::getId, Function.identity(), (a, b) -> a));
 
-        orderRepository.updateById(order);
+        // 批量查询订单项
+        QueryWrapper<OrderItem> itemWrapper = new QueryWrapper<>();
+        itemWrapper.in("order_id", orderIds);
+        itemWrapper.orderByAsc("id");
+        Map<Long, List<OrderItem>> itemMap = orderItemRepository.selectList(itemWrapper).stream()
+                .collect(Collectors.groupingBy(OrderItem::getOrderId));
+
+        // 批量查询物流信息，只查询需要展示物流的订单，每个订单取最新一条
+        List<String> logisticsStatuses = List.of("SHIPPED", "IN_TRANSIT", "DELIVERED", "COMPLETED");
+        List<Long> logisticsOrderIds = orders.stream()
+                .filter(order -> logisticsStatuses.contains(order.getOrderStatus()))
+                .map(Order::getId)
+                .toList();
+        Map<Long, LogisticsInfo> logisticsMap = new HashMap<>();
+        if (!logisticsOrderIds.isEmpty()) {
+            QueryWrapper<LogisticsInfo> logisticsWrapper = new QueryWrapper<>();
+            logisticsWrapper.in("order_id", logisticsOrderIds);
+            logisticsWrapper.orderByDesc("created_at");
+            for (LogisticsInfo logisticsInfo : logisticsInfoRepository.selectList(logisticsWrapper)) {
+                logisticsMap.putIfAbsent(logisticsInfo.getOrderId(), logisticsInfo);
+            }
+        }
+
+        return orders.stream()
+                .map(order -> buildOrderResponse(order,
+                        userMap.get(order.getSalesId()),
+                        companyMap.get(order.getSupplierCompanyId()),
+                        customerMap.get(order.getCustomerId()),
+                        itemMap.getOrDefault(order.getId(), List.of()),
+                        logisticsMap.get(order.getId())))
+                .toList();
     }
 
-    private OrderResponse enrichOrderResponse(Order order) {
+    private OrderResponse buildOrderResponse(Order order, User saleUser, Company company, Customer customer,
+                                             List<OrderItem> items, LogisticsInfo logisticsInfo) {
         OrderResponse response = new OrderResponse();
 
-        Long salesId= order.getSalesId();
-
 
         // 复制基本字段
         response.setId(order.getId());
@@ -2532,7 +2637,6 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
         response.setSourceOrderId(order.getSourceOrderId());
         //销售id
         response.setSalesUserId(order.getSalesId());
-        User saleUser = userRepository.selectById(order.getSalesId());
         if(saleUser!=null){
             response.setSalesUserName(saleUser.getUsername());
             response.setCustomerName(saleUser.getRealName());
@@ -2541,8 +2645,9 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
 
         //供应商id
         response.setSupplierCompanyId(order.getSupplierCompanyId());
-        Company company = companyRepository.selectById(order.getSupplierCompanyId());
-        response.setSupplierCompanyName(company.getName());
+        if (company != null) {
+            response.setSupplierCompanyName(company.getName());
+        }
 
         //订单状态
         response.setStatus(order.getOrderStatus());
@@ -2573,34 +2678,23 @@ public class OrderServiceImpl extends ServiceImpl<OrderRepository, Order> implem
         ;
 
         // 获取客户信息
-        if (order.getCustomerId() != null && order.getCustomerId().longValue()!=0L) {
-            Customer customer = customerRepository.selectById(order.getCustomerId());
-            if (customer != null) {
-                response.setCustomerName(customer.getName());
-            }
+        if (customer != null) {
+            response.setCustomerName(customer.getName());
         }
 
 
 
 
 
-        // 获取订单项
-        QueryWrapper<OrderItem> itemWrapper = new QueryWrapper<>();
-        itemWrapper.eq("order_id", order.getId());
-        List<OrderItem> items = orderItemRepository.selectList(itemWrapper);
-        
+        // 订单项
         List<OrderResponse.OrderItemResponse> itemResponses = items.stream()
                 .map(this::convertToOrderItemResponse)
                 .toList();
 
 
-        // 查询物流相关信息
-        List<String> logisticsStatuses = List.of("SHIPPED", "IN_TRANSIT", "DELIVERED", "COMPLETED");
-        if (logisticsStatuses.contains(order.getOrderStatus())) {
-            LogisticsInfo logisticsInfo = logisticsInfoRepository.selectByOrderId(order.getId());
-            if (logisticsInfo != null) {
-                response.setLogisticsInfo(convertToLogisticsInfoDTO(logisticsInfo));
-            }
+        // 物流相关信息
+        if (logisticsInfo != null) {
+            response.setLogisticsInfo(convertToLogisticsInfoDTO(logisticsInfo));
         }
 
         response.setOrderItems(itemResponses);
@@ -19,9 +19,7 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -35,6 +33,7 @@ import java.util.stream.Collectors;
 public class PriceStrategyServiceImpl implements PriceStrategyService {
 
     private final PriceStrategyRepository priceStrategyRepository;
+    private final PricingEngine pricingEngine;
 
     @Override
     @Transactional
@@ -58,6 +57,7 @@ public class PriceStrategyServiceImpl implements PriceStrategyService {
         priceStrategy.setIsDeleted(false);
 
         priceStrategyRepository.insert(priceStrategy);
+        pricingEngine.markChanged();
         
         return getPriceStrategyById(priceStrategy.getId());
     }
@@ -84,6 +84,7 @@ public class PriceStrategyServiceImpl implements PriceStrategyService {
         existingStrategy.setUpdatedAt(LocalDateTime.now());
         
         priceStrategyRepository.updateById(existingStrategy);
+        pricingEngine.markChanged();
         
         return getPriceStrategyById(id);
     }
@@ -96,6 +97,7 @@ public class PriceStrategyServiceImpl implements PriceStrategyService {
             return false;
         }
         
+        pricingEngine.markChanged();
         return priceStrategyRepository.deleteById(id) > 0;
     }
 
@@ -144,6 +146,7 @@ public class PriceStrategyServiceImpl implements PriceStrategyService {
         priceStrategy.setIsActive(isActive);
         priceStrategy.setUpdatedAt(LocalDateTime.now());
         
+        pricingEngine.markChanged();
         return priceStrategyRepository.updateById(priceStrategy) > 0;
     }
 
@@ -165,6 +168,7 @@ public class PriceStrategyServiceImpl implements PriceStrategyService {
         });
         
         // 逐个更新
+        pricingEngine.markChanged();
         int updateCount = 0;
         for (PriceStrategy strategy : priceStrategies) {
             if (priceStrategyRepository.updateById(strategy) > 0) {
@@ -176,62 +180,14 @@ public class PriceStrategyServiceImpl implements PriceStrategyService {
 
     @Override
     public List<PriceStrategyResponse> getApplicablePriceStrategies(Long categoryId, String customerType, Long companyId) {
-        LambdaQueryWrapper<PriceStrategy> wrapper = new LambdaQueryWrapper<>();
-        wrapper.eq(PriceStrategy::getCompanyId, companyId)
-                .eq(PriceStrategy::getIsActive, true)
-                .and(w -> w.eq(PriceStrategy::getCategoryId, categoryId).or().isNull(PriceStrategy::getCategoryId))
-                .and(w -> w.eq(PriceStrategy::getCustomerType, customerType).or().isNull(PriceStrategy::getCustomerType))
-                .orderByAsc(PriceStrategy::getPriority);
-        
-        List<PriceStrategy> priceStrategies = priceStrategyRepository.selectList(wrapper);
-        
-        return priceStrategies.stream()
+        return pricingEngine.getApplicableStrategies(categoryId, customerType, companyId).stream()
                 .map(this::convertToResponse)
                 .collect(Collectors.toList());
     }
 
     @Override
     public BigDecimal applyPriceStrategy(Long strategyId, BigDecimal originalPrice) {
-        PriceStrategy priceStrategy = priceStrategyRepository.selectById(strategyId);
-        if (priceStrategy == null || !priceStrategy.getIsActive()) {
-            return originalPrice;
-        }
-        
-        BigDecimal finalPrice = originalPrice;
-        
-        switch (priceStrategy.getStrategyType()) {
-            case "DISCOUNT":
-                if (priceStrategy.getAdjustmentRate() != null) {
-                    finalPrice = finalPrice.multiply(BigDecimal.ONE.subtract(priceStrategy.getAdjustmentRate()));
-                }
-                break;
-            case "MARKUP":
-                if (priceStrategy.getAdjustmentRate() != null) {
-                    finalPrice = finalPrice.multiply(BigDecimal.ONE.add(priceStrategy.getAdjustmentRate()));
-                }
-                break;
-            case "FIXED":
-                if (priceStrategy.getBasePrice() != null) {
-                    finalPrice = priceStrategy.getBasePrice();
-                }
-                break;
-            case "DYNAMIC":
-                if (priceStrategy.getAdjustmentAmount() != null) {
-                    finalPrice = finalPrice.add(priceStrategy.getAdjustmentAmount());
-                }
-                break;
-        }
-        
-        // 应用价格限制
-        if (priceStrategy.getMinPrice() != null && finalPrice.compareTo(priceStrategy.getMinPrice()) < 0) {
-            finalPrice = priceStrategy.getMinPrice();
-        }
-        
-        if (priceStrategy.getMaxPrice() != null && finalPrice.compareTo(priceStrategy.getMaxPrice()) > 0) {
-            finalPrice = priceStrategy.getMaxPrice();
-        }
-        
-        return finalPrice.max(BigDecimal.ZERO).setScale(2, RoundingMode.HALF_UP);
+        return pricingEngine.applyStrategy(strategyId, originalPrice);
     }
 
     @Override
@@ -240,13 +196,7 @@ public class PriceStrategyServiceImpl implements PriceStrategyService {
             throw new IllegalArgumentException("策略ID列表和原始价格列表长度不匹配");
         }
         
-        List<BigDecimal> finalPrices = new ArrayList<>();
-        for (int i = 0; i < strategyIds.size(); i++) {
-            BigDecimal finalPrice = applyPriceStrategy(strategyIds.get(i), originalPrices.get(i));
-            finalPrices.add(finalPrice);
-        }
-        
-        return finalPrices;
+        return pricingEngine.applyStrategies(strategyIds, originalPrices);
     }
 
     @Override
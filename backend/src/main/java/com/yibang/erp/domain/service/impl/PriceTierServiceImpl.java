@@ -37,6 +37,7 @@ public class PriceTierServiceImpl implements PriceTierService {
 
     private final PriceTierRepository priceTierRepository;
     private final CompanyRepository companyRepository;
+    private final PricingEngine pricingEngine;
 
     @Override
     @Transactional
@@ -60,6 +61,7 @@ public class PriceTierServiceImpl implements PriceTierService {
         priceTier.setDeleted(false);
 
         priceTierRepository.insert(priceTier);
+        pricingEngine.markChanged();
         
         return getPriceTierById(priceTier.getId());
     }
@@ -86,6 +88,7 @@ public class PriceTierServiceImpl implements PriceTierService {
         existingTier.setUpdatedAt(LocalDateTime.now());
         
         priceTierRepository.updateById(existingTier);
+        pricingEngine.markChanged();
         
         return getPriceTierById(id);
     }
@@ -98,6 +101,7 @@ public class PriceTierServiceImpl implements PriceTierService {
             return false;
         }
         
+        pricingEngine.markChanged();
         return priceTierRepository.deleteById(id) > 0;
     }
 
@@ -168,6 +172,7 @@ public class PriceTierServiceImpl implements PriceTierService {
         priceTier.setIsActive(isActive);
         priceTier.setUpdatedAt(LocalDateTime.now());
         
+        pricingEngine.markChanged();
         return priceTierRepository.updateById(priceTier) > 0;
     }
 
@@ -189,6 +194,7 @@ public class PriceTierServiceImpl implements PriceTierService {
         });
         
         // 逐个更新
+        pricingEngine.markChanged();
         int updateCount = 0;
         for (PriceTier tier : priceTiers) {
             if (priceTierRepository.updateById(tier) > 0) {
@@ -215,20 +221,7 @@ public class PriceTierServiceImpl implements PriceTierService {
 
     @Override
     public BigDecimal calculateFinalPrice(Long priceTierId, BigDecimal originalPrice) {
-        PriceTier priceTier = priceTierRepository.selectById(priceTierId);
-        if (priceTier == null || !priceTier.getIsActive()) {
-            return originalPrice;
-        }
-        
-        BigDecimal finalPrice = originalPrice;
-        
-        // 应用折扣率
-        if (priceTier.getDiscountRate() != null) {
-            finalPrice = finalPrice.multiply(BigDecimal.ONE.subtract(priceTier.getDiscountRate()));
-        }
-        
-
-        return finalPrice.max(BigDecimal.ZERO);
+        return pricingEngine.applyTier(priceTierId, originalPrice);
     }
 
     @Override
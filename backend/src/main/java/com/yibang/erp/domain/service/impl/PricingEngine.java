@@ -0,0 +1,506 @@
+package com.yibang.erp.domain.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
+import com.yibang.erp.domain.entity.PriceStrategy;
+import com.yibang.erp.domain.entity.PriceTier;
+import com.yibang.erp.domain.entity.ProductPriceTierConfig;
+import com.yibang.erp.infrastructure.repository.PriceStrategyRepository;
+import com.yibang.erp.infrastructure.repository.PriceTierRepository;
+import com.yibang.erp.infrastructure.repository.ProductPriceTierConfigRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * 价格计算引擎
+ * 把价格策略、价格分层和商品分层价格一次性读入内存规则表，每条规则预先编译成计算函数，计算价格时不再查询数据库。
+ * 规则表不可变并带版本号，规则修改后事务提交时整体重建替换；其它节点通过Redis中的版本号感知变更，定时全量重建兜底。
+ */
+@Slf4j
+@Component
+public class PricingEngine implements RuntimeMetricsProvider {
+
+    private static final String VERSION_KEY = "pricing:rules:version";
+
+    private static final String RELOAD_RESOURCE_KEY = PricingEngine.class.getName() + ".RELOAD";
+
+    private static final UnaryOperator<BigDecimal> IDENTITY = price -> price;
+
+    private static final Comparator<PriceStrategy> PRIORITY_ORDER =
+            Comparator.comparing(PriceStrategy::getPriority, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    @Autowired
+    private PriceStrategyRepository priceStrategyRepository;
+
+    @Autowired
+    private PriceTierRepository priceTierRepository;
+
+    @Autowired
+    private ProductPriceTierConfigRepository productPriceTierConfigRepository;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${pricing.engine.enabled:true}")
+    private boolean enabled = true;
+
+    private final AtomicReference<RuleTable> current = new AtomicReference<>();
+
+    private final AtomicLong versions = new AtomicLong();
+
+    // 最近一次看到的Redis版本号
+    private volatile String remoteVersion;
+
+    // 本节点修改过规则，等待版本检查任务重建
+    private volatile boolean reloadRequested;
+
+    private final AtomicLong evaluations = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong databaseFallbacks = new AtomicLong();
+
+    private final AtomicLong reloads = new AtomicLong();
+
+    private final AtomicLong reloadFailures = new AtomicLong();
+
+    private volatile long lastReloadMillis;
+
+    private volatile long lastFailureAt;
+
+    /**
+     * 编译后的价格策略
+     */
+    private static final class CompiledStrategy {
+        private final PriceStrategy strategy;
+        private final UnaryOperator<BigDecimal> function;
+
+        private CompiledStrategy(PriceStrategy strategy) {
+            this.strategy = strategy;
+            this.function = compileStrategy(strategy);
+        }
+    }
+
+    /**
+     * 价格规则表，创建后不再修改
+     */
+    private static final class RuleTable {
+        private final long version;
+        private final LocalDateTime loadedAt;
+        private final Map<Long, CompiledStrategy> strategies;
+        // 公司ID -> 启用的策略，按优先级排序
+        private final Map<Long, List<CompiledStrategy>> strategiesByCompany;
+        private final Map<Long, UnaryOperator<BigDecimal>> tiers;
+        // 价格分层ID -> 商品ID -> 分层价格配置
+        private final Map<Long, Map<Long, ProductPriceTierConfig>> tierConfigs;
+        // 公司ID:分类ID:客户类型 -> 适用的策略，按需计算后缓存，随规则表一起替换
+        private final Map<String, List<CompiledStrategy>> applicable = new ConcurrentHashMap<>();
+
+        private RuleTable(long version, Map<Long, CompiledStrategy> strategies, Map<Long, List<CompiledStrategy>> strategiesByCompany,
+                          Map<Long, UnaryOperator<BigDecimal>> tiers, Map<Long, Map<Long, ProductPriceTierConfig>> tierConfigs) {
+            this.version = version;
+            this.loadedAt = LocalDateTime.now();
+            this.strategies = strategies;
+            this.strategiesByCompany = strategiesByCompany;
+            this.tiers = tiers;
+            this.tierConfigs = tierConfigs;
+        }
+
+        private List<CompiledStrategy> applicable(Long categoryId, String customerType, Long companyId) {
+            String key = companyId + ":" + categoryId + ":" + customerType;
+            return applicable.computeIfAbsent(key, k -> strategiesByCompany.getOrDefault(companyId, List.of()).stream()
+                    .filter(c -> c.strategy.getCategoryId() == null || c.strategy.getCategoryId().equals(categoryId))
+                    .filter(c -> c.strategy.getCustomerType() == null || c.strategy.getCustomerType().equals(customerType))
+                    .collect(Collectors.toUnmodifiableList()));
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        scheduledReload();
+    }
+
+    /**
+     * 定时全量重建，Redis不可用时也能在一个周期内看到其它节点的修改
+     */
+    @Scheduled(initialDelayString = "${pricing.engine.reload-interval-millis:300000}",
+            fixedDelayString = "${pricing.engine.reload-interval-millis:300000}")
+    public void scheduledReload() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            reload();
+        } catch (Exception e) {
+            reloadFailures.incrementAndGet();
+            lastFailureAt = System.currentTimeMillis();
+            log.error("价格规则表加载失败", e);
+        }
+    }
+
+    /**
+     * 检查Redis中的版本号，其它节点修改过规则时重建；规则表尚未加载成功时重试加载
+     */
+    @Scheduled(fixedDelayString = "${pricing.engine.version-check-interval-millis:1000}")
+    public void checkVersion() {
+        if (!enabled) {
+            return;
+        }
+        if (current.get() == null) {
+            // 启动加载失败时每5秒重试一次，期间按ID查询数据库
+            if (System.currentTimeMillis() - lastFailureAt > 5000) {
+                scheduledReload();
+            }
+            return;
+        }
+        if (reloadRequested) {
+            scheduledReload();
+            return;
+        }
+        String version;
+        try {
+            version = stringRedisTemplate.opsForValue().get(VERSION_KEY);
+        } catch (Exception e) {
+            log.debug("读取价格规则版本失败: {}", e.getMessage());
+            return;
+        }
+        if (version != null && !version.equals(remoteVersion)) {
+            scheduledReload();
+        }
+    }
+
+    /**
+     * 规则已修改，在事务中调用时提交后通知重建，同一事务内多次修改只通知一次；重建由版本检查任务执行
+     */
+    public void markChanged() {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publishChange();
+            return;
+        }
+        if (TransactionSynchronizationManager.hasResource(RELOAD_RESOURCE_KEY)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(RELOAD_RESOURCE_KEY, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publishChange();
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(RELOAD_RESOURCE_KEY);
+            }
+        });
+    }
+
+    private void publishChange() {
+        try {
+            stringRedisTemplate.opsForValue().increment(VERSION_KEY);
+        } catch (Exception e) {
+            log.warn("更新价格规则版本失败，其它节点将在定时重建时生效: {}", e.getMessage());
+        }
+        // 不在修改请求的线程中重建，下次版本检查时重建
+        reloadRequested = true;
+    }
+
+    /**
+     * 全量读取规则并替换规则表
+     */
+    public synchronized void reload() {
+        long start = System.currentTimeMillis();
+        // 读取前清除重建请求，读取期间本节点的修改会再次请求重建
+        reloadRequested = false;
+        // 先记下版本号再读取，读取期间的修改会在下次检查时重建
+        String version = null;
+        try {
+            version = stringRedisTemplate.opsForValue().get(VERSION_KEY);
+        } catch (Exception e) {
+            log.debug("读取价格规则版本失败: {}", e.getMessage());
+        }
+
+        // 停用的策略和分层也编译成不调整价格的函数，避免按ID查询时回查数据库
+        List<PriceStrategy> strategyRows = priceStrategyRepository.selectList(new LambdaQueryWrapper<>());
+        Map<Long, CompiledStrategy> strategies = new HashMap<>(strategyRows.size() * 2);
+        Map<Long, List<CompiledStrategy>> strategiesByCompany = new HashMap<>();
+        for (PriceStrategy strategy : strategyRows) {
+            CompiledStrategy compiled = new CompiledStrategy(strategy);
+            strategies.put(strategy.getId(), compiled);
+            if (Boolean.TRUE.equals(strategy.getIsActive()) && strategy.getCompanyId() != null) {
+                strategiesByCompany.computeIfAbsent(strategy.getCompanyId(), k -> new ArrayList<>()).add(compiled);
+            }
+        }
+        strategiesByCompany.replaceAll((companyId, list) -> {
+            list.sort(Comparator.comparing(c -> c.strategy, PRIORITY_ORDER));
+            return Collections.unmodifiableList(list);
+        });
+
+        List<PriceTier> tierRows = priceTierRepository.selectList(new LambdaQueryWrapper<>());
+        Map<Long, UnaryOperator<BigDecimal>> tiers = new HashMap<>(tierRows.size() * 2);
+        for (PriceTier tier : tierRows) {
+            tiers.put(tier.getId(), compileTier(tier));
+        }
+
+        // 同一商品同一分层有多条配置时取ID最小的一条
+        List<ProductPriceTierConfig> configRows = productPriceTierConfigRepository.selectList(
+                new LambdaQueryWrapper<ProductPriceTierConfig>()
+                        .eq(ProductPriceTierConfig::getIsActive, true)
+                        .orderByAsc(ProductPriceTierConfig::getId));
+        Map<Long, Map<Long, ProductPriceTierConfig>> tierConfigs = new HashMap<>();
+        for (ProductPriceTierConfig config : configRows) {
+            if (config.getPriceTierId() == null || config.getProductId() == null) {
+                continue;
+            }
+            tierConfigs.computeIfAbsent(config.getPriceTierId(), k -> new HashMap<>())
+                    .putIfAbsent(config.getProductId(), config);
+        }
+
+        RuleTable table = new RuleTable(versions.incrementAndGet(), strategies, strategiesByCompany, tiers, tierConfigs);
+        current.set(table);
+        remoteVersion = version;
+        reloads.incrementAndGet();
+        lastReloadMillis = System.currentTimeMillis() - start;
+        log.info("价格规则表已加载，版本 {}，策略 {} 条，分层 {} 条，分层价格 {} 条，耗时 {} ms",
+                table.version, strategies.size(), tiers.size(), configRows.size(), lastReloadMillis);
+    }
+
+    /**
+     * 按价格策略计算价格，策略不存在或已停用时返回原价
+     */
+    public BigDecimal applyStrategy(Long strategyId, BigDecimal originalPrice) {
+        evaluations.incrementAndGet();
+        return strategyFunction(table(), strategyId).apply(originalPrice);
+    }
+
+    /**
+     * 批量按价格策略计算价格，整批使用同一版本的规则表
+     */
+    public List<BigDecimal> applyStrategies(List<Long> strategyIds, List<BigDecimal> originalPrices) {
+        RuleTable table = table();
+        List<BigDecimal> finalPrices = new ArrayList<>(strategyIds.size());
+        for (int i = 0; i < strategyIds.size(); i++) {
+            finalPrices.add(strategyFunction(table, strategyIds.get(i)).apply(originalPrices.get(i)));
+        }
+        evaluations.addAndGet(strategyIds.size());
+        return finalPrices;
+    }
+
+    /**
+     * 按价格分层计算价格，分层不存在或已停用时返回原价
+     */
+    public BigDecimal applyTier(Long priceTierId, BigDecimal originalPrice) {
+        evaluations.incrementAndGet();
+        RuleTable table = table();
+        if (table == null) {
+            databaseFallbacks.incrementAndGet();
+            PriceTier tier = priceTierRepository.selectById(priceTierId);
+            return tier != null ? compileTier(tier).apply(originalPrice) : originalPrice;
+        }
+        UnaryOperator<BigDecimal> function = table.tiers.get(priceTierId);
+        if (function == null) {
+            misses.incrementAndGet();
+            return originalPrice;
+        }
+        return function.apply(originalPrice);
+    }
+
+    /**
+     * 适用的启用策略，按优先级排序，返回副本
+     */
+    public List<PriceStrategy> getApplicableStrategies(Long categoryId, String customerType, Long companyId) {
+        RuleTable table = table();
+        if (table == null) {
+            databaseFallbacks.incrementAndGet();
+            return priceStrategyRepository.selectList(new LambdaQueryWrapper<PriceStrategy>()
+                    .eq(PriceStrategy::getCompanyId, companyId)
+                    .eq(PriceStrategy::getIsActive, true)
+                    .and(w -> w.eq(PriceStrategy::getCategoryId, categoryId).or().isNull(PriceStrategy::getCategoryId))
+                    .and(w -> w.eq(PriceStrategy::getCustomerType, customerType).or().isNull(PriceStrategy::getCustomerType))
+                    .orderByAsc(PriceStrategy::getPriority));
+        }
+        return table.applicable(categoryId, customerType, companyId).stream()
+                .map(c -> copyOf(c.strategy))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 指定分层下各商品的分层价格配置，返回副本；规则表不可用时返回null，由调用方查询数据库
+     */
+    public Map<Long, ProductPriceTierConfig> getTierConfigs(Long priceTierId, Collection<Long> productIds) {
+        RuleTable table = table();
+        if (table == null) {
+            return null;
+        }
+        Map<Long, ProductPriceTierConfig> configs = table.tierConfigs.getOrDefault(priceTierId, Map.of());
+        Map<Long, ProductPriceTierConfig> result = new HashMap<>();
+        for (Long productId : productIds) {
+            ProductPriceTierConfig config = configs.get(productId);
+            if (config != null) {
+                result.put(productId, copyOf(config));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 当前规则表版本，未加载时为0
+     */
+    public long getVersion() {
+        RuleTable table = current.get();
+        return table != null ? table.version : 0L;
+    }
+
+    /**
+     * 当前规则表，未加载时返回null，由调用方按ID查询数据库；加载只在启动和定时任务中进行，不占用请求线程
+     */
+    private RuleTable table() {
+        return current.get();
+    }
+
+    private UnaryOperator<BigDecimal> strategyFunction(RuleTable table, Long strategyId) {
+        if (table == null) {
+            databaseFallbacks.incrementAndGet();
+            PriceStrategy strategy = priceStrategyRepository.selectById(strategyId);
+            return strategy != null ? compileStrategy(strategy) : IDENTITY;
+        }
+        CompiledStrategy compiled = table.strategies.get(strategyId);
+        if (compiled == null) {
+            misses.incrementAndGet();
+            return IDENTITY;
+        }
+        return compiled.function;
+    }
+
+    /**
+     * 编译价格策略：先按类型调整，再限制在最低价和最高价之间，不低于0，保留两位小数
+     */
+    static UnaryOperator<BigDecimal> compileStrategy(PriceStrategy strategy) {
+        if (!Boolean.TRUE.equals(strategy.getIsActive())) {
+            return IDENTITY;
+        }
+        UnaryOperator<BigDecimal> adjustment = IDENTITY;
+        String type = Objects.toString(strategy.getStrategyType(), "");
+        switch (type) {
+            case "DISCOUNT":
+                if (strategy.getAdjustmentRate() != null) {
+                    BigDecimal factor = BigDecimal.ONE.subtract(strategy.getAdjustmentRate());
+                    adjustment = price -> price.multiply(factor);
+                }
+                break;
+            case "MARKUP":
+                if (strategy.getAdjustmentRate() != null) {
+                    BigDecimal factor = BigDecimal.ONE.add(strategy.getAdjustmentRate());
+                    adjustment = price -> price.multiply(factor);
+                }
+                break;
+            case "FIXED":
+                if (strategy.getBasePrice() != null) {
+                    BigDecimal basePrice = strategy.getBasePrice();
+                    adjustment = price -> basePrice;
+                }
+                break;
+            case "DYNAMIC":
+                if (strategy.getAdjustmentAmount() != null) {
+                    BigDecimal amount = strategy.getAdjustmentAmount();
+                    adjustment = price -> price.add(amount);
+                }
+                break;
+            default:
+                break;
+        }
+
+        UnaryOperator<BigDecimal> adjust = adjustment;
+        BigDecimal minPrice = strategy.getMinPrice();
+        BigDecimal maxPrice = strategy.getMaxPrice();
+        return price -> {
+            BigDecimal finalPrice = adjust.apply(price);
+            if (minPrice != null && finalPrice.compareTo(minPrice) < 0) {
+                finalPrice = minPrice;
+            }
+            if (maxPrice != null && finalPrice.compareTo(maxPrice) > 0) {
+                finalPrice = maxPrice;
+            }
+            return finalPrice.max(BigDecimal.ZERO).setScale(2, RoundingMode.HALF_UP);
+        };
+    }
+
+    /**
+     * 编译价格分层：按折扣率打折，不低于0
+     */
+    static UnaryOperator<BigDecimal> compileTier(PriceTier tier) {
+        if (!Boolean.TRUE.equals(tier.getIsActive())) {
+            return IDENTITY;
+        }
+        if (tier.getDiscountRate() == null) {
+            return price -> price.max(BigDecimal.ZERO);
+        }
+        BigDecimal factor = BigDecimal.ONE.subtract(tier.getDiscountRate());
+        return price -> price.multiply(factor).max(BigDecimal.ZERO);
+    }
+
+    private static PriceStrategy copyOf(PriceStrategy source) {
+        PriceStrategy copy = new PriceStrategy();
+        BeanUtils.copyProperties(source, copy);
+        return copy;
+    }
+
+    private static ProductPriceTierConfig copyOf(ProductPriceTierConfig source) {
+        ProductPriceTierConfig copy = new ProductPriceTierConfig();
+        BeanUtils.copyProperties(source, copy);
+        return copy;
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "pricingEngine";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        RuleTable table = current.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("version", table != null ? table.version : 0L);
+        metrics.put("loadedAt", table != null ? table.loadedAt : null);
+        metrics.put("strategies", table != null ? table.strategies.size() : 0);
+        metrics.put("tiers", table != null ? table.tiers.size() : 0);
+        metrics.put("tierConfigs", table != null ? table.tierConfigs.values().stream().mapToInt(Map::size).sum() : 0);
+        metrics.put("evaluations", evaluations.get());
+        metrics.put("misses", misses.get());
+        metrics.put("databaseFallbacks", databaseFallbacks.get());
+        metrics.put("reloads", reloads.get());
+        metrics.put("reloadFailures", reloadFailures.get());
+        metrics.put("lastReloadMillis", lastReloadMillis);
+        return metrics;
+    }
+}
@@ -15,8 +15,12 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 /**
@@ -32,6 +36,9 @@ public class ProductPriceTierConfigServiceImpl implements ProductPriceTierConfig
     @Autowired
     private PriceTierRepository priceTierRepository;
 
+    @Autowired
+    private PricingEngine pricingEngine;
+
     @Override
     public ProductPriceTierConfigResponse createConfig(ProductPriceTierConfigRequest request) {
         ProductPriceTierConfig config = new ProductPriceTierConfig();
@@ -46,6 +53,7 @@ public class ProductPriceTierConfigServiceImpl implements ProductPriceTierConfig
         config.setUpdatedBy(request.getCreatedBy() != null ? request.getCreatedBy() : 1L);
 
         configRepository.insert(config);
+        pricingEngine.markChanged();
         return convertToResponse(config);
     }
 
@@ -64,11 +72,13 @@ public class ProductPriceTierConfigServiceImpl implements ProductPriceTierConfig
         config.setUpdatedBy(request.getCreatedBy() != null ? request.getCreatedBy() : UserSecurityUtils.getCurrentUserId());
 
         configRepository.updateById(config);
+        pricingEngine.markChanged();
         return convertToResponse(config);
     }
 
     @Override
     public boolean deleteConfig(Long id) {
+        pricingEngine.markChanged();
         return configRepository.deleteById(id) > 0;
     }
 
@@ -99,6 +109,7 @@ public class ProductPriceTierConfigServiceImpl implements ProductPriceTierConfig
         LambdaQueryWrapper<ProductPriceTierConfig> deleteWrapper = new LambdaQueryWrapper<>();
         deleteWrapper.eq(ProductPriceTierConfig::getProductId, productId);
         configRepository.delete(deleteWrapper);
+        pricingEngine.markChanged();
 
         // 批量插入新配置
         for (ProductPriceTierConfigRequest request : configs) {
@@ -123,6 +134,22 @@ public class ProductPriceTierConfigServiceImpl implements ProductPriceTierConfig
      * 转换为响应DTO
      */
     private ProductPriceTierConfigResponse convertToResponse(ProductPriceTierConfig config) {
+        ProductPriceTierConfigResponse response = toResponse(config);
+
+        // 获取价格分层信息
+        PriceTier priceTier = priceTierRepository.selectById(config.getPriceTierId());
+        if (priceTier != null) {
+            response.setPriceTierName(priceTier.getTierName());
+            response.setPriceTierType(priceTier.getTierType());
+        }
+
+        return response;
+    }
+
+    /**
+     * 转换为响应DTO，不含价格分层信息
+     */
+    private ProductPriceTierConfigResponse toResponse(ProductPriceTierConfig config) {
         ProductPriceTierConfigResponse response = new ProductPriceTierConfigResponse();
         response.setId(config.getId());
         response.setProductId(config.getProductId());
@@ -134,14 +161,6 @@ public class ProductPriceTierConfigServiceImpl implements ProductPriceTierConfig
         response.setUpdatedAt(config.getUpdatedAt());
         response.setCreatedBy(config.getCreatedBy());
         response.setUpdatedBy(config.getUpdatedBy());
-
-        // 获取价格分层信息
-        PriceTier priceTier = priceTierRepository.selectById(config.getPriceTierId());
-        if (priceTier != null) {
-            response.setPriceTierName(priceTier.getTierName());
-            response.setPriceTierType(priceTier.getTierType());
-        }
-
         return response;
     }
 
@@ -167,7 +186,7 @@ public class ProductPriceTierConfigServiceImpl implements ProductPriceTierConfig
         // 转换为响应DTO并填充价格分层信息
         return configs.stream()
                 .map(config -> {
-                    ProductPriceTierConfigResponse response = convertToResponse(config);
+                    ProductPriceTierConfigResponse response = toResponse(config);
                     PriceTier priceTier = priceTierMap.get(config.getPriceTierId());
                     if (priceTier != null) {
                         response.setPriceTierName(priceTier.getTierName());
@@ -184,6 +203,18 @@ public class ProductPriceTierConfigServiceImpl implements ProductPriceTierConfig
             return List.of();
         }
 
+        // 优先从价格规则表读取，每个商品一条配置
+        Map<Long, ProductPriceTierConfig> cached = pricingEngine.getTierConfigs(priceTierId, productIds);
+        if (cached != null) {
+            List<ProductPriceTierConfig> configs = productIds.stream()
+                    .distinct()
+                    .map(cached::get)
+                    .filter(Objects::nonNull)
+                    .sorted(Comparator.comparing(ProductPriceTierConfig::getProductId))
+                    .collect(Collectors.toList());
+            return enrichWithPriceTierInfo(configs);
+        }
+
         LambdaQueryWrapper<ProductPriceTierConfig> queryWrapper = new LambdaQueryWrapper<>();
         queryWrapper.in(ProductPriceTierConfig::getProductId, productIds)
                    .eq(ProductPriceTierConfig::getPriceTierId, priceTierId)
@@ -192,7 +223,11 @@ public class ProductPriceTierConfigServiceImpl implements ProductPriceTierConfig
                    .orderByAsc(ProductPriceTierConfig::getProductId)
                    .orderByAsc(ProductPriceTierConfig::getId);
 
-        List<ProductPriceTierConfig> configs = configRepository.selectList(queryWrapper);
-        return enrichWithPriceTierInfo(configs);
+        // 与规则表一致，同一商品有多条配置时取ID最小的一条
+        Map<Long, ProductPriceTierConfig> firstByProduct = new LinkedHashMap<>();
+        for (ProductPriceTierConfig config : configRepository.selectList(queryWrapper)) {
+            firstByProduct.putIfAbsent(config.getProductId(), config);
+        }
+        return enrichWithPriceTierInfo(new ArrayList<>(firstByProduct.values()));
     }
 }
@@ -31,6 +31,7 @@ public class WorkspaceServiceImpl implements WorkspaceService {
     private final OrderRepository orderRepository;
     private final ProductRepository productRepository;
     private final ProductInventoryRepository productInventoryRepository;
+    private final InventoryAlertEngine inventoryAlertEngine;
 
     @Override
     public Map<String, Object> getSupplierStats(Long companyId) {
@@ -259,10 +260,16 @@ public class WorkspaceServiceImpl implements WorkspaceService {
         List<Map<String, Object>> result = new ArrayList<>();
         
         try {
-            QueryWrapper<ProductInventory> wrapper = new QueryWrapper<>();
-            wrapper.last("LIMIT " + limit);
-            
-            List<ProductInventory> inventories = productInventoryRepository.selectList(wrapper);
+            List<ProductInventory> inventories;
+            if (inventoryAlertEngine.isReady()) {
+                // 从预警索引读取本公司仓库的低库存，不扫描库存表
+                inventories = inventoryAlertEngine.getLowStockItems(companyId, limit);
+            } else {
+                QueryWrapper<ProductInventory> wrapper = new QueryWrapper<>();
+                wrapper.apply("available_quantity <= min_stock_level");
+                wrapper.last("LIMIT " + limit);
+                inventories = productInventoryRepository.selectList(wrapper);
+            }
             
             for (ProductInventory inventory : inventories) {
                 Map<String, Object> itemMap = new HashMap<>();
@@ -0,0 +1,149 @@
+package com.yibang.erp.infrastructure.cache;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
+import com.yibang.erp.config.AIConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI调用结果缓存
+ * 以"内容摘要 + 实际请求的模型 + 提示词版本"为key，本地LRU作为一级缓存，Redis作为跨节点、跨任务的二级缓存。
+ * 缓存值以JSON字符串保存，每次读取都反序列化出新对象，调用方可以放心修改返回结果。
+ */
+@Slf4j
+@Component
+public class AIResultCache implements RuntimeMetricsProvider {
+
+    private static final String KEY_PREFIX = "ai:result:";
+
+    private final AIConfig aiConfig;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ObjectMapper objectMapper;
+
+    private final LocalLruCache<String, String> localCache;
+
+    private final AtomicLong localHits = new AtomicLong();
+
+    private final AtomicLong redisHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    @Autowired
+    public AIResultCache(AIConfig aiConfig, StringRedisTemplate stringRedisTemplate, ObjectMapper objectMapper) {
+        this.aiConfig = aiConfig;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.objectMapper = objectMapper;
+        this.localCache = new LocalLruCache<>(aiConfig.getCacheLocalMaxSize(),
+                TimeUnit.MINUTES.toMillis(aiConfig.getCacheLocalTtlMinutes()));
+    }
+
+    /**
+     * 构建缓存key
+     * @param namespace 业务命名空间，如row-fields、product-match
+     * @param model 请求中实际使用的模型
+     * @param promptVersion 提示词版本，提示词变更时升级版本使旧结果失效
+     * @param contentParts 参与摘要的内容，只去掉首尾空白；提取结果原样缓存，大小写不同的内容不能共用结果
+     */
+    public String buildKey(String namespace, String model, String promptVersion, String... contentParts) {
+        StringBuilder content = new StringBuilder();
+        for (String part : contentParts) {
+            content.append(normalize(part)).append('\u0001');
+        }
+        String digest = DigestUtils.md5DigestAsHex(content.toString().getBytes(StandardCharsets.UTF_8));
+        return KEY_PREFIX + namespace + ":" + model + ":" + promptVersion + ":" + digest;
+    }
+
+    /**
+     * 读取缓存，未命中返回null
+     */
+    public <T> T get(String key, TypeReference<T> type) {
+        if (!Boolean.TRUE.equals(aiConfig.getCacheEnabled())) {
+            return null;
+        }
+        String json = localCache.get(key);
+        if (json != null) {
+            localHits.incrementAndGet();
+            return deserialize(key, json, type);
+        }
+        try {
+            json = stringRedisTemplate.opsForValue().get(key);
+        } catch (Exception e) {
+            log.warn("读取AI结果缓存失败: {}", e.getMessage());
+        }
+        if (json == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        redisHits.incrementAndGet();
+        localCache.put(key, json);
+        return deserialize(key, json, type);
+    }
+
+    /**
+     * 写入缓存，value为null或空集合时不缓存
+     */
+    public void put(String key, Object value) {
+        if (!Boolean.TRUE.equals(aiConfig.getCacheEnabled()) || value == null
+                || (value instanceof Collection && ((Collection<?>) value).isEmpty())) {
+            return;
+        }
+        try {
+            String json = objectMapper.writeValueAsString(value);
+            localCache.put(key, json);
+            stringRedisTemplate.opsForValue().set(key, json, aiConfig.getCacheTtlHours(), TimeUnit.HOURS);
+        } catch (Exception e) {
+            log.warn("写入AI结果缓存失败: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "aiResultCache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        long local = localHits.get();
+        long redis = redisHits.get();
+        long miss = misses.get();
+        long total = local + redis + miss;
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("localHits", local);
+        metrics.put("redisHits", redis);
+        metrics.put("misses", miss);
+        metrics.put("hitRate", total == 0 ? 0.0 : (double) (local + redis) / total);
+        metrics.put("localSize", localCache.size());
+        return metrics;
+    }
+
+    private <T> T deserialize(String key, String json, TypeReference<T> type) {
+        try {
+            return objectMapper.readValue(json, type);
+        } catch (Exception e) {
+            log.warn("AI结果缓存反序列化失败，丢弃缓存: {}", key);
+            localCache.invalidate(key);
+            return null;
+        }
+    }
+
+    private String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.trim();
+    }
+}
@@ -0,0 +1,247 @@
+package com.yibang.erp.infrastructure.cache;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.yibang.erp.domain.entity.Customer;
+import com.yibang.erp.domain.entity.Product;
+import com.yibang.erp.domain.entity.User;
+import com.yibang.erp.domain.entity.Warehouse;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Redis缓存值的紧凑序列化器
+ * 已登记的实体及其列表写为：魔数(1) + 版本(1) + 标志位(1) + 类型编号(1) + 正文，
+ * 正文是不带类型信息、省略null字段的JSON，超过阈值时用Deflate压缩。
+ * 类型由头部的编号确定，不再在每个对象里重复写全类名；未登记的值和没有头部的旧数据交给原JSON序列化器处理。
+ * 空值标记（NullValue）用于缓存查询不到的结果，紧凑格式只写头部、类型编号为0；
+ * 只写原格式时按原JSON序列化器的带类型格式写入，升级过程中未升级的节点同样可以读取。
+ * 类型编号写入了缓存数据，已分配的编号不能修改或复用。
+ */
+public class CompactRedisSerializer implements RedisSerializer<Object> {
+
+    // JSON正文的首字节不会是该值，用于区分新旧格式
+    static final byte MAGIC = (byte) 0xCB;
+
+    static final byte VERSION = 1;
+
+    static final int HEADER_LENGTH = 4;
+
+    private static final int FLAG_DEFLATED = 1;
+
+    private static final int FLAG_LIST = 1 << 1;
+
+    private static final byte NULL_TYPE_ID = 0;
+
+    // 原JSON序列化器（NON_FINAL默认类型）可读取的空值标记
+    static final byte[] JSON_NULL_VALUE = ("[\"" + NullValue.class.getName() + "\",{}]").getBytes(StandardCharsets.UTF_8);
+
+    // 类型编号 -> 实体类
+    private static final Map<Byte, Class<?>> TYPES = new HashMap<>();
+
+    private static final Map<Class<?>, Byte> TYPE_IDS = new HashMap<>();
+
+    static {
+        register(1, Product.class);
+        register(2, Customer.class);
+        register(3, User.class);
+        register(4, Warehouse.class);
+    }
+
+    private final RedisSerializer<Object> legacySerializer;
+
+    private final boolean writeCompact;
+
+    private final int compressThresholdBytes;
+
+    private final ObjectMapper mapper;
+
+    private final Map<Byte, JavaType> elementTypes = new HashMap<>();
+
+    private final Map<Byte, JavaType> listTypes = new HashMap<>();
+
+    /**
+     * @param legacySerializer       原JSON序列化器，用于未登记的值和旧数据
+     * @param writeCompact           是否以紧凑格式写入，false时只写原格式但仍可读取紧凑格式
+     * @param compressThresholdBytes 正文超过该字节数时压缩，小于等于0表示不压缩
+     */
+    public CompactRedisSerializer(RedisSerializer<Object> legacySerializer, boolean writeCompact, int compressThresholdBytes) {
+        this.legacySerializer = legacySerializer;
+        this.writeCompact = writeCompact;
+        this.compressThresholdBytes = compressThresholdBytes;
+        this.mapper = new ObjectMapper();
+        // 与原序列化器的字段可见性保持一致，两种格式包含相同的属性
+        mapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        // 实体新增或删除字段后旧数据仍可读取
+        mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        mapper.registerModule(new JavaTimeModule());
+        for (Map.Entry<Byte, Class<?>> entry : TYPES.entrySet()) {
+            elementTypes.put(entry.getKey(), mapper.constructType(entry.getValue()));
+            listTypes.put(entry.getKey(), mapper.getTypeFactory().constructCollectionType(List.class, entry.getValue()));
+        }
+    }
+
+    private static void register(int id, Class<?> type) {
+        TYPES.put((byte) id, type);
+        TYPE_IDS.put(type, (byte) id);
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        if (value instanceof NullValue) {
+            return writeCompact ? new byte[]{MAGIC, VERSION, 0, NULL_TYPE_ID} : JSON_NULL_VALUE.clone();
+        }
+        if (!writeCompact) {
+            return legacySerializer.serialize(value);
+        }
+        int flags = 0;
+        Byte typeId;
+        if (value instanceof List<?> list) {
+            // 空列表和元素类型不一致的列表按原格式写入
+            typeId = list.isEmpty() ? null : listTypeId(list);
+            flags |= FLAG_LIST;
+        } else {
+            typeId = TYPE_IDS.get(value.getClass());
+        }
+        if (typeId == null) {
+            return legacySerializer.serialize(value);
+        }
+
+        byte[] body;
+        try {
+            body = mapper.writeValueAsBytes(value);
+        } catch (Exception e) {
+            throw new SerializationException("紧凑格式序列化失败: " + e.getMessage(), e);
+        }
+        if (compressThresholdBytes > 0 && body.length > compressThresholdBytes) {
+            byte[] deflated = deflate(body);
+            if (deflated.length < body.length) {
+                body = deflated;
+                flags |= FLAG_DEFLATED;
+            }
+        }
+
+        byte[] bytes = new byte[HEADER_LENGTH + body.length];
+        bytes[0] = MAGIC;
+        bytes[1] = VERSION;
+        bytes[2] = (byte) flags;
+        bytes[3] = typeId;
+        System.arraycopy(body, 0, bytes, HEADER_LENGTH, body.length);
+        return bytes;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != MAGIC) {
+            if (Arrays.equals(bytes, JSON_NULL_VALUE)) {
+                return NullValue.INSTANCE;
+            }
+            Object value = legacySerializer.deserialize(bytes);
+            // JSON反序列化会新建NullValue实例，统一为单例，调用方按引用判断
+            return value instanceof NullValue ? NullValue.INSTANCE : value;
+        }
+        if (bytes.length < HEADER_LENGTH) {
+            throw new SerializationException("紧凑格式数据不完整");
+        }
+        // 更高版本的节点写入的数据，调用方按缓存未命中处理
+        if (bytes[1] > VERSION) {
+            throw new SerializationException("不支持的紧凑格式版本: " + bytes[1]);
+        }
+        int flags = bytes[2];
+        byte typeId = bytes[3];
+        if (typeId == NULL_TYPE_ID) {
+            return NullValue.INSTANCE;
+        }
+        JavaType type = (flags & FLAG_LIST) != 0 ? listTypes.get(typeId) : elementTypes.get(typeId);
+        if (type == null) {
+            throw new SerializationException("未知的紧凑格式类型编号: " + typeId);
+        }
+        try {
+            if ((flags & FLAG_DEFLATED) != 0) {
+                byte[] body = inflate(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+                return mapper.readValue(body, type);
+            }
+            return mapper.readValue(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, type);
+        } catch (Exception e) {
+            throw new SerializationException("紧凑格式反序列化失败: " + e.getMessage(), e);
+        }
+    }
+
+    private Byte listTypeId(List<?> list) {
+        Object first = list.get(0);
+        if (first == null) {
+            return null;
+        }
+        Class<?> elementClass = first.getClass();
+        Byte typeId = TYPE_IDS.get(elementClass);
+        if (typeId == null) {
+            return null;
+        }
+        for (Object element : list) {
+            if (element == null || element.getClass() != elementClass) {
+                return null;
+            }
+        }
+        return typeId;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        // 缓存写入频率远低于读取，使用较快的压缩级别
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int offset, int length) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data, offset, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("压缩数据不完整");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+}
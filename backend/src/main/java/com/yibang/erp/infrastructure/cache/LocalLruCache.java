@@ -0,0 +1,88 @@
+package com.yibang.erp.infrastructure.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * 进程内LRU缓存
+ * 按访问顺序淘汰超出容量的条目，每个条目带过期时间，读取时惰性清理过期条目
+ *
+ * @param <K> 键类型
+ * @param <V> 值类型
+ */
+public class LocalLruCache<K, V> {
+
+    private final int maxSize;
+
+    private final long defaultTtlMillis;
+
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    public LocalLruCache(int maxSize, long defaultTtlMillis) {
+        this.maxSize = Math.max(maxSize, 1);
+        this.defaultTtlMillis = defaultTtlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > LocalLruCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * 读取缓存，不存在或已过期时返回null
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireAt < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public void put(K key, V value) {
+        put(key, value, defaultTtlMillis);
+    }
+
+    public synchronized void put(K key, V value, long ttlMillis) {
+        if (value == null) {
+            entries.remove(key);
+            return;
+        }
+        entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * 清除key满足条件的条目
+     */
+    public synchronized void invalidateIf(Predicate<K> predicate) {
+        entries.keySet().removeIf(predicate);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expireAt;
+
+        Entry(V value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.yibang.erp.infrastructure.cache;
+
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
+import com.yibang.erp.config.NearCacheConfig;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内近端缓存
+ * 以Redis缓存key为key，保存反序列化后的对象，命中时不再访问Redis和做JSON反序列化；
+ * 失效时先清本地，再通过Redis发布订阅通知其它节点按key或key前缀清除。
+ * 返回的对象在各调用方之间共享，调用方不能修改。
+ */
+@Slf4j
+@Component
+public class NearCache implements MessageListener, RuntimeMetricsProvider {
+
+    private static final String INVALIDATE_CHANNEL = "cache:near:invalidate";
+
+    // 按前缀失效的消息以该字符结尾
+    private static final String PREFIX_MARK = "*";
+
+    private final NearCacheConfig config;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final LocalLruCache<String, Object>[] segments;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final AtomicLong remoteInvalidations = new AtomicLong();
+
+    @Autowired
+    @SuppressWarnings("unchecked")
+    public NearCache(NearCacheConfig config, StringRedisTemplate stringRedisTemplate,
+                     RedisMessageListenerContainer listenerContainer) {
+        this.config = config;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        int segmentCount = Math.max(1, config.getSegments());
+        int segmentSize = Math.max(1, config.getMaxSize() / segmentCount);
+        long ttlMillis = TimeUnit.SECONDS.toMillis(config.getTtlSeconds());
+        this.segments = new LocalLruCache[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new LocalLruCache<>(segmentSize, ttlMillis);
+        }
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 读取本地缓存，未命中返回null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key) {
+        if (!Boolean.TRUE.equals(config.getEnabled())) {
+            return null;
+        }
+        Object value = segment(key).get(key);
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return (T) value;
+    }
+
+    public void put(String key, Object value) {
+        if (!Boolean.TRUE.equals(config.getEnabled()) || value == null) {
+            return;
+        }
+        segment(key).put(key, value);
+    }
+
+    /**
+     * 清除本节点和其它节点的指定key
+     */
+    public void evict(Collection<?> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        StringBuilder body = new StringBuilder();
+        for (Object key : keys) {
+            String cacheKey = String.valueOf(key);
+            segment(cacheKey).invalidate(cacheKey);
+            body.append(cacheKey).append('\n');
+        }
+        invalidations.addAndGet(keys.size());
+        publish(body.toString());
+    }
+
+    /**
+     * 清除本节点和其它节点指定前缀的全部key
+     */
+    public void evictByPrefix(String prefix) {
+        evictLocalByPrefix(prefix);
+        invalidations.incrementAndGet();
+        publish(prefix + PREFIX_MARK);
+    }
+
+    /**
+     * 接收其它节点（包括本节点）发出的失效通知
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (String key : body.split("\n")) {
+            if (key.isEmpty()) {
+                continue;
+            }
+            remoteInvalidations.incrementAndGet();
+            if (key.endsWith(PREFIX_MARK)) {
+                evictLocalByPrefix(key.substring(0, key.length() - PREFIX_MARK.length()));
+            } else {
+                segment(key).invalidate(key);
+            }
+        }
+    }
+
+    private void evictLocalByPrefix(String prefix) {
+        for (LocalLruCache<String, Object> segment : segments) {
+            segment.invalidateIf(key -> key.startsWith(prefix));
+        }
+    }
+
+    private void publish(String body) {
+        try {
+            stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, body);
+        } catch (Exception e) {
+            // 其它节点依靠本地条目过期兜底
+            log.warn("发送近端缓存失效通知失败: {}", e.getMessage());
+        }
+    }
+
+    private LocalLruCache<String, Object> segment(String key) {
+        return segments[(key.hashCode() & Integer.MAX_VALUE) % segments.length];
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "nearCache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        int size = 0;
+        for (LocalLruCache<String, Object> segment : segments) {
+            size += segment.size();
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("size", size);
+        metrics.put("hits", hits.get());
+        metrics.put("misses", misses.get());
+        metrics.put("invalidations", invalidations.get());
+        metrics.put("remoteInvalidations", remoteInvalidations.get());
+        return metrics;
+    }
+}
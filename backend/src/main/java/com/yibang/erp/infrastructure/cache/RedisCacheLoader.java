@@ -0,0 +1,241 @@
+package com.yibang.erp.infrastructure.cache;
+
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
+import com.yibang.erp.config.CacheLoadConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.support.NullValue;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Redis缓存加载器
+ * 缓存未命中时同一个key在本节点只有一个线程执行加载，其它线程等待该结果；写入时过期时间加随机偏移。
+ * 开启过期后仍可用时，写入Redis的过期时间为缓存过期时间加旧值可用时长，读取时通过同一次管道查询剩余时间，
+ * 剩余时间不足旧值可用时长说明已过逻辑过期时间，先返回旧值并提交后台刷新。
+ * 按唯一条件查询的场景可以缓存查询不到的结果，Redis中写入空值标记，过期时间较短且不参与后台刷新。
+ */
+@Slf4j
+@Component
+public class RedisCacheLoader implements RuntimeMetricsProvider {
+
+    @Autowired
+    private RedisTemplate<Object, Object> redisTemplate;
+
+    @Autowired
+    private RedisCacheTags redisCacheTags;
+
+    @Autowired
+    private CacheLoadConfig config;
+
+    @Autowired
+    @Qualifier("cacheRefreshExecutor")
+    private ThreadPoolTaskExecutor cacheRefreshExecutor;
+
+    // 缓存key -> 正在进行的加载
+    private final Map<String, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong staleHits = new AtomicLong();
+
+    private final AtomicLong absentHits = new AtomicLong();
+
+    private final AtomicLong absentWrites = new AtomicLong();
+
+    private final AtomicLong loads = new AtomicLong();
+
+    private final AtomicLong sharedLoads = new AtomicLong();
+
+    private final AtomicLong refreshes = new AtomicLong();
+
+    private final AtomicLong refreshRejected = new AtomicLong();
+
+    /**
+     * 读取缓存，未命中时加载并写入缓存
+     * 加载结果为null或空集合时不写入缓存
+     * @param tag    缓存标签，见RedisCacheTags
+     * @param ttl    缓存过期时间，实际写入时加随机偏移
+     * @param loader 从数据库加载，本节点同一个key同时只会执行一个
+     */
+    public <T> T get(String key, String tag, Duration ttl, Supplier<T> loader) {
+        return get(key, tag, ttl, null, loader);
+    }
+
+    /**
+     * 读取缓存，未命中时加载并写入缓存，加载结果为null时写入空值标记，过期时间见cache.load.absent-ttl-seconds
+     * 调用方在新增和修改数据时要删除对应的key
+     */
+    public <T> T getOrAbsent(String key, String tag, Duration ttl, Supplier<T> loader) {
+        return get(key, tag, ttl, Duration.ofSeconds(Math.max(1, config.getAbsentTtlSeconds())), loader);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(String key, String tag, Duration ttl, Duration absentTtl, Supplier<T> loader) {
+        Object cached;
+        if (Boolean.TRUE.equals(config.getStaleWhileRevalidate())) {
+            List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings({"rawtypes", "unchecked"})
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    operations.opsForValue().get(key);
+                    operations.getExpire(key, TimeUnit.MILLISECONDS);
+                    return null;
+                }
+            });
+            cached = results.get(0);
+            Object remaining = results.get(1);
+            if (cached != null && cached != NullValue.INSTANCE && remaining instanceof Long remainingMillis
+                    && remainingMillis >= 0 && remainingMillis < staleMillis()) {
+                staleHits.incrementAndGet();
+                refreshAsync(key, tag, ttl, loader);
+                return (T) cached;
+            }
+        } else {
+            cached = redisTemplate.opsForValue().get(key);
+        }
+        if (cached == NullValue.INSTANCE) {
+            absentHits.incrementAndGet();
+            return null;
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return (T) cached;
+        }
+        return load(key, tag, ttl, absentTtl, loader);
+    }
+
+    /**
+     * 写入缓存并记入标签，过期时间加随机偏移
+     */
+    public void put(String key, String tag, Duration ttl, Object value) {
+        Duration expire = expireTime(ttl);
+        redisTemplate.opsForValue().set(key, value, expire);
+        redisCacheTags.tag(tag, expire, key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T load(String key, String tag, Duration ttl, Duration absentTtl, Supplier<T> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            sharedLoads.incrementAndGet();
+            try {
+                return (T) existing.get(config.getLoadWaitTimeoutMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待缓存加载被中断: " + key, e);
+            } catch (ExecutionException | TimeoutException e) {
+                // 其它线程加载失败或过慢时自行加载，不写缓存
+                log.warn("等待缓存加载失败，直接加载: key={}, {}", key, e.toString());
+                return loader.get();
+            }
+        }
+        try {
+            T value = loader.get();
+            loads.incrementAndGet();
+            if (isCacheable(value)) {
+                put(key, tag, ttl, value);
+            } else if (value == null && absentTtl != null) {
+                redisTemplate.opsForValue().set(key, NullValue.INSTANCE, absentTtl);
+                redisCacheTags.tag(tag, absentTtl, key);
+                absentWrites.incrementAndGet();
+            }
+            future.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    private <T> void refreshAsync(String key, String tag, Duration ttl, Supplier<T> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        if (loading.putIfAbsent(key, future) != null) {
+            return;
+        }
+        try {
+            cacheRefreshExecutor.execute(() -> {
+                try {
+                    T value = loader.get();
+                    refreshes.incrementAndGet();
+                    if (isCacheable(value)) {
+                        put(key, tag, ttl, value);
+                    }
+                    future.complete(value);
+                } catch (Exception e) {
+                    log.warn("后台刷新缓存失败: key={}, {}", key, e.getMessage());
+                    future.completeExceptionally(e);
+                } finally {
+                    loading.remove(key, future);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            refreshRejected.incrementAndGet();
+            loading.remove(key, future);
+            future.complete(null);
+        }
+    }
+
+    private Duration expireTime(Duration ttl) {
+        long millis = ttl.toMillis();
+        double ratio = config.getTtlJitterRatio() != null ? config.getTtlJitterRatio() : 0;
+        if (ratio > 0) {
+            millis += (long) (millis * ThreadLocalRandom.current().nextDouble(-ratio, ratio));
+        }
+        if (Boolean.TRUE.equals(config.getStaleWhileRevalidate())) {
+            millis += staleMillis();
+        }
+        return Duration.ofMillis(Math.max(1000, millis));
+    }
+
+    private long staleMillis() {
+        return TimeUnit.SECONDS.toMillis(Math.max(0, config.getStaleSeconds()));
+    }
+
+    private static boolean isCacheable(Object value) {
+        return value != null && !(value instanceof Collection<?> collection && collection.isEmpty());
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "redisCacheLoader";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("hits", hits.get());
+        metrics.put("staleHits", staleHits.get());
+        metrics.put("absentHits", absentHits.get());
+        metrics.put("absentWrites", absentWrites.get());
+        metrics.put("loads", loads.get());
+        metrics.put("sharedLoads", sharedLoads.get());
+        metrics.put("refreshes", refreshes.get());
+        metrics.put("refreshRejected", refreshRejected.get());
+        metrics.put("loading", loading.size());
+        return metrics;
+    }
+}
@@ -0,0 +1,134 @@
+package com.yibang.erp.infrastructure.cache;
+
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Redis缓存标签
+ * 写入缓存时把key记入实体的标签集合，整体失效时分批遍历标签集合删除，代价只与受影响的key数量有关；
+ * 标签集合不存在时（如标签上线前写入的缓存）退化为SCAN分批删除，两种方式都不会像KEYS一样阻塞Redis。
+ */
+@Slf4j
+@Component
+public class RedisCacheTags implements RuntimeMetricsProvider {
+
+    private static final String TAG_KEY_PREFIX = "cache:tag:";
+
+    // 每批删除的key数量，也是SCAN/SSCAN每次遍历的数量
+    private static final int BATCH_SIZE = 500;
+
+    // 记入标签并延长过期时间；剩余时间已足够时不修改，避免短期的空值标记缩短集合的过期时间
+    private static final RedisScript<Long> TAG_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('SADD', KEYS[1], ARGV[1]) " +
+            "local ttl = redis.call('TTL', KEYS[1]) " +
+            "if ttl < tonumber(ARGV[2]) then redis.call('EXPIRE', KEYS[1], ARGV[2]) end " +
+            "return ttl", Long.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final AtomicLong taggedKeys = new AtomicLong();
+
+    private final AtomicLong invalidatedKeys = new AtomicLong();
+
+    private final AtomicLong scanFallbacks = new AtomicLong();
+
+    /**
+     * 把缓存key记入标签集合
+     * 标签集合的过期时间至少为缓存过期时间的2倍，只延长不缩短，过期时其中的key一定都已过期
+     */
+    public void tag(String tag, Duration cacheTtl, String key) {
+        String tagKey = TAG_KEY_PREFIX + tag;
+        long ttlSeconds = cacheTtl.getSeconds() * 2;
+        try {
+            stringRedisTemplate.execute(TAG_SCRIPT, List.of(tagKey), key, String.valueOf(ttlSeconds));
+            taggedKeys.incrementAndGet();
+        } catch (Exception e) {
+            // 标签丢失只影响整体失效时能否按标签删除，可以退化为SCAN
+            log.warn("记录缓存标签失败: tag={}, key={}, {}", tag, key, e.getMessage());
+        }
+    }
+
+    /**
+     * 删除标签下的全部缓存
+     * @param fallbackPattern 标签集合不存在时用于SCAN的key模式
+     * @return 删除的key数量
+     */
+    public long invalidateTag(String tag, String fallbackPattern) {
+        String tagKey = TAG_KEY_PREFIX + tag;
+        long deleted;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(tagKey))) {
+            deleted = unlinkAll(stringRedisTemplate.opsForSet().scan(tagKey,
+                    ScanOptions.scanOptions().count(BATCH_SIZE).build()));
+            stringRedisTemplate.unlink(tagKey);
+        } else {
+            scanFallbacks.incrementAndGet();
+            deleted = deleteByPattern(fallbackPattern);
+        }
+        log.info("缓存标签已失效: tag={}, 删除 {} 个键", tag, deleted);
+        return deleted;
+    }
+
+    /**
+     * 用SCAN分批查找并删除匹配模式的key
+     * @return 删除的key数量
+     */
+    public long deleteByPattern(String pattern) {
+        return unlinkAll(stringRedisTemplate.scan(ScanOptions.scanOptions().match(pattern).count(BATCH_SIZE).build()));
+    }
+
+    private long unlinkAll(Cursor<String> cursor) {
+        long deleted = 0;
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        try (cursor) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() >= BATCH_SIZE) {
+                    deleted += unlink(batch);
+                }
+            }
+        }
+        deleted += unlink(batch);
+        return deleted;
+    }
+
+    private long unlink(List<String> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        // UNLINK在后台线程释放内存
+        Long count = stringRedisTemplate.unlink(batch);
+        batch.clear();
+        long deleted = count != null ? count : 0;
+        invalidatedKeys.addAndGet(deleted);
+        return deleted;
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "redisCacheTags";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("taggedKeys", taggedKeys.get());
+        metrics.put("invalidatedKeys", invalidatedKeys.get());
+        metrics.put("scanFallbacks", scanFallbacks.get());
+        return metrics;
+    }
+}
@@ -31,6 +31,7 @@ public class DeepSeekClient {
     private final AIConfig aiConfig;
     private final ObjectMapper objectMapper;
     private final WebClient.Builder webClientBuilder;
+    private final DeepSeekRateLimiter rateLimiter;
     @Autowired
     @Lazy
     private WebClient webClient;
@@ -60,11 +61,13 @@ public class DeepSeekClient {
 
 
         
-        return webClient.post()
-            .uri("/chat/completions")
-            .bodyValue(request)
-            .retrieve()
-            .bodyToMono(DeepSeekChatResponse.class)
+        // 按API Key令牌桶限流，重试时同样需要重新预约令牌
+        return Mono.defer(() -> Mono.delay(rateLimiter.reserve(aiConfig.getApiKey())))
+            .then(webClient.post()
+                .uri("/chat/completions")
+                .bodyValue(request)
+                .retrieve()
+                .bodyToMono(DeepSeekChatResponse.class))
 //            .timeout(Duration.ofMillis(aiConfig.getTimeout()))
                 .timeout(Duration.ofMillis(30000*24L)).retryWhen(Retry.backoff(3, Duration.ofSeconds(3)))
 
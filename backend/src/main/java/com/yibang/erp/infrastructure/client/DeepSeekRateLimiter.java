@@ -0,0 +1,75 @@
+package com.yibang.erp.infrastructure.client;
+
+import com.yibang.erp.config.AIConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DeepSeek调用限流器
+ * 按API Key维护令牌桶，调用方预约令牌后得到需要等待的时长，不阻塞线程
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DeepSeekRateLimiter {
+
+    private final AIConfig aiConfig;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * 为指定API Key预约一个令牌
+     * @param apiKey API Key
+     * @return 需要等待的时长，令牌充足时为0
+     */
+    public Duration reserve(String apiKey) {
+        TokenBucket bucket = buckets.computeIfAbsent(apiKey == null ? "" : apiKey,
+                key -> new TokenBucket(aiConfig.getRequestsPerSecond(), aiConfig.getBurstCapacity()));
+        long waitNanos = bucket.reserve();
+        if (waitNanos > 0) {
+            log.debug("DeepSeek调用触发限流，等待 {} ms", TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        }
+        return Duration.ofNanos(waitNanos);
+    }
+
+    /**
+     * 令牌桶
+     * 空闲时最多积攒burstCapacity个令牌，令牌不足时按速率排队预约
+     */
+    static class TokenBucket {
+
+        private final double intervalNanos;
+
+        private final double maxPermits;
+
+        private double storedPermits;
+
+        private long nextFreeNanos;
+
+        TokenBucket(double permitsPerSecond, int burstCapacity) {
+            this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(permitsPerSecond, 0.001);
+            this.maxPermits = Math.max(burstCapacity, 1);
+            this.storedPermits = this.maxPermits;
+            this.nextFreeNanos = System.nanoTime();
+        }
+
+        synchronized long reserve() {
+            long now = System.nanoTime();
+            if (now > nextFreeNanos) {
+                storedPermits = Math.min(maxPermits, storedPermits + (now - nextFreeNanos) / intervalNanos);
+                nextFreeNanos = now;
+            }
+            long waitNanos = nextFreeNanos - now;
+            double fromStored = Math.min(1.0, storedPermits);
+            storedPermits -= fromStored;
+            nextFreeNanos += (long) ((1.0 - fromStored) * intervalNanos);
+            return waitNanos;
+        }
+    }
+}
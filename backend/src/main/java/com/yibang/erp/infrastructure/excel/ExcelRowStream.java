@@ -0,0 +1,127 @@
+package com.yibang.erp.infrastructure.excel;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Excel行数据流
+ * 解析线程通过put投递行数据，处理线程通过迭代器按顺序取出；队列有界，队列满时阻塞解析线程形成背压。
+ * 解析结束调用complete，解析异常调用fail，处理方提前退出时调用cancel使解析线程尽快停止。
+ */
+public class ExcelRowStream<T> implements Iterable<T> {
+
+    private static final Object END = new Object();
+
+    private static final long OFFER_WAIT_MILLIS = 200;
+
+    private final BlockingQueue<Object> queue;
+
+    private volatile boolean cancelled;
+
+    private volatile Throwable failure;
+
+    public ExcelRowStream(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * 投递一行数据，队列满时阻塞
+     * @return 处理方已取消时返回false，解析方应停止读取
+     */
+    public boolean put(T row) {
+        try {
+            while (!cancelled) {
+                if (queue.offer(row, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 解析完成
+     */
+    public void complete() {
+        putEnd();
+    }
+
+    /**
+     * 解析失败，处理方在取到已投递的行之后会收到该异常
+     */
+    public void fail(Throwable error) {
+        this.failure = error;
+        putEnd();
+    }
+
+    /**
+     * 处理方不再消费，丢弃未处理的行
+     */
+    public void cancel() {
+        cancelled = true;
+        queue.clear();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void putEnd() {
+        try {
+            while (!cancelled) {
+                if (queue.offer(END, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 阻塞式迭代器，只能被一个处理线程消费一次
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<>() {
+            private Object next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("读取Excel行数据被中断", e);
+                    }
+                }
+                if (next == END) {
+                    // END保留在next中，重复调用hasNext不会再次阻塞
+                    if (failure != null) {
+                        throw new IllegalStateException("Excel文件解析失败: " + failure.getMessage(), failure);
+                    }
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T row = (T) next;
+                next = null;
+                return row;
+            }
+        };
+    }
+}
@@ -0,0 +1,181 @@
+package com.yibang.erp.infrastructure.mq;
+
+import com.rabbitmq.client.Channel;
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
+import com.yibang.erp.config.OrderConsumerConfig;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 订单消息有序通道
+ * 每个队列按配置建立若干单线程通道，消息按分配键（订单号或买家）哈希进入固定通道：
+ * 同一分配键的消息按投递顺序串行处理，不同分配键的消息在各通道间并行处理。
+ * 通道队列不设上限，积压量受消费者预取数约束。
+ * 处理逻辑拿到的是记录确认状态的通道，处理逻辑已确认或拒绝的消息不会被再次拒绝。
+ */
+@Slf4j
+@Component
+public class OrderMessageLanes implements RuntimeMetricsProvider {
+
+    @Autowired
+    private OrderConsumerConfig consumerConfig;
+
+    // 队列名 -> 通道
+    private final Map<String, ThreadPoolExecutor[]> lanesByQueue = new ConcurrentHashMap<>();
+
+    private final AtomicLong dispatchedMessages = new AtomicLong();
+
+    private final AtomicLong rejectedMessages = new AtomicLong();
+
+    private final AtomicLong failedMessages = new AtomicLong();
+
+    private final AtomicLong settledFailures = new AtomicLong();
+
+    /**
+     * 按分配键把消息处理分配到通道；通道数为1时在当前线程直接处理
+     * 处理抛出异常时消息拒绝进入死信队列（已确认或拒绝的除外），通道已关闭时退回队列重新投递
+     */
+    public void execute(String queueName, String orderKey, Channel channel, long deliveryTag, Consumer<Channel> task) {
+        ThreadPoolExecutor[] lanes = lanesByQueue.computeIfAbsent(queueName, this::createLanes);
+        if (lanes.length == 0) {
+            runOrReject(queueName, orderKey, channel, deliveryTag, task);
+            return;
+        }
+        int index = Math.floorMod(orderKey != null ? orderKey.hashCode() : 0, lanes.length);
+        try {
+            lanes[index].execute(() -> runOrReject(queueName, orderKey, channel, deliveryTag, task));
+            dispatchedMessages.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            rejectedMessages.incrementAndGet();
+            log.warn("订单消息通道已关闭，消息退回队列: queue={}, orderKey={}", queueName, orderKey);
+            requeue(channel, deliveryTag);
+        }
+    }
+
+    private void runOrReject(String queueName, String orderKey, Channel channel, long deliveryTag, Consumer<Channel> task) {
+        AtomicBoolean settled = new AtomicBoolean();
+        try {
+            task.accept(trackSettlement(channel, settled));
+        } catch (Exception e) {
+            failedMessages.incrementAndGet();
+            if (settled.get()) {
+                // 处理逻辑已确认或拒绝过该消息（如确认后事务提交失败），再次拒绝会导致通道关闭
+                settledFailures.incrementAndGet();
+                log.error("订单消息处理异常，消息已确认或拒绝: queue={}, orderKey={}", queueName, orderKey, e);
+                return;
+            }
+            // 与处理逻辑自身的失败一致进入死信队列，不退回原队列，避免持续失败的消息反复重投
+            log.error("订单消息处理异常，消息进入死信队列: queue={}, orderKey={}", queueName, orderKey, e);
+            try {
+                channel.basicNack(deliveryTag, false, false);
+            } catch (Exception nackException) {
+                log.error("订单消息拒绝失败: deliveryTag={}", deliveryTag, nackException);
+            }
+        }
+    }
+
+    /**
+     * 包装通道，处理逻辑调用确认或拒绝时记录该消息已结算
+     */
+    private Channel trackSettlement(Channel channel, AtomicBoolean settled) {
+        return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "basicAck", "basicNack", "basicReject" -> settled.set(true);
+                        default -> {
+                        }
+                    }
+                    try {
+                        return method.invoke(channel, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private void requeue(Channel channel, long deliveryTag) {
+        try {
+            channel.basicNack(deliveryTag, false, true);
+        } catch (Exception e) {
+            log.error("订单消息退回队列失败: deliveryTag={}", deliveryTag, e);
+        }
+    }
+
+    private ThreadPoolExecutor[] createLanes(String queueName) {
+        OrderConsumerConfig.QueueSettings settings = consumerConfig.getQueueSettings(queueName);
+        int laneCount = settings != null && settings.getLanes() != null ? settings.getLanes() : 1;
+        if (laneCount <= 1) {
+            return new ThreadPoolExecutor[0];
+        }
+        ThreadPoolExecutor[] lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                    new CustomizableThreadFactory(queueName + "-lane-" + i + "-"));
+        }
+        log.info("订单消息有序通道已创建: queue={}, lanes={}", queueName, laneCount);
+        return lanes;
+    }
+
+    /**
+     * 停机时等待通道内已接收的消息处理完
+     */
+    @PreDestroy
+    public void shutdown() {
+        for (ThreadPoolExecutor[] lanes : lanesByQueue.values()) {
+            for (ThreadPoolExecutor lane : lanes) {
+                lane.shutdown();
+            }
+        }
+        for (ThreadPoolExecutor[] lanes : lanesByQueue.values()) {
+            for (ThreadPoolExecutor lane : lanes) {
+                try {
+                    if (!lane.awaitTermination(30, TimeUnit.SECONDS)) {
+                        log.warn("订单消息通道停止超时，未处理的消息将重新投递");
+                        lane.shutdownNow();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    lane.shutdownNow();
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "orderMessageLanes";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("dispatchedMessages", dispatchedMessages.get());
+        metrics.put("rejectedMessages", rejectedMessages.get());
+        metrics.put("failedMessages", failedMessages.get());
+        metrics.put("settledFailures", settledFailures.get());
+        lanesByQueue.forEach((queueName, lanes) -> {
+            int pending = 0;
+            for (ThreadPoolExecutor lane : lanes) {
+                pending += lane.getQueue().size() + lane.getActiveCount();
+            }
+            metrics.put(queueName + ".pending", pending);
+        });
+        return metrics;
+    }
+}
@@ -2,11 +2,32 @@ package com.yibang.erp.infrastructure.repository;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.yibang.erp.domain.entity.AIExcelProcessTaskDetail;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * AI Excel处理任务详情Repository接口
  */
 @Mapper
 public interface AIExcelProcessTaskDetailRepository extends BaseMapper<AIExcelProcessTaskDetail> {
+
+    /**
+     * 批量插入任务详情（多行INSERT）
+     */
+    @Insert("<script>" +
+            "INSERT INTO ai_excel_process_task_details (task_id, excel_row_number, process_status, raw_data, " +
+            "extracted_data, process_result, confidence, error_type, error_message, suggestion, processing_notes, " +
+            "order_id, created_at, updated_at) " +
+            "VALUES " +
+            "<foreach collection='details' item='detail' separator=','>" +
+            "(#{detail.taskId}, #{detail.excelRowNumber}, #{detail.processStatus}, #{detail.rawData}, " +
+            "#{detail.extractedData}, #{detail.processResult}, IFNULL(#{detail.confidence}, 0), #{detail.errorType}, " +
+            "#{detail.errorMessage}, #{detail.suggestion}, #{detail.processingNotes}, #{detail.orderId}, " +
+            "IFNULL(#{detail.createdAt}, NOW()), IFNULL(#{detail.updatedAt}, NOW()))" +
+            "</foreach>" +
+            "</script>")
+    int batchInsert(@Param("details") List<AIExcelProcessTaskDetail> details);
 }
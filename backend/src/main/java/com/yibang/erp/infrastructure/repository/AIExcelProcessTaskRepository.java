@@ -1,12 +1,93 @@
 package com.yibang.erp.infrastructure.repository;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.yibang.erp.domain.dto.AIExcelTaskProgress;
 import com.yibang.erp.domain.entity.AIExcelProcessTask;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
 
 /**
  * AI Excel处理任务Repository接口
  */
 @Mapper
 public interface AIExcelProcessTaskRepository extends BaseMapper<AIExcelProcessTask> {
+
+    /**
+     * 认领待处理任务，多节点同时认领时只有一个节点能成功；该销售公司处理中的任务已达上限时不认领
+     * @return 1表示认领成功
+     */
+    @Update("UPDATE ai_excel_process_tasks SET task_status = 'PROCESSING', started_at = NOW(), updated_at = NOW() " +
+            "WHERE id = #{id} AND task_status = 'PENDING' AND deleted = 0 " +
+            "AND (SELECT c.running FROM (SELECT COUNT(*) AS running FROM ai_excel_process_tasks " +
+            "WHERE sales_company_id <=> #{companyId} AND task_status = 'PROCESSING' AND deleted = 0) c) < #{companyLimit}")
+    int claimPendingTask(@Param("id") Long id, @Param("companyId") Long companyId, @Param("companyLimit") int companyLimit);
+
+    /**
+     * 取消尚未被认领的任务
+     * @return 1表示取消成功，0表示任务已被认领或状态已变化
+     */
+    @Update("UPDATE ai_excel_process_tasks SET task_status = 'CANCELLED', updated_at = NOW() " +
+            "WHERE task_id = #{taskId} AND task_status = 'PENDING'")
+    int cancelPendingTask(@Param("taskId") String taskId);
+
+    /**
+     * 把未能启动的任务放回队列
+     */
+    @Update("UPDATE ai_excel_process_tasks SET task_status = 'PENDING', updated_at = NOW() " +
+            "WHERE id = #{id} AND task_status = 'PROCESSING'")
+    int releaseTask(@Param("id") Long id);
+
+    /**
+     * 停机时把本节点已认领但尚未开始处理的任务放回队列
+     */
+    @Update("<script>" +
+            "UPDATE ai_excel_process_tasks SET task_status = 'PENDING', updated_at = NOW() " +
+            "WHERE task_status = 'PROCESSING' AND task_id IN " +
+            "<foreach collection='taskIds' item='taskId' open='(' separator=',' close=')'>#{taskId}</foreach>" +
+            "</script>")
+    int releaseTasks(@Param("taskIds") Collection<String> taskIds);
+
+    /**
+     * 写入任务进度计数，不修改任务状态；已取消的任务同样写入，保证最终计数与已创建的订单一致
+     */
+    @Update("UPDATE ai_excel_process_tasks SET total_rows = #{totalRows}, processed_rows = #{processedRows}, " +
+            "success_rows = #{successRows}, failed_rows = #{failedRows}, manual_process_rows = #{manualProcessRows}, " +
+            "updated_at = NOW() WHERE task_id = #{taskId}")
+    int updateProgress(AIExcelTaskProgress progress);
+
+    /**
+     * 查询任务状态
+     */
+    @Select("SELECT task_status FROM ai_excel_process_tasks WHERE task_id = #{taskId}")
+    String selectTaskStatus(@Param("taskId") String taskId);
+
+    /**
+     * 取消待处理或处理中的任务，不覆盖处理线程写入的进度计数
+     * @return 1表示修改成功
+     */
+    @Update("UPDATE ai_excel_process_tasks SET task_status = 'CANCELLED', updated_at = NOW() " +
+            "WHERE task_id = #{taskId} AND task_status IN ('PENDING', 'PROCESSING')")
+    int cancelTask(@Param("taskId") String taskId);
+
+    /**
+     * 刷新处理中任务的心跳
+     */
+    @Update("<script>" +
+            "UPDATE ai_excel_process_tasks SET updated_at = NOW() " +
+            "WHERE task_status = 'PROCESSING' AND task_id IN " +
+            "<foreach collection='taskIds' item='taskId' open='(' separator=',' close=')'>#{taskId}</foreach>" +
+            "</script>")
+    int touchProcessingTasks(@Param("taskIds") Collection<String> taskIds);
+
+    /**
+     * 心跳超时的处理中任务重新放回队列
+     */
+    @Update("UPDATE ai_excel_process_tasks SET task_status = 'PENDING', current_step = 'RECOVERED', updated_at = NOW() " +
+            "WHERE task_status = 'PROCESSING' AND updated_at < #{staleBefore} AND deleted = 0")
+    int requeueStaleTasks(@Param("staleBefore") LocalDateTime staleBefore);
 }
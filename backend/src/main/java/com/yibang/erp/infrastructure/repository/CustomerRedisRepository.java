@@ -1,13 +1,18 @@
 package com.yibang.erp.infrastructure.repository;
 
 import com.yibang.erp.domain.entity.Customer;
+import com.yibang.erp.infrastructure.cache.NearCache;
+import com.yibang.erp.infrastructure.cache.RedisCacheLoader;
+import com.yibang.erp.infrastructure.cache.RedisCacheTags;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Repository;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * 客户Redis缓存Repository
@@ -26,6 +31,15 @@ public class CustomerRedisRepository {
     @Autowired
     private CustomerRepository customerRepository;
 
+    @Autowired
+    private NearCache nearCache;
+
+    @Autowired
+    private RedisCacheTags redisCacheTags;
+
+    @Autowired
+    private RedisCacheLoader redisCacheLoader;
+
     // Redis键前缀
     private static final String CUSTOMER_KEY_PREFIX = "customer:";
     private static final String CUSTOMER_BY_CODE_KEY_PREFIX = "customer:code:";
@@ -37,7 +51,10 @@ public class CustomerRedisRepository {
     private static final String CUSTOMER_BY_PHONE_KEY_PREFIX = "customer:phone:";
     private static final String CUSTOMER_BY_EMAIL_KEY_PREFIX = "customer:email:";
     
-    // 缓存过期时间：5分钟
+    // 缓存标签，记录本实体写入的全部缓存key
+    private static final String CUSTOMER_CACHE_TAG = "customer";
+
+    // 缓存过期时间：5分钟，写入时加随机偏移
     private static final Duration CACHE_EXPIRE_TIME = Duration.ofMinutes(5);
 
     /**
@@ -51,23 +68,14 @@ public class CustomerRedisRepository {
         String cacheKey = CUSTOMER_KEY_PREFIX + id;
         
         try {
-            // 先从缓存获取
-            Customer cachedCustomer = (Customer) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedCustomer != null) {
-                log.debug("从缓存获取客户: id={}", id);
-                return cachedCustomer;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: id={}", id);
-            Customer customer = customerRepository.selectById(id);
-            
+            // 先从本地缓存获取，再从Redis获取，都未命中时由一个线程查询数据库
+            Customer customer = nearCache.get(cacheKey);
             if (customer != null) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, customer, CACHE_EXPIRE_TIME);
-                log.debug("客户数据已缓存: id={}", id);
+                return customer;
             }
-            
+            customer = redisCacheLoader.get(cacheKey, CUSTOMER_CACHE_TAG, CACHE_EXPIRE_TIME,
+                    () -> customerRepository.selectById(id));
+            nearCache.put(cacheKey, customer);
             return customer;
             
         } catch (Exception e) {
@@ -84,36 +92,8 @@ public class CustomerRedisRepository {
         if (customerCode == null || customerCode.trim().isEmpty()) {
             return null;
         }
-        
-        String cacheKey = CUSTOMER_BY_CODE_KEY_PREFIX + customerCode;
-        
-        try {
-            // 先从缓存获取
-            Customer cachedCustomer = (Customer) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedCustomer != null) {
-                log.debug("从缓存获取客户: customerCode={}", customerCode);
-                return cachedCustomer;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: customerCode={}", customerCode);
-            Customer customer = customerRepository.selectByCustomerCode(customerCode);
-            
-            if (customer != null) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, customer, CACHE_EXPIRE_TIME);
-                // 同时缓存客户ID映射
-                redisTemplate.opsForValue().set(CUSTOMER_KEY_PREFIX + customer.getId(), customer, CACHE_EXPIRE_TIME);
-                log.debug("客户数据已缓存: customerCode={}, id={}", customerCode, customer.getId());
-            }
-            
-            return customer;
-            
-        } catch (Exception e) {
-            log.error("查询客户失败: customerCode={}", customerCode, e);
-            // 缓存异常时直接查询数据库
-            return customerRepository.selectByCustomerCode(customerCode);
-        }
+        return findOne(CUSTOMER_BY_CODE_KEY_PREFIX + customerCode,
+                () -> customerRepository.selectByCustomerCode(customerCode));
     }
 
     /**
@@ -123,44 +103,12 @@ public class CustomerRedisRepository {
         if (name == null || name.trim().isEmpty()) {
             return null;
         }
-        
-        String cacheKey = CUSTOMER_BY_NAME_KEY_PREFIX + name;
-        
-        try {
-            // 先从缓存获取
-            Customer cachedCustomer = (Customer) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedCustomer != null) {
-                log.debug("从缓存获取客户: name={}", name);
-                return cachedCustomer;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: name={}", name);
-            Customer customer = customerRepository.selectOne(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Customer>()
-                    .eq(Customer::getName, name)
-                    .eq(Customer::getDeleted, false)
-            );
-            
-            if (customer != null) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, customer, CACHE_EXPIRE_TIME);
-                // 同时缓存客户ID映射
-                redisTemplate.opsForValue().set(CUSTOMER_KEY_PREFIX + customer.getId(), customer, CACHE_EXPIRE_TIME);
-                log.debug("客户数据已缓存: name={}, id={}", name, customer.getId());
-            }
-            
-            return customer;
-            
-        } catch (Exception e) {
-            log.error("查询客户失败: name={}", name, e);
-            // 缓存异常时直接查询数据库
-            return customerRepository.selectOne(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Customer>()
-                    .eq(Customer::getName, name)
-                    .eq(Customer::getDeleted, false)
-            );
-        }
+        return findOne(CUSTOMER_BY_NAME_KEY_PREFIX + name,
+                () -> customerRepository.selectOne(
+                    new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Customer>()
+                        .eq(Customer::getName, name)
+                        .eq(Customer::getDeleted, false)
+                ));
     }
 
     /**
@@ -170,44 +118,12 @@ public class CustomerRedisRepository {
         if (phone == null || phone.trim().isEmpty()) {
             return null;
         }
-        
-        String cacheKey = CUSTOMER_BY_PHONE_KEY_PREFIX + phone;
-        
-        try {
-            // 先从缓存获取
-            Customer cachedCustomer = (Customer) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedCustomer != null) {
-                log.debug("从缓存获取客户: phone={}", phone);
-                return cachedCustomer;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: phone={}", phone);
-            Customer customer = customerRepository.selectOne(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Customer>()
-                    .eq(Customer::getContactPhone, phone)
-                    .eq(Customer::getDeleted, false)
-            );
-            
-            if (customer != null) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, customer, CACHE_EXPIRE_TIME);
-                // 同时缓存客户ID映射
-                redisTemplate.opsForValue().set(CUSTOMER_KEY_PREFIX + customer.getId(), customer, CACHE_EXPIRE_TIME);
-                log.debug("客户数据已缓存: phone={}, id={}", phone, customer.getId());
-            }
-            
-            return customer;
-            
-        } catch (Exception e) {
-            log.error("查询客户失败: phone={}", phone, e);
-            // 缓存异常时直接查询数据库
-            return customerRepository.selectOne(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Customer>()
-                    .eq(Customer::getContactPhone, phone)
-                    .eq(Customer::getDeleted, false)
-            );
-        }
+        return findOne(CUSTOMER_BY_PHONE_KEY_PREFIX + phone,
+                () -> customerRepository.selectOne(
+                    new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Customer>()
+                        .eq(Customer::getContactPhone, phone)
+                        .eq(Customer::getDeleted, false)
+                ));
     }
 
     /**
@@ -217,253 +133,124 @@ public class CustomerRedisRepository {
         if (email == null || email.trim().isEmpty()) {
             return null;
         }
-        
-        String cacheKey = CUSTOMER_BY_EMAIL_KEY_PREFIX + email;
-        
-        try {
-            // 先从缓存获取
-            Customer cachedCustomer = (Customer) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedCustomer != null) {
-                log.debug("从缓存获取客户: email={}", email);
-                return cachedCustomer;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: email={}", email);
-            Customer customer = customerRepository.selectOne(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Customer>()
-                    .eq(Customer::getContactEmail, email)
-                    .eq(Customer::getDeleted, false)
-            );
-            
-            if (customer != null) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, customer, CACHE_EXPIRE_TIME);
-                // 同时缓存客户ID映射
-                redisTemplate.opsForValue().set(CUSTOMER_KEY_PREFIX + customer.getId(), customer, CACHE_EXPIRE_TIME);
-                log.debug("客户数据已缓存: email={}, id={}", email, customer.getId());
-            }
-            
-            return customer;
-            
-        } catch (Exception e) {
-            log.error("查询客户失败: email={}", email, e);
-            // 缓存异常时直接查询数据库
-            return customerRepository.selectOne(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Customer>()
-                    .eq(Customer::getContactEmail, email)
-                    .eq(Customer::getDeleted, false)
-            );
-        }
+        return findOne(CUSTOMER_BY_EMAIL_KEY_PREFIX + email,
+                () -> customerRepository.selectOne(
+                    new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Customer>()
+                        .eq(Customer::getContactEmail, email)
+                        .eq(Customer::getDeleted, false)
+                ));
     }
 
     /**
      * 根据公司ID查询客户列表（带缓存）
      */
-    @SuppressWarnings("unchecked")
     public List<Customer> findByCompanyId(Long companyId) {
         if (companyId == null) {
             return List.of();
         }
-        
-        String cacheKey = CUSTOMER_BY_COMPANY_KEY_PREFIX + companyId;
-        
-        try {
-            // 先从缓存获取
-            List<Customer> cachedCustomers = (List<Customer>) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedCustomers != null) {
-                log.debug("从缓存获取客户列表: companyId={}, count={}", companyId, cachedCustomers.size());
-                return cachedCustomers;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: companyId={}", companyId);
-            List<Customer> customers = customerRepository.selectByCompanyId(companyId);
-            
-            if (customers != null && !customers.isEmpty()) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, customers, CACHE_EXPIRE_TIME);
-                // 同时缓存每个客户的详细信息
-                for (Customer customer : customers) {
-                    redisTemplate.opsForValue().set(CUSTOMER_KEY_PREFIX + customer.getId(), customer, CACHE_EXPIRE_TIME);
-                }
-                log.debug("客户列表数据已缓存: companyId={}, count={}", companyId, customers.size());
-            }
-            
-            return customers != null ? customers : List.of();
-            
-        } catch (Exception e) {
-            log.error("查询客户列表失败: companyId={}", companyId, e);
-            // 缓存异常时直接查询数据库
-            return customerRepository.selectByCompanyId(companyId);
-        }
+        return findList(CUSTOMER_BY_COMPANY_KEY_PREFIX + companyId,
+                () -> customerRepository.selectByCompanyId(companyId));
     }
 
     /**
      * 根据客户类型查询客户列表（带缓存）
      */
-    @SuppressWarnings("unchecked")
     public List<Customer> findByCustomerType(String customerType) {
         if (customerType == null || customerType.trim().isEmpty()) {
             return List.of();
         }
-        
-        String cacheKey = CUSTOMER_BY_TYPE_KEY_PREFIX + customerType;
-        
-        try {
-            // 先从缓存获取
-            List<Customer> cachedCustomers = (List<Customer>) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedCustomers != null) {
-                log.debug("从缓存获取客户列表: customerType={}, count={}", customerType, cachedCustomers.size());
-                return cachedCustomers;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: customerType={}", customerType);
-            List<Customer> customers = customerRepository.selectByCustomerType(customerType);
-            
-            if (customers != null && !customers.isEmpty()) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, customers, CACHE_EXPIRE_TIME);
-                // 同时缓存每个客户的详细信息
-                for (Customer customer : customers) {
-                    redisTemplate.opsForValue().set(CUSTOMER_KEY_PREFIX + customer.getId(), customer, CACHE_EXPIRE_TIME);
-                }
-                log.debug("客户列表数据已缓存: customerType={}, count={}", customerType, customers.size());
-            }
-            
-            return customers != null ? customers : List.of();
-            
-        } catch (Exception e) {
-            log.error("查询客户列表失败: customerType={}", customerType, e);
-            // 缓存异常时直接查询数据库
-            return customerRepository.selectByCustomerType(customerType);
-        }
+        return findList(CUSTOMER_BY_TYPE_KEY_PREFIX + customerType,
+                () -> customerRepository.selectByCustomerType(customerType));
     }
 
     /**
      * 根据客户等级查询客户列表（带缓存）
      */
-    @SuppressWarnings("unchecked")
     public List<Customer> findByCustomerLevel(String customerLevel) {
         if (customerLevel == null || customerLevel.trim().isEmpty()) {
             return List.of();
         }
-        
-        String cacheKey = CUSTOMER_BY_LEVEL_KEY_PREFIX + customerLevel;
-        
-        try {
-            // 先从缓存获取
-            List<Customer> cachedCustomers = (List<Customer>) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedCustomers != null) {
-                log.debug("从缓存获取客户列表: customerLevel={}, count={}", customerLevel, cachedCustomers.size());
-                return cachedCustomers;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: customerLevel={}", customerLevel);
-            List<Customer> customers = customerRepository.selectByCustomerLevel(customerLevel);
-            
-            if (customers != null && !customers.isEmpty()) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, customers, CACHE_EXPIRE_TIME);
-                // 同时缓存每个客户的详细信息
-                for (Customer customer : customers) {
-                    redisTemplate.opsForValue().set(CUSTOMER_KEY_PREFIX + customer.getId(), customer, CACHE_EXPIRE_TIME);
-                }
-                log.debug("客户列表数据已缓存: customerLevel={}, count={}", customerLevel, customers.size());
-            }
-            
-            return customers != null ? customers : List.of();
-            
-        } catch (Exception e) {
-            log.error("查询客户列表失败: customerLevel={}", customerLevel, e);
-            // 缓存异常时直接查询数据库
-            return customerRepository.selectByCustomerLevel(customerLevel);
-        }
+        return findList(CUSTOMER_BY_LEVEL_KEY_PREFIX + customerLevel,
+                () -> customerRepository.selectByCustomerLevel(customerLevel));
     }
 
     /**
      * 根据状态查询客户列表（带缓存）
      */
-    @SuppressWarnings("unchecked")
     public List<Customer> findByStatus(String status) {
         if (status == null || status.trim().isEmpty()) {
             return List.of();
         }
-        
-        String cacheKey = CUSTOMER_BY_STATUS_KEY_PREFIX + status;
-        
-        try {
-            // 先从缓存获取
-            List<Customer> cachedCustomers = (List<Customer>) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedCustomers != null) {
-                log.debug("从缓存获取客户列表: status={}, count={}", status, cachedCustomers.size());
-                return cachedCustomers;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: status={}", status);
-            List<Customer> customers = customerRepository.selectByStatus(status);
-            
-            if (customers != null && !customers.isEmpty()) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, customers, CACHE_EXPIRE_TIME);
-                // 同时缓存每个客户的详细信息
-                for (Customer customer : customers) {
-                    redisTemplate.opsForValue().set(CUSTOMER_KEY_PREFIX + customer.getId(), customer, CACHE_EXPIRE_TIME);
-                }
-                log.debug("客户列表数据已缓存: status={}, count={}", status, customers.size());
-            }
-            
-            return customers != null ? customers : List.of();
-            
-        } catch (Exception e) {
-            log.error("查询客户列表失败: status={}", status, e);
-            // 缓存异常时直接查询数据库
-            return customerRepository.selectByStatus(status);
-        }
+        return findList(CUSTOMER_BY_STATUS_KEY_PREFIX + status,
+                () -> customerRepository.selectByStatus(status));
     }
 
     /**
      * 根据关键词搜索客户（带缓存）
      */
-    @SuppressWarnings("unchecked")
     public List<Customer> searchByKeyword(String keyword) {
         if (keyword == null || keyword.trim().isEmpty()) {
             return List.of();
         }
-        
-        String cacheKey = "customer:search:" + keyword;
-        
+        return findList("customer:search:" + keyword,
+                () -> customerRepository.searchByKeyword(keyword));
+    }
+
+    /**
+     * 按唯一条件查询客户（带缓存），数据库查询结果同时按ID缓存
+     * 查询不到的结果也短暂缓存，新增和修改客户时随其它key一起清除
+     */
+    private Customer findOne(String cacheKey, Supplier<Customer> query) {
         try {
-            // 先从缓存获取
-            List<Customer> cachedCustomers = (List<Customer>) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedCustomers != null) {
-                log.debug("从缓存获取搜索结果: keyword={}, count={}", keyword, cachedCustomers.size());
-                return cachedCustomers;
+            // 先从本地缓存获取，再从Redis获取，都未命中时由一个线程查询数据库
+            Customer customer = nearCache.get(cacheKey);
+            if (customer != null) {
+                return customer;
             }
+            customer = redisCacheLoader.getOrAbsent(cacheKey, CUSTOMER_CACHE_TAG, CACHE_EXPIRE_TIME, () -> {
+                log.debug("缓存未命中，查询数据库: key={}", cacheKey);
+                Customer loaded = query.get();
+                // 同时缓存客户ID映射
+                cacheById(loaded);
+                return loaded;
+            });
+            nearCache.put(cacheKey, customer);
+            return customer;
             
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: keyword={}", keyword);
-            List<Customer> customers = customerRepository.searchByKeyword(keyword);
-            
-            if (customers != null && !customers.isEmpty()) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, customers, CACHE_EXPIRE_TIME);
-                // 同时缓存每个客户的详细信息
-                for (Customer customer : customers) {
-                    redisTemplate.opsForValue().set(CUSTOMER_KEY_PREFIX + customer.getId(), customer, CACHE_EXPIRE_TIME);
+        } catch (Exception e) {
+            log.error("查询客户失败: key={}", cacheKey, e);
+            // 缓存异常时直接查询数据库
+            return query.get();
+        }
+    }
+
+    /**
+     * 查询客户列表（带缓存），数据库查询结果同时按ID缓存每个客户
+     */
+    private List<Customer> findList(String cacheKey, Supplier<List<Customer>> query) {
+        try {
+            List<Customer> customers = redisCacheLoader.get(cacheKey, CUSTOMER_CACHE_TAG, CACHE_EXPIRE_TIME, () -> {
+                log.debug("缓存未命中，查询数据库: key={}", cacheKey);
+                List<Customer> loaded = query.get();
+                if (loaded != null) {
+                    for (Customer customer : loaded) {
+                        cacheById(customer);
+                    }
                 }
-                log.debug("搜索结果已缓存: keyword={}, count={}", keyword, customers.size());
-            }
-            
+                return loaded;
+            });
             return customers != null ? customers : List.of();
             
         } catch (Exception e) {
-            log.error("搜索客户失败: keyword={}", keyword, e);
+            log.error("查询客户列表失败: key={}", cacheKey, e);
             // 缓存异常时直接查询数据库
-            return customerRepository.searchByKeyword(keyword);
+            return query.get();
+        }
+    }
+
+    private void cacheById(Customer customer) {
+        if (customer != null) {
+            redisCacheLoader.put(CUSTOMER_KEY_PREFIX + customer.getId(), CUSTOMER_CACHE_TAG, CACHE_EXPIRE_TIME, customer);
         }
     }
 
@@ -534,34 +321,38 @@ public class CustomerRedisRepository {
                 return;
             }
             
-            // 清除各种键的缓存
-            redisTemplate.delete(CUSTOMER_KEY_PREFIX + customer.getId());
+            // 清除各种键的缓存，本地缓存一并清除并通知其它节点
+            List<Object> keys = new ArrayList<>();
+            keys.add(CUSTOMER_KEY_PREFIX + customer.getId());
             
             if (customer.getCustomerCode() != null) {
-                redisTemplate.delete(CUSTOMER_BY_CODE_KEY_PREFIX + customer.getCustomerCode());
+                keys.add(CUSTOMER_BY_CODE_KEY_PREFIX + customer.getCustomerCode());
             }
             if (customer.getName() != null) {
-                redisTemplate.delete(CUSTOMER_BY_NAME_KEY_PREFIX + customer.getName());
+                keys.add(CUSTOMER_BY_NAME_KEY_PREFIX + customer.getName());
             }
             if (customer.getContactPhone() != null) {
-                redisTemplate.delete(CUSTOMER_BY_PHONE_KEY_PREFIX + customer.getContactPhone());
+                keys.add(CUSTOMER_BY_PHONE_KEY_PREFIX + customer.getContactPhone());
             }
             if (customer.getContactEmail() != null) {
-                redisTemplate.delete(CUSTOMER_BY_EMAIL_KEY_PREFIX + customer.getContactEmail());
+                keys.add(CUSTOMER_BY_EMAIL_KEY_PREFIX + customer.getContactEmail());
             }
             if (customer.getCompanyId() != null) {
-                redisTemplate.delete(CUSTOMER_BY_COMPANY_KEY_PREFIX + customer.getCompanyId());
+                keys.add(CUSTOMER_BY_COMPANY_KEY_PREFIX + customer.getCompanyId());
             }
             if (customer.getCustomerType() != null) {
-                redisTemplate.delete(CUSTOMER_BY_TYPE_KEY_PREFIX + customer.getCustomerType());
+                keys.add(CUSTOMER_BY_TYPE_KEY_PREFIX + customer.getCustomerType());
             }
             if (customer.getCustomerLevel() != null) {
-                redisTemplate.delete(CUSTOMER_BY_LEVEL_KEY_PREFIX + customer.getCustomerLevel());
+                keys.add(CUSTOMER_BY_LEVEL_KEY_PREFIX + customer.getCustomerLevel());
             }
             if (customer.getStatus() != null) {
-                redisTemplate.delete(CUSTOMER_BY_STATUS_KEY_PREFIX + customer.getStatus());
+                keys.add(CUSTOMER_BY_STATUS_KEY_PREFIX + customer.getStatus());
             }
             
+            redisTemplate.delete(keys);
+            nearCache.evict(keys);
+
             log.debug("客户缓存已清除: id={}", customer.getId());
             
         } catch (Exception e) {
@@ -579,8 +370,8 @@ public class CustomerRedisRepository {
                 // 清除旧缓存
                 clearCustomerCache(customer);
                 // 重新缓存
-                String cacheKey = CUSTOMER_KEY_PREFIX + customer.getId();
-                redisTemplate.opsForValue().set(cacheKey, customer, CACHE_EXPIRE_TIME);
+                cacheById(customer);
+                nearCache.put(CUSTOMER_KEY_PREFIX + customer.getId(), customer);
                 log.info("客户缓存已刷新: id={}", customerId);
             }
         } catch (Exception e) {
@@ -593,38 +384,11 @@ public class CustomerRedisRepository {
      */
     public void clearAllCustomerCache() {
         try {
-            // 获取所有客户相关的键
-            String pattern = CUSTOMER_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = CUSTOMER_BY_CODE_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = CUSTOMER_BY_NAME_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = CUSTOMER_BY_PHONE_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = CUSTOMER_BY_EMAIL_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = CUSTOMER_BY_COMPANY_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = CUSTOMER_BY_TYPE_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = CUSTOMER_BY_LEVEL_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = CUSTOMER_BY_STATUS_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = "customer:search:*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            log.info("所有客户缓存已清除");
+            // 按标签集合分批删除，没有标签集合时用SCAN分批删除，不再使用阻塞Redis的KEYS
+            long deleted = redisCacheTags.invalidateTag(CUSTOMER_CACHE_TAG, CUSTOMER_KEY_PREFIX + "*");
+            nearCache.evictByPrefix(CUSTOMER_KEY_PREFIX);
+
+            log.info("所有客户缓存已清除: {} 个键", deleted);
         } catch (Exception e) {
             log.error("清除所有客户缓存失败", e);
         }
@@ -2,6 +2,7 @@ package com.yibang.erp.infrastructure.repository;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.yibang.erp.domain.entity.InventoryOperation;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
@@ -47,4 +48,32 @@ public interface InventoryOperationRepository extends BaseMapper<InventoryOperat
      */
     @Select("SELECT * FROM inventory_operations WHERE order_id = #{orderId} AND deleted = 0 ORDER BY operation_time DESC")
     List<InventoryOperation> findByOrderId(@Param("orderId") Long orderId);
+
+    /**
+     * 查询已存在的操作单号
+     */
+    @Select("<script>" +
+            "SELECT operation_no FROM inventory_operations WHERE operation_no IN " +
+            "<foreach collection='operationNos' item='operationNo' open='(' separator=',' close=')'>#{operationNo}</foreach>" +
+            "</script>")
+    List<String> findExistingOperationNos(@Param("operationNos") List<String> operationNos);
+
+    /**
+     * 批量插入操作记录
+     */
+    @Insert("<script>" +
+            "INSERT INTO inventory_operations (operation_no, operation_type, product_id, warehouse_id, quantity, " +
+            "before_available_qty, before_reserved_qty, before_damaged_qty, after_available_qty, after_reserved_qty, " +
+            "after_damaged_qty, order_id, reason, operator_id, operation_time, created_at, updated_at, " +
+            "created_by, updated_by, deleted) " +
+            "VALUES " +
+            "<foreach collection='operations' item='op' separator=','>" +
+            "(#{op.operationNo}, #{op.operationType}, #{op.productId}, #{op.warehouseId}, #{op.quantity}, " +
+            "#{op.beforeAvailableQuantity}, #{op.beforeReservedQuantity}, IFNULL(#{op.beforeDamagedQuantity}, 0), " +
+            "#{op.afterAvailableQuantity}, #{op.afterReservedQuantity}, IFNULL(#{op.afterDamagedQuantity}, 0), " +
+            "#{op.orderId}, #{op.reason}, IFNULL(#{op.operatorId}, 0), #{op.operationTime}, NOW(), NOW(), " +
+            "#{op.createdBy}, #{op.updatedBy}, 0)" +
+            "</foreach>" +
+            "</script>")
+    int batchInsert(@Param("operations") List<InventoryOperation> operations);
 }
@@ -2,10 +2,14 @@ package com.yibang.erp.infrastructure.repository;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.yibang.erp.domain.entity.MessageProcessingLog;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
 /**
  * 消息处理日志Repository
  */
@@ -30,4 +34,33 @@ public interface MessageProcessingLogRepository extends BaseMapper<MessageProces
      */
     @Select("SELECT * FROM message_processing_log WHERE idempotency_key = #{idempotencyKey} AND deleted = 0")
     MessageProcessingLog selectByIdempotencyKey(@Param("idempotencyKey") String idempotencyKey);
+
+    /**
+     * 按ID分页查询指定时间之后的处理记录，只取幂等检查用到的字段
+     */
+    @Select("SELECT id, message_id, idempotency_key, created_at FROM message_processing_log " +
+            "WHERE created_at >= #{since} AND id > #{afterId} AND deleted = 0 ORDER BY id LIMIT #{limit}")
+    List<MessageProcessingLog> selectKeysCreatedSince(@Param("since") LocalDateTime since,
+                                                      @Param("afterId") long afterId,
+                                                      @Param("limit") int limit);
+
+    /**
+     * 批量写入处理记录，消息ID已存在时更新状态（多行INSERT ... ON DUPLICATE KEY UPDATE）
+     */
+    @Insert("<script>" +
+            "INSERT INTO message_processing_log (message_id, source_order_id, sales_order_id, idempotency_key, " +
+            "bus_type, status, result_message, error_message, total_message, created_at, updated_at, processed_at) " +
+            "VALUES " +
+            "<foreach collection='logs' item='log' separator=','>" +
+            "(#{log.messageId}, #{log.sourceOrderId}, #{log.salesOrderId}, #{log.idempotencyKey}, " +
+            "#{log.busType}, #{log.status}, #{log.resultMessage}, #{log.errorMessage}, #{log.totalMessage}, " +
+            "IFNULL(#{log.createdAt}, NOW()), IFNULL(#{log.updatedAt}, NOW()), #{log.processedAt})" +
+            "</foreach> " +
+            "ON DUPLICATE KEY UPDATE status = VALUES(status), result_message = VALUES(result_message), " +
+            "error_message = IFNULL(VALUES(error_message), error_message), " +
+            "total_message = IFNULL(VALUES(total_message), total_message), " +
+            "idempotency_key = IFNULL(VALUES(idempotency_key), idempotency_key), " +
+            "updated_at = VALUES(updated_at), processed_at = IFNULL(VALUES(processed_at), processed_at)" +
+            "</script>")
+    int batchUpsert(@Param("logs") List<MessageProcessingLog> logs);
 }
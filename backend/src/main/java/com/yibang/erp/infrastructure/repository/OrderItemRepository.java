@@ -39,13 +39,16 @@ public interface OrderItemRepository extends BaseMapper<OrderItem> {
     @Insert("<script>" +
             "INSERT INTO order_items (order_id, product_id, sku, product_name, product_specifications, " +
             "unit_price, quantity, unit, discount_rate, discount_amount, tax_rate, tax_amount, subtotal, " +
-            "ai_mapped_product_id, ai_confidence, ai_processing_status, ai_processing_result, created_at, updated_at) " +
+            "ai_mapped_product_id, ai_confidence, sales_note, buyer_note, ai_processing_status, ai_processing_result, " +
+            "created_at, updated_at) " +
             "VALUES " +
             "<foreach collection='items' item='item' separator=','>" +
             "(#{item.orderId}, #{item.productId}, #{item.sku}, #{item.productName}, #{item.productSpecifications}, " +
-            "#{item.unitPrice}, #{item.quantity}, #{item.unit}, #{item.discountRate}, #{item.discountAmount}, " +
-            "#{item.taxRate}, #{item.taxAmount}, #{item.subtotal}, #{item.aiMappedProductId}, #{item.aiConfidence}, " +
-            "#{item.aiProcessingStatus}, #{item.aiProcessingResult}, #{item.createdAt}, #{item.updatedAt})" +
+            "#{item.unitPrice}, #{item.quantity}, #{item.unit}, IFNULL(#{item.discountRate}, 1), " +
+            "IFNULL(#{item.discountAmount}, 0), IFNULL(#{item.taxRate}, 0), IFNULL(#{item.taxAmount}, 0), " +
+            "#{item.subtotal}, #{item.aiMappedProductId}, #{item.aiConfidence}, #{item.salesNote}, #{item.buyerNote}, " +
+            "IFNULL(#{item.aiProcessingStatus}, 'PENDING'), #{item.aiProcessingResult}, " +
+            "IFNULL(#{item.createdAt}, NOW()), IFNULL(#{item.updatedAt}, NOW()))" +
             "</foreach>" +
             "</script>")
     int batchInsert(@Param("items") List<OrderItem> items);
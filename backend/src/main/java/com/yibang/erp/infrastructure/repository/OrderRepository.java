@@ -77,4 +77,33 @@ public interface OrderRepository extends BaseMapper<Order> {
      */
     @Select("SELECT CONCAT('ORD', DATE_FORMAT(NOW(), '%Y%m%d'), LPAD(COALESCE(MAX(SUBSTRING(platform_order_id, -4)), 0) + 1, 4, '0')) FROM orders WHERE platform_order_id LIKE CONCAT('ORD', DATE_FORMAT(NOW(), '%Y%m%d'), '%')")
     String generatePlatformOrderNo();
+
+    /**
+     * 批量插入订单（多行INSERT），回填自增ID
+     * 未设置的非空字段按表默认值写入
+     */
+    @Insert("<script>" +
+            "INSERT INTO orders (platform_order_id, customer_id, sales_id, supplier_company_id, order_type, order_source, " +
+            "order_status, approval_status, total_amount, discount_amount, tax_amount, shipping_amount, final_amount, " +
+            "currency, payment_status, payment_method, payment_at, logistics_order_number, logistics_company, " +
+            "delivery_address, delivery_contact, delivery_phone, expected_delivery_date, special_requirements, " +
+            "ai_confidence, ai_processed, source_order_id, province_name, city_name, district_name, " +
+            "sales_note, buyer_note, created_at, updated_at, created_by, updated_by) " +
+            "VALUES " +
+            "<foreach collection='orders' item='order' separator=','>" +
+            "(#{order.platformOrderId}, #{order.customerId}, #{order.salesId}, #{order.supplierCompanyId}, " +
+            "IFNULL(#{order.orderType}, 'NORMAL'), IFNULL(#{order.orderSource}, 'MANUAL'), " +
+            "IFNULL(#{order.orderStatus}, 'DRAFT'), IFNULL(#{order.approvalStatus}, 'PENDING'), " +
+            "IFNULL(#{order.totalAmount}, 0), IFNULL(#{order.discountAmount}, 0), IFNULL(#{order.taxAmount}, 0), " +
+            "IFNULL(#{order.shippingAmount}, 0), IFNULL(#{order.finalAmount}, 0), IFNULL(#{order.currency}, 'CNY'), " +
+            "IFNULL(#{order.paymentStatus}, 'UNPAID'), #{order.paymentMethod}, #{order.paymentAt}, " +
+            "#{order.logisticsOrderNumber}, #{order.logisticsCompany}, #{order.deliveryAddress}, #{order.deliveryContact}, " +
+            "#{order.deliveryPhone}, #{order.expectedDeliveryDate}, #{order.specialRequirements}, #{order.aiConfidence}, " +
+            "IFNULL(#{order.aiProcessed}, 0), #{order.sourceOrderId}, #{order.provinceName}, #{order.cityName}, " +
+            "#{order.districtName}, #{order.salesNote}, #{order.buyerNote}, IFNULL(#{order.createdAt}, NOW()), " +
+            "IFNULL(#{order.updatedAt}, NOW()), #{order.createdBy}, #{order.updatedBy})" +
+            "</foreach>" +
+            "</script>")
+    @Options(useGeneratedKeys = true, keyProperty = "orders.id", keyColumn = "id")
+    int batchInsert(@Param("orders") List<Order> orders);
 }
@@ -3,8 +3,10 @@ package com.yibang.erp.infrastructure.repository;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.yibang.erp.domain.entity.ProductInventory;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 import java.util.List;
 import java.util.Map;
@@ -56,4 +58,59 @@ public interface ProductInventoryRepository extends BaseMapper<ProductInventory>
      */
     @Select("SELECT * FROM product_inventory WHERE available_quantity <= reorder_point")
     List<ProductInventory> findProductsNeedingReorder();
+
+    /**
+     * 可用库存充足时扣减，返回影响行数，0表示库存不足或没有库存记录
+     */
+    @Update("UPDATE product_inventory SET available_quantity = available_quantity - #{quantity}, " +
+            "last_stock_out = NOW(), updated_at = NOW() " +
+            "WHERE product_id = #{productId} AND warehouse_id = #{warehouseId} AND available_quantity >= #{quantity}")
+    int decreaseAvailable(@Param("productId") Long productId, @Param("warehouseId") Long warehouseId,
+                          @Param("quantity") int quantity);
+
+    /**
+     * 增加可用库存，没有库存记录时创建
+     */
+    @Insert("INSERT INTO product_inventory (product_id, warehouse_id, available_quantity, reserved_quantity, damaged_quantity, " +
+            "last_stock_in, created_at, updated_at) " +
+            "VALUES (#{productId}, #{warehouseId}, #{quantity}, 0, 0, NOW(), NOW(), NOW()) " +
+            "ON DUPLICATE KEY UPDATE available_quantity = IFNULL(available_quantity, 0) + VALUES(available_quantity), " +
+            "last_stock_in = NOW(), updated_at = NOW()")
+    int increaseAvailable(@Param("productId") Long productId, @Param("warehouseId") Long warehouseId,
+                          @Param("quantity") int quantity);
+
+    /**
+     * 退回已扣减的可用库存，不更新入库时间
+     */
+    @Update("UPDATE product_inventory SET available_quantity = available_quantity + #{quantity}, updated_at = NOW() " +
+            "WHERE product_id = #{productId} AND warehouse_id = #{warehouseId}")
+    int restoreAvailable(@Param("productId") Long productId, @Param("warehouseId") Long warehouseId,
+                         @Param("quantity") int quantity);
+
+    /**
+     * 可用库存仍为expectedQuantity时改为newQuantity，返回影响行数，0表示已被其它操作修改
+     */
+    @Update("UPDATE product_inventory SET available_quantity = #{newQuantity}, updated_at = NOW() " +
+            "WHERE product_id = #{productId} AND warehouse_id = #{warehouseId} " +
+            "AND IFNULL(available_quantity, 0) = #{expectedQuantity}")
+    int compareAndSetAvailable(@Param("productId") Long productId, @Param("warehouseId") Long warehouseId,
+                               @Param("expectedQuantity") int expectedQuantity, @Param("newQuantity") int newQuantity);
+
+    /**
+     * 只更新预警线，不覆盖库存数量
+     */
+    @Update("UPDATE product_inventory SET min_stock_level = #{minStockLevel}, max_stock_level = #{maxStockLevel}, " +
+            "reorder_point = #{reorderPoint}, updated_at = NOW() WHERE id = #{id}")
+    int updateStockLevels(@Param("id") Long id, @Param("minStockLevel") Integer minStockLevel,
+                          @Param("maxStockLevel") Integer maxStockLevel, @Param("reorderPoint") Integer reorderPoint);
+
+    /**
+     * 按变更量修改可用库存和预留库存，用于库存预留层异步写入
+     */
+    @Update("UPDATE product_inventory SET available_quantity = available_quantity + #{availableDelta}, " +
+            "reserved_quantity = reserved_quantity + #{reservedDelta}, " +
+            "last_stock_out = IF(#{availableDelta} + #{reservedDelta} < 0, NOW(), last_stock_out), updated_at = NOW() " +
+            "WHERE product_id = #{productId} AND warehouse_id = #{warehouseId}")
+    int applyDelta(@Param("productId") Long productId, @Param("warehouseId") Long warehouseId,
+                   @Param("availableDelta") int availableDelta, @Param("reservedDelta") int reservedDelta);
 }
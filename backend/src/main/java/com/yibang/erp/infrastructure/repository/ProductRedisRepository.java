@@ -1,13 +1,18 @@
 package com.yibang.erp.infrastructure.repository;
 
 import com.yibang.erp.domain.entity.Product;
+import com.yibang.erp.infrastructure.cache.NearCache;
+import com.yibang.erp.infrastructure.cache.RedisCacheLoader;
+import com.yibang.erp.infrastructure.cache.RedisCacheTags;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Repository;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * 商品Redis缓存Repository
@@ -26,6 +31,15 @@ public class ProductRedisRepository {
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private NearCache nearCache;
+
+    @Autowired
+    private RedisCacheTags redisCacheTags;
+
+    @Autowired
+    private RedisCacheLoader redisCacheLoader;
+
     // Redis键前缀
     private static final String PRODUCT_KEY_PREFIX = "product:";
     private static final String PRODUCT_BY_SKU_KEY_PREFIX = "product:sku:";
@@ -36,7 +50,10 @@ public class ProductRedisRepository {
     private static final String PRODUCT_BY_STATUS_KEY_PREFIX = "product:status:";
     private static final String PRODUCT_BY_APPROVAL_STATUS_KEY_PREFIX = "product:approval:";
     
-    // 缓存过期时间：10分钟（商品信息相对稳定）
+    // 缓存标签，记录本实体写入的全部缓存key
+    private static final String PRODUCT_CACHE_TAG = "product";
+
+    // 缓存过期时间：10分钟（商品信息相对稳定），写入时加随机偏移
     private static final Duration CACHE_EXPIRE_TIME = Duration.ofMinutes(10);
 
     /**
@@ -50,23 +67,14 @@ public class ProductRedisRepository {
         String cacheKey = PRODUCT_KEY_PREFIX + id;
         
         try {
-            // 先从缓存获取
-            Product cachedProduct = (Product) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedProduct != null) {
-                log.debug("从缓存获取商品: id={}", id);
-                return cachedProduct;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: id={}", id);
-            Product product = productRepository.selectById(id);
-            
+            // 先从本地缓存获取，再从Redis获取，都未命中时由一个线程查询数据库
+            Product product = nearCache.get(cacheKey);
             if (product != null) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, product, CACHE_EXPIRE_TIME);
-                log.debug("商品数据已缓存: id={}", id);
+                return product;
             }
-            
+            product = redisCacheLoader.get(cacheKey, PRODUCT_CACHE_TAG, CACHE_EXPIRE_TIME,
+                    () -> productRepository.selectById(id));
+            nearCache.put(cacheKey, product);
             return product;
             
         } catch (Exception e) {
@@ -77,7 +85,7 @@ public class ProductRedisRepository {
     }
 
     /**
-     * 根据SKU查询商品（带缓存）
+     * 根据SKU查询商品（带缓存，查询不到的SKU也短暂缓存）
      */
     public Product findBySku(String sku) {
         if (sku == null || sku.trim().isEmpty()) {
@@ -87,44 +95,30 @@ public class ProductRedisRepository {
         String cacheKey = PRODUCT_BY_SKU_KEY_PREFIX + sku;
         
         try {
-            // 先从缓存获取
-            Product cachedProduct = (Product) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedProduct != null) {
-                log.debug("从缓存获取商品: sku={}", sku);
-                return cachedProduct;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: sku={}", sku);
-            Product product = productRepository.selectOne(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
-                    .eq(Product::getSku, sku)
-                    .eq(Product::getDeleted, false)
-            );
-            
+            // 先从本地缓存获取，再从Redis获取，都未命中时由一个线程查询数据库
+            Product product = nearCache.get(cacheKey);
             if (product != null) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, product, CACHE_EXPIRE_TIME);
-                // 同时缓存商品ID映射
-                redisTemplate.opsForValue().set(PRODUCT_KEY_PREFIX + product.getId(), product, CACHE_EXPIRE_TIME);
-                log.debug("商品数据已缓存: sku={}, id={}", sku, product.getId());
+                return product;
             }
-            
+            product = redisCacheLoader.getOrAbsent(cacheKey, PRODUCT_CACHE_TAG, CACHE_EXPIRE_TIME, () -> {
+                log.debug("缓存未命中，查询数据库: sku={}", sku);
+                Product loaded = selectBySkuFromDb(sku);
+                // 同时缓存商品ID映射
+                cacheById(loaded);
+                return loaded;
+            });
+            nearCache.put(cacheKey, product);
             return product;
             
         } catch (Exception e) {
             log.error("查询商品失败: sku={}", sku, e);
             // 缓存异常时直接查询数据库
-            return productRepository.selectOne(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
-                    .eq(Product::getSku, sku)
-                    .eq(Product::getDeleted, false)
-            );
+            return selectBySkuFromDb(sku);
         }
     }
 
     /**
-     * 根据商品名称查询商品（带缓存）
+     * 根据商品名称查询商品（带缓存，查询不到的名称也短暂缓存）
      */
     public Product findByName(String name) {
         if (name == null || name.trim().isEmpty()) {
@@ -134,198 +128,122 @@ public class ProductRedisRepository {
         String cacheKey = PRODUCT_BY_NAME_KEY_PREFIX + name;
         
         try {
-            // 先从缓存获取
-            Product cachedProduct = (Product) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedProduct != null) {
-                log.debug("从缓存获取商品: name={}", name);
-                return cachedProduct;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: name={}", name);
-            Product product = productRepository.selectOne(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
-                    .eq(Product::getName, name)
-                    .eq(Product::getDeleted, false)
-            );
-            
+            // 先从本地缓存获取，再从Redis获取，都未命中时由一个线程查询数据库
+            Product product = nearCache.get(cacheKey);
             if (product != null) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, product, CACHE_EXPIRE_TIME);
-                // 同时缓存商品ID映射
-                redisTemplate.opsForValue().set(PRODUCT_KEY_PREFIX + product.getId(), product, CACHE_EXPIRE_TIME);
-                log.debug("商品数据已缓存: name={}, id={}", name, product.getId());
+                return product;
             }
-            
+            product = redisCacheLoader.getOrAbsent(cacheKey, PRODUCT_CACHE_TAG, CACHE_EXPIRE_TIME, () -> {
+                log.debug("缓存未命中，查询数据库: name={}", name);
+                Product loaded = selectByNameFromDb(name);
+                // 同时缓存商品ID映射
+                cacheById(loaded);
+                return loaded;
+            });
+            nearCache.put(cacheKey, product);
             return product;
             
         } catch (Exception e) {
             log.error("查询商品失败: name={}", name, e);
             // 缓存异常时直接查询数据库
-            return productRepository.selectOne(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
-                    .eq(Product::getName, name)
-                    .eq(Product::getDeleted, false)
-            );
+            return selectByNameFromDb(name);
         }
     }
 
     /**
      * 根据分类ID查询商品列表（带缓存）
      */
-    @SuppressWarnings("unchecked")
     public List<Product> findByCategoryId(Long categoryId) {
         if (categoryId == null) {
             return List.of();
         }
-        
-        String cacheKey = PRODUCT_BY_CATEGORY_KEY_PREFIX + categoryId;
-        
-        try {
-            // 先从缓存获取
-            List<Product> cachedProducts = (List<Product>) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedProducts != null) {
-                log.debug("从缓存获取商品列表: categoryId={}, count={}", categoryId, cachedProducts.size());
-                return cachedProducts;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: categoryId={}", categoryId);
-            List<Product> products = productRepository.selectList(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
-                    .eq(Product::getCategoryId, categoryId)
-                    .eq(Product::getDeleted, false)
-                    .orderByDesc(Product::getCreatedAt)
-            );
-            
-            if (products != null && !products.isEmpty()) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, products, CACHE_EXPIRE_TIME);
-                // 同时缓存每个商品的详细信息
-                for (Product product : products) {
-                    redisTemplate.opsForValue().set(PRODUCT_KEY_PREFIX + product.getId(), product, CACHE_EXPIRE_TIME);
-                }
-                log.debug("商品列表数据已缓存: categoryId={}, count={}", categoryId, products.size());
-            }
-            
-            return products != null ? products : List.of();
-            
-        } catch (Exception e) {
-            log.error("查询商品列表失败: categoryId={}", categoryId, e);
-            // 缓存异常时直接查询数据库
-            return productRepository.selectList(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
-                    .eq(Product::getCategoryId, categoryId)
-                    .eq(Product::getDeleted, false)
-                    .orderByDesc(Product::getCreatedAt)
-            );
-        }
+        return findList(PRODUCT_BY_CATEGORY_KEY_PREFIX + categoryId,
+                () -> productRepository.selectList(
+                    new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
+                        .eq(Product::getCategoryId, categoryId)
+                        .eq(Product::getDeleted, false)
+                        .orderByDesc(Product::getCreatedAt)
+                ));
     }
 
     /**
      * 根据品牌ID查询商品列表（带缓存）
      */
-    @SuppressWarnings("unchecked")
     public List<Product> findByBrandId(Long brandId) {
         if (brandId == null) {
             return List.of();
         }
-        
-        String cacheKey = PRODUCT_BY_BRAND_KEY_PREFIX + brandId;
-        
-        try {
-            // 先从缓存获取
-            List<Product> cachedProducts = (List<Product>) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedProducts != null) {
-                log.debug("从缓存获取商品列表: brandId={}, count={}", brandId, cachedProducts.size());
-                return cachedProducts;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: brandId={}", brandId);
-            List<Product> products = productRepository.selectList(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
-                    .eq(Product::getBrandId, brandId)
-                    .eq(Product::getDeleted, false)
-                    .orderByDesc(Product::getCreatedAt)
-            );
-            
-            if (products != null && !products.isEmpty()) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, products, CACHE_EXPIRE_TIME);
-                // 同时缓存每个商品的详细信息
-                for (Product product : products) {
-                    redisTemplate.opsForValue().set(PRODUCT_KEY_PREFIX + product.getId(), product, CACHE_EXPIRE_TIME);
-                }
-                log.debug("商品列表数据已缓存: brandId={}, count={}", brandId, products.size());
-            }
-            
-            return products != null ? products : List.of();
-            
-        } catch (Exception e) {
-            log.error("查询商品列表失败: brandId={}", brandId, e);
-            // 缓存异常时直接查询数据库
-            return productRepository.selectList(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
-                    .eq(Product::getBrandId, brandId)
-                    .eq(Product::getDeleted, false)
-                    .orderByDesc(Product::getCreatedAt)
-            );
-        }
+        return findList(PRODUCT_BY_BRAND_KEY_PREFIX + brandId,
+                () -> productRepository.selectList(
+                    new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
+                        .eq(Product::getBrandId, brandId)
+                        .eq(Product::getDeleted, false)
+                        .orderByDesc(Product::getCreatedAt)
+                ));
     }
 
     /**
      * 根据公司ID查询商品列表（带缓存）
      */
-    @SuppressWarnings("unchecked")
     public List<Product> findByCompanyId(Long companyId) {
         if (companyId == null) {
             return List.of();
         }
-        
-        String cacheKey = PRODUCT_BY_COMPANY_KEY_PREFIX + companyId;
-        
+        return findList(PRODUCT_BY_COMPANY_KEY_PREFIX + companyId,
+                () -> productRepository.selectList(
+                    new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
+                        .eq(Product::getCompanyId, companyId)
+                        .eq(Product::getDeleted, false)
+                        .orderByDesc(Product::getCreatedAt)
+                ));
+    }
+
+    /**
+     * 查询商品列表（带缓存），数据库查询结果同时按ID缓存每个商品
+     */
+    private List<Product> findList(String cacheKey, Supplier<List<Product>> query) {
         try {
-            // 先从缓存获取
-            List<Product> cachedProducts = (List<Product>) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedProducts != null) {
-                log.debug("从缓存获取商品列表: companyId={}, count={}", companyId, cachedProducts.size());
-                return cachedProducts;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: companyId={}", companyId);
-            List<Product> products = productRepository.selectList(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
-                    .eq(Product::getCompanyId, companyId)
-                    .eq(Product::getDeleted, false)
-                    .orderByDesc(Product::getCreatedAt)
-            );
-            
-            if (products != null && !products.isEmpty()) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, products, CACHE_EXPIRE_TIME);
-                // 同时缓存每个商品的详细信息
-                for (Product product : products) {
-                    redisTemplate.opsForValue().set(PRODUCT_KEY_PREFIX + product.getId(), product, CACHE_EXPIRE_TIME);
+            List<Product> products = redisCacheLoader.get(cacheKey, PRODUCT_CACHE_TAG, CACHE_EXPIRE_TIME, () -> {
+                log.debug("缓存未命中，查询数据库: key={}", cacheKey);
+                List<Product> loaded = query.get();
+                if (loaded != null) {
+                    for (Product product : loaded) {
+                        cacheById(product);
+                    }
                 }
-                log.debug("商品列表数据已缓存: companyId={}, count={}", companyId, products.size());
-            }
-            
+                return loaded;
+            });
             return products != null ? products : List.of();
             
         } catch (Exception e) {
-            log.error("查询商品列表失败: companyId={}", companyId, e);
+            log.error("查询商品列表失败: key={}", cacheKey, e);
             // 缓存异常时直接查询数据库
-            return productRepository.selectList(
-                new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
-                    .eq(Product::getCompanyId, companyId)
-                    .eq(Product::getDeleted, false)
-                    .orderByDesc(Product::getCreatedAt)
-            );
+            return query.get();
+        }
+    }
+
+    private void cacheById(Product product) {
+        if (product != null) {
+            redisCacheLoader.put(PRODUCT_KEY_PREFIX + product.getId(), PRODUCT_CACHE_TAG, CACHE_EXPIRE_TIME, product);
         }
     }
 
+    private Product selectBySkuFromDb(String sku) {
+        return productRepository.selectOne(
+            new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
+                .eq(Product::getSku, sku)
+                .eq(Product::getDeleted, false)
+        );
+    }
+
+    private Product selectByNameFromDb(String name) {
+        return productRepository.selectOne(
+            new com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper<Product>()
+                .eq(Product::getName, name)
+                .eq(Product::getDeleted, false)
+        );
+    }
+
     /**
      * 插入商品（同时更新缓存）
      */
@@ -393,31 +311,35 @@ public class ProductRedisRepository {
                 return;
             }
             
-            // 清除各种键的缓存
-            redisTemplate.delete(PRODUCT_KEY_PREFIX + product.getId());
+            // 清除各种键的缓存，本地缓存一并清除并通知其它节点
+            List<Object> keys = new ArrayList<>();
+            keys.add(PRODUCT_KEY_PREFIX + product.getId());
             
             if (product.getSku() != null) {
-                redisTemplate.delete(PRODUCT_BY_SKU_KEY_PREFIX + product.getSku());
+                keys.add(PRODUCT_BY_SKU_KEY_PREFIX + product.getSku());
             }
             if (product.getName() != null) {
-                redisTemplate.delete(PRODUCT_BY_NAME_KEY_PREFIX + product.getName());
+                keys.add(PRODUCT_BY_NAME_KEY_PREFIX + product.getName());
             }
             if (product.getCategoryId() != null) {
-                redisTemplate.delete(PRODUCT_BY_CATEGORY_KEY_PREFIX + product.getCategoryId());
+                keys.add(PRODUCT_BY_CATEGORY_KEY_PREFIX + product.getCategoryId());
             }
             if (product.getBrandId() != null) {
-                redisTemplate.delete(PRODUCT_BY_BRAND_KEY_PREFIX + product.getBrandId());
+                keys.add(PRODUCT_BY_BRAND_KEY_PREFIX + product.getBrandId());
             }
             if (product.getCompanyId() != null) {
-                redisTemplate.delete(PRODUCT_BY_COMPANY_KEY_PREFIX + product.getCompanyId());
+                keys.add(PRODUCT_BY_COMPANY_KEY_PREFIX + product.getCompanyId());
             }
             if (product.getStatus() != null) {
-                redisTemplate.delete(PRODUCT_BY_STATUS_KEY_PREFIX + product.getStatus());
+                keys.add(PRODUCT_BY_STATUS_KEY_PREFIX + product.getStatus());
             }
             if (product.getApprovalStatus() != null) {
-                redisTemplate.delete(PRODUCT_BY_APPROVAL_STATUS_KEY_PREFIX + product.getApprovalStatus());
+                keys.add(PRODUCT_BY_APPROVAL_STATUS_KEY_PREFIX + product.getApprovalStatus());
             }
             
+            redisTemplate.delete(keys);
+            nearCache.evict(keys);
+
             log.debug("商品缓存已清除: id={}", product.getId());
             
         } catch (Exception e) {
@@ -435,8 +357,8 @@ public class ProductRedisRepository {
                 // 清除旧缓存
                 clearProductCache(product);
                 // 重新缓存
-                String cacheKey = PRODUCT_KEY_PREFIX + product.getId();
-                redisTemplate.opsForValue().set(cacheKey, product, CACHE_EXPIRE_TIME);
+                cacheById(product);
+                nearCache.put(PRODUCT_KEY_PREFIX + product.getId(), product);
                 log.info("商品缓存已刷新: id={}", productId);
             }
         } catch (Exception e) {
@@ -449,32 +371,11 @@ public class ProductRedisRepository {
      */
     public void clearAllProductCache() {
         try {
-            // 获取所有商品相关的键
-            String pattern = PRODUCT_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = PRODUCT_BY_SKU_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = PRODUCT_BY_NAME_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = PRODUCT_BY_CATEGORY_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = PRODUCT_BY_BRAND_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = PRODUCT_BY_COMPANY_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = PRODUCT_BY_STATUS_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = PRODUCT_BY_APPROVAL_STATUS_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            log.info("所有商品缓存已清除");
+            // 按标签集合分批删除，没有标签集合时用SCAN分批删除，不再使用阻塞Redis的KEYS
+            long deleted = redisCacheTags.invalidateTag(PRODUCT_CACHE_TAG, PRODUCT_KEY_PREFIX + "*");
+            nearCache.evictByPrefix(PRODUCT_KEY_PREFIX);
+
+            log.info("所有商品缓存已清除: {} 个键", deleted);
         } catch (Exception e) {
             log.error("清除所有商品缓存失败", e);
         }
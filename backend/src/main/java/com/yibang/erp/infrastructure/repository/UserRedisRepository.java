@@ -1,13 +1,18 @@
 package com.yibang.erp.infrastructure.repository;
 
 import com.yibang.erp.domain.entity.User;
+import com.yibang.erp.infrastructure.cache.NearCache;
+import com.yibang.erp.infrastructure.cache.RedisCacheLoader;
+import com.yibang.erp.infrastructure.cache.RedisCacheTags;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Repository;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * 用户Redis缓存Repository
@@ -26,6 +31,15 @@ public class UserRedisRepository {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private NearCache nearCache;
+
+    @Autowired
+    private RedisCacheTags redisCacheTags;
+
+    @Autowired
+    private RedisCacheLoader redisCacheLoader;
+
     // Redis键前缀
     private static final String USER_KEY_PREFIX = "user:";
     private static final String USER_BY_USERNAME_KEY_PREFIX = "user:username:";
@@ -34,7 +48,10 @@ public class UserRedisRepository {
     private static final String USER_BY_COMPANY_KEY_PREFIX = "user:company:";
     private static final String USER_BY_ROLE_KEY_PREFIX = "user:role:";
     
-    // 缓存过期时间：5分钟
+    // 缓存标签，记录本实体写入的全部缓存key
+    private static final String USER_CACHE_TAG = "user";
+
+    // 缓存过期时间：5分钟，写入时加随机偏移
     private static final Duration CACHE_EXPIRE_TIME = Duration.ofMinutes(5);
 
     /**
@@ -48,23 +65,14 @@ public class UserRedisRepository {
         String cacheKey = USER_KEY_PREFIX + id;
         
         try {
-            // 先从缓存获取
-            User cachedUser = (User) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedUser != null) {
-                log.debug("从缓存获取用户: id={}", id);
-                return cachedUser;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: id={}", id);
-            User user = userRepository.selectById(id);
-            
+            // 先从本地缓存获取，再从Redis获取，都未命中时由一个线程查询数据库
+            User user = nearCache.get(cacheKey);
             if (user != null) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, user, CACHE_EXPIRE_TIME);
-                log.debug("用户数据已缓存: id={}", id);
+                return user;
             }
-            
+            user = redisCacheLoader.get(cacheKey, USER_CACHE_TAG, CACHE_EXPIRE_TIME,
+                    () -> userRepository.selectById(id));
+            nearCache.put(cacheKey, user);
             return user;
             
         } catch (Exception e) {
@@ -81,36 +89,7 @@ public class UserRedisRepository {
         if (username == null || username.trim().isEmpty()) {
             return null;
         }
-        
-        String cacheKey = USER_BY_USERNAME_KEY_PREFIX + username;
-        
-        try {
-            // 先从缓存获取
-            User cachedUser = (User) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedUser != null) {
-                log.debug("从缓存获取用户: username={}", username);
-                return cachedUser;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: username={}", username);
-            User user = userRepository.findByUsername(username);
-            
-            if (user != null) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, user, CACHE_EXPIRE_TIME);
-                // 同时缓存用户ID映射
-                redisTemplate.opsForValue().set(USER_KEY_PREFIX + user.getId(), user, CACHE_EXPIRE_TIME);
-                log.debug("用户数据已缓存: username={}, id={}", username, user.getId());
-            }
-            
-            return user;
-            
-        } catch (Exception e) {
-            log.error("查询用户失败: username={}", username, e);
-            // 缓存异常时直接查询数据库
-            return userRepository.findByUsername(username);
-        }
+        return findOne(USER_BY_USERNAME_KEY_PREFIX + username, () -> userRepository.findByUsername(username));
     }
 
     /**
@@ -120,36 +99,7 @@ public class UserRedisRepository {
         if (email == null || email.trim().isEmpty()) {
             return null;
         }
-        
-        String cacheKey = USER_BY_EMAIL_KEY_PREFIX + email;
-        
-        try {
-            // 先从缓存获取
-            User cachedUser = (User) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedUser != null) {
-                log.debug("从缓存获取用户: email={}", email);
-                return cachedUser;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: email={}", email);
-            User user = userRepository.findByEmail(email);
-            
-            if (user != null) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, user, CACHE_EXPIRE_TIME);
-                // 同时缓存用户ID映射
-                redisTemplate.opsForValue().set(USER_KEY_PREFIX + user.getId(), user, CACHE_EXPIRE_TIME);
-                log.debug("用户数据已缓存: email={}, id={}", email, user.getId());
-            }
-            
-            return user;
-            
-        } catch (Exception e) {
-            log.error("查询用户失败: email={}", email, e);
-            // 缓存异常时直接查询数据库
-            return userRepository.findByEmail(email);
-        }
+        return findOne(USER_BY_EMAIL_KEY_PREFIX + email, () -> userRepository.findByEmail(email));
     }
 
     /**
@@ -159,119 +109,83 @@ public class UserRedisRepository {
         if (phone == null || phone.trim().isEmpty()) {
             return null;
         }
-        
-        String cacheKey = USER_BY_PHONE_KEY_PREFIX + phone;
-        
-        try {
-            // 先从缓存获取
-            User cachedUser = (User) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedUser != null) {
-                log.debug("从缓存获取用户: phone={}", phone);
-                return cachedUser;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: phone={}", phone);
-            User user = userRepository.findByPhone(phone);
-            
-            if (user != null) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, user, CACHE_EXPIRE_TIME);
-                // 同时缓存用户ID映射
-                redisTemplate.opsForValue().set(USER_KEY_PREFIX + user.getId(), user, CACHE_EXPIRE_TIME);
-                log.debug("用户数据已缓存: phone={}, id={}", phone, user.getId());
-            }
-            
-            return user;
-            
-        } catch (Exception e) {
-            log.error("查询用户失败: phone={}", phone, e);
-            // 缓存异常时直接查询数据库
-            return userRepository.findByPhone(phone);
-        }
+        return findOne(USER_BY_PHONE_KEY_PREFIX + phone, () -> userRepository.findByPhone(phone));
     }
 
     /**
      * 根据公司ID查询用户列表（带缓存）
      */
-    @SuppressWarnings("unchecked")
     public List<User> findByCompanyId(Long companyId) {
         if (companyId == null) {
             return List.of();
         }
-        
-        String cacheKey = USER_BY_COMPANY_KEY_PREFIX + companyId;
-        
-        try {
-            // 先从缓存获取
-            List<User> cachedUsers = (List<User>) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedUsers != null) {
-                log.debug("从缓存获取用户列表: companyId={}, count={}", companyId, cachedUsers.size());
-                return cachedUsers;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: companyId={}", companyId);
-            List<User> users = userRepository.findByCompanyId(companyId);
-            
-            if (users != null && !users.isEmpty()) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, users, CACHE_EXPIRE_TIME);
-                // 同时缓存每个用户的详细信息
-                for (User user : users) {
-                    redisTemplate.opsForValue().set(USER_KEY_PREFIX + user.getId(), user, CACHE_EXPIRE_TIME);
-                }
-                log.debug("用户列表数据已缓存: companyId={}, count={}", companyId, users.size());
-            }
-            
-            return users != null ? users : List.of();
-            
-        } catch (Exception e) {
-            log.error("查询用户列表失败: companyId={}", companyId, e);
-            // 缓存异常时直接查询数据库
-            return userRepository.findByCompanyId(companyId);
-        }
+        return findList(USER_BY_COMPANY_KEY_PREFIX + companyId, () -> userRepository.findByCompanyId(companyId));
     }
 
     /**
      * 根据角色ID查询用户列表（带缓存）
      */
-    @SuppressWarnings("unchecked")
     public List<User> findByRoleId(Long roleId) {
         if (roleId == null) {
             return List.of();
         }
-        
-        String cacheKey = USER_BY_ROLE_KEY_PREFIX + roleId;
-        
+        return findList(USER_BY_ROLE_KEY_PREFIX + roleId, () -> userRepository.findByRoleId(roleId));
+    }
+
+    /**
+     * 按唯一条件查询用户（带缓存），数据库查询结果同时按ID缓存
+     */
+    private User findOne(String cacheKey, Supplier<User> query) {
         try {
-            // 先从缓存获取
-            List<User> cachedUsers = (List<User>) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedUsers != null) {
-                log.debug("从缓存获取用户列表: roleId={}, count={}", roleId, cachedUsers.size());
-                return cachedUsers;
+            // 先从本地缓存获取，再从Redis获取，都未命中时由一个线程查询数据库
+            User user = nearCache.get(cacheKey);
+            if (user != null) {
+                return user;
             }
+            user = redisCacheLoader.get(cacheKey, USER_CACHE_TAG, CACHE_EXPIRE_TIME, () -> {
+                log.debug("缓存未命中，查询数据库: key={}", cacheKey);
+                User loaded = query.get();
+                // 同时缓存用户ID映射
+                cacheById(loaded);
+                return loaded;
+            });
+            nearCache.put(cacheKey, user);
+            return user;
             
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: roleId={}", roleId);
-            List<User> users = userRepository.findByRoleId(roleId);
-            
-            if (users != null && !users.isEmpty()) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, users, CACHE_EXPIRE_TIME);
-                // 同时缓存每个用户的详细信息
-                for (User user : users) {
-                    redisTemplate.opsForValue().set(USER_KEY_PREFIX + user.getId(), user, CACHE_EXPIRE_TIME);
+        } catch (Exception e) {
+            log.error("查询用户失败: key={}", cacheKey, e);
+            // 缓存异常时直接查询数据库
+            return query.get();
+        }
+    }
+
+    /**
+     * 查询用户列表（带缓存），数据库查询结果同时按ID缓存每个用户
+     */
+    private List<User> findList(String cacheKey, Supplier<List<User>> query) {
+        try {
+            List<User> users = redisCacheLoader.get(cacheKey, USER_CACHE_TAG, CACHE_EXPIRE_TIME, () -> {
+                log.debug("缓存未命中，查询数据库: key={}", cacheKey);
+                List<User> loaded = query.get();
+                if (loaded != null) {
+                    for (User user : loaded) {
+                        cacheById(user);
+                    }
                 }
-                log.debug("用户列表数据已缓存: roleId={}, count={}", roleId, users.size());
-            }
-            
+                return loaded;
+            });
             return users != null ? users : List.of();
             
         } catch (Exception e) {
-            log.error("查询用户列表失败: roleId={}", roleId, e);
+            log.error("查询用户列表失败: key={}", cacheKey, e);
             // 缓存异常时直接查询数据库
-            return userRepository.findByRoleId(roleId);
+            return query.get();
+        }
+    }
+
+    private void cacheById(User user) {
+        if (user != null) {
+            redisCacheLoader.put(USER_KEY_PREFIX + user.getId(), USER_CACHE_TAG, CACHE_EXPIRE_TIME, user);
         }
     }
 
@@ -342,25 +256,29 @@ public class UserRedisRepository {
                 return;
             }
             
-            // 清除各种键的缓存
-            redisTemplate.delete(USER_KEY_PREFIX + user.getId());
+            // 清除各种键的缓存，本地缓存一并清除并通知其它节点
+            List<Object> keys = new ArrayList<>();
+            keys.add(USER_KEY_PREFIX + user.getId());
             
             if (user.getUsername() != null) {
-                redisTemplate.delete(USER_BY_USERNAME_KEY_PREFIX + user.getUsername());
+                keys.add(USER_BY_USERNAME_KEY_PREFIX + user.getUsername());
             }
             if (user.getEmail() != null) {
-                redisTemplate.delete(USER_BY_EMAIL_KEY_PREFIX + user.getEmail());
+                keys.add(USER_BY_EMAIL_KEY_PREFIX + user.getEmail());
             }
             if (user.getPhone() != null) {
-                redisTemplate.delete(USER_BY_PHONE_KEY_PREFIX + user.getPhone());
+                keys.add(USER_BY_PHONE_KEY_PREFIX + user.getPhone());
             }
             if (user.getCompanyId() != null) {
-                redisTemplate.delete(USER_BY_COMPANY_KEY_PREFIX + user.getCompanyId());
+                keys.add(USER_BY_COMPANY_KEY_PREFIX + user.getCompanyId());
             }
             if (user.getRoleId() != null) {
-                redisTemplate.delete(USER_BY_ROLE_KEY_PREFIX + user.getRoleId());
+                keys.add(USER_BY_ROLE_KEY_PREFIX + user.getRoleId());
             }
             
+            redisTemplate.delete(keys);
+            nearCache.evict(keys);
+
             log.debug("用户缓存已清除: id={}", user.getId());
             
         } catch (Exception e) {
@@ -378,8 +296,8 @@ public class UserRedisRepository {
                 // 清除旧缓存
                 clearUserCache(user);
                 // 重新缓存
-                String cacheKey = USER_KEY_PREFIX + user.getId();
-                redisTemplate.opsForValue().set(cacheKey, user, CACHE_EXPIRE_TIME);
+                cacheById(user);
+                nearCache.put(USER_KEY_PREFIX + user.getId(), user);
                 log.info("用户缓存已刷新: id={}", userId);
             }
         } catch (Exception e) {
@@ -392,26 +310,11 @@ public class UserRedisRepository {
      */
     public void clearAllUserCache() {
         try {
-            // 获取所有用户相关的键
-            String pattern = USER_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = USER_BY_USERNAME_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = USER_BY_EMAIL_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = USER_BY_PHONE_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = USER_BY_COMPANY_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = USER_BY_ROLE_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            log.info("所有用户缓存已清除");
+            // 按标签集合分批删除，没有标签集合时用SCAN分批删除，不再使用阻塞Redis的KEYS
+            long deleted = redisCacheTags.invalidateTag(USER_CACHE_TAG, USER_KEY_PREFIX + "*");
+            nearCache.evictByPrefix(USER_KEY_PREFIX);
+
+            log.info("所有用户缓存已清除: {} 个键", deleted);
         } catch (Exception e) {
             log.error("清除所有用户缓存失败", e);
         }
@@ -2,13 +2,18 @@ package com.yibang.erp.infrastructure.repository;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.yibang.erp.domain.entity.Warehouse;
+import com.yibang.erp.infrastructure.cache.NearCache;
+import com.yibang.erp.infrastructure.cache.RedisCacheLoader;
+import com.yibang.erp.infrastructure.cache.RedisCacheTags;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Repository;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * 仓库Redis缓存Repository
@@ -27,6 +32,15 @@ public class WarehouseRedisRepository {
     @Autowired
     private WarehouseRepository warehouseRepository;
 
+    @Autowired
+    private NearCache nearCache;
+
+    @Autowired
+    private RedisCacheTags redisCacheTags;
+
+    @Autowired
+    private RedisCacheLoader redisCacheLoader;
+
     // Redis键前缀
     private static final String WAREHOUSE_KEY_PREFIX = "warehouse:";
     private static final String WAREHOUSE_BY_CODE_KEY_PREFIX = "warehouse:code:";
@@ -34,7 +48,10 @@ public class WarehouseRedisRepository {
     private static final String WAREHOUSE_BY_STATUS_KEY_PREFIX = "warehouse:status:";
     private static final String WAREHOUSE_BY_CODE_COMPANY_KEY_PREFIX = "warehouse:code:company:";
     
-    // 缓存过期时间：5分钟
+    // 缓存标签，记录本实体写入的全部缓存key
+    private static final String WAREHOUSE_CACHE_TAG = "warehouse";
+
+    // 缓存过期时间：5分钟，写入时加随机偏移
     private static final Duration CACHE_EXPIRE_TIME = Duration.ofMinutes(5);
 
     /**
@@ -48,23 +65,14 @@ public class WarehouseRedisRepository {
         String cacheKey = WAREHOUSE_KEY_PREFIX + id;
         
         try {
-            // 先从缓存获取
-            Warehouse cachedWarehouse = (Warehouse) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedWarehouse != null) {
-                log.debug("从缓存获取仓库: id={}", id);
-                return cachedWarehouse;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: id={}", id);
-            Warehouse warehouse = warehouseRepository.selectById(id);
-            
+            // 先从本地缓存获取，再从Redis获取，都未命中时由一个线程查询数据库
+            Warehouse warehouse = nearCache.get(cacheKey);
             if (warehouse != null) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, warehouse, CACHE_EXPIRE_TIME);
-                log.debug("仓库数据已缓存: id={}", id);
+                return warehouse;
             }
-            
+            warehouse = redisCacheLoader.get(cacheKey, WAREHOUSE_CACHE_TAG, CACHE_EXPIRE_TIME,
+                    () -> warehouseRepository.selectById(id));
+            nearCache.put(cacheKey, warehouse);
             return warehouse;
             
         } catch (Exception e) {
@@ -90,141 +98,97 @@ public class WarehouseRedisRepository {
         String cacheKey = WAREHOUSE_BY_CODE_COMPANY_KEY_PREFIX + warehouseCode + ":" + companyId + ":" + status;
         
         try {
-            // 先从缓存获取
-            Warehouse cachedWarehouse = (Warehouse) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedWarehouse != null) {
-                log.debug("从缓存获取仓库: code={}, companyId={}, status={}", warehouseCode, companyId, status);
-                return cachedWarehouse;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: code={}, companyId={}, status={}", warehouseCode, companyId, status);
-            QueryWrapper<Warehouse> queryWrapper = new QueryWrapper<>();
-            queryWrapper.eq("warehouse_code", warehouseCode)
-                       .eq("status", status)
-                       .eq("deleted", 0)
-                       .eq("company_id", companyId);
-            Warehouse warehouse = warehouseRepository.selectOne(queryWrapper);
-            
+            // 先从本地缓存获取，再从Redis获取，都未命中时由一个线程查询数据库
+            Warehouse warehouse = nearCache.get(cacheKey);
             if (warehouse != null) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, warehouse, CACHE_EXPIRE_TIME);
-                // 同时缓存仓库ID映射
-                redisTemplate.opsForValue().set(WAREHOUSE_KEY_PREFIX + warehouse.getId(), warehouse, CACHE_EXPIRE_TIME);
-                log.debug("仓库数据已缓存: code={}, companyId={}, status={}, id={}", 
-                    warehouseCode, companyId, status, warehouse.getId());
+                return warehouse;
             }
-            
+            warehouse = redisCacheLoader.get(cacheKey, WAREHOUSE_CACHE_TAG, CACHE_EXPIRE_TIME, () -> {
+                log.debug("缓存未命中，查询数据库: code={}, companyId={}, status={}", warehouseCode, companyId, status);
+                Warehouse loaded = selectByCodeAndCompanyAndStatusFromDb(warehouseCode, companyId, status);
+                // 同时缓存仓库ID映射
+                cacheById(loaded);
+                return loaded;
+            });
+            nearCache.put(cacheKey, warehouse);
             return warehouse;
             
         } catch (Exception e) {
             log.error("查询仓库失败: code={}, companyId={}, status={}", warehouseCode, companyId, status, e);
             // 缓存异常时直接查询数据库
-            QueryWrapper<Warehouse> queryWrapper = new QueryWrapper<>();
-            queryWrapper.eq("warehouse_code", warehouseCode)
-                       .eq("status", status)
-                       .eq("deleted", 0)
-                       .eq("company_id", companyId);
-            return warehouseRepository.selectOne(queryWrapper);
+            return selectByCodeAndCompanyAndStatusFromDb(warehouseCode, companyId, status);
         }
     }
 
     /**
      * 根据公司ID查询仓库列表（带缓存）
      */
-    @SuppressWarnings("unchecked")
     public List<Warehouse> findByCompanyId(Long companyId) {
         if (companyId == null) {
             return List.of();
         }
-        
-        String cacheKey = WAREHOUSE_BY_COMPANY_KEY_PREFIX + companyId;
-        
-        try {
-            // 先从缓存获取
-            List<Warehouse> cachedWarehouses = (List<Warehouse>) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedWarehouses != null) {
-                log.debug("从缓存获取仓库列表: companyId={}, count={}", companyId, cachedWarehouses.size());
-                return cachedWarehouses;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: companyId={}", companyId);
-            QueryWrapper<Warehouse> queryWrapper = new QueryWrapper<>();
-            queryWrapper.eq("company_id", companyId)
-                       .eq("deleted", 0);
-            List<Warehouse> warehouses = warehouseRepository.selectList(queryWrapper);
-            
-            if (warehouses != null && !warehouses.isEmpty()) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, warehouses, CACHE_EXPIRE_TIME);
-                // 同时缓存每个仓库的详细信息
-                for (Warehouse warehouse : warehouses) {
-                    redisTemplate.opsForValue().set(WAREHOUSE_KEY_PREFIX + warehouse.getId(), warehouse, CACHE_EXPIRE_TIME);
-                }
-                log.debug("仓库列表数据已缓存: companyId={}, count={}", companyId, warehouses.size());
-            }
-            
-            return warehouses != null ? warehouses : List.of();
-            
-        } catch (Exception e) {
-            log.error("查询仓库列表失败: companyId={}", companyId, e);
-            // 缓存异常时直接查询数据库
+        return findList(WAREHOUSE_BY_COMPANY_KEY_PREFIX + companyId, () -> {
             QueryWrapper<Warehouse> queryWrapper = new QueryWrapper<>();
             queryWrapper.eq("company_id", companyId)
                        .eq("deleted", 0);
             return warehouseRepository.selectList(queryWrapper);
-        }
+        });
     }
 
     /**
      * 根据状态查询仓库列表（带缓存）
      */
-    @SuppressWarnings("unchecked")
     public List<Warehouse> findByStatus(String status) {
         if (status == null || status.trim().isEmpty()) {
             return List.of();
         }
-        
-        String cacheKey = WAREHOUSE_BY_STATUS_KEY_PREFIX + status;
-        
-        try {
-            // 先从缓存获取
-            List<Warehouse> cachedWarehouses = (List<Warehouse>) redisTemplate.opsForValue().get(cacheKey);
-            if (cachedWarehouses != null) {
-                log.debug("从缓存获取仓库列表: status={}, count={}", status, cachedWarehouses.size());
-                return cachedWarehouses;
-            }
-            
-            // 缓存未命中，查询数据库
-            log.debug("缓存未命中，查询数据库: status={}", status);
+        return findList(WAREHOUSE_BY_STATUS_KEY_PREFIX + status, () -> {
             QueryWrapper<Warehouse> queryWrapper = new QueryWrapper<>();
             queryWrapper.eq("status", status)
                        .eq("deleted", 0);
-            List<Warehouse> warehouses = warehouseRepository.selectList(queryWrapper);
-            
-            if (warehouses != null && !warehouses.isEmpty()) {
-                // 将结果存入缓存
-                redisTemplate.opsForValue().set(cacheKey, warehouses, CACHE_EXPIRE_TIME);
-                // 同时缓存每个仓库的详细信息
-                for (Warehouse warehouse : warehouses) {
-                    redisTemplate.opsForValue().set(WAREHOUSE_KEY_PREFIX + warehouse.getId(), warehouse, CACHE_EXPIRE_TIME);
+            return warehouseRepository.selectList(queryWrapper);
+        });
+    }
+
+    /**
+     * 查询仓库列表（带缓存），数据库查询结果同时按ID缓存每个仓库
+     */
+    private List<Warehouse> findList(String cacheKey, Supplier<List<Warehouse>> query) {
+        try {
+            List<Warehouse> warehouses = redisCacheLoader.get(cacheKey, WAREHOUSE_CACHE_TAG, CACHE_EXPIRE_TIME, () -> {
+                log.debug("缓存未命中，查询数据库: key={}", cacheKey);
+                List<Warehouse> loaded = query.get();
+                if (loaded != null) {
+                    for (Warehouse warehouse : loaded) {
+                        cacheById(warehouse);
+                    }
                 }
-                log.debug("仓库列表数据已缓存: status={}, count={}", status, warehouses.size());
-            }
-            
+                return loaded;
+            });
             return warehouses != null ? warehouses : List.of();
             
         } catch (Exception e) {
-            log.error("查询仓库列表失败: status={}", status, e);
+            log.error("查询仓库列表失败: key={}", cacheKey, e);
             // 缓存异常时直接查询数据库
-            QueryWrapper<Warehouse> queryWrapper = new QueryWrapper<>();
-            queryWrapper.eq("status", status)
-                       .eq("deleted", 0);
-            return warehouseRepository.selectList(queryWrapper);
+            return query.get();
         }
     }
 
+    private void cacheById(Warehouse warehouse) {
+        if (warehouse != null) {
+            redisCacheLoader.put(WAREHOUSE_KEY_PREFIX + warehouse.getId(), WAREHOUSE_CACHE_TAG, CACHE_EXPIRE_TIME, warehouse);
+        }
+    }
+
+    private Warehouse selectByCodeAndCompanyAndStatusFromDb(String warehouseCode, Long companyId, String status) {
+        QueryWrapper<Warehouse> queryWrapper = new QueryWrapper<>();
+        queryWrapper.eq("warehouse_code", warehouseCode)
+                   .eq("status", status)
+                   .eq("deleted", 0)
+                   .eq("company_id", companyId);
+        return warehouseRepository.selectOne(queryWrapper);
+    }
+
     /**
      * 插入仓库（同时更新缓存）
      */
@@ -292,20 +256,24 @@ public class WarehouseRedisRepository {
                 return;
             }
             
-            // 清除各种键的缓存
-            redisTemplate.delete(WAREHOUSE_KEY_PREFIX + warehouse.getId());
+            // 清除各种键的缓存，本地缓存一并清除并通知其它节点
+            List<Object> keys = new ArrayList<>();
+            keys.add(WAREHOUSE_KEY_PREFIX + warehouse.getId());
             
             if (warehouse.getWarehouseCode() != null && warehouse.getCompanyId() != null && warehouse.getStatus() != null) {
-                redisTemplate.delete(WAREHOUSE_BY_CODE_COMPANY_KEY_PREFIX + 
+                keys.add(WAREHOUSE_BY_CODE_COMPANY_KEY_PREFIX + 
                     warehouse.getWarehouseCode() + ":" + warehouse.getCompanyId() + ":" + warehouse.getStatus());
             }
             if (warehouse.getCompanyId() != null) {
-                redisTemplate.delete(WAREHOUSE_BY_COMPANY_KEY_PREFIX + warehouse.getCompanyId());
+                keys.add(WAREHOUSE_BY_COMPANY_KEY_PREFIX + warehouse.getCompanyId());
             }
             if (warehouse.getStatus() != null) {
-                redisTemplate.delete(WAREHOUSE_BY_STATUS_KEY_PREFIX + warehouse.getStatus());
+                keys.add(WAREHOUSE_BY_STATUS_KEY_PREFIX + warehouse.getStatus());
             }
             
+            redisTemplate.delete(keys);
+            nearCache.evict(keys);
+
             log.debug("仓库缓存已清除: id={}", warehouse.getId());
             
         } catch (Exception e) {
@@ -324,8 +292,8 @@ public class WarehouseRedisRepository {
                 // 清除旧缓存
                 clearWarehouseCache(warehouse);
                 // 重新缓存
-                String cacheKey = WAREHOUSE_KEY_PREFIX + id;
-                redisTemplate.opsForValue().set(cacheKey, warehouse, CACHE_EXPIRE_TIME);
+                cacheById(warehouse);
+                nearCache.put(WAREHOUSE_KEY_PREFIX + id, warehouse);
                 log.info("仓库缓存已刷新: id={}", warehouseId);
             }
         } catch (Exception e) {
@@ -338,23 +306,11 @@ public class WarehouseRedisRepository {
      */
     public void clearAllWarehouseCache() {
         try {
-            // 获取所有仓库相关的键
-            String pattern = WAREHOUSE_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = WAREHOUSE_BY_CODE_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = WAREHOUSE_BY_COMPANY_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = WAREHOUSE_BY_STATUS_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            pattern = WAREHOUSE_BY_CODE_COMPANY_KEY_PREFIX + "*";
-            redisTemplate.delete(redisTemplate.keys(pattern));
-            
-            log.info("所有仓库缓存已清除");
+            // 按标签集合分批删除，没有标签集合时用SCAN分批删除，不再使用阻塞Redis的KEYS
+            long deleted = redisCacheTags.invalidateTag(WAREHOUSE_CACHE_TAG, WAREHOUSE_KEY_PREFIX + "*");
+            nearCache.evictByPrefix(WAREHOUSE_KEY_PREFIX);
+
+            log.info("所有仓库缓存已清除: {} 个键", deleted);
         } catch (Exception e) {
             log.error("清除所有仓库缓存失败", e);
         }
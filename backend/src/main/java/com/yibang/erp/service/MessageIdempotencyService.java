@@ -0,0 +1,385 @@
+package com.yibang.erp.service;
+
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
+import com.yibang.erp.common.util.BloomFilter;
+import com.yibang.erp.domain.entity.MessageProcessingLog;
+import com.yibang.erp.infrastructure.repository.MessageProcessingLogRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消息幂等检查服务
+ * 已处理的消息ID和业务幂等键依次记录在按天轮换的本地布隆过滤器和Redis集合中，Redis集合命中时视为已处理。
+ * 启动后先用message_processing_log中当天和前一天的记录预热布隆过滤器，预热完成前一律查询数据库；
+ * 预热完成后布隆过滤器和Redis集合都没有记录才判定为未处理，Redis集合覆盖同步间隔内其它节点刚处理的消息。
+ * 早于前一天的消息不在过滤器中，需要确认的调用方使用isProcessedConfirmed，订单创建仍有来源订单号检查兜底。
+ */
+@Slf4j
+@Service
+public class MessageIdempotencyService implements RuntimeMetricsProvider {
+
+    private static final String PROCESSED_KEY_PREFIX = "order:idempotency:processed:";
+
+    private static final String BLOOM_KEY_PREFIX = "order:idempotency:bloom:";
+
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.BASIC_ISO_DATE;
+
+    // 保留当天和前一天，Redis中多留一天
+    private static final long RETENTION_DAYS = 3;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private MessageProcessingLogRepository messageLogRepository;
+
+    @Autowired
+    private MessageLogBuffer messageLogBuffer;
+
+    @Value("${orders.idempotency.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${orders.idempotency.expected-per-day:200000}")
+    private long expectedPerDay = 200000;
+
+    @Value("${orders.idempotency.false-positive-rate:0.01}")
+    private double falsePositiveRate = 0.01;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // 日期 -> 当天的布隆过滤器
+    private final Map<LocalDate, DayFilter> filters = new ConcurrentHashMap<>();
+
+    @Value("${orders.idempotency.seed-page-size:5000}")
+    private int seedPageSize = 5000;
+
+    // 用数据库中保留期内的记录预热完成之前，不能给出“不存在”的结论
+    private volatile boolean seeded;
+
+    // 启动完成后才在定时同步中重试预热，避免阻塞启动
+    private volatile boolean applicationReady;
+
+    private final AtomicLong bloomNegatives = new AtomicLong();
+
+    private final AtomicLong redisHits = new AtomicLong();
+
+    private final AtomicLong databaseChecks = new AtomicLong();
+
+    private final AtomicLong databaseHits = new AtomicLong();
+
+    private final AtomicLong syncFailures = new AtomicLong();
+
+    /**
+     * 快速检查结果
+     */
+    public enum CheckResult {
+        /** 一定没有处理过 */
+        NEW,
+        /** 已处理过 */
+        PROCESSED,
+        /** 无法确定，需要查询数据库 */
+        UNKNOWN
+    }
+
+    @PostConstruct
+    public void load() {
+        if (enabled) {
+            sync();
+        }
+    }
+
+    /**
+     * 启动后用当天和前一天的处理记录预热布隆过滤器，失败时由定时同步重试
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void seedOnStartup() {
+        applicationReady = true;
+        if (enabled) {
+            seed();
+        }
+    }
+
+    private synchronized void seed() {
+        if (seeded) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        LocalDateTime since = today.minusDays(1).atStartOfDay();
+        long startedAt = System.currentTimeMillis();
+        try {
+            long lastId = 0;
+            long count = 0;
+            while (true) {
+                List<MessageProcessingLog> logs = messageLogRepository.selectKeysCreatedSince(since, lastId, seedPageSize);
+                for (MessageProcessingLog processingLog : logs) {
+                    LocalDate day = processingLog.getCreatedAt() != null
+                            && processingLog.getCreatedAt().toLocalDate().isBefore(today) ? today.minusDays(1) : today;
+                    BloomFilter filter = dayFilter(day).filter;
+                    String messageEntry = messageEntry(processingLog.getMessageId());
+                    String keyEntry = keyEntry(processingLog.getIdempotencyKey());
+                    if (messageEntry != null) {
+                        filter.put(messageEntry);
+                    }
+                    if (keyEntry != null) {
+                        filter.put(keyEntry);
+                    }
+                    lastId = processingLog.getId();
+                }
+                count += logs.size();
+                if (logs.size() < seedPageSize) {
+                    break;
+                }
+            }
+            seeded = true;
+            log.info("消息幂等布隆过滤器预热完成: {} 条记录, 耗时 {} ms", count, System.currentTimeMillis() - startedAt);
+        } catch (Exception e) {
+            syncFailures.incrementAndGet();
+            log.warn("预热消息幂等布隆过滤器失败，暂时全部查询数据库: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 只查布隆过滤器和Redis集合，不访问数据库
+     * @param idempotencyKey 业务幂等键，没有时传null
+     */
+    public CheckResult check(String messageId, String idempotencyKey) {
+        if (!enabled || !seeded) {
+            return CheckResult.UNKNOWN;
+        }
+        String messageEntry = messageEntry(messageId);
+        String keyEntry = keyEntry(idempotencyKey);
+        boolean messageMaybe = messageEntry != null && mightContain(messageEntry);
+        boolean keyMaybe = keyEntry != null && mightContain(keyEntry);
+        try {
+            LocalDate today = LocalDate.now();
+            for (LocalDate day : new LocalDate[]{today, today.minusDays(1)}) {
+                String setKey = PROCESSED_KEY_PREFIX + day.format(DAY_FORMATTER);
+                // 布隆过滤器没有记录时仍查Redis集合，其它节点刚处理的消息可能尚未同步到本地过滤器
+                if ((messageEntry != null && Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(setKey, messageEntry)))
+                        || (keyEntry != null && Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(setKey, keyEntry)))) {
+                    redisHits.incrementAndGet();
+                    return CheckResult.PROCESSED;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("查询消息幂等集合失败: {}", e.getMessage());
+            return CheckResult.UNKNOWN;
+        }
+        if (!messageMaybe && !keyMaybe) {
+            bloomNegatives.incrementAndGet();
+            return CheckResult.NEW;
+        }
+        return CheckResult.UNKNOWN;
+    }
+
+    /**
+     * 消息是否处理过：快速检查无法确定时查询尚未写库的日志和message_processing_log表
+     * @param idempotencyKey 业务幂等键，没有时传null
+     */
+    public boolean isProcessed(String messageId, String idempotencyKey) {
+        CheckResult result = check(messageId, idempotencyKey);
+        if (result != CheckResult.UNKNOWN) {
+            return result == CheckResult.PROCESSED;
+        }
+        return isProcessedInDatabase(messageId, idempotencyKey);
+    }
+
+    /**
+     * 消息是否处理过：只有快速检查确定已处理时不查询数据库，判定为未处理时仍以数据库为准
+     * 用于没有其它业务兜底检查、且消息可能早于过滤器保留期的场景
+     * @param idempotencyKey 业务幂等键，没有时传null
+     */
+    public boolean isProcessedConfirmed(String messageId, String idempotencyKey) {
+        if (check(messageId, idempotencyKey) == CheckResult.PROCESSED) {
+            return true;
+        }
+        return isProcessedInDatabase(messageId, idempotencyKey);
+    }
+
+    private boolean isProcessedInDatabase(String messageId, String idempotencyKey) {
+        if (isPending(messageId)) {
+            return true;
+        }
+        databaseChecks.incrementAndGet();
+        MessageProcessingLog existingLog = messageId != null ? messageLogRepository.selectByMessageId(messageId) : null;
+        if (existingLog == null && idempotencyKey != null) {
+            existingLog = messageLogRepository.selectByIdempotencyKey(idempotencyKey);
+        }
+        if (existingLog != null) {
+            databaseHits.incrementAndGet();
+            markProcessed(existingLog.getMessageId(), existingLog.getIdempotencyKey());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 消息是否有尚未写入数据库的处理日志
+     */
+    public boolean isPending(String messageId) {
+        return messageLogBuffer.isPending(messageId);
+    }
+
+    /**
+     * 记录消息已处理（开始处理即记录，与处理日志存在即视为处理过的判断一致）
+     */
+    public void markProcessed(String messageId, String idempotencyKey) {
+        if (!enabled) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        DayFilter dayFilter = dayFilter(today);
+        String setKey = PROCESSED_KEY_PREFIX + today.format(DAY_FORMATTER);
+        List<String> entries = new ArrayList<>(2);
+        for (String entry : new String[]{messageEntry(messageId), keyEntry(idempotencyKey)}) {
+            if (entry == null) {
+                continue;
+            }
+            entries.add(entry);
+            // 布隆过滤器只用于读取时快速排除，已可能包含时不再标记待同步
+            if (!dayFilter.filter.mightContain(entry)) {
+                dayFilter.filter.put(entry);
+                dayFilter.dirty = true;
+            }
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        // 布隆过滤器有误判，Redis集合始终写入，保证确认查询不会漏判
+        try {
+            stringRedisTemplate.opsForSet().add(setKey, entries.toArray(new String[0]));
+            if (!dayFilter.setExpired) {
+                stringRedisTemplate.expire(setKey, RETENTION_DAYS, TimeUnit.DAYS);
+                dayFilter.setExpired = true;
+            }
+        } catch (Exception e) {
+            log.warn("写入消息幂等集合失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 定时把本节点的布隆过滤器写入Redis，并合并其它节点的过滤器，清理过期的日期；启动预热失败时重试预热
+     */
+    @Scheduled(fixedDelayString = "${orders.idempotency.sync-interval-millis:10000}")
+    public void sync() {
+        if (!enabled) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        filters.keySet().removeIf(day -> day.isBefore(today.minusDays(1)));
+        try {
+            for (LocalDate day : new LocalDate[]{today, today.minusDays(1)}) {
+                syncDay(day);
+            }
+        } catch (Exception e) {
+            syncFailures.incrementAndGet();
+            log.warn("同步消息幂等布隆过滤器失败: {}", e.getMessage());
+        }
+        if (!seeded && applicationReady) {
+            seed();
+        }
+    }
+
+    private void syncDay(LocalDate day) {
+        DayFilter dayFilter = dayFilter(day);
+        String dayKey = BLOOM_KEY_PREFIX + day.format(DAY_FORMATTER);
+        String nodesKey = dayKey + ":nodes";
+
+        if (dayFilter.dirty) {
+            dayFilter.dirty = false;
+            stringRedisTemplate.opsForValue().set(dayKey + ":" + nodeId,
+                    Base64.getEncoder().encodeToString(dayFilter.filter.toBytes()), RETENTION_DAYS, TimeUnit.DAYS);
+            stringRedisTemplate.opsForSet().add(nodesKey, nodeId);
+            stringRedisTemplate.expire(nodesKey, RETENTION_DAYS, TimeUnit.DAYS);
+        }
+
+        Set<String> nodes = stringRedisTemplate.opsForSet().members(nodesKey);
+        if (nodes == null) {
+            return;
+        }
+        for (String node : nodes) {
+            if (nodeId.equals(node)) {
+                continue;
+            }
+            String data = stringRedisTemplate.opsForValue().get(dayKey + ":" + node);
+            if (data == null) {
+                stringRedisTemplate.opsForSet().remove(nodesKey, node);
+                continue;
+            }
+            if (!dayFilter.filter.merge(Base64.getDecoder().decode(data))) {
+                log.warn("布隆过滤器大小不一致，跳过合并: node={}", node);
+            }
+        }
+    }
+
+    private boolean mightContain(String entry) {
+        LocalDate today = LocalDate.now();
+        return dayFilter(today).filter.mightContain(entry)
+                || dayFilter(today.minusDays(1)).filter.mightContain(entry);
+    }
+
+    private DayFilter dayFilter(LocalDate day) {
+        return filters.computeIfAbsent(day, d -> new DayFilter(new BloomFilter(expectedPerDay, falsePositiveRate)));
+    }
+
+    private String messageEntry(String messageId) {
+        return messageId != null ? "m:" + messageId : null;
+    }
+
+    private String keyEntry(String idempotencyKey) {
+        return idempotencyKey != null ? "k:" + idempotencyKey : null;
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "messageIdempotency";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("seeded", seeded);
+        metrics.put("bloomNegatives", bloomNegatives.get());
+        metrics.put("redisHits", redisHits.get());
+        metrics.put("databaseChecks", databaseChecks.get());
+        metrics.put("databaseHits", databaseHits.get());
+        metrics.put("syncFailures", syncFailures.get());
+        return metrics;
+    }
+
+    /**
+     * 某一天的布隆过滤器
+     */
+    private static class DayFilter {
+        private final BloomFilter filter;
+        // 有新元素尚未写入Redis
+        private volatile boolean dirty;
+        // 当天的Redis集合是否已设置过期时间
+        private volatile boolean setExpired;
+
+        DayFilter(BloomFilter filter) {
+            this.filter = filter;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.yibang.erp.service;
+
+import com.yibang.erp.common.metrics.RuntimeMetricsProvider;
+import com.yibang.erp.domain.entity.MessageProcessingLog;
+import com.yibang.erp.infrastructure.repository.MessageProcessingLogRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消息处理日志写缓冲
+ * 同一消息的多次状态变化在内存中合并为一条，定时用多行INSERT ... ON DUPLICATE KEY UPDATE批量写入；
+ * 缓冲区满时由调用线程立即写入一次缓冲区，仍放不下时直接同步写库，不丢弃日志；
+ * 写入失败的日志放回缓冲区等待下次写入。
+ */
+@Slf4j
+@Component
+public class MessageLogBuffer implements RuntimeMetricsProvider {
+
+    @Autowired
+    private MessageProcessingLogRepository messageLogRepository;
+
+    @Value("${orders.message-log.flush-batch-size:500}")
+    private int flushBatchSize = 500;
+
+    @Value("${orders.message-log.max-pending:20000}")
+    private int maxPending = 20000;
+
+    // 待写入的日志：messageId -> 合并后的日志
+    private final Map<String, PendingLog> pending = new ConcurrentHashMap<>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final AtomicLong bufferedLogs = new AtomicLong();
+
+    private final AtomicLong mergedLogs = new AtomicLong();
+
+    private final AtomicLong droppedLogs = new AtomicLong();
+
+    private final AtomicLong syncWrites = new AtomicLong();
+
+    private final AtomicLong writtenLogs = new AtomicLong();
+
+    private final AtomicLong flushCount = new AtomicLong();
+
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    private volatile long lastFlushLagMillis;
+
+    private volatile long maxFlushLagMillis;
+
+    /**
+     * 加入缓冲区，同一消息已有待写入的日志时合并
+     * 缓冲区已满时先在当前线程写入缓冲区再重试，仍然放不下时同步写入这条日志
+     * @return 日志既未缓冲也未写入数据库时返回false
+     */
+    public boolean add(MessageProcessingLog messageLog) {
+        if (messageLog.getMessageId() == null) {
+            droppedLogs.incrementAndGet();
+            return false;
+        }
+        bufferedLogs.incrementAndGet();
+        long queuedAt = System.currentTimeMillis();
+        if (offer(messageLog, queuedAt, true)) {
+            return true;
+        }
+        flush();
+        if (offer(messageLog, queuedAt, true)) {
+            return true;
+        }
+        return writeDirectly(messageLog);
+    }
+
+    /**
+     * 消息是否有尚未写入数据库的日志
+     */
+    public boolean isPending(String messageId) {
+        return messageId != null && pending.containsKey(messageId);
+    }
+
+    /**
+     * 定时写入缓冲的日志
+     */
+    @Scheduled(fixedDelayString = "${orders.message-log.flush-interval-millis:300}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            List<PendingLog> drained = new ArrayList<>();
+            long oldestQueuedAt = Long.MAX_VALUE;
+            for (String messageId : pending.keySet()) {
+                PendingLog pendingLog = pending.remove(messageId);
+                if (pendingLog != null) {
+                    pendingCount.decrementAndGet();
+                    drained.add(pendingLog);
+                    oldestQueuedAt = Math.min(oldestQueuedAt, pendingLog.queuedAt);
+                }
+            }
+            if (drained.isEmpty()) {
+                return;
+            }
+
+            int batchSize = Math.max(1, flushBatchSize);
+            for (int from = 0; from < drained.size(); from += batchSize) {
+                List<PendingLog> chunk = drained.subList(from, Math.min(from + batchSize, drained.size()));
+                List<MessageProcessingLog> logs = new ArrayList<>(chunk.size());
+                for (PendingLog pendingLog : chunk) {
+                    logs.add(pendingLog.messageLog);
+                }
+                try {
+                    messageLogRepository.batchUpsert(logs);
+                    writtenLogs.addAndGet(logs.size());
+                } catch (Exception e) {
+                    failedFlushes.incrementAndGet();
+                    log.error("批量写入消息处理日志失败，{} 条放回缓冲区", logs.size(), e);
+                    // 放回缓冲区，期间有更新的状态时以新状态为准
+                    for (PendingLog pendingLog : chunk) {
+                        offer(pendingLog.messageLog, pendingLog.queuedAt, false);
+                    }
+                }
+            }
+
+            flushCount.incrementAndGet();
+            long lag = System.currentTimeMillis() - oldestQueuedAt;
+            lastFlushLagMillis = lag;
+            maxFlushLagMillis = Math.max(maxFlushLagMillis, lag);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * 缓冲区写满且写入缓冲区后仍放不下时，同步写入单条日志
+     * 与定时写入互斥，避免同一消息较旧的状态覆盖较新的状态
+     */
+    private synchronized boolean writeDirectly(MessageProcessingLog messageLog) {
+        // 等待锁期间缓冲区可能已腾出空间
+        if (offer(messageLog, System.currentTimeMillis(), true)) {
+            return true;
+        }
+        try {
+            messageLogRepository.batchUpsert(List.of(messageLog));
+            syncWrites.incrementAndGet();
+            writtenLogs.incrementAndGet();
+            long count = syncWrites.get();
+            if (count == 1 || count % 1000 == 0) {
+                log.warn("消息处理日志缓冲区已满，已同步写入 {} 条: messageId={}", count, messageLog.getMessageId());
+            }
+            return true;
+        } catch (Exception e) {
+            droppedLogs.incrementAndGet();
+            log.error("消息处理日志缓冲区已满且同步写入失败: messageId={}", messageLog.getMessageId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * @param newer true为新加入的日志，受缓冲区上限约束；false为写入失败放回的日志，不受上限约束
+     */
+    private boolean offer(MessageProcessingLog messageLog, long queuedAt, boolean newer) {
+        String messageId = messageLog.getMessageId();
+        boolean[] accepted = {true};
+        pending.compute(messageId, (key, existing) -> {
+            if (existing != null) {
+                mergedLogs.incrementAndGet();
+                if (newer) {
+                    existing.merge(messageLog);
+                } else {
+                    // 放回的旧日志只补充缺失的字段
+                    MessageProcessingLog latest = existing.messageLog;
+                    existing.messageLog = messageLog;
+                    existing.merge(latest);
+                    existing.queuedAt = Math.min(existing.queuedAt, queuedAt);
+                }
+                return existing;
+            }
+            if (newer && pendingCount.get() >= maxPending) {
+                accepted[0] = false;
+                return null;
+            }
+            pendingCount.incrementAndGet();
+            return new PendingLog(messageLog, queuedAt);
+        });
+        return accepted[0];
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "messageLogBuffer";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("pendingLogs", pendingCount.get());
+        metrics.put("bufferedLogs", bufferedLogs.get());
+        metrics.put("mergedLogs", mergedLogs.get());
+        metrics.put("writtenLogs", writtenLogs.get());
+        metrics.put("syncWrites", syncWrites.get());
+        metrics.put("droppedLogs", droppedLogs.get());
+        metrics.put("flushCount", flushCount.get());
+        metrics.put("failedFlushes", failedFlushes.get());
+        metrics.put("lastFlushLagMillis", lastFlushLagMillis);
+        metrics.put("maxFlushLagMillis", maxFlushLagMillis);
+        return metrics;
+    }
+
+    /**
+     * 待写入的日志及最早加入缓冲区的时间
+     */
+    private static class PendingLog {
+        private MessageProcessingLog messageLog;
+        private long queuedAt;
+
+        PendingLog(MessageProcessingLog messageLog, long queuedAt) {
+            this.messageLog = messageLog;
+            this.queuedAt = queuedAt;
+        }
+
+        /**
+         * 合并后来的状态：状态、结果和时间以后来的为准，后来的日志没有的字段保留原值
+         */
+        void merge(MessageProcessingLog later) {
+            MessageProcessingLog current = messageLog;
+            current.setStatus(later.getStatus());
+            current.setResultMessage(later.getResultMessage());
+            if (later.getUpdatedAt() != null) current.setUpdatedAt(later.getUpdatedAt());
+            if (later.getProcessedAt() != null) current.setProcessedAt(later.getProcessedAt());
+            if (later.getErrorMessage() != null) current.setErrorMessage(later.getErrorMessage());
+            if (later.getTotalMessage() != null) current.setTotalMessage(later.getTotalMessage());
+            if (later.getIdempotencyKey() != null) current.setIdempotencyKey(later.getIdempotencyKey());
+            if (later.getSourceOrderId() != null) current.setSourceOrderId(later.getSourceOrderId());
+            if (later.getSalesOrderId() != null) current.setSalesOrderId(later.getSalesOrderId());
+            if (later.getBusType() != null) current.setBusType(later.getBusType());
+            if (current.getCreatedAt() == null) current.setCreatedAt(later.getCreatedAt());
+        }
+    }
+}
@@ -8,6 +8,8 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
@@ -28,42 +30,55 @@ class OrderNumberGeneratorServiceTest {
     @Test
     void testGeneratePlatformOrderNo() {
         // 准备测试数据
-        Long accountId = 123L;
+        String userName = "000123";
         String orderSource = "MANUAL";
         
-        // Mock Redis操作
+        // Mock Redis操作：首次申请号段返回号段末尾序号50
         when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
-        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any())).thenReturn(true);
-        when(valueOperations.increment(anyString())).thenReturn(1L);
+        when(valueOperations.increment(anyString(), eq(50L))).thenReturn(50L);
         
         // 创建服务实例
         OrderNumberGeneratorService service = new OrderNumberGeneratorServiceImpl(stringRedisTemplate);
         
         // 执行测试
-
+        String first = service.generatePlatformOrderNo(userName, orderSource);
+        String second = service.generatePlatformOrderNo(userName, orderSource);
         
-        // 验证Redis调用
-        verify(stringRedisTemplate.opsForValue(), times(1));
-        verify(valueOperations, times(1)).setIfAbsent(anyString(), anyString(), anyLong(), any());
-        verify(valueOperations, times(1)).increment(anyString());
+        assertTrue(first.startsWith(userName + orderSource));
+        assertTrue(first.endsWith("0001"));
+        assertTrue(second.endsWith("0002"));
+        assertTrue(service.validateOrderNoFormat(first));
+        
+        // 同一号段内只访问一次Redis，不再使用分布式锁
+        verify(valueOperations, times(1)).increment(anyString(), eq(50L));
+        verify(valueOperations, never()).setIfAbsent(anyString(), anyString(), anyLong(), any());
+        verify(stringRedisTemplate, times(1)).expire(anyString(), anyLong(), any());
     }
 
     @Test
     void testPreGenerateOrderNumbers() {
         // 准备测试数据
-        Long accountId = 456L;
+        String userName = "000456";
         String orderSource = "EXCEL_IMPORT";
         int count = 3;
         
-        // Mock Redis操作
+        // Mock Redis操作：已有序号7，本次预留8~10
         when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
-        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any())).thenReturn(true);
-        when(valueOperations.increment(anyString())).thenReturn(1L, 2L, 3L);
+        when(valueOperations.increment(anyString(), eq((long) count))).thenReturn(10L);
         
         // 创建服务实例
         OrderNumberGeneratorService service = new OrderNumberGeneratorServiceImpl(stringRedisTemplate);
         
-
+        // 执行测试
+        List<String> orderNumbers = service.preGenerateOrderNumbers(userName, orderSource, count);
+        
+        assertEquals(3, orderNumbers.size());
+        assertTrue(orderNumbers.get(0).endsWith("0008"));
+        assertTrue(orderNumbers.get(2).endsWith("0010"));
+        
+        // 整批只调用一次Redis
+        verify(valueOperations, times(1)).increment(anyString(), eq((long) count));
+        verify(stringRedisTemplate, never()).expire(anyString(), anyLong(), any());
     }
 
     @Test
@@ -101,6 +116,7 @@ class OrderNumberGeneratorServiceTest {
         OrderNumberGeneratorService service = new OrderNumberGeneratorServiceImpl(stringRedisTemplate);
         
         // 测试无效数量
-
+        assertThrows(IllegalArgumentException.class, () ->
+            service.preGenerateOrderNumbers("000123", "MANUAL", 0));
     }
 }
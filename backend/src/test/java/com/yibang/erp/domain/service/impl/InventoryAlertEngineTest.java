@@ -0,0 +1,189 @@
+package com.yibang.erp.domain.service.impl;
+
+import com.yibang.erp.domain.dto.InventoryChangedEvent;
+import com.yibang.erp.domain.entity.InventoryAlert;
+import com.yibang.erp.domain.entity.ProductInventory;
+import com.yibang.erp.domain.entity.Warehouse;
+import com.yibang.erp.infrastructure.repository.InventoryAlertRepository;
+import com.yibang.erp.infrastructure.repository.ProductInventoryRepository;
+import com.yibang.erp.infrastructure.repository.WarehouseRedisRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 库存预警引擎测试类
+ * 校验库存跨越预警线时才写入预警记录，重建期间到达的变更不重复叠加
+ */
+class InventoryAlertEngineTest {
+
+    private final ProductInventoryRepository productInventoryRepository = mock(ProductInventoryRepository.class);
+
+    private final InventoryAlertRepository inventoryAlertRepository = mock(InventoryAlertRepository.class);
+
+    private final WarehouseRedisRepository warehouseRedisRepository = mock(WarehouseRedisRepository.class);
+
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+
+    private InventoryAlertEngine engine;
+
+    // 数据库中的可用库存
+    private int available = 50;
+
+    @BeforeEach
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        // 不取得预警写入锁，重建时不对齐预警记录
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+
+        engine = new InventoryAlertEngine();
+        ReflectionTestUtils.setField(engine, "productInventoryRepository", productInventoryRepository);
+        ReflectionTestUtils.setField(engine, "inventoryAlertRepository", inventoryAlertRepository);
+        ReflectionTestUtils.setField(engine, "warehouseRedisRepository", warehouseRedisRepository);
+        ReflectionTestUtils.setField(engine, "stringRedisTemplate", stringRedisTemplate);
+
+        // 最低库存10，补货点20，当前可用50
+        when(productInventoryRepository.selectList(any())).thenAnswer(invocation -> List.of(inventory(1L, available)));
+        when(productInventoryRepository.selectBatchIds(any())).thenAnswer(invocation -> List.of(inventory(1L, available)));
+        engine.rebuild();
+
+        // 之后的预警写入都取得锁
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+    }
+
+    @Test
+    void testCrossingThresholdsWritesAlerts() {
+        assertTrue(engine.isReady());
+        assertTrue(engine.getBelowReorderPoint().isEmpty());
+
+        // 50 -> 30：仍高于补货点，不写预警
+        change(-20);
+        verifyNoInteractions(inventoryAlertRepository);
+
+        // 30 -> 15：低于补货点，新建MEDIUM预警
+        change(-15);
+        ArgumentCaptor<InventoryAlert> created = ArgumentCaptor.forClass(InventoryAlert.class);
+        verify(inventoryAlertRepository).insert(created.capture());
+        assertEquals("MEDIUM", created.getValue().getAlertLevel());
+        assertEquals(15, created.getValue().getCurrentQuantity());
+        assertEquals(20, created.getValue().getThresholdQuantity());
+        assertEquals(1, engine.getBelowReorderPoint().size());
+        assertTrue(engine.getBelowMinStock().isEmpty());
+
+        // 15 -> 12：级别不变，不写预警
+        change(-3);
+        verify(inventoryAlertRepository, times(1)).selectOne(any());
+        verify(inventoryAlertRepository, never()).update(any(), any());
+
+        // 12 -> 5：低于最低库存，已有待处理预警时升级为HIGH
+        InventoryAlert pending = new InventoryAlert();
+        pending.setId(7L);
+        pending.setAlertLevel("MEDIUM");
+        when(inventoryAlertRepository.selectOne(any())).thenReturn(pending);
+        change(-7);
+        verify(inventoryAlertRepository, times(1)).update(isNull(), any());
+        assertEquals(1, engine.getBelowMinStock().size());
+
+        // 5 -> 0：无库存，升级为CRITICAL
+        change(-5);
+        verify(inventoryAlertRepository, times(2)).update(isNull(), any());
+
+        // 0 -> 100：恢复，解除预警
+        change(100);
+        verify(inventoryAlertRepository, times(3)).update(isNull(), any());
+        verify(inventoryAlertRepository, times(1)).insert(any(InventoryAlert.class));
+        assertTrue(engine.getBelowReorderPoint().isEmpty());
+        assertEquals(1L, engine.getMetrics().get("alertsCreated"));
+        assertEquals(2L, engine.getMetrics().get("alertsUpdated"));
+        assertEquals(1L, engine.getMetrics().get("alertsResolved"));
+    }
+
+    @Test
+    void testRecoveryWithoutPendingAlertWritesNothing() {
+        change(-45);
+        verify(inventoryAlertRepository).insert(any(InventoryAlert.class));
+
+        // 预警已被人工处理，恢复时查不到待处理预警
+        when(inventoryAlertRepository.selectOne(any())).thenReturn(null);
+        change(45);
+        verify(inventoryAlertRepository, never()).update(any(), any());
+        assertTrue(engine.getBelowReorderPoint().isEmpty());
+    }
+
+    @Test
+    void testAlertWriteWaitsForLock() {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+        change(-45);
+        verifyNoInteractions(inventoryAlertRepository);
+        assertEquals(1, engine.getBelowReorderPoint().size());
+
+        // 取得锁后按数据库中的库存补写
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        engine.evaluate();
+        verify(inventoryAlertRepository).insert(any(InventoryAlert.class));
+    }
+
+    @Test
+    void testChangesDuringRebuildAreReloaded() {
+        // 变更已写入数据库，事件在重建读取数据之后才处理
+        available = 30;
+        engine.onInventoryChanged(InventoryChangedEvent.delta(1L, 2L, -20));
+        engine.rebuild();
+        engine.evaluate();
+
+        // 按条重新读取，不在已包含变更的数据上再叠加
+        List<ProductInventory> items = engine.getLowStockItems(null, 10);
+        assertTrue(items.isEmpty());
+        available = 15;
+        engine.onInventoryChanged(InventoryChangedEvent.delta(1L, 2L, -15));
+        engine.evaluate();
+        assertEquals(15, engine.getLowStockItems(null, 10).get(0).getAvailableQuantity());
+    }
+
+    @Test
+    void testUnknownWarehouseIsNotCached() {
+        change(-45);
+
+        // 仓库尚未同步到缓存时不属于任何公司
+        when(warehouseRedisRepository.selectById(2L)).thenReturn(null);
+        assertTrue(engine.getLowStockItems(3L, 10).isEmpty());
+
+        // 之后查到仓库即可按公司筛选
+        Warehouse warehouse = new Warehouse();
+        warehouse.setId(2L);
+        warehouse.setCompanyId(3L);
+        when(warehouseRedisRepository.selectById(2L)).thenReturn(warehouse);
+        assertEquals(1, engine.getLowStockItems(3L, 10).size());
+        assertEquals(1, engine.getLowStockItems(3L, 10).size());
+        verify(warehouseRedisRepository, times(2)).selectById(2L);
+    }
+
+    private void change(int delta) {
+        available += delta;
+        engine.onInventoryChanged(InventoryChangedEvent.delta(1L, 2L, delta));
+        engine.evaluate();
+    }
+
+    private static ProductInventory inventory(Long id, int available) {
+        ProductInventory inventory = new ProductInventory();
+        inventory.setId(id);
+        inventory.setProductId(1L);
+        inventory.setWarehouseId(2L);
+        inventory.setAvailableQuantity(available);
+        inventory.setReservedQuantity(0);
+        inventory.setMinStockLevel(10);
+        inventory.setReorderPoint(20);
+        return inventory;
+    }
+}
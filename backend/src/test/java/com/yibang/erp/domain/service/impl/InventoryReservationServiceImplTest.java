@@ -0,0 +1,151 @@
+package com.yibang.erp.domain.service.impl;
+
+import com.yibang.erp.config.InventoryReservationConfig;
+import com.yibang.erp.domain.dto.InventoryDelta;
+import com.yibang.erp.domain.dto.InventoryMutationResult;
+import com.yibang.erp.infrastructure.repository.ProductInventoryRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 库存预留层服务测试类
+ * 校验事务回滚后的反向变更
+ */
+class InventoryReservationServiceImplTest {
+
+    private final RecordingRedisTemplate redisTemplate = new RecordingRedisTemplate();
+
+    private final ProductInventoryRepository productInventoryRepository = mock(ProductInventoryRepository.class);
+
+    private InventoryReservationServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        InventoryReservationConfig config = new InventoryReservationConfig();
+        config.setEnabled(true);
+        service = new InventoryReservationServiceImpl();
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(service, "productInventoryRepository", productInventoryRepository);
+        ReflectionTestUtils.setField(service, "reservationConfig", config);
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void testRollbackAppliesForcedInverse() {
+        // 扣减成功：扣减后可用8、预留0
+        redisTemplate.reply = List.of(0L, 8L, 0L);
+        List<InventoryMutationResult> results = service.deduct(
+                List.of(new InventoryDelta(1L, 2L, 2)), 100L, 9L, "订单发货");
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(1, redisTemplate.calls.size());
+
+        List<Object> deductArgs = redisTemplate.calls.get(0);
+        assertEquals("0", deductArgs.get(0), "扣减应检查数量");
+        assertEquals("-2", deductArgs.get(1));
+        assertEquals("0", deductArgs.get(2));
+        assertTrue(((String) deductArgs.get(3)).contains("|STOCK_OUT|1|2|2|100|9|"));
+
+        // 事务回滚：不检查数量，把可用库存加回，流水记为反向操作
+        completeTransaction(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertEquals(2, redisTemplate.calls.size());
+        List<Object> undoArgs = redisTemplate.calls.get(1);
+        assertEquals("1", undoArgs.get(0), "反向变更应跳过数量检查");
+        assertEquals("2", undoArgs.get(1));
+        assertEquals("0", undoArgs.get(2));
+        assertTrue(((String) undoArgs.get(3)).contains("|STOCK_OUT_UNDO|1|2|2|100|9|"));
+        assertNotEquals(results.get(0).getOperationNo(), ((String) undoArgs.get(3)).split("\\|")[0],
+                "反向变更应使用新的操作单号");
+    }
+
+    @Test
+    void testCommitDoesNotCompensate() {
+        redisTemplate.reply = List.of(0L, 8L, 0L);
+        service.deduct(List.of(new InventoryDelta(1L, 2L, 2)), 100L, 9L, "订单发货");
+
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        assertEquals(1, redisTemplate.calls.size(), "事务提交后不应反向变更");
+    }
+
+    @Test
+    void testReserveAndReleaseMoveStockBetweenAvailableAndReserved() {
+        // 预留：可用减少、预留增加
+        redisTemplate.reply = List.of(0L, 8L, 2L);
+        List<InventoryMutationResult> reserved = service.reserve(
+                List.of(new InventoryDelta(1L, 2L, 2)), 100L, 9L, "订单预留");
+        assertTrue(reserved.get(0).isSuccess());
+        List<Object> reserveArgs = redisTemplate.calls.get(0);
+        assertEquals("-2", reserveArgs.get(1));
+        assertEquals("2", reserveArgs.get(2));
+        assertTrue(((String) reserveArgs.get(3)).contains("|RESERVE|1|2|2|100|9|"));
+
+        // 释放：预留退回可用
+        redisTemplate.reply = List.of(0L, 10L, 0L);
+        service.release(List.of(new InventoryDelta(1L, 2L, 2)), 100L, 9L, "订单取消");
+        List<Object> releaseArgs = redisTemplate.calls.get(1);
+        assertEquals("2", releaseArgs.get(1));
+        assertEquals("-2", releaseArgs.get(2));
+        assertTrue(((String) releaseArgs.get(3)).contains("|RELEASE|1|2|2|100|9|"));
+
+        // 事务回滚：两次变更都反向执行
+        completeTransaction(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertEquals(4, redisTemplate.calls.size());
+        List<Object> undoReserve = redisTemplate.calls.get(2);
+        assertEquals("2", undoReserve.get(1));
+        assertEquals("-2", undoReserve.get(2));
+        assertTrue(((String) undoReserve.get(3)).contains("|RESERVE_UNDO|"));
+        assertTrue(((String) redisTemplate.calls.get(3).get(3)).contains("|RELEASE_UNDO|"));
+        assertEquals(1L, service.getMetrics().get("reserved"));
+        assertEquals(1L, service.getMetrics().get("released"));
+    }
+
+    @Test
+    void testInsufficientDoesNotRegisterCompensation() {
+        // 数量不足：第1个库存当前可用1
+        redisTemplate.reply = List.of(1L, 1L, 1L);
+        List<InventoryMutationResult> results = service.deduct(
+                List.of(new InventoryDelta(1L, 2L, 2)), 100L, 9L, "订单发货");
+        assertEquals(InventoryMutationResult.Status.INSUFFICIENT, results.get(0).getStatus());
+        assertTrue(TransactionSynchronizationManager.getSynchronizations().isEmpty(), "未变更时不应登记反向变更");
+    }
+
+    private void completeTransaction(int status) {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(status);
+        }
+    }
+
+    /**
+     * 记录每次脚本调用的参数，并返回预设的结果
+     */
+    private static class RecordingRedisTemplate extends StringRedisTemplate {
+
+        private final List<List<Object>> calls = new ArrayList<>();
+
+        private List<Long> reply;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+            calls.add(Arrays.asList(args));
+            return (T) reply;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.yibang.erp.domain.service.impl;
+
+import com.yibang.erp.config.InventoryReservationConfig;
+import com.yibang.erp.domain.entity.InventoryOperation;
+import com.yibang.erp.infrastructure.repository.InventoryOperationRepository;
+import com.yibang.erp.infrastructure.repository.ProductInventoryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 库存预留层写入测试类
+ * 校验流水重复写入时按操作单号去重
+ */
+class InventoryReservationWriterTest {
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+
+    @SuppressWarnings("unchecked")
+    private final ListOperations<String, String> listOperations = mock(ListOperations.class);
+
+    private final ProductInventoryRepository productInventoryRepository = mock(ProductInventoryRepository.class);
+
+    private final InventoryOperationRepository inventoryOperationRepository = mock(InventoryOperationRepository.class);
+
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+
+    private InventoryReservationWriter writer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        InventoryReservationConfig config = new InventoryReservationConfig();
+        config.setEnabled(true);
+        writer = new InventoryReservationWriter();
+        ReflectionTestUtils.setField(writer, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(writer, "productInventoryRepository", productInventoryRepository);
+        ReflectionTestUtils.setField(writer, "inventoryOperationRepository", inventoryOperationRepository);
+        ReflectionTestUtils.setField(writer, "transactionTemplate", transactionTemplate);
+        ReflectionTestUtils.setField(writer, "reservationConfig", config);
+        ReflectionTestUtils.setField(writer, "eventPublisher", mock(ApplicationEventPublisher.class));
+
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(stringRedisTemplate.opsForList()).thenReturn(listOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        when(productInventoryRepository.applyDelta(anyLong(), anyLong(), anyInt(), anyInt())).thenReturn(1);
+        doAnswer(invocation -> {
+            ((Consumer<TransactionStatus>) invocation.getArgument(0)).accept(mock(TransactionStatus.class));
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testDrainSkipsOperationsAlreadyWritten() {
+        // OP1上次已写入数据库但未从流水中移除，OP2是新的流水
+        when(listOperations.range(InventoryReservationServiceImpl.JOURNAL_KEY, 0, 499)).thenReturn(List.of(
+                journal("OP1", 5, 10, 0, 5, 0),
+                journal("OP2", 3, 5, 0, 2, 0)));
+        when(inventoryOperationRepository.findExistingOperationNos(List.of("OP1", "OP2"))).thenReturn(List.of("OP1"));
+
+        writer.flush();
+
+        // 只写入OP2，库存只按OP2的变更量修改
+        ArgumentCaptor<List<InventoryOperation>> inserted = ArgumentCaptor.forClass(List.class);
+        verify(inventoryOperationRepository).batchInsert(inserted.capture());
+        assertEquals(1, inserted.getValue().size());
+        assertEquals("OP2", inserted.getValue().get(0).getOperationNo());
+        verify(productInventoryRepository).applyDelta(1L, 2L, -3, 0);
+        verifyNoMoreInteractions(productInventoryRepository);
+        // 两条都从流水中移除
+        verify(listOperations).trim(InventoryReservationServiceImpl.JOURNAL_KEY, 2, -1);
+    }
+
+    @Test
+    void testDrainAllDuplicatesOnlyTrims() {
+        when(listOperations.range(InventoryReservationServiceImpl.JOURNAL_KEY, 0, 499)).thenReturn(List.of(
+                journal("OP1", 5, 10, 0, 5, 0)));
+        when(inventoryOperationRepository.findExistingOperationNos(List.of("OP1"))).thenReturn(List.of("OP1"));
+
+        writer.flush();
+
+        verify(inventoryOperationRepository, never()).batchInsert(anyList());
+        verify(productInventoryRepository, never()).applyDelta(anyLong(), anyLong(), anyInt(), anyInt());
+        verify(listOperations).trim(InventoryReservationServiceImpl.JOURNAL_KEY, 1, -1);
+        assertEquals(1L, writer.getMetrics().get("duplicateEntries"));
+    }
+
+    @Test
+    void testFailedWriteKeepsJournal() {
+        when(listOperations.range(InventoryReservationServiceImpl.JOURNAL_KEY, 0, 499)).thenReturn(List.of(
+                journal("OP1", 5, 10, 0, 5, 0)));
+        when(inventoryOperationRepository.findExistingOperationNos(anyList())).thenReturn(List.of());
+        when(inventoryOperationRepository.batchInsert(anyList())).thenThrow(new RuntimeException("数据库不可用"));
+
+        writer.flush();
+
+        // 写入失败时流水留在Redis中，下次重新写入
+        verify(listOperations, never()).trim(anyString(), anyLong(), anyLong());
+        assertEquals(1L, writer.getMetrics().get("failedFlushes"));
+    }
+
+    /**
+     * 商品1在仓库2中的扣减流水
+     */
+    private static String journal(String operationNo, int quantity, int beforeAvailable, int beforeReserved,
+                                  int afterAvailable, int afterReserved) {
+        return String.join("|", operationNo, "STOCK_OUT", "1", "2", String.valueOf(quantity), "100", "9",
+                String.valueOf(System.currentTimeMillis()), "订单发货", String.valueOf(beforeAvailable),
+                String.valueOf(beforeReserved), String.valueOf(afterAvailable), String.valueOf(afterReserved), "0");
+    }
+}
@@ -0,0 +1,172 @@
+package com.yibang.erp.domain.service.impl;
+
+import com.yibang.erp.domain.dto.ProductPriceTierConfigResponse;
+import com.yibang.erp.domain.entity.Order;
+import com.yibang.erp.domain.entity.OrderItem;
+import com.yibang.erp.domain.entity.User;
+import com.yibang.erp.domain.service.ProductPriceTierConfigService;
+import com.yibang.erp.infrastructure.repository.UserRedisRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 订单定价服务测试类
+ */
+class OrderPricingServiceImplTest {
+
+    private final ProductPriceTierConfigService productPriceTierConfigService = mock(ProductPriceTierConfigService.class);
+
+    private final UserRedisRepository userRedisRepository = mock(UserRedisRepository.class);
+
+    private OrderPricingServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        service = new OrderPricingServiceImpl();
+        ReflectionTestUtils.setField(service, "productPriceTierConfigService", productPriceTierConfigService);
+        ReflectionTestUtils.setField(service, "userRedisRepository", userRedisRepository);
+    }
+
+    @Test
+    void testTierPriceOverridesUnitPrice() {
+        when(userRedisRepository.selectById(10L)).thenReturn(salesUser(10L, 5L));
+        when(productPriceTierConfigService.getConfigsByProductIdsAndPriceTierId(List.of(1L, 2L), 5L))
+                .thenReturn(List.of(config(1L, "80.00")));
+
+        Order order = order(10L);
+        OrderItem tiered = item(1L, 2, "100.00");
+        OrderItem untiered = item(2L, 1, "50.00");
+        service.priceOrder(order, List.of(tiered, untiered));
+
+        // 配置了代发价的商品改用代发价，没有配置的保留原单价
+        assertEquals(new BigDecimal("80.00"), tiered.getUnitPrice());
+        assertEquals(new BigDecimal("160.00"), tiered.getSubtotal());
+        assertEquals(new BigDecimal("50.00"), untiered.getUnitPrice());
+        assertEquals(new BigDecimal("50.00"), untiered.getSubtotal());
+        assertEquals(new BigDecimal("210.00"), order.getTotalAmount());
+    }
+
+    @Test
+    void testSalesWithoutTierKeepsRequestPrice() {
+        when(userRedisRepository.selectById(10L)).thenReturn(salesUser(10L, null));
+
+        Order order = order(10L);
+        OrderItem orderItem = item(1L, 3, "19.90");
+        service.priceOrder(order, List.of(orderItem));
+
+        assertEquals(new BigDecimal("19.90"), orderItem.getUnitPrice());
+        assertEquals(new BigDecimal("59.70"), order.getTotalAmount());
+        verifyNoInteractions(productPriceTierConfigService);
+    }
+
+    @Test
+    void testUnknownOrMissingSalesKeepsRequestPrice() {
+        when(userRedisRepository.selectById(11L)).thenReturn(null);
+
+        Order unknownSales = order(11L);
+        OrderItem first = item(1L, 1, "10.00");
+        Order noSales = order(null);
+        OrderItem second = item(1L, 1, "20.00");
+        service.priceOrders(List.of(unknownSales, noSales), List.of(List.of(first), List.of(second)));
+
+        assertEquals(new BigDecimal("10.00"), unknownSales.getTotalAmount());
+        assertEquals(new BigDecimal("20.00"), noSales.getTotalAmount());
+        verify(userRedisRepository, times(1)).selectById(anyLong());
+        verifyNoInteractions(productPriceTierConfigService);
+    }
+
+    @Test
+    void testMissingConfigOrPriceKeepsRequestPrice() {
+        when(userRedisRepository.selectById(10L)).thenReturn(salesUser(10L, 5L));
+        // 配置存在但没有代发价
+        when(productPriceTierConfigService.getConfigsByProductIdsAndPriceTierId(anyList(), eq(5L)))
+                .thenReturn(List.of(config(1L, null)));
+
+        Order order = order(10L);
+        OrderItem withoutPrice = item(1L, 1, "30.00");
+        OrderItem withoutConfig = item(2L, 1, "40.00");
+        service.priceOrder(order, List.of(withoutPrice, withoutConfig));
+
+        assertEquals(new BigDecimal("30.00"), withoutPrice.getUnitPrice());
+        assertEquals(new BigDecimal("40.00"), withoutConfig.getUnitPrice());
+        assertEquals(new BigDecimal("70.00"), order.getTotalAmount());
+    }
+
+    @Test
+    void testFinalAmountFormula() {
+        when(userRedisRepository.selectById(10L)).thenReturn(salesUser(10L, null));
+
+        // 实付金额 = 商品总额 - 优惠 + 运费 + 税费
+        Order order = order(10L);
+        order.setDiscountAmount(new BigDecimal("15.00"));
+        order.setShippingAmount(new BigDecimal("8.00"));
+        order.setTaxAmount(new BigDecimal("2.50"));
+        service.priceOrder(order, List.of(item(1L, 2, "50.00")));
+        assertEquals(new BigDecimal("100.00"), order.getTotalAmount());
+        assertEquals(new BigDecimal("95.50"), order.getFinalAmount());
+
+        // 没有优惠、运费、税费时实付金额等于商品总额
+        Order plain = order(10L);
+        service.priceOrder(plain, List.of(item(1L, 2, "50.00")));
+        assertEquals(new BigDecimal("100.00"), plain.getFinalAmount());
+    }
+
+    @Test
+    void testBatchQueriesEachTierOnce() {
+        when(userRedisRepository.selectById(10L)).thenReturn(salesUser(10L, 5L));
+        when(productPriceTierConfigService.getConfigsByProductIdsAndPriceTierId(List.of(1L, 2L), 5L))
+                .thenReturn(List.of(config(1L, "8.00"), config(2L, "9.00")));
+
+        Order first = order(10L);
+        Order second = order(10L);
+        service.priceOrders(List.of(first, second),
+                List.of(List.of(item(1L, 1, "10.00")), List.of(item(2L, 1, "10.00"), item(1L, 1, "10.00"))));
+
+        assertEquals(new BigDecimal("8.00"), first.getTotalAmount());
+        assertEquals(new BigDecimal("17.00"), second.getTotalAmount());
+        verify(userRedisRepository, times(1)).selectById(10L);
+        verify(productPriceTierConfigService, times(1)).getConfigsByProductIdsAndPriceTierId(anyList(), anyLong());
+    }
+
+    @Test
+    void testMismatchedListsRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> service.priceOrders(List.of(order(10L)), List.of()));
+    }
+
+    private static User salesUser(Long id, Long priceTierId) {
+        User user = new User();
+        user.setId(id);
+        user.setPriceTierId(priceTierId);
+        return user;
+    }
+
+    private static Order order(Long salesId) {
+        Order order = new Order();
+        order.setSalesId(salesId);
+        return order;
+    }
+
+    private static OrderItem item(Long productId, int quantity, String unitPrice) {
+        OrderItem orderItem = new OrderItem();
+        orderItem.setProductId(productId);
+        orderItem.setQuantity(quantity);
+        orderItem.setUnitPrice(new BigDecimal(unitPrice));
+        return orderItem;
+    }
+
+    private static ProductPriceTierConfigResponse config(Long productId, String dropshippingPrice) {
+        ProductPriceTierConfigResponse config = new ProductPriceTierConfigResponse();
+        config.setProductId(productId);
+        config.setDropshippingPrice(dropshippingPrice != null ? new BigDecimal(dropshippingPrice) : null);
+        return config;
+    }
+}
@@ -0,0 +1,322 @@
+package com.yibang.erp.domain.service.impl;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.yibang.erp.domain.entity.PriceStrategy;
+import com.yibang.erp.domain.entity.PriceTier;
+import com.yibang.erp.domain.entity.ProductPriceTierConfig;
+import com.yibang.erp.infrastructure.repository.PriceStrategyRepository;
+import com.yibang.erp.infrastructure.repository.PriceTierRepository;
+import com.yibang.erp.infrastructure.repository.ProductPriceTierConfigRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 价格计算引擎测试类
+ * 校验编译后的策略和分层与原逐条计算的结果一致，规则表未加载时不在调用线程中加载
+ */
+@Slf4j
+class PricingEngineTest {
+
+    private static final String[] STRATEGY_TYPES = {"DISCOUNT", "MARKUP", "FIXED", "DYNAMIC", "UNKNOWN"};
+
+    private static final BigDecimal[] PRICES = {
+            new BigDecimal("0"), new BigDecimal("0.01"), new BigDecimal("9.99"),
+            new BigDecimal("100"), new BigDecimal("1234.5678")};
+
+    private final PriceStrategyRepository priceStrategyRepository = mock(PriceStrategyRepository.class);
+
+    private final PriceTierRepository priceTierRepository = mock(PriceTierRepository.class);
+
+    private final ProductPriceTierConfigRepository productPriceTierConfigRepository = mock(ProductPriceTierConfigRepository.class);
+
+    private PricingEngine engine;
+
+    @BeforeAll
+    static void initTableInfo() {
+        // 规则表加载时用Lambda条件查询分层价格配置
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), ProductPriceTierConfig.class);
+    }
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(mock(ValueOperations.class));
+        engine = new PricingEngine();
+        ReflectionTestUtils.setField(engine, "priceStrategyRepository", priceStrategyRepository);
+        ReflectionTestUtils.setField(engine, "priceTierRepository", priceTierRepository);
+        ReflectionTestUtils.setField(engine, "productPriceTierConfigRepository", productPriceTierConfigRepository);
+        ReflectionTestUtils.setField(engine, "stringRedisTemplate", stringRedisTemplate);
+    }
+
+    @Test
+    void testCompiledStrategyMatchesLegacy() {
+        int cases = 0;
+        for (PriceStrategy strategy : strategies()) {
+            for (BigDecimal price : PRICES) {
+                BigDecimal expected = legacyApplyPriceStrategy(strategy, price);
+                BigDecimal actual = PricingEngine.compileStrategy(strategy).apply(price);
+                assertEquals(expected, actual, () -> describe(strategy) + " price=" + price);
+                cases++;
+            }
+        }
+        log.info("价格策略对比 {} 组", cases);
+    }
+
+    @Test
+    void testCompiledTierMatchesLegacy() {
+        for (PriceTier tier : tiers()) {
+            for (BigDecimal price : PRICES) {
+                assertEquals(legacyCalculateFinalPrice(tier, price), PricingEngine.compileTier(tier).apply(price),
+                        "tier active=" + tier.getIsActive() + " rate=" + tier.getDiscountRate() + " price=" + price);
+            }
+        }
+    }
+
+    @Test
+    void testClampingAndInactiveRules() {
+        // 打五折后低于最低价，取最低价
+        PriceStrategy discount = strategy(1L, "DISCOUNT", true);
+        discount.setAdjustmentRate(new BigDecimal("0.5"));
+        discount.setMinPrice(new BigDecimal("60"));
+        assertEquals(new BigDecimal("60.00"), PricingEngine.compileStrategy(discount).apply(new BigDecimal("100")));
+
+        // 加价后高于最高价，取最高价
+        PriceStrategy markup = strategy(2L, "MARKUP", true);
+        markup.setAdjustmentRate(new BigDecimal("0.5"));
+        markup.setMaxPrice(new BigDecimal("120"));
+        assertEquals(new BigDecimal("120.00"), PricingEngine.compileStrategy(markup).apply(new BigDecimal("100")));
+
+        // 减价后为负数时取0
+        PriceStrategy dynamic = strategy(3L, "DYNAMIC", true);
+        dynamic.setAdjustmentAmount(new BigDecimal("-50"));
+        assertEquals(new BigDecimal("0.00"), PricingEngine.compileStrategy(dynamic).apply(new BigDecimal("10")));
+
+        // 停用的策略和分层返回原价，不调整精度
+        PriceStrategy inactive = strategy(4L, "DISCOUNT", false);
+        inactive.setAdjustmentRate(new BigDecimal("0.5"));
+        assertSame(PRICES[4], PricingEngine.compileStrategy(inactive).apply(PRICES[4]));
+        PriceTier inactiveTier = tier(5L, new BigDecimal("0.2"), false);
+        assertSame(PRICES[4], PricingEngine.compileTier(inactiveTier).apply(PRICES[4]));
+    }
+
+    @Test
+    void testEngineMatchesLegacyAfterReload() {
+        List<PriceStrategy> strategies = strategies();
+        List<PriceTier> tiers = tiers();
+        when(priceStrategyRepository.selectList(any())).thenReturn(strategies);
+        when(priceTierRepository.selectList(any())).thenReturn(tiers);
+        when(productPriceTierConfigRepository.selectList(any())).thenReturn(List.of());
+        engine.reload();
+
+        for (PriceStrategy strategy : strategies) {
+            for (BigDecimal price : PRICES) {
+                assertEquals(legacyApplyPriceStrategy(strategy, price), engine.applyStrategy(strategy.getId(), price));
+            }
+        }
+        for (PriceTier tier : tiers) {
+            for (BigDecimal price : PRICES) {
+                assertEquals(legacyCalculateFinalPrice(tier, price), engine.applyTier(tier.getId(), price));
+            }
+        }
+        // 不存在的策略和分层返回原价
+        assertSame(PRICES[3], engine.applyStrategy(-1L, PRICES[3]));
+        assertSame(PRICES[3], engine.applyTier(-1L, PRICES[3]));
+        verify(priceStrategyRepository, never()).selectById(any());
+        verify(priceTierRepository, never()).selectById(any());
+    }
+
+    @Test
+    void testNoReloadOnCallerThreadBeforeLoad() {
+        PriceStrategy strategy = strategy(1L, "DISCOUNT", true);
+        strategy.setAdjustmentRate(new BigDecimal("0.1"));
+        when(priceStrategyRepository.selectById(1L)).thenReturn(strategy);
+
+        // 规则表未加载时按ID查询数据库，不在调用线程中全量加载
+        assertEquals(new BigDecimal("90.00"), engine.applyStrategy(1L, new BigDecimal("100")));
+        verify(priceStrategyRepository).selectById(1L);
+        verify(priceStrategyRepository, never()).selectList(any());
+        verify(priceTierRepository, never()).selectList(any());
+        assertEquals(0L, engine.getVersion());
+        assertNull(engine.getTierConfigs(1L, List.of(1L)));
+    }
+
+    @Test
+    void testMarkChangedReloadsOnVersionCheck() {
+        when(priceStrategyRepository.selectList(any())).thenReturn(strategies());
+        when(priceTierRepository.selectList(any())).thenReturn(List.of());
+        when(productPriceTierConfigRepository.selectList(any())).thenReturn(List.of());
+        engine.reload();
+
+        // 修改规则的线程不重建
+        engine.markChanged();
+        verify(priceStrategyRepository, times(1)).selectList(any());
+
+        // 版本检查时重建一次
+        engine.checkVersion();
+        verify(priceStrategyRepository, times(2)).selectList(any());
+        engine.checkVersion();
+        verify(priceStrategyRepository, times(2)).selectList(any());
+    }
+
+    @Test
+    void testBatchThroughput() {
+        List<PriceStrategy> strategies = strategies();
+        when(priceStrategyRepository.selectList(any())).thenReturn(strategies);
+        when(priceTierRepository.selectList(any())).thenReturn(List.of());
+        when(productPriceTierConfigRepository.selectList(any())).thenReturn(List.of());
+        engine.reload();
+
+        int size = 200_000;
+        List<Long> strategyIds = new ArrayList<>(size);
+        List<BigDecimal> prices = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            strategyIds.add(strategies.get(i % strategies.size()).getId());
+            prices.add(PRICES[i % PRICES.length]);
+        }
+        // 预热
+        engine.applyStrategies(strategyIds, prices);
+
+        long start = System.nanoTime();
+        List<BigDecimal> results = engine.applyStrategies(strategyIds, prices);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info("批量计算 {} 个价格耗时 {} ms，约 {} 次/秒", size, elapsedMillis, size * 1000L / Math.max(1, elapsedMillis));
+
+        for (int i = 0; i < size; i += 997) {
+            assertEquals(legacyApplyPriceStrategy(strategies.get(i % strategies.size()), prices.get(i)), results.get(i));
+        }
+        // 全部在内存中计算，不访问数据库
+        verify(priceStrategyRepository, never()).selectById(any());
+    }
+
+    /**
+     * 各类型、启停、有无调整值、有无上下限的组合
+     */
+    private static List<PriceStrategy> strategies() {
+        BigDecimal[] rates = {null, new BigDecimal("0.15"), new BigDecimal("1.2")};
+        BigDecimal[] amounts = {null, new BigDecimal("-3.333"), new BigDecimal("20")};
+        BigDecimal[][] bounds = {{null, null}, {new BigDecimal("5"), null}, {null, new BigDecimal("50")},
+                {new BigDecimal("5"), new BigDecimal("50")}};
+        List<PriceStrategy> strategies = new ArrayList<>();
+        long id = 1;
+        for (String type : STRATEGY_TYPES) {
+            for (boolean active : new boolean[]{true, false}) {
+                for (int i = 0; i < rates.length; i++) {
+                    for (BigDecimal[] bound : bounds) {
+                        PriceStrategy strategy = strategy(id++, type, active);
+                        strategy.setAdjustmentRate(rates[i]);
+                        strategy.setAdjustmentAmount(amounts[i]);
+                        strategy.setBasePrice(i == 0 ? null : new BigDecimal("30").multiply(BigDecimal.valueOf(i)));
+                        strategy.setMinPrice(bound[0]);
+                        strategy.setMaxPrice(bound[1]);
+                        strategies.add(strategy);
+                    }
+                }
+            }
+        }
+        return strategies;
+    }
+
+    private static List<PriceTier> tiers() {
+        List<PriceTier> tiers = new ArrayList<>();
+        long id = 1;
+        for (BigDecimal rate : new BigDecimal[]{null, new BigDecimal("0"), new BigDecimal("0.125"), new BigDecimal("1.5")}) {
+            tiers.add(tier(id++, rate, true));
+            tiers.add(tier(id++, rate, false));
+        }
+        return tiers;
+    }
+
+    private static PriceStrategy strategy(Long id, String type, boolean active) {
+        PriceStrategy strategy = new PriceStrategy();
+        strategy.setId(id);
+        strategy.setStrategyType(type);
+        strategy.setIsActive(active);
+        strategy.setCompanyId(1L);
+        strategy.setPriority(id.intValue());
+        return strategy;
+    }
+
+    private static PriceTier tier(Long id, BigDecimal discountRate, boolean active) {
+        PriceTier tier = new PriceTier();
+        tier.setId(id);
+        tier.setDiscountRate(discountRate);
+        tier.setIsActive(active);
+        return tier;
+    }
+
+    private static String describe(PriceStrategy strategy) {
+        return strategy.getStrategyType() + " active=" + strategy.getIsActive() + " rate=" + strategy.getAdjustmentRate()
+                + " amount=" + strategy.getAdjustmentAmount() + " base=" + strategy.getBasePrice()
+                + " min=" + strategy.getMinPrice() + " max=" + strategy.getMaxPrice();
+    }
+
+    /**
+     * 原PriceStrategyServiceImpl.applyPriceStrategy的计算
+     */
+    private static BigDecimal legacyApplyPriceStrategy(PriceStrategy priceStrategy, BigDecimal originalPrice) {
+        if (priceStrategy == null || !priceStrategy.getIsActive()) {
+            return originalPrice;
+        }
+        BigDecimal finalPrice = originalPrice;
+        switch (priceStrategy.getStrategyType()) {
+            case "DISCOUNT":
+                if (priceStrategy.getAdjustmentRate() != null) {
+                    finalPrice = finalPrice.multiply(BigDecimal.ONE.subtract(priceStrategy.getAdjustmentRate()));
+                }
+                break;
+            case "MARKUP":
+                if (priceStrategy.getAdjustmentRate() != null) {
+                    finalPrice = finalPrice.multiply(BigDecimal.ONE.add(priceStrategy.getAdjustmentRate()));
+                }
+                break;
+            case "FIXED":
+                if (priceStrategy.getBasePrice() != null) {
+                    finalPrice = priceStrategy.getBasePrice();
+                }
+                break;
+            case "DYNAMIC":
+                if (priceStrategy.getAdjustmentAmount() != null) {
+                    finalPrice = finalPrice.add(priceStrategy.getAdjustmentAmount());
+                }
+                break;
+        }
+        if (priceStrategy.getMinPrice() != null && finalPrice.compareTo(priceStrategy.getMinPrice()) < 0) {
+            finalPrice = priceStrategy.getMinPrice();
+        }
+        if (priceStrategy.getMaxPrice() != null && finalPrice.compareTo(priceStrategy.getMaxPrice()) > 0) {
+            finalPrice = priceStrategy.getMaxPrice();
+        }
+        return finalPrice.max(BigDecimal.ZERO).setScale(2, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * 原PriceTierServiceImpl.calculateFinalPrice的计算
+     */
+    private static BigDecimal legacyCalculateFinalPrice(PriceTier priceTier, BigDecimal originalPrice) {
+        if (priceTier == null || !priceTier.getIsActive()) {
+            return originalPrice;
+        }
+        BigDecimal finalPrice = originalPrice;
+        if (priceTier.getDiscountRate() != null) {
+            finalPrice = finalPrice.multiply(BigDecimal.ONE.subtract(priceTier.getDiscountRate()));
+        }
+        return finalPrice.max(BigDecimal.ZERO);
+    }
+}
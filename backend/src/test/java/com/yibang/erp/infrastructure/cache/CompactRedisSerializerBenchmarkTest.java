@@ -0,0 +1,156 @@
+package com.yibang.erp.infrastructure.cache;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.yibang.erp.domain.entity.Product;
+import com.yibang.erp.domain.enums.ProductApprovalStatus;
+import com.yibang.erp.domain.enums.ProductStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 紧凑序列化器测试类
+ * 校验新旧格式互通，并对比与原JSON格式的数据大小和序列化耗时
+ */
+@Slf4j
+class CompactRedisSerializerBenchmarkTest {
+
+    private static final int ITERATIONS = 2000;
+
+    private final RedisSerializer<Object> jsonSerializer = createJsonSerializer();
+
+    private final CompactRedisSerializer compactSerializer = new CompactRedisSerializer(jsonSerializer, true, 1024);
+
+    @Test
+    void testRoundTrip() {
+        Product product = createProduct(1L);
+        Product restored = (Product) compactSerializer.deserialize(compactSerializer.serialize(product));
+        assertEquals(product, restored, "紧凑格式读回的商品应与原商品一致");
+
+        List<Product> products = createProducts(100);
+        byte[] bytes = compactSerializer.serialize(products);
+        assertEquals(CompactRedisSerializer.MAGIC, bytes[0], "商品列表应写为紧凑格式");
+        assertEquals(products, compactSerializer.deserialize(bytes), "压缩后的商品列表应能完整读回");
+    }
+
+    @Test
+    void testLegacyCompatibility() {
+        // 升级前写入的JSON数据仍可读取
+        Product product = createProduct(2L);
+        assertEquals(product, compactSerializer.deserialize(jsonSerializer.serialize(product)));
+
+        // 未登记的类型按原格式写入
+        byte[] bytes = compactSerializer.serialize("test:value");
+        assertNotEquals(CompactRedisSerializer.MAGIC, bytes[0]);
+        assertEquals("test:value", compactSerializer.deserialize(bytes));
+
+        // 空值标记只有头部
+        assertEquals(CompactRedisSerializer.HEADER_LENGTH, compactSerializer.serialize(NullValue.INSTANCE).length);
+        assertSame(NullValue.INSTANCE, compactSerializer.deserialize(compactSerializer.serialize(NullValue.INSTANCE)));
+
+        // 切回原格式写入时仍能读取紧凑格式
+        CompactRedisSerializer jsonWriter = new CompactRedisSerializer(jsonSerializer, false, 1024);
+        assertEquals(product, jsonWriter.deserialize(compactSerializer.serialize(product)));
+
+        // 只写原格式时空值标记也按原格式写入，未升级的节点可以读取
+        byte[] jsonNull = jsonWriter.serialize(NullValue.INSTANCE);
+        assertNotEquals(CompactRedisSerializer.MAGIC, jsonNull[0]);
+        assertInstanceOf(NullValue.class, jsonSerializer.deserialize(jsonNull));
+        assertSame(NullValue.INSTANCE, compactSerializer.deserialize(jsonNull));
+        assertSame(NullValue.INSTANCE, jsonWriter.deserialize(compactSerializer.serialize(NullValue.INSTANCE)));
+    }
+
+    @Test
+    void benchmarkAgainstJson() {
+        Product product = createProduct(3L);
+        List<Product> products = createProducts(50);
+
+        compare("Product", product);
+        compare("List<Product>(50)", products);
+    }
+
+    /**
+     * 紧凑格式应小于原JSON格式，耗时只记录日志不做断言
+     */
+    private void compare(String name, Object value) {
+        byte[] json = jsonSerializer.serialize(value);
+        byte[] compact = compactSerializer.serialize(value);
+        long jsonNanos = measure(jsonSerializer, value);
+        long compactNanos = measure(compactSerializer, value);
+        log.info("{}: JSON {} 字节 {} 微秒/次, 紧凑格式 {} 字节 {} 微秒/次", name,
+                json.length, jsonNanos / 1000 / ITERATIONS, compact.length, compactNanos / 1000 / ITERATIONS);
+
+        assertTrue(compact.length < json.length,
+                name + " 紧凑格式应小于JSON: " + compact.length + " >= " + json.length);
+    }
+
+    /**
+     * 序列化加反序列化的总耗时，先预热再计时
+     */
+    private long measure(RedisSerializer<Object> serializer, Object value) {
+        for (int i = 0; i < ITERATIONS; i++) {
+            serializer.deserialize(serializer.serialize(value));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            serializer.deserialize(serializer.serialize(value));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static RedisSerializer<Object> createJsonSerializer() {
+        // 与RedisConfig中的原JSON序列化器配置一致
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+        mapper.activateDefaultTyping(LaissezFaireSubTypeValidator.instance, ObjectMapper.DefaultTyping.NON_FINAL);
+        mapper.registerModule(new JavaTimeModule());
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        return new Jackson2JsonRedisSerializer<>(mapper, Object.class);
+    }
+
+    private static List<Product> createProducts(int count) {
+        List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            products.add(createProduct(100L + i));
+        }
+        return products;
+    }
+
+    private static Product createProduct(Long id) {
+        Product product = new Product();
+        product.setId(id);
+        product.setSku("SKU-" + id);
+        product.setName("测试商品" + id);
+        product.setCategoryId(10L);
+        product.setBrandId(20L);
+        product.setUnit("件");
+        product.setCostPrice(new BigDecimal("12.50"));
+        product.setSellingPrice(new BigDecimal("19.90"));
+        product.setMarketPrice(new BigDecimal("29.90"));
+        product.setStatus(ProductStatus.ACTIVE);
+        product.setApprovalStatus(ProductApprovalStatus.APPROVED);
+        product.setCompanyId(1L);
+        product.setIsFeatured(false);
+        product.setIsHot(false);
+        product.setIsNew(true);
+        product.setViewCount(0L);
+        product.setCreatedAt(LocalDateTime.of(2024, 1, 14, 10, 0));
+        product.setUpdatedAt(LocalDateTime.of(2024, 1, 14, 10, 0));
+        product.setDeleted(false);
+        return product;
+    }
+}
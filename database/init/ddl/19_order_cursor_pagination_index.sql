@@ -0,0 +1,12 @@
+-- =====================================================
+-- 订单列表游标分页索引
+-- 版本: V1.0
+-- 说明: 订单列表按(created_at, id)做seek分页，为各角色常用过滤条件补充复合索引
+-- =====================================================
+
+USE yibang_erp_dev;
+
+ALTER TABLE orders
+ADD INDEX idx_created_at_id (created_at, id),
+ADD INDEX idx_sales_created_at_id (sales_id, created_at, id),
+ADD INDEX idx_supplier_created_at_id (supplier_company_id, created_at, id);
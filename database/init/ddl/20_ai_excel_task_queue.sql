@@ -0,0 +1,11 @@
+-- =====================================================
+-- AI Excel任务队列
+-- 版本: V1.0
+-- 说明: PENDING状态的任务记录作为持久化任务队列，保存上传文件路径用于排队处理和重启续跑
+-- =====================================================
+
+USE yibang_erp_dev;
+
+ALTER TABLE ai_excel_process_tasks
+ADD COLUMN file_path VARCHAR(512) DEFAULT NULL COMMENT '上传文件存储路径（任务排队和续跑时读取）' AFTER file_hash,
+ADD INDEX idx_status_priority_created (task_status, priority, created_at);